@@ -0,0 +1,547 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.koraktor.steamcondenser.servers.simulator.GameServerSimulator;
+import com.github.koraktor.steamcondenser.servers.simulator.MasterServerSimulator;
+import com.github.koraktor.steamcondenser.servers.sockets.QueryEngine;
+
+/**
+ * An end-to-end benchmark querying a fleet of simulated Source servers and
+ * crawling a simulated master server
+ * <p>
+ * The fleet is queried once for each concurrency model:
+ * <ul>
+ * <li><code>blocking</code>: Every server uses a socket of its own and
+ *     queries are run by a fixed number of threads.</li>
+ * <li><code>engine</code>: All servers share a single {@link QueryEngine}
+ *     and a fixed number of asynchronous queries is in flight at the same
+ *     time.</li>
+ * </ul>
+ * For each model the throughput, latency percentiles, timeouts, bytes
+ * allocated by the querying threads and the number of file descriptors
+ * opened are reported.
+ * <p>
+ * Run with <code>mvn -Pfleet-benchmark verify</code>. Options are passed
+ * using <code>-Dfleet.args="..."</code>, e.g.
+ * <code>-Dfleet.args="-servers 5000 -queries 50000 -loss 0.01"</code>:
+ * <dl>
+ * <dt><code>-servers</code></dt><dd>The number of simulated servers</dd>
+ * <dt><code>-queries</code></dt><dd>The number of measured queries</dd>
+ * <dt><code>-warmup</code></dt><dd>The number of queries run before
+ *     measuring</dd>
+ * <dt><code>-concurrency</code></dt><dd>The number of threads or queries in
+ *     flight</dd>
+ * <dt><code>-query</code></dt><dd><code>info</code>, <code>players</code>,
+ *     <code>rules</code> or <code>mixed</code></dd>
+ * <dt><code>-modes</code></dt><dd>A comma-separated list of concurrency
+ *     models</dd>
+ * <dt><code>-timeout</code></dt><dd>The socket timeout in milliseconds</dd>
+ * <dt><code>-latency</code>, <code>-jitter</code></dt><dd>The simulated
+ *     latency in milliseconds</dd>
+ * <dt><code>-loss</code></dt><dd>The probability of a datagram to be
+ *     lost</dd>
+ * <dt><code>-master</code></dt><dd>The number of servers returned by the
+ *     simulated master server</dd>
+ * </dl>
+ *
+ * @author Sebastian Staudt
+ */
+public class FleetBenchmark {
+
+    private int concurrency = 64;
+
+    private int jitter = 0;
+
+    private int latency = 0;
+
+    private float loss = 0;
+
+    private int masterServers = 20000;
+
+    private String[] modes = { "blocking", "engine" };
+
+    private int queries = 10000;
+
+    private String query = "mixed";
+
+    private int servers = 1000;
+
+    private int timeout = 1000;
+
+    private int warmup = 2000;
+
+    public static void main(String[] args) throws Exception {
+        FleetBenchmark benchmark = new FleetBenchmark();
+        benchmark.parse(args);
+        benchmark.run();
+    }
+
+    /**
+     * Parses the command line options
+     *
+     * @param args The command line arguments
+     */
+    private void parse(String[] args) {
+        for(int i = 0; i < args.length; i += 2) {
+            if(i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for option " + args[i]);
+            }
+            String value = args[i + 1];
+            switch(args[i]) {
+                case "-concurrency":
+                    this.concurrency = Integer.parseInt(value);
+                    break;
+                case "-jitter":
+                    this.jitter = Integer.parseInt(value);
+                    break;
+                case "-latency":
+                    this.latency = Integer.parseInt(value);
+                    break;
+                case "-loss":
+                    this.loss = Float.parseFloat(value);
+                    break;
+                case "-master":
+                    this.masterServers = Integer.parseInt(value);
+                    break;
+                case "-modes":
+                    this.modes = value.split(",");
+                    break;
+                case "-queries":
+                    this.queries = Integer.parseInt(value);
+                    break;
+                case "-query":
+                    this.query = value;
+                    break;
+                case "-servers":
+                    this.servers = Integer.parseInt(value);
+                    break;
+                case "-timeout":
+                    this.timeout = Integer.parseInt(value);
+                    break;
+                case "-warmup":
+                    this.warmup = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Runs the benchmark for all concurrency models and the master server
+     * crawl
+     *
+     * @throws Exception if the benchmark fails
+     */
+    private void run() throws Exception {
+        System.out.printf("Fleet: %d servers, %d queries (%s), concurrency %d, timeout %d ms%n",
+                this.servers, this.queries, this.query, this.concurrency, this.timeout);
+        System.out.printf("Network: latency %d ms, jitter %d ms, loss %.2f%%%n%n",
+                this.latency, this.jitter, this.loss * 100);
+
+        GameServerSimulator simulator = new GameServerSimulator();
+        try {
+            simulator.setJitter(this.jitter);
+            simulator.setLatency(this.latency);
+            simulator.setLoss(this.loss);
+            List<InetSocketAddress> addresses = simulator.open(this.servers);
+
+            System.out.printf("%-10s %10s %10s %9s %9s %9s %9s %7s %12s %6s%n",
+                    "mode", "queries", "queries/s", "p50 ms", "p99 ms", "max ms",
+                    "timeouts", "errors", "bytes/query", "FDs");
+            for(String mode : this.modes) {
+                this.runMode(mode, addresses);
+            }
+        } finally {
+            simulator.close();
+        }
+
+        System.out.println();
+        this.crawl();
+    }
+
+    /**
+     * Queries the fleet using the given concurrency model
+     *
+     * @param mode The concurrency model to use
+     * @param addresses The addresses of the simulated servers
+     * @throws Exception if the benchmark fails
+     */
+    private void runMode(String mode, List<InetSocketAddress> addresses) throws Exception {
+        boolean useEngine;
+        if(mode.equals("blocking")) {
+            useEngine = false;
+        } else if(mode.equals("engine")) {
+            useEngine = true;
+        } else {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+
+        long descriptors = openFileDescriptors();
+        DescriptorSampler sampler = new DescriptorSampler();
+
+        QueryEngine engine = useEngine ? new QueryEngine() : null;
+        ExecutorService threads = useEngine ? null : Executors.newFixedThreadPool(this.concurrency);
+        List<SourceServer> fleet = new ArrayList<SourceServer>(addresses.size());
+        try {
+            for(InetSocketAddress address : addresses) {
+                SourceServer server = new SourceServer(address.getAddress(), address.getPort());
+                server.setSocketTimeout(this.timeout);
+                if(engine != null) {
+                    server.setQueryEngine(engine);
+                }
+                fleet.add(server);
+            }
+
+            Run warmup = new Run(this.warmup);
+            if(useEngine) {
+                this.runAsync(fleet, warmup);
+            } else {
+                this.runBlocking(fleet, threads, warmup);
+            }
+
+            Run run = new Run(this.queries);
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            if(useEngine) {
+                this.runAsync(fleet, run);
+            } else {
+                this.runBlocking(fleet, threads, run);
+            }
+            long elapsed = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocated;
+
+            run.print(mode, elapsed, (allocated < 0) ? -1 : allocated / this.queries,
+                      sampler.getPeak() - descriptors);
+        } finally {
+            sampler.stop();
+            for(SourceServer server : fleet) {
+                server.disconnect();
+            }
+            if(engine != null) {
+                engine.close();
+            }
+            if(threads != null) {
+                threads.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Runs the queries using blocking sockets and a fixed number of threads
+     *
+     * @param fleet The servers to query
+     * @param threads The threads to run the queries with
+     * @param run The run to record the results in
+     * @throws InterruptedException if the benchmark is interrupted
+     */
+    private void runBlocking(final List<SourceServer> fleet, ExecutorService threads, final Run run)
+            throws InterruptedException {
+        final AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<Future<?>>(this.concurrency);
+        for(int i = 0; i < this.concurrency; i ++) {
+            workers.add(threads.submit(() -> {
+                int query;
+                while((query = next.getAndIncrement()) < run.size()) {
+                    SourceServer server = fleet.get(query % fleet.size());
+                    long start = System.nanoTime();
+                    try {
+                        this.query(server, query);
+                        run.success(start);
+                    } catch(Exception e) {
+                        run.failure(e);
+                    }
+                }
+            }));
+        }
+
+        for(Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Runs the queries asynchronously with a fixed number of queries in
+     * flight
+     *
+     * @param fleet The servers to query
+     * @param run The run to record the results in
+     * @throws InterruptedException if the benchmark is interrupted
+     */
+    private void runAsync(List<SourceServer> fleet, final Run run) throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(this.concurrency);
+        for(int query = 0; query < run.size(); query ++) {
+            inFlight.acquire();
+            SourceServer server = fleet.get(query % fleet.size());
+            final long start = System.nanoTime();
+            this.queryAsync(server, query).whenComplete((result, e) -> {
+                if(e == null) {
+                    run.success(start);
+                } else {
+                    run.failure(e);
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(this.concurrency);
+    }
+
+    /**
+     * Sends a single blocking query to the given server
+     *
+     * @param server The server to query
+     * @param number The number of the query
+     * @throws Exception if the query fails
+     */
+    private void query(SourceServer server, int number) throws Exception {
+        switch(this.queryType(number)) {
+            case 0:
+                server.updateServerInfo();
+                break;
+            case 1:
+                server.updatePlayers();
+                break;
+            default:
+                server.updateRules();
+        }
+    }
+
+    /**
+     * Sends a single asynchronous query to the given server
+     *
+     * @param server The server to query
+     * @param number The number of the query
+     * @return The future result of the query
+     */
+    private CompletableFuture<?> queryAsync(SourceServer server, int number) {
+        switch(this.queryType(number)) {
+            case 0:
+                return server.updateServerInfoAsync();
+            case 1:
+                return server.updatePlayersAsync();
+            default:
+                return server.updateRulesAsync();
+        }
+    }
+
+    /**
+     * Returns the type of a query
+     *
+     * @param number The number of the query
+     * @return <code>0</code> for A2S_INFO, <code>1</code> for A2S_PLAYER and
+     *         <code>2</code> for A2S_RULES
+     */
+    private int queryType(int number) {
+        switch(this.query) {
+            case "info":
+                return 0;
+            case "players":
+                return 1;
+            case "rules":
+                return 2;
+            case "mixed":
+                return number % 3;
+            default:
+                throw new IllegalArgumentException("Unknown query " + this.query);
+        }
+    }
+
+    /**
+     * Crawls a simulated master server returning the configured number of
+     * servers
+     *
+     * @throws Exception if the crawl fails
+     */
+    private void crawl() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(this.masterServers);
+        for(int i = 0; i < this.masterServers; i ++) {
+            addresses.add(new InetSocketAddress(InetAddress.getByAddress(new byte[] {
+                10, (byte) (i >> 16), (byte) (i >> 8), (byte) i
+            }), 27015));
+        }
+
+        MasterServerSimulator simulator = new MasterServerSimulator(addresses);
+        try {
+            simulator.setJitter(this.jitter);
+            simulator.setLatency(this.latency);
+            InetSocketAddress address = simulator.getAddress();
+            MasterServer master = new MasterServer(address.getAddress(), address.getPort());
+
+            long start = System.nanoTime();
+            int count = master.getServers().size();
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("Master server crawl: %d servers in %d pages, %.1f ms, %.0f servers/s%n",
+                    count, simulator.getReceivedPackets(), elapsed / 1e6,
+                    count / (elapsed / 1e9));
+        } finally {
+            simulator.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated so far by all live threads
+     * except the simulator's
+     *
+     * @return The number of allocated bytes or <code>-1</code> if the JVM
+     *         does not support measuring allocations
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+
+        long allocated = 0;
+        for(Thread thread : Thread.getAllStackTraces().keySet()) {
+            if(!thread.getName().endsWith("Simulator")) {
+                long bytes = ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(thread.getId());
+                if(bytes > 0) {
+                    allocated += bytes;
+                }
+            }
+        }
+
+        return allocated;
+    }
+
+    /**
+     * Returns the number of file descriptors currently opened by the JVM
+     *
+     * @return The number of open file descriptors or <code>-1</code> if the
+     *         operating system does not support this
+     */
+    private static long openFileDescriptors() {
+        OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if(osBean instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            return ((com.sun.management.UnixOperatingSystemMXBean) osBean).getOpenFileDescriptorCount();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Samples the number of open file descriptors to find its peak
+     */
+    private static class DescriptorSampler {
+
+        private final ScheduledExecutorService executor;
+
+        private final AtomicLong peak;
+
+        DescriptorSampler() {
+            this.peak = new AtomicLong(openFileDescriptors());
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "DescriptorSampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor.scheduleAtFixedRate(() -> {
+                long descriptors = openFileDescriptors();
+                this.peak.accumulateAndGet(descriptors, Math::max);
+            }, 0, 10, TimeUnit.MILLISECONDS);
+        }
+
+        long getPeak() {
+            return this.peak.get();
+        }
+
+        void stop() {
+            this.executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The results of a single run of queries
+     */
+    private static class Run {
+
+        private final AtomicInteger errors;
+
+        private final long[] latencies;
+
+        private final AtomicInteger succeeded;
+
+        private final AtomicInteger timeouts;
+
+        Run(int size) {
+            this.errors = new AtomicInteger();
+            this.latencies = new long[size];
+            this.succeeded = new AtomicInteger();
+            this.timeouts = new AtomicInteger();
+        }
+
+        void failure(Throwable e) {
+            if(e instanceof CompletionException && e.getCause() != null) {
+                e = e.getCause();
+            }
+            if(e instanceof TimeoutException) {
+                this.timeouts.incrementAndGet();
+            } else {
+                this.errors.incrementAndGet();
+            }
+        }
+
+        void success(long start) {
+            this.latencies[this.succeeded.getAndIncrement()] = System.nanoTime() - start;
+        }
+
+        int size() {
+            return this.latencies.length;
+        }
+
+        void print(String mode, long elapsed, long bytesPerQuery, long descriptors) {
+            int count = this.succeeded.get();
+            long[] latencies = Arrays.copyOf(this.latencies, count);
+            Arrays.sort(latencies);
+
+            System.out.printf("%-10s %10d %10.0f %9.2f %9.2f %9.2f %9d %7d %12s %6d%n",
+                    mode, this.latencies.length, count / (elapsed / 1e9),
+                    percentile(latencies, 0.5), percentile(latencies, 0.99),
+                    percentile(latencies, 1), this.timeouts.get(), this.errors.get(),
+                    (bytesPerQuery < 0) ? "n/a" : String.valueOf(bytesPerQuery),
+                    descriptors);
+        }
+
+        private static double percentile(long[] latencies, double percentile) {
+            if(latencies.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile * latencies.length) - 1;
+
+            return latencies[Math.max(0, index)] / 1e6;
+        }
+    }
+
+}
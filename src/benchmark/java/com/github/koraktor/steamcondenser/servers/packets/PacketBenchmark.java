@@ -0,0 +1,144 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.packets;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.servers.ServerInfo;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacketFactory;
+
+/**
+ * Benchmarks for parsing and reassembling the packets replied by game and
+ * master servers
+ * <p>
+ * Run with <code>mvn -Pbenchmark verify</code>. The allocation rate of each
+ * benchmark is reported by the GC profiler enabled by the profile.
+ *
+ * @author Sebastian Staudt
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+public class PacketBenchmark {
+
+    private byte[] info;
+
+    private byte[] masterBatch;
+
+    private byte[] players;
+
+    private byte[] rconResponse;
+
+    private byte[] rules;
+
+    private ArrayList<byte[]> splitRules;
+
+    private ArrayList<byte[]> compressedRules;
+
+    private int compressedRulesChecksum;
+
+    private int compressedRulesSize;
+
+    @Setup
+    public void setup() throws SteamCondenserException {
+        Payloads payloads = new Payloads();
+
+        this.info = payloads.info();
+        this.masterBatch = payloads.masterBatch();
+        this.players = payloads.players(64);
+        this.rconResponse = payloads.rconResponse(4000);
+        this.rules = payloads.rules(500);
+
+        this.splitRules = Payloads.split(this.rules);
+        this.compressedRules = Payloads.splitCompressed(this.rules);
+        this.compressedRulesChecksum = Payloads.checksum(this.rules);
+        this.compressedRulesSize = Payloads.uncompressedSize(this.rules);
+
+        this.verify();
+    }
+
+    @Benchmark
+    public ServerInfo info() throws SteamCondenserException {
+        ServerInfo serverInfo = ((S2A_INFO2_Packet) SteamPacketFactory.getPacketFromData(this.info)).getServerInfo();
+        serverInfo.getGameId();
+
+        return serverInfo;
+    }
+
+    @Benchmark
+    public long[] masterBatch() throws SteamCondenserException {
+        return ((M2A_SERVER_BATCH_Paket) SteamPacketFactory.getPacketFromData(this.masterBatch)).getServerAddresses();
+    }
+
+    @Benchmark
+    public SteamPacket players() throws SteamCondenserException {
+        return SteamPacketFactory.getPacketFromData(this.players);
+    }
+
+    @Benchmark
+    public RCONPacket rconResponse() throws SteamCondenserException {
+        return RCONPacketFactory.getPacketFromData(this.rconResponse);
+    }
+
+    @Benchmark
+    public SteamPacket rules() throws SteamCondenserException {
+        return SteamPacketFactory.getPacketFromData(this.rules);
+    }
+
+    @Benchmark
+    public SteamPacket reassembleRules() throws SteamCondenserException {
+        return SteamPacketFactory.reassemblePacket(this.splitRules);
+    }
+
+    @Benchmark
+    public SteamPacket reassembleCompressedRules() throws SteamCondenserException {
+        return SteamPacketFactory.reassemblePacket(this.compressedRules, true,
+                this.compressedRulesSize, this.compressedRulesChecksum);
+    }
+
+    /**
+     * Makes sure the payloads are parsed as expected, so the benchmarks do
+     * not measure error handling
+     *
+     * @throws SteamCondenserException if a payload cannot be parsed
+     */
+    private void verify() throws SteamCondenserException {
+        check(this.info().getGameId() == 440, "info");
+        check(this.masterBatch().length == 231, "master batch");
+        check(((S2A_PLAYER_Packet) this.players()).getPlayerHash().size() == 64, "players");
+        check(this.rconResponse() instanceof RCONPacket, "RCON response");
+        check(((S2A_RULES_Packet) this.rules()).getRulesHash().size() == 500, "rules");
+        check(((S2A_RULES_Packet) this.reassembleRules()).getRulesHash().size() == 500, "split rules");
+        check(((S2A_RULES_Packet) this.reassembleCompressedRules()).getRulesHash().size() == 500, "compressed rules");
+        check(this.compressedRules.size() > 1, "compressed rules");
+    }
+
+    private static void check(boolean condition, String payload) {
+        if(!condition) {
+            throw new IllegalStateException("Invalid " + payload + " payload.");
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.packets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
+
+/**
+ * This class builds the payloads used by the benchmarks
+ * <p>
+ * The payloads are modelled after replies of busy public servers and master
+ * servers, i.e. full player lists, long rule lists as sent by modded Source
+ * servers and complete master server batches. A fixed seed is used, so every
+ * run uses the same data.
+ *
+ * @author Sebastian Staudt
+ */
+final class Payloads {
+
+    static final int MAX_SPLIT_SIZE = 1248;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String[] NAME_PARTS = {
+        "Sniper", "[GER] ", "xX_", "Pyro", "|TF|", "Kenny", "Medic", "_Xx",
+        "Heavy", "{CLAN} ", "Scout", "Ømega", "Spy", "Engie", "★"
+    };
+
+    private static final String[] RULE_PREFIXES = {
+        "mp_", "sv_", "tf_", "sm_", "nextlevel", "coop", "deathmatch",
+        "metamod_", "r_", "decalfrequency"
+    };
+
+    private final Random random;
+
+    /**
+     * Creates a new payload builder using a fixed seed
+     */
+    Payloads() {
+        this.random = new Random(76561197960265728L);
+    }
+
+    /**
+     * Builds a S2A_INFO2 reply of a Team Fortress 2 server including all
+     * extra data fields
+     *
+     * @return The raw packet data starting with the header byte
+     */
+    byte[] info() {
+        Writer writer = new Writer(SteamPacket.S2A_INFO2_HEADER);
+        writer.putByte(17);
+        writer.putString("Valve Community Server #12 | 2Fort 24/7 | Instant Respawn");
+        writer.putString("ctf_2fort");
+        writer.putString("tf");
+        writer.putString("Team Fortress");
+        writer.putShort(440);
+        writer.putByte(24);
+        writer.putByte(24);
+        writer.putByte(0);
+        writer.putByte('d');
+        writer.putByte('l');
+        writer.putByte(0);
+        writer.putByte(1);
+        writer.putString("2963012");
+        writer.putByte(0x80 | 0x20 | 0x10 | 0x01);
+        writer.putShort(27015);
+        writer.putLong(90098567187383297L);
+        writer.putString("alltalk,cp,increased_maxplayers,norespawntime,nocrits,valve");
+        writer.putLong(440);
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Builds a M2A_SERVER_BATCH reply containing as many servers as fit into
+     * a single packet
+     *
+     * @return The raw packet data starting with the header byte
+     */
+    byte[] masterBatch() {
+        Writer writer = new Writer(SteamPacket.M2A_SERVER_BATCH_HEADER);
+        writer.putByte(0x0A);
+        for(int i = 0; i < 231; i ++) {
+            writer.putByte(this.random.nextInt(224));
+            writer.putByte(this.random.nextInt(256));
+            writer.putByte(this.random.nextInt(256));
+            writer.putByte(this.random.nextInt(256));
+            int port = 27015 + this.random.nextInt(100);
+            writer.putByte(port >> 8);
+            writer.putByte(port);
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Builds a S2A_PLAYER reply of a full server
+     *
+     * @param count The number of players
+     * @return The raw packet data starting with the header byte
+     */
+    byte[] players(int count) {
+        Writer writer = new Writer(SteamPacket.S2A_PLAYER_HEADER);
+        writer.putByte(count);
+        for(int i = 0; i < count; i ++) {
+            writer.putByte(i);
+            writer.putString(this.playerName(i));
+            writer.putInt(this.random.nextInt(80));
+            writer.putInt(Float.floatToIntBits(this.random.nextFloat() * 7200));
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Builds the reply of a RCON command, e.g. <code>cvarlist</code>
+     *
+     * @param length The approximate length of the command output
+     * @return The raw packet data without the leading packet size
+     */
+    byte[] rconResponse(int length) {
+        StringBuilder output = new StringBuilder(length + 100);
+        while(output.length() < length) {
+            output.append(RULE_PREFIXES[this.random.nextInt(RULE_PREFIXES.length)])
+                  .append("cvar_").append(output.length())
+                  .append("                            : ")
+                  .append(this.random.nextInt(1000))
+                  .append("        : , \"sv\", \"nf\" : Some description\n");
+        }
+
+        byte[] body = output.toString().getBytes(UTF8);
+        Writer writer = new Writer();
+        writer.putInt(1234);
+        writer.putInt(RCONPacket.SERVERDATA_RESPONSE_VALUE);
+        writer.putBytes(body);
+        writer.putByte(0);
+        writer.putByte(0);
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Builds a S2A_RULES reply
+     *
+     * @param count The number of rules
+     * @return The raw packet data starting with the header byte
+     */
+    byte[] rules(int count) {
+        Writer writer = new Writer(SteamPacket.S2A_RULES_HEADER);
+        writer.putShort(count);
+        for(int i = 0; i < count; i ++) {
+            writer.putString(RULE_PREFIXES[i % RULE_PREFIXES.length] + "setting_" + i);
+            writer.putString((i % 3 == 0) ? "0" : (i % 3 == 1) ? "1" : String.valueOf(this.random.nextInt(100000)));
+        }
+
+        return writer.toByteArray();
+    }
+
+    /**
+     * Splits the given packet into the payloads of split packets as they
+     * are passed to {@link SteamPacketFactory#reassemblePacket(ArrayList,
+     * boolean, int, int)}
+     *
+     * @param packet The raw packet data starting with the header byte
+     * @return The payloads of the split packets
+     */
+    static ArrayList<byte[]> split(byte[] packet) {
+        return split(withSingleHeader(packet), MAX_SPLIT_SIZE);
+    }
+
+    /**
+     * Compresses the given packet like Source servers do for large replies
+     * and splits it into the payloads of split packets
+     * <p>
+     * The packet factory skips two bytes in front of the compressed data,
+     * so these are prepended to the first payload.
+     *
+     * @param packet The raw packet data starting with the header byte
+     * @return The payloads of the split packets
+     * @see #checksum
+     */
+    static ArrayList<byte[]> splitCompressed(byte[] packet) {
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            compressed.write(0);
+            compressed.write(0);
+            BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(compressed);
+            bzip2.write(withSingleHeader(packet));
+            bzip2.close();
+
+            return split(compressed.toByteArray(), MAX_SPLIT_SIZE);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the CRC32 checksum of the given packet as sent with compressed
+     * split packets
+     *
+     * @param packet The raw packet data starting with the header byte
+     * @return The checksum of the packet
+     */
+    static int checksum(byte[] packet) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(withSingleHeader(packet));
+
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * Returns the size of the given packet after decompression
+     *
+     * @param packet The raw packet data starting with the header byte
+     * @return The uncompressed size of the packet
+     */
+    static int uncompressedSize(byte[] packet) {
+        return packet.length + 4;
+    }
+
+    private static ArrayList<byte[]> split(byte[] data, int size) {
+        ArrayList<byte[]> packets = new ArrayList<byte[]>();
+        for(int offset = 0; offset < data.length; offset += size) {
+            packets.add(Arrays.copyOfRange(data, offset, Math.min(data.length, offset + size)));
+        }
+
+        return packets;
+    }
+
+    private static byte[] withSingleHeader(byte[] packet) {
+        byte[] data = new byte[packet.length + 4];
+        data[0] = data[1] = data[2] = data[3] = (byte) 0xFF;
+        System.arraycopy(packet, 0, data, 4, packet.length);
+
+        return data;
+    }
+
+    private String playerName(int i) {
+        return NAME_PARTS[this.random.nextInt(NAME_PARTS.length)] +
+               NAME_PARTS[this.random.nextInt(NAME_PARTS.length)] + i;
+    }
+
+    /**
+     * A simple little-endian writer for packet data
+     */
+    private static final class Writer {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream(1400);
+
+        Writer() {}
+
+        Writer(byte header) {
+            this.data.write(header);
+        }
+
+        void putByte(int value) {
+            this.data.write(value);
+        }
+
+        void putBytes(byte[] bytes) {
+            this.data.write(bytes, 0, bytes.length);
+        }
+
+        void putInt(int value) {
+            this.putShort(value);
+            this.putShort(value >> 16);
+        }
+
+        void putLong(long value) {
+            this.putInt((int) value);
+            this.putInt((int) (value >> 32));
+        }
+
+        void putShort(int value) {
+            this.data.write(value);
+            this.data.write(value >> 8);
+        }
+
+        void putString(String value) {
+            this.putBytes(value.getBytes(UTF8));
+            this.data.write(0);
+        }
+
+        byte[] toByteArray() {
+            return this.data.toByteArray();
+        }
+    }
+
+}
@@ -9,8 +9,7 @@ package com.github.koraktor.steamcondenser;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-
-import org.apache.commons.lang3.ArrayUtils;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A convenience class wrapping around {@link ByteBuffer} used for easy
@@ -20,6 +19,8 @@ import org.apache.commons.lang3.ArrayUtils;
  */
 public class PacketBuffer {
 
+    private static final StringCache STRING_CACHE = new StringCache(4096);
+
     private ByteBuffer byteBuffer;
 
     /**
@@ -31,15 +32,39 @@ public class PacketBuffer {
         this.byteBuffer = ByteBuffer.wrap(data);
     }
 
+    /**
+     * Creates a new packet buffer from a part of the given byte array
+     * <p>
+     * The data is not copied, the buffer is a view of the given range.
+     *
+     * @param data The data to wrap into the underlying byte buffer
+     * @param offset The offset of the first byte to use
+     * @param length The number of bytes to use
+     */
+    public PacketBuffer(byte[] data, int offset, int length) {
+        this.byteBuffer = ByteBuffer.wrap(data, offset, length).slice();
+    }
+
     /**
      * Returns the backing byte array of the underlying byte buffer
      *
      * @return The backing byte array
+     * @see #arrayOffset
      */
     public byte[] array() {
         return this.byteBuffer.array();
     }
 
+    /**
+     * Returns the offset of the first byte of this buffer inside the backing
+     * byte array
+     *
+     * @return The offset inside the backing byte array
+     */
+    public int arrayOffset() {
+        return this.byteBuffer.arrayOffset();
+    }
+
     /**
      * Returns the next byte at the buffer's current position
      *
@@ -88,25 +113,51 @@ public class PacketBuffer {
     /**
      * Returns a string value from the buffer's current position
      * <p>
-     * This reads the bytes up to the first zero-byte of the underlying byte
-     * buffer into a String
+     * This reads the UTF-8 encoded bytes up to the next zero-byte of the
+     * underlying byte buffer into a String. The bytes are decoded directly
+     * from the backing array.
      *
-     * @return A string value
+     * @return A string value or <code>null</code> if there is no zero-byte
+     *         left in the buffer
      */
     public String getString() {
-        byte[] remainingBytes = new byte[this.byteBuffer.remaining()];
-        this.byteBuffer.slice().get(remainingBytes);
-        int zeroPosition = ArrayUtils.indexOf(remainingBytes, (byte) 0);
-
-        if (zeroPosition == ArrayUtils.INDEX_NOT_FOUND) {
+        int length = this.stringLength();
+        if(length < 0) {
             return null;
-        } else {
-            byte[] stringBytes = new byte[zeroPosition];
-            System.arraycopy(remainingBytes, 0, stringBytes, 0, zeroPosition);
-            this.byteBuffer.position(this.byteBuffer.position() + zeroPosition + 1);
+        }
+
+        String value = new String(this.byteBuffer.array(),
+                this.byteBuffer.arrayOffset() + this.byteBuffer.position(),
+                length, StandardCharsets.UTF_8);
+        this.byteBuffer.position(this.byteBuffer.position() + length + 1);
 
-            return new String(stringBytes);
+        return value;
+    }
+
+    /**
+     * Returns a string value from the buffer's current position using a cache
+     * shared by all buffers
+     * <p>
+     * This should be used for short values that repeat across many packets,
+     * e.g. rule names, map names or game directories. Repeated values are
+     * neither decoded nor allocated again.
+     *
+     * @return A string value or <code>null</code> if there is no zero-byte
+     *         left in the buffer
+     * @see #getString
+     */
+    public String getCachedString() {
+        int length = this.stringLength();
+        if(length < 0) {
+            return null;
         }
+
+        String value = STRING_CACHE.get(this.byteBuffer.array(),
+                this.byteBuffer.arrayOffset() + this.byteBuffer.position(),
+                length);
+        this.byteBuffer.position(this.byteBuffer.position() + length + 1);
+
+        return value;
     }
 
     /**
@@ -129,6 +180,27 @@ public class PacketBuffer {
         return this.byteBuffer.remaining();
     }
 
+    /**
+     * Returns the number of bytes from the current position up to the next
+     * zero-byte
+     *
+     * @return The length of the string at the current position or
+     *         <code>-1</code> if there is no zero-byte left in the buffer
+     */
+    private int stringLength() {
+        byte[] data = this.byteBuffer.array();
+        int start = this.byteBuffer.arrayOffset() + this.byteBuffer.position();
+        int end = this.byteBuffer.arrayOffset() + this.byteBuffer.limit();
+
+        for(int i = start; i < end; i ++) {
+            if(data[i] == 0) {
+                return i - start;
+            }
+        }
+
+        return -1;
+    }
+
     /**
      * Returns whether there is more data available in this buffer after the
      * current position
@@ -0,0 +1,114 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class implements a small cache of decoded strings that is looked up
+ * with the raw UTF-8 bytes of a string
+ * <p>
+ * Values like rule names, map names and game directories repeat across
+ * thousands of replies. Looking them up here avoids decoding them again and
+ * lets all packets share the same string instances.
+ * <p>
+ * The cache is direct-mapped: every string has exactly one slot determined by
+ * the hash of its bytes and a newer string simply replaces an older one. The
+ * entries are immutable, so the cache can be used from multiple threads
+ * without locking.
+ *
+ * @author Sebastian Staudt
+ * @see PacketBuffer#getCachedString
+ */
+class StringCache {
+
+    /**
+     * Strings longer than this are never cached
+     */
+    static final int MAX_LENGTH = 64;
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    /**
+     * Creates a new string cache with the given number of slots
+     *
+     * @param size The number of slots, has to be a power of two
+     */
+    StringCache(int size) {
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Returns the string for the given UTF-8 bytes, decoding it only if it is
+     * not already cached
+     *
+     * @param data The array containing the string's bytes
+     * @param offset The offset of the string's first byte
+     * @param length The number of bytes of the string
+     * @return The decoded string
+     */
+    String get(byte[] data, int offset, int length) {
+        if(length > MAX_LENGTH) {
+            return new String(data, offset, length, StandardCharsets.UTF_8);
+        }
+
+        int hash = 1;
+        for(int i = offset; i < offset + length; i ++) {
+            hash = 31 * hash + data[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & this.mask;
+
+        Entry entry = this.entries[slot];
+        if(entry != null && entry.matches(hash, data, offset, length)) {
+            return entry.value;
+        }
+
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, offset, bytes, 0, length);
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        this.entries[slot] = new Entry(hash, bytes, value);
+
+        return value;
+    }
+
+    /**
+     * A cached string together with its raw bytes
+     */
+    private static class Entry {
+
+        final byte[] bytes;
+
+        final int hash;
+
+        final String value;
+
+        Entry(int hash, byte[] bytes, String value) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.value = value;
+        }
+
+        boolean matches(int hash, byte[] data, int offset, int length) {
+            if(this.hash != hash || this.bytes.length != length) {
+                return false;
+            }
+
+            for(int i = 0; i < length; i ++) {
+                if(this.bytes[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+}
@@ -24,6 +24,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.github.koraktor.steamcondenser.exceptions.WebApiException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
 
 /**
  * This abstract class provides functionality for accessing Steam's Web API
@@ -294,6 +295,8 @@ abstract public class WebApi {
         }
 
         String data;
+        long start = System.nanoTime();
+        boolean success = false;
         try {
             DefaultHttpClient httpClient = new DefaultHttpClient();
             httpClient.getParams().setBooleanParameter(ClientPNames.HANDLE_AUTHENTICATION, false);
@@ -310,10 +313,13 @@ abstract public class WebApi {
             }
 
             data = EntityUtils.toString(response.getEntity());
+            success = true;
         } catch (WebApiException e) {
             throw e;
         } catch(Exception e) {
             throw new WebApiException("Could not communicate with the Web API.", e);
+        } finally {
+            Metrics.getRecorder().webApiCall(apiInterface, method, System.nanoTime() - start, success);
         }
 
         return data;
@@ -0,0 +1,51 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.metrics;
+
+/**
+ * This class holds the metrics recorder used by all of Steam Condenser
+ * <p>
+ * By default no metrics are recorded. To collect metrics, a
+ * {@link MetricsRecorder} forwarding the events to the metrics library of
+ * the application is set once, e.g. while starting up:
+ * <pre>
+ * Metrics.setRecorder(new MetricsRecorder() {
+ *     public void requestTimedOut(Protocol protocol) {
+ *         registry.counter("steam.timeouts", "protocol", protocol.name()).increment();
+ *     }
+ * });
+ * </pre>
+ *
+ * @author Sebastian Staudt
+ */
+public final class Metrics {
+
+    private static volatile MetricsRecorder recorder = MetricsRecorder.NONE;
+
+    private Metrics() {}
+
+    /**
+     * Returns the recorder metrics are reported to
+     *
+     * @return The current metrics recorder
+     */
+    public static MetricsRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Sets the recorder metrics are reported to
+     *
+     * @param newRecorder The metrics recorder to use or <code>null</code> to
+     *        stop recording metrics
+     */
+    public static void setRecorder(MetricsRecorder newRecorder) {
+        recorder = (newRecorder == null) ? MetricsRecorder.NONE : newRecorder;
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.metrics;
+
+/**
+ * This interface is implemented to collect metrics of the queries, RCON
+ * commands and Web API calls done by Steam Condenser
+ * <p>
+ * All methods do nothing by default, so implementations only have to
+ * override the events they are interested in. The methods are called
+ * directly from the I/O code, possibly from many threads at the same time,
+ * so implementations should be thread-safe and return quickly. Usually
+ * they just update counters, timers or histograms of a metrics library like
+ * Micrometer or Dropwizard Metrics.
+ * <p>
+ * Durations are given in nanoseconds.
+ *
+ * @author Sebastian Staudt
+ * @see Metrics#setRecorder
+ */
+public interface MetricsRecorder {
+
+    /**
+     * A recorder that ignores all events
+     */
+    MetricsRecorder NONE = new MetricsRecorder() {};
+
+    /**
+     * Called after a challenge number has been received from a game server,
+     * i.e. the challenge of the server has been refreshed
+     * <p>
+     * Usually recorded using a counter.
+     */
+    default void challengeRefreshed() {}
+
+    /**
+     * Called after the data of a compressed reply has been decompressed
+     * <p>
+     * Usually recorded using a timer and a histogram of the sizes.
+     *
+     * @param compressedBytes The size of the compressed data
+     * @param uncompressedBytes The size of the decompressed data
+     * @param nanos The time it took to decompress the data
+     */
+    default void packetDecompressed(int compressedBytes, int uncompressedBytes, long nanos) {}
+
+    /**
+     * Called after a packet has been received
+     * <p>
+     * Usually recorded using counters of packets and bytes.
+     *
+     * @param protocol The protocol the packet has been received with
+     * @param bytes The size of the packet
+     */
+    default void packetReceived(Protocol protocol, int bytes) {}
+
+    /**
+     * Called after a packet has been sent
+     * <p>
+     * Usually recorded using counters of packets and bytes.
+     *
+     * @param protocol The protocol the packet has been sent with
+     * @param bytes The size of the packet
+     */
+    default void packetSent(Protocol protocol, int bytes) {}
+
+    /**
+     * Called after a RCON command has been answered or failed
+     * <p>
+     * Usually recorded using a timer.
+     *
+     * @param protocol {@link Protocol#RCON} for Source servers or
+     *        {@link Protocol#GOLDSRC} for GoldSrc servers
+     * @param nanos The time between sending the command and receiving its
+     *        complete output
+     * @param success Whether the output has been received
+     */
+    default void rconRoundTrip(Protocol protocol, long nanos, boolean success) {}
+
+    /**
+     * Called each time a request is sent again after a timeout
+     * <p>
+     * Usually recorded using a counter.
+     *
+     * @param protocol The protocol of the request
+     */
+    default void requestRetried(Protocol protocol) {}
+
+    /**
+     * Called each time waiting for a reply times out
+     * <p>
+     * Usually recorded using a counter.
+     *
+     * @param protocol The protocol of the request
+     */
+    default void requestTimedOut(Protocol protocol) {}
+
+    /**
+     * Called for each packet of a split reply that has been received
+     * <p>
+     * Usually recorded using a counter.
+     *
+     * @param protocol {@link Protocol#SOURCE} or {@link Protocol#GOLDSRC}
+     */
+    default void splitPacketReceived(Protocol protocol) {}
+
+    /**
+     * Called after a Web API call has been answered or failed
+     * <p>
+     * Usually recorded using a timer tagged with the interface and method.
+     *
+     * @param apiInterface The Web API interface, e.g.
+     *        <code>ISteamUser</code>
+     * @param method The Web API method, e.g. <code>GetPlayerSummaries</code>
+     * @param nanos The duration of the call
+     * @param success Whether the call has been answered successfully
+     */
+    default void webApiCall(String apiInterface, String method, long nanos, boolean success) {}
+
+}
@@ -0,0 +1,38 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.metrics;
+
+/**
+ * The protocols whose traffic is reported to a {@link MetricsRecorder}
+ *
+ * @author Sebastian Staudt
+ */
+public enum Protocol {
+
+    /**
+     * Queries of GoldSrc servers, including GoldSrc RCON which uses the same
+     * UDP socket
+     */
+    GOLDSRC,
+
+    /**
+     * Queries of master servers
+     */
+    MASTER,
+
+    /**
+     * Source RCON via TCP
+     */
+    RCON,
+
+    /**
+     * Queries of Source servers
+     */
+    SOURCE
+
+}
@@ -0,0 +1,250 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class caches the challenge numbers assigned by game servers
+ * <p>
+ * By default a single cache is shared by all game servers of the process (see
+ * {@link GameServer#setChallengeCache}), so a challenge number only has to be
+ * requested once per server and time-to-live. The cache can be saved to and
+ * loaded from a file, so a restarted application can reuse the challenge
+ * numbers received before.
+ * <p>
+ * Entries expire after the configured time-to-live. Servers replying with a
+ * new challenge number replace the cached one.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#updateChallengeNumber
+ */
+public class ChallengeCache {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<InetSocketAddress, Entry> entries;
+
+    private final long timeToLive;
+
+    /**
+     * Creates a new cache keeping challenge numbers for 5 minutes
+     */
+    public ChallengeCache() {
+        this(5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a new cache keeping challenge numbers for the given time
+     *
+     * @param timeToLive The time a challenge number is kept
+     * @param unit The unit of the time-to-live
+     */
+    public ChallengeCache(long timeToLive, TimeUnit unit) {
+        this.entries = new ConcurrentHashMap<InetSocketAddress, Entry>();
+        this.timeToLive = unit.toMillis(timeToLive);
+    }
+
+    /**
+     * Removes all challenge numbers from this cache
+     */
+    public void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * Returns the cached challenge number of the given server
+     *
+     * @param address The address of the server
+     * @return The challenge number of the server or <code>null</code> if no
+     *         valid challenge number is cached
+     */
+    public Integer get(InetSocketAddress address) {
+        Entry entry = this.entries.get(address);
+        if(entry == null) {
+            return null;
+        }
+
+        if(entry.expiresAt <= System.currentTimeMillis()) {
+            this.entries.remove(address, entry);
+            return null;
+        }
+
+        return entry.challengeNumber;
+    }
+
+    /**
+     * Removes the challenge number of the given server from this cache
+     *
+     * @param address The address of the server
+     */
+    public void invalidate(InetSocketAddress address) {
+        this.entries.remove(address);
+    }
+
+    /**
+     * Loads the challenge numbers saved to the given file into this cache
+     * <p>
+     * Entries that have expired in the meantime are skipped.
+     *
+     * @param file The file to load the challenge numbers from
+     * @return The number of challenge numbers loaded
+     * @throws IOException if the file cannot be read or has an invalid format
+     * @see #save
+     */
+    public int load(File file) throws IOException {
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                line = line.trim();
+                if(line.isEmpty()) {
+                    continue;
+                }
+
+                String[] fields = line.split(" ");
+                if(fields.length != 4) {
+                    throw new IOException("Invalid challenge cache entry: " + line);
+                }
+
+                try {
+                    long expiresAt = Long.parseLong(fields[3]);
+                    if(expiresAt <= now) {
+                        continue;
+                    }
+
+                    InetAddress ipAddress = InetAddress.getByName(fields[0]);
+                    int port = Integer.parseInt(fields[1]);
+                    int challengeNumber = (int) Long.parseLong(fields[2]);
+                    this.entries.put(new InetSocketAddress(ipAddress, port),
+                            new Entry(challengeNumber, Math.min(expiresAt, now + this.timeToLive)));
+                    loaded ++;
+                } catch(NumberFormatException e) {
+                    throw new IOException("Invalid challenge cache entry: " + line, e);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Stores the challenge number assigned by the given server
+     *
+     * @param address The address of the server
+     * @param challengeNumber The challenge number of the server
+     */
+    public void put(InetSocketAddress address, int challengeNumber) {
+        this.entries.put(address, new Entry(challengeNumber, System.currentTimeMillis() + this.timeToLive));
+    }
+
+    /**
+     * Removes all expired challenge numbers from this cache
+     */
+    public void purge() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = this.entries.values().iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().expiresAt <= now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Saves the valid challenge numbers of this cache to the given file
+     * <p>
+     * The file is written to a temporary file first and renamed afterwards,
+     * so an existing file is never left incomplete.
+     *
+     * @param file The file to save the challenge numbers to
+     * @return The number of challenge numbers saved
+     * @throws IOException if the file cannot be written
+     * @see #load
+     */
+    public int save(File file) throws IOException {
+        long now = System.currentTimeMillis();
+        int saved = 0;
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), UTF8));
+        try {
+            for(Map.Entry<InetSocketAddress, Entry> entry : this.entries.entrySet()) {
+                if(entry.getValue().expiresAt <= now) {
+                    continue;
+                }
+
+                InetSocketAddress address = entry.getKey();
+                writer.write(address.getAddress().getHostAddress());
+                writer.write(' ');
+                writer.write(Integer.toString(address.getPort()));
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue().challengeNumber & 0xFFFFFFFFL));
+                writer.write(' ');
+                writer.write(Long.toString(entry.getValue().expiresAt));
+                writer.newLine();
+                saved ++;
+            }
+        } finally {
+            writer.close();
+        }
+
+        if(!tempFile.renameTo(file)) {
+            if(!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file + ".");
+            }
+        }
+
+        return saved;
+    }
+
+    /**
+     * Returns the number of challenge numbers in this cache, including
+     * expired ones not purged yet
+     *
+     * @return The number of cached challenge numbers
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * A cached challenge number together with its expiry time
+     */
+    private static class Entry {
+
+        final int challengeNumber;
+
+        final long expiresAt;
+
+        Entry(int challengeNumber, long expiresAt) {
+            this.challengeNumber = challengeNumber;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
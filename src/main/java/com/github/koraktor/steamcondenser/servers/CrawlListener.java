@@ -0,0 +1,51 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+/**
+ * This interface can be implemented to follow the progress of a master server
+ * crawl
+ * <p>
+ * The methods are called from the threads querying the master servers, so
+ * implementations have to be thread-safe.
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer#crawl
+ */
+public interface CrawlListener {
+
+    /**
+     * Called whenever a batch of servers has been received for a shard
+     *
+     * @param regionCode The region code of the shard
+     * @param filter The filter of the shard
+     * @param batchSize The number of servers in this batch
+     * @param totalServers The number of distinct servers found so far by the
+     *        whole crawl
+     */
+    void batchReceived(byte regionCode, String filter, int batchSize, int totalServers);
+
+    /**
+     * Called when a shard could not be crawled completely
+     *
+     * @param regionCode The region code of the shard
+     * @param filter The filter of the shard
+     * @param cause The error that caused the shard to fail
+     */
+    void shardFailed(byte regionCode, String filter, Exception cause);
+
+    /**
+     * Called when all servers of a shard have been received
+     *
+     * @param regionCode The region code of the shard
+     * @param filter The filter of the shard
+     * @param shardServers The number of servers received for this shard
+     */
+    void shardFinished(byte regionCode, String filter, int shardServers);
+
+}
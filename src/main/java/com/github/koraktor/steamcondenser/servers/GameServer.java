@@ -7,18 +7,30 @@
 
 package com.github.koraktor.steamcondenser.servers;
 
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
 import com.github.koraktor.steamcondenser.servers.packets.A2S_INFO_Packet;
 import com.github.koraktor.steamcondenser.servers.packets.A2S_PLAYER_Packet;
 import com.github.koraktor.steamcondenser.servers.packets.A2S_RULES_Packet;
@@ -27,7 +39,12 @@ import com.github.koraktor.steamcondenser.servers.packets.S2A_PLAYER_Packet;
 import com.github.koraktor.steamcondenser.servers.packets.S2A_RULES_Packet;
 import com.github.koraktor.steamcondenser.servers.packets.S2C_CHALLENGE_Packet;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.servers.sockets.LatencyProbe;
+import com.github.koraktor.steamcondenser.servers.sockets.LatencyStatistics;
+import com.github.koraktor.steamcondenser.servers.sockets.QueryEngine;
 import com.github.koraktor.steamcondenser.servers.sockets.QuerySocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SharedQuerySocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SteamSocket;
 
 /**
  * This class is subclassed by classes representing different game server
@@ -42,12 +59,40 @@ public abstract class GameServer extends Server {
     protected static final int REQUEST_INFO = 1;
     protected static final int REQUEST_PLAYER = 2;
     protected static final int REQUEST_RULES = 3;
-    protected int challengeNumber = 0xFFFFFFFF;
-    protected int ping;
-    protected HashMap<String, SteamPlayer> playerHash;
-    protected HashMap<String, String> rulesHash;
-    protected HashMap<String, Object> serverInfo;
+
+    /**
+     * The number of threads of the default query executor
+     *
+     * @see #setQueryExecutor
+     */
+    public static final int DEFAULT_QUERY_THREADS = 16;
+
+    protected volatile int challengeNumber = 0xFFFFFFFF;
+    protected volatile int ping = -1;
+    private int pingMaxAge;
+    private volatile long pingNanos = -1;
+    private volatile long pingTime;
+    protected volatile PlayerDiff playerDiff;
+    protected volatile HashMap<String, SteamPlayer> playerHash;
+    private volatile List<SteamPlayer> playerList;
+    private volatile HashMap<String, SteamPlayer> playerListHash;
+    protected volatile HashMap<String, String> rulesHash;
+    protected volatile ServerInfo serverInfo;
+    protected QueryEngine queryEngine;
+    protected int queryTimeout;
     protected QuerySocket socket;
+    protected volatile boolean rconAuthenticated;
+    protected int socketTimeout;
+
+    protected final ReentrantLock socketLock = new ReentrantLock();
+
+    private static ChallengeCache challengeCache = new ChallengeCache();
+
+    private static PlayerIndex playerIndex;
+
+    private static Executor defaultQueryExecutor;
+
+    private static Executor queryExecutor;
 
     //protected static final Logger LOG = LoggerFactory.getLogger(GameServer.class);
 
@@ -80,20 +125,12 @@ public abstract class GameServer extends Server {
      * @param statusHeader The header line provided by <code>rcon status</code>
      * @return array Split player attribute names
      * @see #splitPlayerStatus
+     * @deprecated The output of <code>rcon status</code> is parsed in a
+     *             single pass by {@link #updatePlayers(String)} now
      */
+    @Deprecated
     protected static List<String> getPlayerStatusAttributes(String statusHeader) {
-        List<String> statusAttributes = new ArrayList<String>();
-        for(String attribute : statusHeader.split("\\s+")) {
-            if(attribute.equals("connected")) {
-                statusAttributes.add("time");
-            } else if(attribute.equals("frag")) {
-                statusAttributes.add("score");
-            } else {
-                statusAttributes.add(attribute);
-            }
-        }
-
-        return statusAttributes;
+        return StatusParser.getPlayerStatusAttributes(statusHeader);
     }
 
     /**
@@ -104,39 +141,115 @@ public abstract class GameServer extends Server {
      * @return array The attributes with the corresponding values for this
      *         player
      * @see #getPlayerStatusAttributes
+     * @deprecated The output of <code>rcon status</code> is parsed in a
+     *             single pass by {@link #updatePlayers(String)} now
      */
+    @Deprecated
     protected static Map<String, String> splitPlayerStatus(List<String> attributes, String playerStatus) {
-        if(!attributes.get(0).equals("userid")) {
-            playerStatus = playerStatus.replaceAll("^\\d+ +", "");
-        }
+        return StatusParser.splitPlayerStatus(attributes, playerStatus);
+    }
 
-        int firstQuote = playerStatus.indexOf('"');
-        int lastQuote  = playerStatus.lastIndexOf('"');
-        List<String> tmpData = new ArrayList<String>();
-        tmpData.add(playerStatus.substring(0, firstQuote));
-        tmpData.add(playerStatus.substring(firstQuote + 1, lastQuote));
-        tmpData.add(playerStatus.substring(lastQuote + 1));
+    /**
+     * Returns the cache of challenge numbers shared by all game servers
+     *
+     * @return The shared challenge number cache or <code>null</code> if
+     *         caching is disabled
+     */
+    public static ChallengeCache getChallengeCache() {
+        return challengeCache;
+    }
 
-        List<String> data = new ArrayList<String>();
-        data.addAll(Arrays.asList(tmpData.get(0).trim().split("\\s+")));
-        data.add(tmpData.get(1));
-        data.addAll(Arrays.asList(tmpData.get(2).trim().split("\\s+")));
-        data.remove("");
+    /**
+     * Sets the cache of challenge numbers shared by all game servers
+     *
+     * @param cache The challenge number cache to use or <code>null</code> to
+     *        disable caching of challenge numbers
+     */
+    public static void setChallengeCache(ChallengeCache cache) {
+        challengeCache = cache;
+    }
 
-        if(attributes.size() > data.size() && attributes.contains("state")) {
-            data.add(3, null);
-            data.add(3, null);
-            data.add(3, null);
-        } else if(attributes.size() < data.size()) {
-            data.remove(1);
-        }
+    /**
+     * Returns the index of players shared by all game servers
+     *
+     * @return The shared player index or <code>null</code> if players are
+     *         not indexed
+     */
+    public static PlayerIndex getPlayerIndex() {
+        return playerIndex;
+    }
 
-        Map<String, String> playerData = new HashMap<String, String>();
-        for(int i = 0; i < data.size(); i ++) {
-            playerData.put(attributes.get(i), data.get(i));
+    /**
+     * Sets the index of players shared by all game servers
+     * <p>
+     * The index is updated each time the players of a game server are
+     * updated.
+     *
+     * @param index The player index to use or <code>null</code> to disable
+     *        indexing of players
+     */
+    public static void setPlayerIndex(PlayerIndex index) {
+        playerIndex = index;
+    }
+
+    /**
+     * Returns the executor used to run asynchronous queries of servers that
+     * do not use a shared query engine
+     *
+     * @return The query executor or <code>null</code> if the default
+     *         executor is used
+     */
+    public static Executor getQueryExecutor() {
+        return queryExecutor;
+    }
+
+    /**
+     * Returns the executor used to run asynchronous queries if no other
+     * executor has been set
+     * <p>
+     * The executor is created on first use. It runs at most
+     * {@link #DEFAULT_QUERY_THREADS} queries at the same time using daemon
+     * threads, further queries are queued. Idle threads are stopped after a
+     * minute.
+     *
+     * @return The default query executor
+     */
+    private static synchronized Executor getDefaultQueryExecutor() {
+        if(defaultQueryExecutor == null) {
+            ThreadFactory threadFactory = new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "steam-condenser-query");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_QUERY_THREADS,
+                DEFAULT_QUERY_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            defaultQueryExecutor = executor;
         }
 
-        return playerData;
+        return defaultQueryExecutor;
+    }
+
+    /**
+     * Sets the executor used to run asynchronous queries of servers that do
+     * not use a shared query engine
+     * <p>
+     * Each of these queries blocks a thread of the executor until the reply
+     * arrives or the socket times out. By default a dedicated executor with
+     * {@link #DEFAULT_QUERY_THREADS} threads is used, so blocked queries
+     * never hold threads of the common pool. To run a large number of
+     * queries at the same time, a {@link QueryEngine} should be used
+     * instead, which does not block any thread while waiting.
+     *
+     * @param executor The executor to use or <code>null</code> to use the
+     *        default executor
+     * @see #sendRequestAsync
+     */
+    public static void setQueryExecutor(Executor executor) {
+        queryExecutor = executor;
     }
 
     /**
@@ -148,6 +261,9 @@ public abstract class GameServer extends Server {
      * If this information is vital to you, be sure to call
      * {@link #updatePing} regularly to stay up-to-date.
      *
+     * The ping is measured again if it has not been measured yet or if it is
+     * older than the maximum age set with {@link #setPingMaxAge}.
+     *
      * @return The latency of this server in milliseconds
      * @see #updatePing
      * @throws SteamCondenserException if the request fails
@@ -155,13 +271,75 @@ public abstract class GameServer extends Server {
      */
     public int getPing()
             throws SteamCondenserException, TimeoutException {
-        if(this.ping == 0) {
+        if(this.isPingOutdated()) {
             this.updatePing();
         }
 
         return this.ping;
     }
 
+    /**
+     * Returns the ping of this server in the given unit
+     * <p>
+     * This works like {@link #getPing()}, but allows a higher resolution,
+     * e.g. for servers in the local network.
+     *
+     * @param unit The unit of the returned value
+     * @return The latency of this server in the given unit
+     * @see #getPing()
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public long getPing(TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        if(this.isPingOutdated()) {
+            this.updatePing();
+        }
+
+        if(this.pingNanos < 0) {
+            return unit.convert(this.ping, TimeUnit.MILLISECONDS);
+        }
+        return unit.convert(this.pingNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns whether the ping of this server has to be measured (again)
+     *
+     * @return <code>true</code> if the ping has not been measured yet or is
+     *         older than the maximum age
+     * @see #setPingMaxAge
+     */
+    private boolean isPingOutdated() {
+        if(this.ping < 0) {
+            return true;
+        }
+
+        return this.pingMaxAge > 0 &&
+            System.nanoTime() - this.pingTime > TimeUnit.MILLISECONDS.toNanos(this.pingMaxAge);
+    }
+
+    /**
+     * Returns whether the ping of this server has been measured
+     *
+     * @return <code>true</code> if the ping of this server is known
+     * @see #updatePing
+     */
+    public boolean isPingMeasured() {
+        return this.ping >= 0;
+    }
+
+    /**
+     * Returns the changes of the player list caused by the last call of
+     * {@link #updatePlayers}
+     *
+     * @return The players that joined, left or changed or <code>null</code>
+     *         if the players have not been updated yet
+     * @see #updatePlayers
+     */
+    public PlayerDiff getPlayerDiff() {
+        return this.playerDiff;
+    }
+
     /**
      * Returns a list of players currently playing on this server
      * <p/>
@@ -209,6 +387,27 @@ public abstract class GameServer extends Server {
         return this.playerHash;
     }
 
+    /**
+     * Returns all players currently playing on this server
+     * <p>
+     * Different from {@link #playerHash} this contains every player, even if
+     * several players are using the same name. If the players have been set
+     * without a complete list, e.g. by a subclass, the players by name are
+     * returned instead.
+     *
+     * @return All players on this server or <code>null</code> if the
+     *         players haven't been fetched yet
+     */
+    private Collection<SteamPlayer> getPlayerList() {
+        HashMap<String, SteamPlayer> playerHash = this.playerHash;
+        List<SteamPlayer> playerList = this.playerList;
+        if(playerList != null && this.playerListHash == playerHash) {
+            return playerList;
+        }
+
+        return (playerHash == null) ? null : playerHash.values();
+    }
+
     /**
      * Returns the settings applied on the server. These settings are also
      * called rules.
@@ -252,6 +451,22 @@ public abstract class GameServer extends Server {
      */
     public HashMap<String, Object> getServerInfo()
             throws SteamCondenserException, TimeoutException {
+        return this.getInfo().toMap();
+    }
+
+    /**
+     * Returns the typed basic information of this server
+     * <p>
+     * If the server information haven't been fetched yet, it is done now.
+     *
+     * @return The basic information of this server
+     * @see #getServerInfo
+     * @see #updateServerInfo
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public ServerInfo getInfo()
+            throws SteamCondenserException, TimeoutException {
         if(this.serverInfo == null) {
             this.updateServerInfo();
         }
@@ -284,7 +499,34 @@ public abstract class GameServer extends Server {
      */
     protected void handleResponseForRequest(int requestType)
             throws SteamCondenserException, TimeoutException {
-        this.handleResponseForRequest(requestType, true);
+        this.handleResponseForRequest(requestType, 0L);
+    }
+
+    /**
+     * Sends the specified request to the server and handles the returned
+     * response before the given deadline
+     * <p>
+     * The deadline bounds the whole query, including a repeated request if
+     * the server assigns a new challenge number.
+     *
+     * @param requestType The type of request to send to the server
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        query times out or <code>0</code> to only use the query timeout
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     * @see #setQueryTimeout
+     */
+    private void handleResponseForRequest(int requestType, long deadline)
+            throws SteamCondenserException, TimeoutException {
+        this.socketLock.lock();
+        long previousDeadline = 0;
+        try {
+            previousDeadline = this.startQuery(deadline);
+            this.handleResponseForRequest(requestType, true);
+        } finally {
+            this.finishQuery(previousDeadline);
+            this.socketLock.unlock();
+        }
     }
 
     /**
@@ -304,55 +546,159 @@ public abstract class GameServer extends Server {
      */
     protected void handleResponseForRequest(int requestType, boolean repeatOnFailure)
             throws SteamCondenserException, TimeoutException {
-        Class<? extends SteamPacket> expectedResponse = SteamPacket.class;
-        SteamPacket requestPacket = null;
+        Class<? extends SteamPacket> expectedResponse = this.getExpectedResponse(requestType);
+
+        this.sendRequest(this.getRequestPacket(requestType));
+
+        SteamPacket responsePacket = this.getReply();
+
+        this.handleResponse(responsePacket);
+
+        if(!expectedResponse.isInstance(responsePacket)) {
+            //LOG.warn("Expected " + expectedResponse + ", got " + responsePacket.getClass() + ".");
+            if(repeatOnFailure) {
+                this.handleResponseForRequest(requestType, false);
+            }
+        }
+    }
+
+    /**
+     * Sends the specified request to the server and handles the returned
+     * response without blocking the calling thread
+     * <p>
+     * This works like {@link #handleResponseForRequest(int, boolean)}, but a
+     * repeated request is chained to the future reply instead of being sent
+     * recursively.
+     *
+     * @param requestType The type of request to send to the server
+     * @param repeatOnFailure Whether the request should be repeated, if
+     *        the replied packet isn't expected. This is useful to handle
+     *        missing challenge numbers, which will be automatically filled in,
+     *        although not requested explicitly.
+     * @return The future response packet replied by the server
+     * @see #setQueryTimeout
+     */
+    protected CompletableFuture<SteamPacket> handleResponseForRequestAsync(int requestType, boolean repeatOnFailure) {
+        return this.handleResponseForRequestAsync(requestType, repeatOnFailure, this.getQueryDeadline(0));
+    }
+
+    /**
+     * Sends the specified request to the server and handles the returned
+     * response before the given deadline without blocking the calling thread
+     * <p>
+     * A repeated request has to be completed before the same deadline.
+     *
+     * @param requestType The type of request to send to the server
+     * @param repeatOnFailure Whether the request should be repeated, if
+     *        the replied packet isn't expected
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        query times out or <code>0</code> if there is no deadline
+     * @return The future response packet replied by the server
+     * @see #handleResponseForRequestAsync(int, boolean)
+     */
+    private CompletableFuture<SteamPacket> handleResponseForRequestAsync(final int requestType,
+                                                                        final boolean repeatOnFailure,
+                                                                        final long deadline) {
+        final Class<? extends SteamPacket> expectedResponse = this.getExpectedResponse(requestType);
+
+        return this.sendRequestAsync(this.getRequestPacket(requestType), null, deadline).thenCompose(responsePacket -> {
+            try {
+                this.handleResponse(responsePacket);
+            } catch(SteamCondenserException e) {
+                throw new CompletionException(e);
+            }
 
+            if(!expectedResponse.isInstance(responsePacket) && repeatOnFailure) {
+                return this.handleResponseForRequestAsync(requestType, false, deadline);
+            }
+
+            return CompletableFuture.completedFuture(responsePacket);
+        });
+    }
+
+    /**
+     * Returns the type of packet the server is expected to reply to the
+     * specified request
+     *
+     * @param requestType The type of request sent to the server
+     * @return The class of the expected response packet
+     */
+    protected Class<? extends SteamPacket> getExpectedResponse(int requestType) {
         switch(requestType) {
             case GameServer.REQUEST_CHALLENGE:
-                expectedResponse = S2C_CHALLENGE_Packet.class;
-                requestPacket = new A2S_PLAYER_Packet();
-                break;
+                return S2C_CHALLENGE_Packet.class;
             case GameServer.REQUEST_INFO:
-                expectedResponse = S2A_INFO_BasePacket.class;
-                requestPacket = new A2S_INFO_Packet();
-                break;
+                return S2A_INFO_BasePacket.class;
             case GameServer.REQUEST_PLAYER:
-                expectedResponse = S2A_PLAYER_Packet.class;
-                requestPacket = new A2S_PLAYER_Packet(this.challengeNumber);
-                break;
+                return S2A_PLAYER_Packet.class;
             case GameServer.REQUEST_RULES:
-                expectedResponse = S2A_RULES_Packet.class;
-                requestPacket = new A2S_RULES_Packet(this.challengeNumber);
-                break;
+                return S2A_RULES_Packet.class;
+            default:
+                return SteamPacket.class;
         }
+    }
 
-        this.sendRequest(requestPacket);
-
-        SteamPacket responsePacket = this.getReply();
+    /**
+     * Creates the request packet for the specified request type
+     *
+     * @param requestType The type of request to send to the server
+     * @return The packet to send to the server
+     */
+    protected SteamPacket getRequestPacket(int requestType) {
+        switch(requestType) {
+            case GameServer.REQUEST_CHALLENGE:
+                return new A2S_PLAYER_Packet();
+            case GameServer.REQUEST_INFO:
+                return new A2S_INFO_Packet();
+            case GameServer.REQUEST_PLAYER:
+                this.loadCachedChallengeNumber();
+                return new A2S_PLAYER_Packet(this.challengeNumber);
+            case GameServer.REQUEST_RULES:
+                this.loadCachedChallengeNumber();
+                return new A2S_RULES_Packet(this.challengeNumber);
+            default:
+                return null;
+        }
+    }
 
+    /**
+     * Updates the data attributes of this server with the contents of the
+     * given response packet
+     *
+     * @param responsePacket The response packet replied by the server
+     * @throws SteamCondenserException if the packet cannot be handled
+     */
+    protected void handleResponse(SteamPacket responsePacket)
+            throws SteamCondenserException {
         if(S2A_INFO_BasePacket.class.isInstance(responsePacket)) {
-            this.serverInfo = ((S2A_INFO_BasePacket) responsePacket).getInfo();
+            this.serverInfo = ((S2A_INFO_BasePacket) responsePacket).getServerInfo();
         } else if(responsePacket instanceof S2A_PLAYER_Packet) {
-            this.playerHash = ((S2A_PLAYER_Packet) responsePacket).getPlayerHash();
+            S2A_PLAYER_Packet playerPacket = (S2A_PLAYER_Packet) responsePacket;
+            HashMap<String, SteamPlayer> playerHash = playerPacket.getPlayerHash();
+            this.playerList = playerPacket.getPlayers();
+            this.playerListHash = playerHash;
+            this.playerHash = playerHash;
         } else if(responsePacket instanceof S2A_RULES_Packet) {
             this.rulesHash = ((S2A_RULES_Packet) responsePacket).getRulesHash();
         } else if(responsePacket instanceof S2C_CHALLENGE_Packet) {
             this.challengeNumber = ((S2C_CHALLENGE_Packet) responsePacket).getChallengeNumber();
+            Metrics.getRecorder().challengeRefreshed();
+            ChallengeCache cache = challengeCache;
+            if(cache != null) {
+                cache.put(this.getSocketAddress(), this.challengeNumber);
+            }
         } else {
             throw new SteamCondenserException("Response of type " + responsePacket.getClass() + " cannot be handled by this method.");
         }
-
-        if(!expectedResponse.isInstance(responsePacket)) {
-            //LOG.warn("Expected " + expectedResponse + ", got " + responsePacket.getClass() + ".");
-            if(repeatOnFailure) {
-                this.handleResponseForRequest(requestType, false);
-            }
-        }
     }
 
     /**
      * Initializes this server object with basic information
+     * <p>
+     * The challenge number is only requested if there is no valid challenge
+     * number for this server in the shared cache.
      *
+     * @see #getChallengeCache
      * @see #updateChallengeNumber
      * @see #updatePing
      * @see #updateServerInfo
@@ -363,9 +709,119 @@ public abstract class GameServer extends Server {
             throws SteamCondenserException, TimeoutException {
         this.updatePing();
         this.updateServerInfo();
-        this.updateChallengeNumber();
+        if(!this.loadCachedChallengeNumber()) {
+            this.updateChallengeNumber();
+        }
+    }
+
+    /**
+     * Initializes this server object with basic information without blocking
+     * the calling thread
+     *
+     * @return A future that completes when all information has been received
+     * @see #initialize
+     */
+    public CompletableFuture<Void> initializeAsync() {
+        return this.updatePingAsync()
+            .thenCompose(ping -> this.updateServerInfoAsync())
+            .thenCompose(info -> this.loadCachedChallengeNumber() ?
+                CompletableFuture.completedFuture(this.challengeNumber) :
+                this.updateChallengeNumberAsync())
+            .thenApply(challengeNumber -> null);
+    }
+
+    /**
+     * Returns whether the RCON connection to this server is already
+     * authenticated
+     *
+     * @return <code>true</code> if the RCON connection is authenticated
+     * @see #rconAuth
+     */
+    public boolean isRconAuthenticated() {
+        return this.rconAuthenticated;
     }
 
+    /**
+     * Uses the challenge number of this server from the shared cache if
+     * there is a valid one
+     *
+     * @return <code>true</code> if a cached challenge number is used
+     * @see #getChallengeCache
+     */
+    protected boolean loadCachedChallengeNumber() {
+        ChallengeCache cache = challengeCache;
+        if(cache == null) {
+            return false;
+        }
+
+        Integer cachedChallengeNumber = cache.get(this.getSocketAddress());
+        if(cachedChallengeNumber == null) {
+            return false;
+        }
+
+        this.challengeNumber = cachedChallengeNumber;
+        return true;
+    }
+
+    /**
+     * Returns the address of this server used as the key of cached data
+     *
+     * @return The address of this server
+     */
+    private InetSocketAddress getSocketAddress() {
+        return new InetSocketAddress(this.ipAddress, this.port);
+    }
+
+
+    /**
+     * Authenticates the connection for RCON communication with the server
+     * <p>
+     * Servers supporting RCON override this method. The default
+     * implementation fails as the server does not support RCON.
+     *
+     * @param password The RCON password of the server
+     * @return whether authentication was successful
+     * @see #rconExec
+     * @throws SteamCondenserException if a problem occurs while
+     *         authenticating
+     * @throws TimeoutException if the request times out
+     */
+    public boolean rconAuth(String password)
+            throws SteamCondenserException, TimeoutException {
+        throw new SteamCondenserException("RCON is not supported by this server.");
+    }
+
+    /**
+     * Remotely executes a command on the server via RCON
+     * <p>
+     * Servers supporting RCON override this method. The default
+     * implementation fails as the server does not support RCON.
+     *
+     * @param command The command to execute on the server
+     * @return The output of the executed command
+     * @see #rconAuth
+     * @throws SteamCondenserException if a problem occurs while parsing the
+     *         reply
+     * @throws TimeoutException if the request times out
+     */
+    public String rconExec(String command)
+            throws SteamCondenserException, TimeoutException {
+        throw new SteamCondenserException("RCON is not supported by this server.");
+    }
+
+    /**
+     * Returns the socket used for RCON communication with the server
+     * <p>
+     * Servers supporting RCON override this method. The default
+     * implementation returns <code>null</code> as the server does not
+     * support RCON.
+     *
+     * @return The socket used for RCON commands or <code>null</code>
+     * @throws SteamCondenserException if initializing the socket fails
+     */
+    protected SteamSocket getRconSocket() throws SteamCondenserException {
+        return null;
+    }
 
     /**
      * Sends a request packet to the server
@@ -375,11 +831,270 @@ public abstract class GameServer extends Server {
      */
     protected void sendRequest(SteamPacket requestData)
             throws SteamCondenserException {
-        if (this.socket == null) {
+        this.prepareSocket();
+
+        this.socket.send(requestData);
+    }
+
+    /**
+     * Initializes the socket of this server if needed and applies the
+     * timeout of this server to it
+     *
+     * @throws SteamCondenserException if initializing the socket fails
+     * @see #setSocketTimeout
+     */
+    private void prepareSocket() throws SteamCondenserException {
+        if(this.socket == null) {
             this.initSocket();
         }
 
-        this.socket.send(requestData);
+        if(this.socketTimeout > 0) {
+            this.socket.setSocketTimeout(this.socketTimeout);
+        }
+    }
+
+    /**
+     * Returns the deadline of a query starting now
+     *
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        query has to time out or <code>0</code> if the caller has no
+     *        deadline
+     * @return The given deadline shortened to the query timeout of this
+     *         server or <code>0</code> if there is no deadline
+     * @see #setQueryTimeout
+     */
+    private long getQueryDeadline(long deadline) {
+        if(this.queryTimeout > 0) {
+            long queryDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.queryTimeout);
+            deadline = SteamSocket.getEarliestDeadline(deadline, queryDeadline);
+        }
+
+        return deadline;
+    }
+
+    /**
+     * Returns the deadline after the given amount of time
+     *
+     * @param timeout The amount of time before the deadline
+     * @param unit The unit of the timeout
+     * @return The value of {@link System#nanoTime} after the given time
+     */
+    private static long toDeadline(long timeout, TimeUnit unit) {
+        return System.nanoTime() + unit.toNanos(Math.max(0, timeout));
+    }
+
+    /**
+     * Sets the deadline of the socket for a query if there is a deadline
+     * <p>
+     * An earlier deadline already set for the socket is kept.
+     *
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        query times out or <code>0</code> to only use the query timeout
+     * @return The previous deadline of the socket to be restored after the
+     *         query
+     * @throws SteamCondenserException if initializing the socket fails
+     * @see #finishQuery
+     * @see #setQueryTimeout
+     */
+    private long startQuery(long deadline) throws SteamCondenserException {
+        deadline = this.getQueryDeadline(deadline);
+        if(deadline == 0) {
+            return (this.socket == null) ? 0 : this.socket.getDeadline();
+        }
+
+        this.prepareSocket();
+        long previousDeadline = this.socket.getDeadline();
+        this.socket.setDeadline(SteamSocket.getEarliestDeadline(previousDeadline, deadline));
+
+        return previousDeadline;
+    }
+
+    /**
+     * Restores the deadline of the socket after a query
+     *
+     * @param previousDeadline The deadline of the socket before the query
+     * @see #startQuery
+     */
+    private void finishQuery(long previousDeadline) {
+        if(this.socket != null) {
+            this.socket.setDeadline(previousDeadline);
+        }
+    }
+
+    /**
+     * Sends a request packet to the server and returns the future reply
+     * <p>
+     * If this server uses a shared {@link QueryEngine}, no thread is blocked
+     * while waiting for the reply. Otherwise the request is sent and received
+     * using the server's own socket on a thread of the query executor.
+     *
+     * @param requestData The request packet to send to the server
+     * @return The future response packet replied by the server
+     * @see #setQueryEngine
+     * @see #setQueryExecutor
+     */
+    protected CompletableFuture<SteamPacket> sendRequestAsync(final SteamPacket requestData) {
+        return this.sendRequestAsync(requestData, null, this.getQueryDeadline(0));
+    }
+
+    /**
+     * Sends a request packet to the server and returns the future reply
+     * <p>
+     * The request is sent while holding the lock of this server's socket, so
+     * it cannot be mixed up with other requests sent at the same time. The
+     * deadline only applies to this request and the previous deadline of
+     * the socket is restored afterwards.
+     *
+     * @param requestData The request packet to send to the server
+     * @param roundTrip Records the time the request has been sent and the
+     *        reply has been received. If a shared {@link QueryEngine} is
+     *        used, the request is timed from passing it to the engine. May be
+     *        <code>null</code>.
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        request times out or <code>0</code> if there is no deadline
+     * @return The future response packet replied by the server
+     * @see #sendRequestAsync(SteamPacket)
+     */
+    private CompletableFuture<SteamPacket> sendRequestAsync(final SteamPacket requestData,
+                                                           final RoundTrip roundTrip,
+                                                           final long deadline) {
+        try {
+            this.prepareSocket();
+        } catch(SteamCondenserException e) {
+            CompletableFuture<SteamPacket> future = new CompletableFuture<SteamPacket>();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        if(this.socket instanceof SharedQuerySocket) {
+            if(roundTrip != null) {
+                roundTrip.sent();
+            }
+            return ((SharedQuerySocket) this.socket).request(requestData, deadline);
+        }
+
+        final QuerySocket socket = this.socket;
+        final ReentrantLock lock = this.socketLock;
+        Supplier<SteamPacket> request = () -> {
+            lock.lock();
+            long previousDeadline = socket.getDeadline();
+            try {
+                if(deadline != 0) {
+                    socket.setDeadline(SteamSocket.getEarliestDeadline(previousDeadline, deadline));
+                }
+                socket.send(requestData);
+                if(roundTrip == null) {
+                    return socket.getReply();
+                }
+
+                roundTrip.sent();
+                SteamPacket reply = socket.getReply();
+                roundTrip.received(socket);
+                return reply;
+            } catch(SteamCondenserException | TimeoutException e) {
+                throw new CompletionException(e);
+            } finally {
+                if(deadline != 0) {
+                    socket.setDeadline(previousDeadline);
+                }
+                lock.unlock();
+            }
+        };
+
+        Executor executor = queryExecutor;
+        if(executor == null) {
+            executor = getDefaultQueryExecutor();
+        }
+        return CompletableFuture.supplyAsync(request, executor);
+    }
+
+    /**
+     * Sets the latency of this server
+     *
+     * @param nanos The latency of this server in nanoseconds
+     */
+    private void setPing(long nanos) {
+        this.pingNanos = nanos;
+        this.pingTime = System.nanoTime();
+        this.ping = (int) TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Sets the maximum age of the ping of this server
+     * <p>
+     * If the ping is older, {@link #getPing()} will measure it again.
+     *
+     * @param maxAge The maximum age of the ping in milliseconds or
+     *        <code>0</code> to keep the ping until {@link #updatePing} is
+     *        called explicitly
+     */
+    public void setPingMaxAge(int maxAge) {
+        this.pingMaxAge = maxAge;
+    }
+
+    /**
+     * Sets the maximum time a single query of this server may take
+     * <p>
+     * The socket timeout bounds the time to receive a single reply. A query
+     * may need several requests though, e.g. if a new challenge number has
+     * to be requested first. The query timeout bounds the total time of all
+     * requests and replies of a query like {@link #updateRules} or
+     * {@link #updatePlayers}, so the time to update a server stays
+     * predictable.
+     * <p>
+     * This applies to queries sent without blocking, e.g. by a
+     * {@link RefreshScheduler}, as well. A time limit given for a single
+     * query can only shorten the query timeout.
+     *
+     * @param timeout The amount of milliseconds before a query of this
+     *        server times out or <code>0</code> to only limit the time of
+     *        single replies
+     * @see #setSocketTimeout
+     */
+    public void setQueryTimeout(int timeout) {
+        this.queryTimeout = timeout;
+    }
+
+    /**
+     * Sets the timeout for the queries of this server
+     * <p>
+     * This overrides the global timeout set using
+     * {@link com.github.koraktor.steamcondenser.servers.sockets.SteamSocket#setTimeout}
+     * for this server only.
+     *
+     * @param timeout The amount of milliseconds before a query of this
+     *        server times out or <code>0</code> to use the global timeout
+     */
+    public void setSocketTimeout(int timeout) {
+        this.socketTimeout = timeout;
+
+        if(this.socket != null) {
+            this.socket.setSocketTimeout(timeout);
+        }
+    }
+
+    /**
+     * Lets this server send its queries through the given query engine
+     * instead of using a socket of its own
+     * <p>
+     * Sharing a query engine between many servers avoids opening a socket per
+     * server. Passing <code>null</code> switches back to a private socket.
+     * <p>
+     * <strong>Note:</strong> This reinitializes the sockets of this server,
+     * so it should be called before authenticating for RCON.
+     *
+     * @param queryEngine The query engine to use or <code>null</code>
+     * @see QueryEngine
+     * @throws SteamCondenserException if initializing the socket fails
+     */
+    public void setQueryEngine(QueryEngine queryEngine)
+            throws SteamCondenserException {
+        if(this.socket != null) {
+            this.socket.close();
+        }
+
+        this.queryEngine = queryEngine;
+        this.initSocket();
     }
 
     /**
@@ -397,7 +1112,7 @@ public abstract class GameServer extends Server {
 
         if(this.serverInfo != null) {
             returnString += "Info:" + "\n";
-            for(Entry<String, Object> info : this.serverInfo.entrySet()) {
+            for(Entry<String, Object> info : this.serverInfo.toMap().entrySet()) {
                 returnString += "  " + info.getKey() + ": " + info.getValue() + "\n";
             }
         }
@@ -437,6 +1152,47 @@ public abstract class GameServer extends Server {
         this.handleResponseForRequest(GameServer.REQUEST_CHALLENGE);
     }
 
+    /**
+     * Requests a new challenge number from the server within the given time
+     *
+     * @param timeout The maximum time to wait for the challenge number
+     * @param unit The unit of the timeout
+     * @see #updateChallengeNumber()
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public void updateChallengeNumber(long timeout, TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        this.handleResponseForRequest(GameServer.REQUEST_CHALLENGE, toDeadline(timeout, unit));
+    }
+
+    /**
+     * Requests a new challenge number from the server without blocking the
+     * calling thread
+     *
+     * @return The future challenge number of this server
+     * @see #updateChallengeNumber
+     */
+    public CompletableFuture<Integer> updateChallengeNumberAsync() {
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_CHALLENGE, true)
+            .thenApply(packet -> this.challengeNumber);
+    }
+
+    /**
+     * Requests a new challenge number from the server within the given time
+     * without blocking the calling thread
+     *
+     * @param timeout The maximum time to wait for the challenge number
+     * @param unit The unit of the timeout
+     * @return The future challenge number of this server
+     * @see #updateChallengeNumber(long, TimeUnit)
+     */
+    public CompletableFuture<Integer> updateChallengeNumberAsync(long timeout, TimeUnit unit) {
+        long deadline = this.getQueryDeadline(toDeadline(timeout, unit));
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_CHALLENGE, true, deadline)
+            .thenApply(packet -> this.challengeNumber);
+    }
+
     /**
      * Sends a A2S_INFO request to the server and measures the time needed for
      * the reply
@@ -451,12 +1207,130 @@ public abstract class GameServer extends Server {
      */
     public void updatePing()
             throws SteamCondenserException, TimeoutException {
-        this.sendRequest(new A2S_INFO_Packet());
-        long startTime = System.currentTimeMillis();
-        //System.out.println(startTime);
-        this.getReply();
-        long endTime = System.currentTimeMillis();
-        this.ping = Long.valueOf(endTime - startTime).intValue();
+        this.updatePing(0L);
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and measures the time needed for
+     * the reply within the given time
+     *
+     * @param timeout The maximum time to wait for the reply
+     * @param unit The unit of the timeout
+     * @see #updatePing()
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public void updatePing(long timeout, TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        this.updatePing(toDeadline(timeout, unit));
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and measures the time needed for
+     * the reply before the given deadline
+     *
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        request times out or <code>0</code> to only use the query timeout
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    private void updatePing(long deadline)
+            throws SteamCondenserException, TimeoutException {
+        RoundTrip roundTrip = new RoundTrip();
+        this.socketLock.lock();
+        long previousDeadline = 0;
+        try {
+            previousDeadline = this.startQuery(deadline);
+            this.sendRequest(new A2S_INFO_Packet());
+            roundTrip.sent();
+            this.getReply();
+            roundTrip.received(this.socket);
+        } finally {
+            this.finishQuery(previousDeadline);
+            this.socketLock.unlock();
+        }
+        this.setPing(roundTrip.getNanos());
+    }
+
+    /**
+     * Updates the ping of this server with the median latency of the given
+     * statistics
+     * <p>
+     * This can be used to apply the results of a {@link LatencyProbe} that
+     * measures the latency of many servers periodically.
+     *
+     * @param statistics The latency statistics of this server
+     * @see LatencyProbe#start
+     * @throws TimeoutException if the server has not been reachable
+     */
+    public void updatePing(LatencyStatistics statistics)
+            throws TimeoutException {
+        if(!statistics.isReachable()) {
+            throw new TimeoutException();
+        }
+
+        this.setPing(statistics.getMedian());
+    }
+
+    /**
+     * Measures the latency of this server using the given number of
+     * A2S_INFO requests and updates the ping with the median latency
+     *
+     * @param probe The latency probe to measure with
+     * @param samples The number of requests to send
+     * @return The latency statistics of this server
+     * @see #getPing
+     * @see LatencyProbe
+     * @throws SteamCondenserException if the measurement fails
+     * @throws TimeoutException if no request has been answered
+     */
+    public LatencyStatistics updatePing(LatencyProbe probe, int samples)
+            throws SteamCondenserException, TimeoutException {
+        InetSocketAddress address = this.getSocketAddress();
+        LatencyStatistics statistics = probe.measure(Collections.singleton(address), samples, 0).get(address);
+        this.updatePing(statistics);
+
+        return statistics;
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and measures the time needed for
+     * the reply without blocking the calling thread
+     *
+     * @return The future latency of this server in milliseconds
+     * @see #updatePing
+     */
+    public CompletableFuture<Integer> updatePingAsync() {
+        return this.updatePingAsync(this.getQueryDeadline(0));
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and measures the time needed for
+     * the reply within the given time without blocking the calling thread
+     *
+     * @param timeout The maximum time to wait for the reply
+     * @param unit The unit of the timeout
+     * @return The future latency of this server in milliseconds
+     * @see #updatePing(long, TimeUnit)
+     */
+    public CompletableFuture<Integer> updatePingAsync(long timeout, TimeUnit unit) {
+        return this.updatePingAsync(this.getQueryDeadline(toDeadline(timeout, unit)));
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and measures the time needed for
+     * the reply before the given deadline without blocking the calling thread
+     *
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        request times out or <code>0</code> if there is no deadline
+     * @return The future latency of this server in milliseconds
+     */
+    private CompletableFuture<Integer> updatePingAsync(long deadline) {
+        final RoundTrip roundTrip = new RoundTrip();
+        return this.sendRequestAsync(new A2S_INFO_Packet(), roundTrip, deadline).thenApply(packet -> {
+            this.setPing(roundTrip.getNanos());
+            return this.ping;
+        });
     }
 
     /**
@@ -484,19 +1358,139 @@ public abstract class GameServer extends Server {
      * As the players and their scores change quite often be sure to update
      * this list regularly by calling this method if you rely on this
      * information.
+     * <p>
+     * If RCON is authenticated or a password is given, the output of
+     * <code>rcon status</code> is added to the players. The changes compared
+     * to the previous player list are available using
+     * {@link #getPlayerDiff}. The players are also added to the shared
+     * {@link PlayerIndex} if one is set.
      *
      * @param rconPassword The RCON password of this server may be provided to
      *        gather more detailed information on the players, like STEAM_IDs.
+     * @see #getPlayerDiff
      * @see #getPlayers
      * @see #handleResponseForRequest
+     * @throws RCONNoAuthException if the RCON password is not accepted
      * @throws SteamCondenserException if the request fails
      * @throws TimeoutException if the request times out
      */
-    public void updatePlayers(String Password)
+    public void updatePlayers(String rconPassword)
             throws SteamCondenserException, TimeoutException {
-        		
-    			this.handleResponseForRequest(GameServer.REQUEST_PLAYER);
-                return;
+        HashMap<String, SteamPlayer> previousPlayers = this.playerHash;
+        this.handleResponseForRequest(GameServer.REQUEST_PLAYER);
+        this.updatePlayerStatus(rconPassword);
+        this.updatePlayerDiff(previousPlayers);
+    }
+
+    /**
+     * Sends a A2S_PLAYERS request to the server and updates the players' data
+     * for this server within the given time
+     * <p>
+     * The time limit applies to the A2S_PLAYERS query only, the RCON
+     * <code>status</code> command uses the timeout of the RCON socket.
+     *
+     * @param rconPassword The RCON password of this server may be provided to
+     *        gather more detailed information on the players, like STEAM_IDs.
+     * @param timeout The maximum time to wait for the players
+     * @param unit The unit of the timeout
+     * @see #updatePlayers(String)
+     * @throws RCONNoAuthException if the RCON password is not accepted
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public void updatePlayers(String rconPassword, long timeout, TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        HashMap<String, SteamPlayer> previousPlayers = this.playerHash;
+        this.handleResponseForRequest(GameServer.REQUEST_PLAYER, toDeadline(timeout, unit));
+        this.updatePlayerStatus(rconPassword);
+        this.updatePlayerDiff(previousPlayers);
+    }
+
+    /**
+     * Adds the output of <code>rcon status</code> to the players if RCON is
+     * authenticated or a password is given
+     *
+     * @param rconPassword The RCON password of this server or
+     *        <code>null</code>
+     * @throws RCONNoAuthException if the RCON password is not accepted
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    private void updatePlayerStatus(String rconPassword)
+            throws SteamCondenserException, TimeoutException {
+        if(this.rconAuthenticated || rconPassword != null) {
+            if(!this.rconAuthenticated && !this.rconAuth(rconPassword)) {
+                throw new RCONNoAuthException();
+            }
+
+            StatusParser.parse(this.rconExec("status"), this.getPlayerList());
+        }
+    }
+
+    /**
+     * Computes the changes to the given previous players and updates the
+     * shared player index
+     *
+     * @param previousPlayers The players before the update or
+     *        <code>null</code>
+     * @see #getPlayerDiff
+     */
+    private void updatePlayerDiff(HashMap<String, SteamPlayer> previousPlayers) {
+        this.playerDiff = PlayerDiff.compute(previousPlayers, this.playerHash);
+
+        PlayerIndex index = playerIndex;
+        if(index != null) {
+            index.update(this, this.getPlayerList());
+        }
+    }
+
+    /**
+     * Sends a A2S_PLAYERS request to the server and updates the players' data
+     * for this server without blocking the calling thread
+     * <p>
+     * If the server replies with a new challenge number, the request is
+     * repeated automatically. The changes compared to the previous player
+     * list are available using {@link #getPlayerDiff} once the future is
+     * completed.
+     *
+     * @return The future players of this server
+     * @see #getPlayerDiff
+     * @see #updatePlayers
+     */
+    public CompletableFuture<HashMap<String, SteamPlayer>> updatePlayersAsync() {
+        return this.updatePlayersAsync(this.getQueryDeadline(0));
+    }
+
+    /**
+     * Sends a A2S_PLAYERS request to the server and updates the players' data
+     * for this server within the given time without blocking the calling
+     * thread
+     *
+     * @param timeout The maximum time to wait for the players
+     * @param unit The unit of the timeout
+     * @return The future players of this server
+     * @see #updatePlayersAsync()
+     */
+    public CompletableFuture<HashMap<String, SteamPlayer>> updatePlayersAsync(long timeout, TimeUnit unit) {
+        return this.updatePlayersAsync(this.getQueryDeadline(toDeadline(timeout, unit)));
+    }
+
+    /**
+     * Sends a A2S_PLAYERS request to the server and updates the players' data
+     * for this server before the given deadline without blocking the calling
+     * thread
+     *
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        query times out or <code>0</code> if there is no deadline
+     * @return The future players of this server
+     */
+    private CompletableFuture<HashMap<String, SteamPlayer>> updatePlayersAsync(long deadline) {
+        final HashMap<String, SteamPlayer> previousPlayers = this.playerHash;
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_PLAYER, true, deadline)
+            .thenApply(packet -> {
+                this.updatePlayerDiff(previousPlayers);
+                return this.playerHash;
+            });
     }
 
     /**
@@ -517,6 +1511,51 @@ public abstract class GameServer extends Server {
         this.handleResponseForRequest(GameServer.REQUEST_RULES);
     }
 
+    /**
+     * Sends a A2S_RULES request to the server and updates the rules of this
+     * server within the given time
+     *
+     * @param timeout The maximum time to wait for the rules
+     * @param unit The unit of the timeout
+     * @see #updateRules()
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public void updateRules(long timeout, TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        this.handleResponseForRequest(GameServer.REQUEST_RULES, toDeadline(timeout, unit));
+    }
+
+    /**
+     * Sends a A2S_RULES request to the server and updates the rules of this
+     * server without blocking the calling thread
+     * <p>
+     * If the server replies with a new challenge number, the request is
+     * repeated automatically.
+     *
+     * @return The future rules of this server
+     * @see #updateRules
+     */
+    public CompletableFuture<HashMap<String, String>> updateRulesAsync() {
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_RULES, true)
+            .thenApply(packet -> this.rulesHash);
+    }
+
+    /**
+     * Sends a A2S_RULES request to the server and updates the rules of this
+     * server within the given time without blocking the calling thread
+     *
+     * @param timeout The maximum time to wait for the rules
+     * @param unit The unit of the timeout
+     * @return The future rules of this server
+     * @see #updateRules(long, TimeUnit)
+     */
+    public CompletableFuture<HashMap<String, String>> updateRulesAsync(long timeout, TimeUnit unit) {
+        long deadline = this.getQueryDeadline(toDeadline(timeout, unit));
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_RULES, true, deadline)
+            .thenApply(packet -> this.rulesHash);
+    }
+
     /**
      * Sends a A2S_INFO request to the server and updates this server's basic
      * information
@@ -535,4 +1574,94 @@ public abstract class GameServer extends Server {
             throws SteamCondenserException, TimeoutException {
         this.handleResponseForRequest(GameServer.REQUEST_INFO);
     }
+
+    /**
+     * Sends a A2S_INFO request to the server and updates this server's basic
+     * information within the given time
+     *
+     * @param timeout The maximum time to wait for the information
+     * @param unit The unit of the timeout
+     * @see #updateServerInfo()
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public void updateServerInfo(long timeout, TimeUnit unit)
+            throws SteamCondenserException, TimeoutException {
+        this.handleResponseForRequest(GameServer.REQUEST_INFO, toDeadline(timeout, unit));
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and updates this server's basic
+     * information without blocking the calling thread
+     *
+     * @return The future information of this server
+     * @see #updateServerInfo
+     */
+    public CompletableFuture<HashMap<String, Object>> updateServerInfoAsync() {
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_INFO, true)
+            .thenApply(packet -> this.serverInfo.toMap());
+    }
+
+    /**
+     * Sends a A2S_INFO request to the server and updates this server's basic
+     * information within the given time without blocking the calling thread
+     *
+     * @param timeout The maximum time to wait for the information
+     * @param unit The unit of the timeout
+     * @return The future information of this server
+     * @see #updateServerInfo(long, TimeUnit)
+     */
+    public CompletableFuture<HashMap<String, Object>> updateServerInfoAsync(long timeout, TimeUnit unit) {
+        long deadline = this.getQueryDeadline(toDeadline(timeout, unit));
+        return this.handleResponseForRequestAsync(GameServer.REQUEST_INFO, true, deadline)
+            .thenApply(packet -> this.serverInfo.toMap());
+    }
+
+    /**
+     * Records the times a request has been sent and its reply has been
+     * received to measure the latency of a server
+     * <p>
+     * The reply time is taken from the socket as soon as the reply becomes
+     * readable, so it does not include reading, reassembling or parsing the
+     * reply. If the socket does not provide this time, the time the reply has
+     * been handed over is used instead.
+     */
+    private static class RoundTrip {
+
+        private volatile long received;
+
+        private volatile long sent;
+
+        /**
+         * Returns the latency measured by this round trip
+         *
+         * @return The time between sending the request and receiving the
+         *         reply in nanoseconds
+         */
+        long getNanos() {
+            if(this.received == 0) {
+                this.received = System.nanoTime();
+            }
+
+            return Math.max(0, this.received - this.sent);
+        }
+
+        /**
+         * Records the time the reply has been received by the given socket
+         *
+         * @param socket The socket the reply has been received with
+         */
+        void received(QuerySocket socket) {
+            long replyTime = socket.getReplyTime();
+            this.received = (replyTime - this.sent > 0) ? replyTime : System.nanoTime();
+        }
+
+        /**
+         * Records the current time as the time the request has been sent
+         */
+        void sent() {
+            this.sent = System.nanoTime();
+        }
+    }
+
 }
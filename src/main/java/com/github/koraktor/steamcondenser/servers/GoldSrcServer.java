@@ -9,11 +9,16 @@ package com.github.koraktor.steamcondenser.servers;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.sockets.GoldSrcSocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SharedQuerySocket;
 
 /**
  * This class represents a GoldSrc game server and can be used to query
@@ -31,8 +36,8 @@ public class GoldSrcServer extends GameServer {
     private boolean isHLTV;
 
     protected String rconPassword;
-    protected boolean rconAuthenticated;
     protected int rconRequestId;
+    protected GoldSrcSocket rconSocket;
 
     /**
      * Returns a master server instance for the default master server for
@@ -133,13 +138,55 @@ public class GoldSrcServer extends GameServer {
         this.isHLTV = isHLTV;
     }
 
+    /**
+     * Closes the sockets used to communicate with the GoldSrc server
+     */
+    public void disconnect() {
+        super.disconnect();
+        if(this.rconSocket != null) {
+            this.rconSocket.close();
+            this.rconSocket = null;
+        }
+    }
+
     /**
      * Initializes the socket to communicate with the GoldSrc server
      *
      * @see GoldSrcSocket
+     * @see SharedQuerySocket
      */
     public void initSocket() throws SteamCondenserException {
-        this.socket = new GoldSrcSocket(this.ipAddress, this.port, this.isHLTV);
+        if(this.rconSocket != null) {
+            this.rconSocket.close();
+            this.rconSocket = null;
+        }
+        if(this.queryEngine == null) {
+            this.socket = new GoldSrcSocket(this.ipAddress, this.port, this.isHLTV);
+        } else {
+            this.socket = new SharedQuerySocket(this.queryEngine, this.ipAddress, this.port, true);
+        }
+    }
+
+    /**
+     * Returns the socket used for RCON communication with the server
+     * <p>
+     * If the queries of this server are sent through a shared query engine,
+     * RCON commands still need a socket of their own, which is opened on
+     * first use.
+     *
+     * @return The socket to use for RCON commands
+     * @throws SteamCondenserException if initializing the socket fails
+     */
+    protected GoldSrcSocket getRconSocket() throws SteamCondenserException {
+        if(this.socket instanceof GoldSrcSocket) {
+            return (GoldSrcSocket) this.socket;
+        }
+
+        if(this.rconSocket == null) {
+            this.rconSocket = new GoldSrcSocket(this.ipAddress, this.port, this.isHLTV);
+        }
+
+        return this.rconSocket;
     }
 
     /**
@@ -180,11 +227,54 @@ public class GoldSrcServer extends GameServer {
             throw new RCONNoAuthException();
         }
 
+        long start = System.nanoTime();
+        boolean success = false;
+        this.socketLock.lock();
+        try {
+            String response = this.getRconSocket().rconExec(this.rconPassword, command).trim();
+            success = true;
+            return response;
+        } catch (RCONNoAuthException e) {
+            this.rconAuthenticated = false;
+            throw e;
+        } finally {
+            this.socketLock.unlock();
+            Metrics.getRecorder().rconRoundTrip(Protocol.GOLDSRC, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Remotely executes several commands on the server via RCON
+     * <p>
+     * The commands are sent in as few requests as possible and the output
+     * of each command is returned separately.
+     *
+     * @param commands The commands to execute on the server via RCON
+     * @return The outputs of the executed commands in the order of the
+     *         commands
+     * @see #rconExec(String)
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public List<String> rconExec(List<String> commands)
+            throws TimeoutException, SteamCondenserException {
+        if (!this.rconAuthenticated) {
+            throw new RCONNoAuthException();
+        }
+
+        this.socketLock.lock();
         try {
-            return ((GoldSrcSocket) this.socket).rconExec(this.rconPassword, command).trim();
+            List<String> responses = this.getRconSocket().rconExec(this.rconPassword, commands);
+            List<String> outputs = new ArrayList<String>(responses.size());
+            for(String response : responses) {
+                outputs.add(response.trim());
+            }
+            return outputs;
         } catch (RCONNoAuthException e) {
             this.rconAuthenticated = false;
             throw e;
+        } finally {
+            this.socketLock.unlock();
         }
     }
 
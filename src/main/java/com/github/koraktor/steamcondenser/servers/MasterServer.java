@@ -10,15 +10,25 @@ package com.github.koraktor.steamcondenser.servers;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeoutException;
 
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.A2M_GET_SERVERS_BATCH2_Paket;
 import com.github.koraktor.steamcondenser.servers.packets.M2A_SERVER_BATCH_Paket;
 import com.github.koraktor.steamcondenser.servers.sockets.MasterServerSocket;
@@ -92,6 +102,19 @@ public class MasterServer extends Server {
      */
     public static final byte REGION_ALL = (byte)0xFF;
 
+    /**
+     * The region codes of all single regions
+     * <p>
+     * These can be used to split a crawl of the whole world into shards.
+     *
+     * @see #crawl
+     */
+    public static final byte[] REGIONS = {
+        REGION_US_EAST_COAST, REGION_US_WEST_COAST, REGION_SOUTH_AMERICA,
+        REGION_EUROPE, REGION_ASIA, REGION_AUSTRALIA, REGION_MIDDLE_EAST,
+        REGION_AFRICA
+    };
+
     public static int retries = 3;
 
     protected MasterServerSocket socket;
@@ -240,40 +263,49 @@ public class MasterServer extends Server {
      */
     public Set<InetSocketAddress> getServers(byte regionCode, String filter, boolean force)
             throws SteamCondenserException, TimeoutException {
-        int failCount    = 0;
-        boolean finished = false;
-        int portNumber   = 0;
-        String hostName  = "0.0.0.0";
-        Vector<String> serverStringArray;
-        Set<InetSocketAddress> serverSet = new HashSet<>();
+        final Set<InetSocketAddress> serverSet = new HashSet<>();
 
-        while(true) {
-            try {
-                failCount = 0;
-                do {
-                    this.socket.send(new A2M_GET_SERVERS_BATCH2_Paket(regionCode, hostName + ":" + portNumber, filter));
-                    try {
-                        serverStringArray = ((M2A_SERVER_BATCH_Paket) this.socket.getReply()).getServers();
+        this.streamServers(regionCode, filter, force, new ServerBatchListener() {
+            public void batchReceived(long[] servers) {
+                for(long server : servers) {
+                    serverSet.add(ServerAddress.toInetSocketAddress(server));
+                }
+            }
+        });
 
-                        for(String serverString : serverStringArray) {
-                            hostName = serverString.substring(0, serverString.lastIndexOf(":"));
-                            portNumber = Integer.valueOf(serverString.substring(serverString.lastIndexOf(":") + 1));
+        return serverSet;
+    }
 
-                            if(!hostName.equals("0.0.0.0") && portNumber != 0) {
-                                serverSet.add(new InetSocketAddress(hostName, portNumber));
-                            } else {
-                                finished = true;
-                            }
-                        }
-                        failCount = 0;
-                    } catch(TimeoutException e) {
-                        failCount ++;
-                        if(failCount == retries) {
-                            throw e;
-                        }
-                        //LOG.info("Request to master server " + this.ipAddress + " timed out, retrying...");
-                    }
-                } while(!finished);
+    /**
+     * Requests the game servers matching the given region and filters and
+     * passes each batch to the given listener as soon as it has been received
+     * <p>
+     * This allows to start working with the first servers while the
+     * remaining batches are still being requested. The servers are passed as
+     * packed addresses, see {@link ServerAddress}.
+     * <p>
+     * See {@link #getServers(byte, String, boolean)} for the available
+     * filters.
+     *
+     * @param regionCode The region code to specify a location of the game
+     *        servers
+     * @param filter The filters that game servers should match
+     * @param force Whether to stop without an error if too many timeouts
+     *        occur
+     * @param listener The listener to pass the batches of servers to
+     * @return The number of servers received
+     * @see ServerAddress
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if too many timeouts occur while querying the
+     *         master server
+     */
+    public int streamServers(byte regionCode, String filter, boolean force, ServerBatchListener listener)
+            throws SteamCondenserException, TimeoutException {
+        BatchCursor cursor = new BatchCursor();
+
+        while(true) {
+            try {
+                this.streamServers(this.socket, regionCode, filter, cursor, listener);
                 break;
             } catch(TimeoutException e) {
                 if (force) {
@@ -285,7 +317,145 @@ public class MasterServer extends Server {
             }
         }
 
-        return serverSet;
+        return cursor.serverCount;
+    }
+
+    /**
+     * Requests the batches of game servers matching the given region and
+     * filters from the given socket, starting at the position of the given
+     * cursor
+     * <p>
+     * The cursor is updated after each batch, so the servers can be requested
+     * again starting with the next batch, e.g. from another IP address of the
+     * master server.
+     *
+     * @param socket The socket to request the batches with
+     * @param regionCode The region code to specify a location of the game
+     *        servers
+     * @param filter The filters that game servers should match
+     * @param cursor The position in the list of servers
+     * @param listener The listener to pass the batches of servers to
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if a request times out too often
+     */
+    private void streamServers(MasterServerSocket socket, byte regionCode, String filter,
+                               BatchCursor cursor, ServerBatchListener listener)
+            throws SteamCondenserException, TimeoutException {
+        int failCount = 0;
+        while(!cursor.finished) {
+            socket.send(new A2M_GET_SERVERS_BATCH2_Paket(regionCode, ServerAddress.toString(cursor.seed), filter));
+            try {
+                long[] servers = ((M2A_SERVER_BATCH_Paket) socket.getReply()).getServerAddresses();
+                int batchSize = servers.length;
+
+                cursor.seed = servers[batchSize - 1];
+                if(cursor.seed == 0) {
+                    cursor.finished = true;
+                    batchSize --;
+                    servers = Arrays.copyOf(servers, batchSize);
+                }
+
+                if(batchSize > 0) {
+                    listener.batchReceived(servers);
+                    cursor.serverCount += batchSize;
+                }
+                failCount = 0;
+            } catch(TimeoutException e) {
+                failCount ++;
+                if(failCount == retries) {
+                    throw e;
+                }
+                Metrics.getRecorder().requestRetried(Protocol.MASTER);
+                //LOG.info("Request to master server " + this.ipAddress + " timed out, retrying...");
+            }
+        }
+    }
+
+    /**
+     * Returns a list of game servers matching the given regions and filters
+     * by crawling several shards of the server list concurrently
+     * <p>
+     * Every combination of a region code and a filter is a shard that is
+     * requested independently from the others. The shards are distributed
+     * over all IP addresses of this master server and up to
+     * <code>parallelism</code> shards are crawled at the same time, each with
+     * a socket of its own. If a shard times out on one IP address, it is
+     * continued on the next one.
+     * <p>
+     * Servers matching more than one shard are only returned once.
+     * <p>
+     * Filter shards should be complete filters, e.g.
+     * <code>\\type\\d\\gamedir\\tf</code> and
+     * <code>\\type\\d\\gamedir\\cstrike</code>.
+     *
+     * @param regionCodes The region codes to crawl, e.g. {@link #REGIONS}
+     * @param filters The filters to crawl. Each one is combined with every
+     *        region code.
+     * @param parallelism The maximum number of shards to crawl at the same
+     *        time
+     * @param force Whether to return the servers received so far if a shard
+     *        fails
+     * @param listener An optional listener notified about the progress of the
+     *        crawl
+     * @return A list of game servers matching the given regions and filters
+     * @see #getServers(byte, String, boolean)
+     * @throws SteamCondenserException if a request fails
+     * @throws TimeoutException if a shard times out on all IP addresses of
+     *         this master server
+     */
+    public Set<InetSocketAddress> crawl(byte[] regionCodes, String[] filters,
+                                        int parallelism, boolean force,
+                                        CrawlListener listener)
+            throws SteamCondenserException, TimeoutException {
+        Set<Long> serverSet = ConcurrentHashMap.newKeySet();
+        int shardCount = regionCodes.length * filters.length;
+        if(shardCount == 0) {
+            return new HashSet<InetSocketAddress>();
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, shardCount)));
+        List<Future<Integer>> shards = new ArrayList<Future<Integer>>(shardCount);
+        try {
+            int shardIndex = 0;
+            for(byte regionCode : regionCodes) {
+                for(String filter : filters) {
+                    int ipIndex = (this.ipIndex + shardIndex++) % this.ipAddresses.size();
+                    shards.add(executor.submit(new ShardCrawler(regionCode, filter, ipIndex, serverSet, listener)));
+                }
+            }
+
+            Throwable failure = null;
+            for(Future<Integer> shard : shards) {
+                try {
+                    shard.get();
+                } catch(ExecutionException e) {
+                    if(failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+
+            if(failure != null && !force) {
+                if(failure instanceof TimeoutException) {
+                    throw (TimeoutException) failure;
+                } else if(failure instanceof SteamCondenserException) {
+                    throw (SteamCondenserException) failure;
+                }
+                throw new SteamCondenserException(failure.getMessage(), failure);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while crawling the master server.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Set<InetSocketAddress> servers = new HashSet<InetSocketAddress>(serverSet.size() * 4 / 3 + 1);
+        for(long server : serverSet) {
+            servers.add(ServerAddress.toInetSocketAddress(server));
+        }
+
+        return servers;
     }
 
     /**
@@ -297,4 +467,99 @@ public class MasterServer extends Server {
         this.socket = new MasterServerSocket(this.ipAddress, this.port);
     }
 
+
+    /**
+     * The position in the list of game servers while requesting its batches
+     */
+    private static class BatchCursor {
+
+        boolean finished;
+
+        long seed;
+
+        int serverCount;
+    }
+
+    /**
+     * This class crawls a single shard of the server list, i.e. all servers
+     * for one region code and filter
+     */
+    private class ShardCrawler implements Callable<Integer>, ServerBatchListener {
+
+        private String filter;
+
+        private int ipIndex;
+
+        private CrawlListener listener;
+
+        private byte regionCode;
+
+        private Set<Long> serverSet;
+
+        ShardCrawler(byte regionCode, String filter, int ipIndex,
+                     Set<Long> serverSet, CrawlListener listener) {
+            this.filter = filter;
+            this.ipIndex = ipIndex;
+            this.listener = listener;
+            this.regionCode = regionCode;
+            this.serverSet = serverSet;
+        }
+
+        /**
+         * Adds the packed addresses of a batch to the servers of the crawl
+         *
+         * @param servers The packed addresses of the servers in the batch
+         */
+        public void batchReceived(long[] servers) {
+            for(long server : servers) {
+                this.serverSet.add(server);
+            }
+
+            if(this.listener != null) {
+                this.listener.batchReceived(this.regionCode, this.filter, servers.length, this.serverSet.size());
+            }
+        }
+
+        /**
+         * Requests all batches of this shard, continuing on the next IP
+         * address of the master server after too many timeouts
+         *
+         * @return The number of servers received for this shard
+         * @throws SteamCondenserException if a request fails
+         * @throws TimeoutException if the shard times out on all IP addresses
+         */
+        public Integer call() throws SteamCondenserException, TimeoutException {
+            int attempts       = 0;
+            BatchCursor cursor = new BatchCursor();
+
+            try {
+                while(!cursor.finished) {
+                    MasterServerSocket socket = new MasterServerSocket(ipAddresses.get(this.ipIndex), port);
+                    try {
+                        streamServers(socket, this.regionCode, this.filter, cursor, this);
+                    } catch(TimeoutException e) {
+                        attempts ++;
+                        if(attempts == ipAddresses.size()) {
+                            throw e;
+                        }
+                        this.ipIndex = (this.ipIndex + 1) % ipAddresses.size();
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch(SteamCondenserException | TimeoutException e) {
+                if(this.listener != null) {
+                    this.listener.shardFailed(this.regionCode, this.filter, e);
+                }
+                throw e;
+            }
+
+            if(this.listener != null) {
+                this.listener.shardFinished(this.regionCode, this.filter, cursor.serverCount);
+            }
+
+            return cursor.serverCount;
+        }
+    }
+
 }
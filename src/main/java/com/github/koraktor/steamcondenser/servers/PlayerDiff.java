@@ -0,0 +1,190 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents the changes between two successive player lists of
+ * a game server
+ * <p>
+ * Players are matched by their connection ID if extended information from
+ * <code>rcon status</code> is available for both lists, so renamed players
+ * are recognized. Otherwise they are matched by their name. A player has
+ * changed if its name, score or connection state differs. Ping, loss and
+ * connection time are not compared as they change all the time.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#getPlayerDiff
+ */
+public class PlayerDiff {
+
+    private final List<SteamPlayer> changed;
+
+    private final List<SteamPlayer> joined;
+
+    private final List<SteamPlayer> left;
+
+    /**
+     * Computes the changes between the given player lists
+     *
+     * @param previous The previous players of the server or
+     *        <code>null</code>
+     * @param current The current players of the server or
+     *        <code>null</code>
+     * @return The changes between the player lists
+     */
+    public static PlayerDiff compute(Map<String, SteamPlayer> previous,
+                                     Map<String, SteamPlayer> current) {
+        List<SteamPlayer> changed = new ArrayList<SteamPlayer>();
+        List<SteamPlayer> joined = new ArrayList<SteamPlayer>();
+        List<SteamPlayer> left = new ArrayList<SteamPlayer>();
+
+        if(current == null || current.isEmpty()) {
+            if(previous != null) {
+                left.addAll(previous.values());
+            }
+            return new PlayerDiff(changed, joined, left);
+        }
+
+        if(previous == null || previous.isEmpty()) {
+            joined.addAll(current.values());
+            return new PlayerDiff(changed, joined, left);
+        }
+
+        boolean byConnection = isExtended(previous) && isExtended(current);
+        Map<Object, SteamPlayer> previousPlayers = new HashMap<Object, SteamPlayer>(previous.size() * 2);
+        for(SteamPlayer player : previous.values()) {
+            previousPlayers.put(key(player, byConnection), player);
+        }
+
+        for(SteamPlayer player : current.values()) {
+            SteamPlayer previousPlayer = previousPlayers.remove(key(player, byConnection));
+            if(previousPlayer == null) {
+                joined.add(player);
+            } else if(hasChanged(previousPlayer, player)) {
+                changed.add(player);
+            }
+        }
+        left.addAll(previousPlayers.values());
+
+        return new PlayerDiff(changed, joined, left);
+    }
+
+    /**
+     * Returns whether the given player has changed
+     *
+     * @param previous The previous state of the player
+     * @param current The current state of the player
+     * @return <code>true</code> if name, score or state differ
+     */
+    private static boolean hasChanged(SteamPlayer previous, SteamPlayer current) {
+        if(previous.getScore() != current.getScore() ||
+           !previous.getName().equals(current.getName())) {
+            return true;
+        }
+
+        if(previous.getState() == null) {
+            return current.getState() != null;
+        }
+
+        return !previous.getState().equals(current.getState());
+    }
+
+    /**
+     * Returns whether extended information is available for all given
+     * players
+     *
+     * @param players The players to check
+     * @return <code>true</code> if all players are extended
+     */
+    private static boolean isExtended(Map<String, SteamPlayer> players) {
+        for(SteamPlayer player : players.values()) {
+            if(!player.isExtended()) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the key used to match the given player
+     *
+     * @param player The player
+     * @param byConnection Whether to match players by connection ID
+     * @return The connection ID or the name of the player
+     */
+    private static Object key(SteamPlayer player, boolean byConnection) {
+        if(byConnection) {
+            return player.getConnectionId();
+        }
+
+        return player.getName();
+    }
+
+    /**
+     * Creates a new diff from the given lists
+     *
+     * @param changed The players that have changed
+     * @param joined The players that have joined
+     * @param left The players that have left
+     */
+    private PlayerDiff(List<SteamPlayer> changed, List<SteamPlayer> joined, List<SteamPlayer> left) {
+        this.changed = Collections.unmodifiableList(changed);
+        this.joined = Collections.unmodifiableList(joined);
+        this.left = Collections.unmodifiableList(left);
+    }
+
+    /**
+     * Returns the players whose name, score or state has changed
+     *
+     * @return The changed players in their current state
+     */
+    public List<SteamPlayer> getChanged() {
+        return this.changed;
+    }
+
+    /**
+     * Returns the players that have joined the server
+     *
+     * @return The players that joined
+     */
+    public List<SteamPlayer> getJoined() {
+        return this.joined;
+    }
+
+    /**
+     * Returns the players that have left the server
+     *
+     * @return The players that left in their last known state
+     */
+    public List<SteamPlayer> getLeft() {
+        return this.left;
+    }
+
+    /**
+     * Returns whether there are no changes at all
+     *
+     * @return <code>true</code> if no player has joined, left or changed
+     */
+    public boolean isEmpty() {
+        return this.changed.isEmpty() && this.joined.isEmpty() && this.left.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "[joined: " + this.joined.size() +
+            ", left: " + this.left.size() + ", changed: " + this.changed.size() + "]";
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * This class indexes the players of many game servers by their name and
+ * SteamID
+ * <p>
+ * The index answers which servers a player is currently playing on in
+ * constant time. Names can also be searched by prefix. It is updated with
+ * the player list of a single server at a time, e.g. each time
+ * {@link GameServer#updatePlayers} is called if the index has been set using
+ * {@link GameServer#setPlayerIndex}. Only the names and SteamIDs that have
+ * changed since the last update of a server are touched.
+ * <p>
+ * SteamIDs are only available for players extended using
+ * <code>rcon status</code>. Bots and HLTV clients are not indexed by their
+ * SteamID. Different players using the same name are all found, as the
+ * index maps each name to the servers it is used on. To index the SteamIDs
+ * of all of them, the index has to be updated with the complete list of
+ * players instead of the players by name.
+ * <p>
+ * All methods may be called concurrently.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#setPlayerIndex
+ */
+public class PlayerIndex {
+
+    private final ConcurrentMap<String, Set<GameServer>> names;
+
+    private final ConcurrentMap<GameServer, Entry> servers;
+
+    private final NavigableSet<String> sortedNames;
+
+    private final ConcurrentMap<String, Set<GameServer>> steamIds;
+
+    /**
+     * Creates a new empty player index
+     */
+    public PlayerIndex() {
+        this.names = new ConcurrentHashMap<String, Set<GameServer>>();
+        this.servers = new ConcurrentHashMap<GameServer, Entry>();
+        this.sortedNames = new ConcurrentSkipListSet<String>();
+        this.steamIds = new ConcurrentHashMap<String, Set<GameServer>>();
+    }
+
+    /**
+     * Returns all indexed player names starting with the given prefix and
+     * the servers they are used on
+     *
+     * @param prefix The prefix of the player names
+     * @return The matching names and their servers sorted by name
+     */
+    public SortedMap<String, Set<GameServer>> findByNamePrefix(String prefix) {
+        SortedMap<String, Set<GameServer>> result = new TreeMap<String, Set<GameServer>>();
+        for(String name : this.sortedNames.subSet(prefix, true, prefix + Character.MAX_VALUE, false)) {
+            Set<GameServer> servers = this.names.get(name);
+            if(servers != null) {
+                result.put(name, Collections.unmodifiableSet(servers));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the servers a player with the given name is playing on
+     *
+     * @param name The name of the player
+     * @return The servers of the player or an empty set if the name is not
+     *         known
+     */
+    public Set<GameServer> getServersByName(String name) {
+        return lookup(this.names, name);
+    }
+
+    /**
+     * Returns the servers a player with the given SteamID is playing on
+     *
+     * @param steamId The SteamID of the player
+     * @return The servers of the player or an empty set if the SteamID is
+     *         not known
+     */
+    public Set<GameServer> getServersBySteamId(String steamId) {
+        return lookup(this.steamIds, steamId);
+    }
+
+    /**
+     * Returns the number of player names in this index
+     *
+     * @return The number of indexed names
+     */
+    public int getNameCount() {
+        return this.names.size();
+    }
+
+    /**
+     * Removes all players of the given server from this index
+     *
+     * @param server The server to remove
+     */
+    public void remove(GameServer server) {
+        this.update(server, (Collection<SteamPlayer>) null);
+    }
+
+    /**
+     * Replaces the players of the given server in this index
+     * <p>
+     * Only names and SteamIDs that have been added or removed since the last
+     * update of the server are changed in the index.
+     *
+     * @param server The server the players are playing on
+     * @param players The current players of the server by name or
+     *        <code>null</code> to remove the server
+     * @see #update(GameServer, Collection)
+     */
+    public void update(GameServer server, Map<String, SteamPlayer> players) {
+        this.update(server, (players == null) ? null : players.values());
+    }
+
+    /**
+     * Replaces the players of the given server in this index
+     * <p>
+     * Only names and SteamIDs that have been added or removed since the last
+     * update of the server are changed in the index. Different from
+     * {@link #update(GameServer, Map)}, this indexes the SteamIDs of all
+     * players even if several players are using the same name.
+     *
+     * @param server The server the players are playing on
+     * @param players All current players of the server or <code>null</code>
+     *        to remove the server
+     */
+    public void update(final GameServer server, Collection<SteamPlayer> players) {
+        final Entry current = new Entry(players);
+
+        this.servers.compute(server, (key, previous) -> {
+            if(previous == null) {
+                previous = new Entry(null);
+            }
+
+            for(String name : previous.names) {
+                if(!current.names.contains(name)) {
+                    this.remove(this.names, name, server, true);
+                }
+            }
+            for(String steamId : previous.steamIds) {
+                if(!current.steamIds.contains(steamId)) {
+                    this.remove(this.steamIds, steamId, server, false);
+                }
+            }
+            for(String name : current.names) {
+                if(!previous.names.contains(name)) {
+                    this.add(this.names, name, server, true);
+                }
+            }
+            for(String steamId : current.steamIds) {
+                if(!previous.steamIds.contains(steamId)) {
+                    this.add(this.steamIds, steamId, server, false);
+                }
+            }
+
+            return current.isEmpty() ? null : current;
+        });
+    }
+
+    /**
+     * Adds a server to the servers of the given key
+     *
+     * @param map The map to add the server to
+     * @param key The name or SteamID of a player
+     * @param server The server to add
+     * @param sorted Whether the key is a name that has to be searchable by
+     *        prefix
+     */
+    private void add(ConcurrentMap<String, Set<GameServer>> map, String key,
+                     final GameServer server, final boolean sorted) {
+        map.compute(key, (k, servers) -> {
+            if(servers == null) {
+                servers = Collections.newSetFromMap(new ConcurrentHashMap<GameServer, Boolean>());
+                if(sorted) {
+                    this.sortedNames.add(k);
+                }
+            }
+            servers.add(server);
+
+            return servers;
+        });
+    }
+
+    /**
+     * Removes a server from the servers of the given key
+     *
+     * @param map The map to remove the server from
+     * @param key The name or SteamID of a player
+     * @param server The server to remove
+     * @param sorted Whether the key is a name that is searchable by prefix
+     */
+    private void remove(ConcurrentMap<String, Set<GameServer>> map, String key,
+                        final GameServer server, final boolean sorted) {
+        map.computeIfPresent(key, (k, servers) -> {
+            servers.remove(server);
+            if(!servers.isEmpty()) {
+                return servers;
+            }
+
+            if(sorted) {
+                this.sortedNames.remove(k);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Returns a read-only view of the servers stored for the given key
+     *
+     * @param map The map to look up the key in
+     * @param key The name or SteamID of a player
+     * @return The servers for the key or an empty set
+     */
+    private static Set<GameServer> lookup(Map<String, Set<GameServer>> map, String key) {
+        Set<GameServer> servers = map.get(key);
+        if(servers == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(servers);
+    }
+
+    /**
+     * The names and SteamIDs last indexed for a single server
+     */
+    private static class Entry {
+
+        final Set<String> names;
+
+        final Set<String> steamIds;
+
+        Entry(Collection<SteamPlayer> players) {
+            if(players == null || players.isEmpty()) {
+                this.names = Collections.emptySet();
+                this.steamIds = Collections.emptySet();
+                return;
+            }
+
+            this.names = new HashSet<String>();
+            this.steamIds = new HashSet<String>();
+            for(SteamPlayer player : players) {
+                this.names.add(player.getName());
+                if(player.isExtended() && !player.isBot() && !player.isHLTV()) {
+                    this.steamIds.add(player.getSteamId());
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            return this.names.isEmpty() && this.steamIds.isEmpty();
+        }
+    }
+
+}
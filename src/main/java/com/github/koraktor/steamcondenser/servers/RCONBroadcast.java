@@ -0,0 +1,354 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.servers.sockets.RCONSocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SteamSocket;
+
+/**
+ * This class executes a RCON command on many game servers at once
+ * <p>
+ * The command is executed using {@link GameServer#rconExec}, so it works with
+ * Source servers using TCP as well as GoldSrc servers using UDP. At most the
+ * configured number of servers are contacted at the same time. The timeout
+ * is set as a deadline on the RCON socket of each server, so a server that
+ * does not answer in time is reported as failed and a single slow server
+ * cannot hold up the whole broadcast. Threads are never interrupted, as this
+ * would close the channels of the sockets.
+ * <p>
+ * The results of all servers are collected in a {@link Report}. Each result
+ * can also be passed to a listener as soon as it is available.
+ *
+ * @author Sebastian Staudt
+ */
+public class RCONBroadcast {
+
+    private static final AtomicInteger threadNumber = new AtomicInteger();
+
+    private final int parallelism;
+
+    private final int timeout;
+
+    /**
+     * Creates a new broadcast contacting up to 16 servers at the same time
+     * and waiting up to five seconds for each server
+     */
+    public RCONBroadcast() {
+        this(16, 5000);
+    }
+
+    /**
+     * Creates a new broadcast with the given limits
+     *
+     * @param parallelism The maximum number of servers to contact at the
+     *        same time
+     * @param timeout The time in milliseconds to wait for a single server
+     */
+    public RCONBroadcast(int parallelism, int timeout) {
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism has to be at least 1.");
+        }
+
+        this.parallelism = parallelism;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Executes the given command on all given servers
+     * <p>
+     * The servers have to be authenticated already.
+     *
+     * @param servers The servers to execute the command on
+     * @param command The command to execute
+     * @return The results of all servers
+     * @throws SteamCondenserException if the broadcast is interrupted
+     */
+    public Report execute(Collection<? extends GameServer> servers, String command)
+            throws SteamCondenserException {
+        return this.execute(servers, null, command, null);
+    }
+
+    /**
+     * Executes the given command on all given servers and passes each result
+     * to the given listener as soon as it is available
+     * <p>
+     * Servers that are not authenticated yet are authenticated with the given
+     * password first. The listener is called from the calling thread in the
+     * order the servers complete.
+     *
+     * @param servers The servers to execute the command on
+     * @param password The RCON password of the servers or <code>null</code>
+     *        if the servers are authenticated already
+     * @param command The command to execute
+     * @param listener The listener to pass the results to or
+     *        <code>null</code>
+     * @return The results of all servers
+     * @throws SteamCondenserException if the broadcast is interrupted
+     */
+    public Report execute(Collection<? extends GameServer> servers,
+                          final String password, final String command,
+                          Consumer<? super Result> listener)
+            throws SteamCondenserException {
+        List<Result> results = new ArrayList<Result>(servers.size());
+        if(servers.isEmpty()) {
+            return new Report(results);
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "steam-condenser-rcon-broadcast-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.parallelism, servers.size()), threadFactory);
+
+        try {
+            CompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+            for(final GameServer server : servers) {
+                completion.submit(new Callable<Result>() {
+                    public Result call() {
+                        return RCONBroadcast.this.execute(server, password, command);
+                    }
+                });
+            }
+
+            for(int i = 0; i < servers.size(); i ++) {
+                Result result = completion.take().get();
+                results.add(result);
+                if(listener != null) {
+                    listener.accept(result);
+                }
+            }
+        } catch(ExecutionException e) {
+            throw new SteamCondenserException(e.getCause().getMessage(), e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted during a RCON broadcast.", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new Report(results);
+    }
+
+    /**
+     * Executes the command on a single server
+     * <p>
+     * The timeout is enforced by setting a deadline on the RCON socket of
+     * the server, which is restored afterwards. After a timeout the server
+     * has to authenticate again and a TCP based RCON socket is closed, so
+     * late replies cannot be mistaken for the replies of later commands.
+     *
+     * @param server The server to execute the command on
+     * @param password The RCON password of the server or <code>null</code>
+     * @param command The command to execute
+     * @return The result of the server
+     */
+    private Result execute(GameServer server, String password, String command) {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+
+        String output = null;
+        Exception failure = null;
+        SteamSocket socket = null;
+        long previousDeadline = 0;
+        try {
+            socket = server.getRconSocket();
+            if(socket != null) {
+                previousDeadline = socket.getDeadline();
+                if(previousDeadline != 0 && previousDeadline - deadline < 0) {
+                    deadline = previousDeadline;
+                }
+                socket.setDeadline(deadline);
+            }
+
+            if(password != null && !server.isRconAuthenticated() &&
+               !server.rconAuth(password)) {
+                throw new RCONNoAuthException();
+            }
+            output = server.rconExec(command);
+        } catch(TimeoutException e) {
+            server.rconAuthenticated = false;
+            if(socket instanceof RCONSocket) {
+                socket.close();
+            }
+            failure = new TimeoutException("No RCON reply within " + this.timeout + " ms.");
+        } catch(Exception e) {
+            failure = e;
+        } finally {
+            if(socket != null) {
+                socket.setDeadline(previousDeadline);
+            }
+        }
+
+        return new Result(server, output, failure, System.nanoTime() - start);
+    }
+
+    /**
+     * The results of a broadcast to all servers in the order they completed
+     */
+    public static class Report {
+
+        private final List<Result> results;
+
+        Report(List<Result> results) {
+            this.results = Collections.unmodifiableList(results);
+        }
+
+        /**
+         * Returns the results of all servers where the command failed
+         *
+         * @return The failed results
+         */
+        public List<Result> getFailures() {
+            List<Result> failures = new ArrayList<Result>();
+            for(Result result : this.results) {
+                if(!result.isSuccessful()) {
+                    failures.add(result);
+                }
+            }
+
+            return failures;
+        }
+
+        /**
+         * Returns the result of the given server
+         *
+         * @param server The server to return the result for
+         * @return The result of the server or <code>null</code> if the
+         *         server was not part of the broadcast
+         */
+        public Result getResult(GameServer server) {
+            for(Result result : this.results) {
+                if(result.server == server) {
+                    return result;
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Returns the results of all servers in the order they completed
+         *
+         * @return The results of all servers
+         */
+        public List<Result> getResults() {
+            return this.results;
+        }
+
+        /**
+         * Returns whether the command has been executed successfully on all
+         * servers
+         *
+         * @return <code>true</code> if no server failed
+         */
+        public boolean isSuccessful() {
+            for(Result result : this.results) {
+                if(!result.isSuccessful()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return this.getClass().getSimpleName() + "[" +
+                (this.results.size() - this.getFailures().size()) + "/" +
+                this.results.size() + " successful]";
+        }
+    }
+
+    /**
+     * The result of a command executed on a single server
+     */
+    public static class Result {
+
+        private final Exception failure;
+
+        private final String output;
+
+        private final GameServer server;
+
+        private final long time;
+
+        Result(GameServer server, String output, Exception failure, long time) {
+            this.failure = failure;
+            this.output = output;
+            this.server = server;
+            this.time = time;
+        }
+
+        /**
+         * Returns the reason why the command failed on the server
+         *
+         * @return The failure or <code>null</code> if the command succeeded
+         */
+        public Exception getFailure() {
+            return this.failure;
+        }
+
+        /**
+         * Returns the output of the command
+         *
+         * @return The output or <code>null</code> if the command failed
+         */
+        public String getOutput() {
+            return this.output;
+        }
+
+        /**
+         * Returns the server this result belongs to
+         *
+         * @return The server
+         */
+        public GameServer getServer() {
+            return this.server;
+        }
+
+        /**
+         * Returns the time it took to execute the command on the server
+         *
+         * @return The time in milliseconds
+         */
+        public double getTime() {
+            return this.time / 1000000.0;
+        }
+
+        /**
+         * Returns whether the command has been executed successfully
+         *
+         * @return <code>true</code> if the command succeeded
+         */
+        public boolean isSuccessful() {
+            return this.failure == null;
+        }
+    }
+
+}
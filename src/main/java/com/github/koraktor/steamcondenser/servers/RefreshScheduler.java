@@ -0,0 +1,492 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class refreshes the information, players and rules of a set of game
+ * servers in the background
+ * <p>
+ * Each kind of data has its own refresh interval. Refreshes of new servers
+ * are spread evenly across the interval and every delay is randomized by a
+ * configurable jitter, so the requests do not arrive in bursts. Servers that
+ * fail to answer are refreshed less often, the delay doubling with every
+ * failure up to a maximum.
+ * <p>
+ * The getters of this class never block. They return the last received value
+ * immediately and trigger a refresh in the background if the value is
+ * older than its refresh interval.
+ * <p>
+ * Requests are sent using the asynchronous methods of {@link GameServer}, so
+ * the servers should share a
+ * {@link com.github.koraktor.steamcondenser.servers.sockets.QueryEngine} for
+ * large fleets.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#setQueryEngine
+ */
+public class RefreshScheduler {
+
+    /**
+     * The kinds of data refreshed by the scheduler
+     */
+    public enum Field {
+        INFO, PLAYERS, RULES
+    }
+
+    private static final double GOLDEN_RATIO_FRACTION = 0.6180339887498949;
+
+    private final Map<Field, Long> intervals;
+
+    private double jitter;
+
+    private long maxBackoff;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    private long sequence;
+
+    private final Map<GameServer, Entry> servers;
+
+    /**
+     * Creates a new scheduler refreshing server information every 30
+     * seconds, players every 15 seconds and rules every 2 minutes
+     */
+    public RefreshScheduler() {
+        this.intervals = new EnumMap<Field, Long>(Field.class);
+        this.intervals.put(Field.INFO, TimeUnit.SECONDS.toMillis(30));
+        this.intervals.put(Field.PLAYERS, TimeUnit.SECONDS.toMillis(15));
+        this.intervals.put(Field.RULES, TimeUnit.MINUTES.toMillis(2));
+        this.jitter = 0.1;
+        this.maxBackoff = TimeUnit.MINUTES.toMillis(10);
+        this.servers = new ConcurrentHashMap<GameServer, Entry>();
+    }
+
+    /**
+     * Adds a game server to the servers refreshed by this scheduler
+     * <p>
+     * If the scheduler is running, the first refreshes of the server are
+     * scheduled right away.
+     *
+     * @param server The game server to refresh
+     * @return <code>false</code> if the server has already been added
+     */
+    public synchronized boolean add(GameServer server) {
+        if(this.servers.containsKey(server)) {
+            return false;
+        }
+
+        Entry entry = new Entry(server, this.sequence ++);
+        this.servers.put(server, entry);
+
+        if(this.scheduler != null) {
+            this.scheduleInitial(entry);
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the number of consecutive failed refreshes of the given data
+     *
+     * @param server The game server
+     * @param field The kind of data
+     * @return The number of consecutive failures
+     */
+    public int getFailures(GameServer server, Field field) {
+        Entry entry = this.servers.get(server);
+        return (entry == null) ? 0 : entry.states.get(field).failures;
+    }
+
+    /**
+     * Returns the last received information of the given server
+     *
+     * @param server The game server
+     * @return The last received information or <code>null</code> if no
+     *         information has been received yet
+     */
+    public ServerInfo getInfo(GameServer server) {
+        return (ServerInfo) this.get(server, Field.INFO);
+    }
+
+    /**
+     * Returns the time the given data has last been received
+     *
+     * @param server The game server
+     * @param field The kind of data
+     * @return The time of the last successful refresh in milliseconds since
+     *         the epoch or <code>0</code>
+     */
+    public long getLastUpdate(GameServer server, Field field) {
+        Entry entry = this.servers.get(server);
+        return (entry == null) ? 0 : entry.states.get(field).updatedAt;
+    }
+
+    /**
+     * Returns the last received players of the given server
+     *
+     * @param server The game server
+     * @return The last received players or <code>null</code> if no players
+     *         have been received yet
+     */
+    @SuppressWarnings("unchecked")
+    public HashMap<String, SteamPlayer> getPlayers(GameServer server) {
+        return (HashMap<String, SteamPlayer>) this.get(server, Field.PLAYERS);
+    }
+
+    /**
+     * Returns the last received rules of the given server
+     *
+     * @param server The game server
+     * @return The last received rules or <code>null</code> if no rules have
+     *         been received yet
+     */
+    @SuppressWarnings("unchecked")
+    public HashMap<String, String> getRules(GameServer server) {
+        return (HashMap<String, String>) this.get(server, Field.RULES);
+    }
+
+    /**
+     * Returns whether this scheduler is running
+     *
+     * @return <code>true</code> if this scheduler has been started
+     */
+    public boolean isRunning() {
+        return this.scheduler != null;
+    }
+
+    /**
+     * Refreshes the given data of the given server now
+     * <p>
+     * If a refresh of the data is already running, no further request is
+     * sent.
+     *
+     * @param server The game server
+     * @param field The kind of data to refresh
+     * @return A future that completes when the refresh has finished
+     * @throws IllegalArgumentException if the server has not been added to
+     *         this scheduler
+     */
+    public CompletableFuture<Void> refresh(GameServer server, Field field) {
+        Entry entry = this.servers.get(server);
+        if(entry == null) {
+            throw new IllegalArgumentException("Server has not been added to this scheduler.");
+        }
+
+        return this.refresh(entry.states.get(field));
+    }
+
+    /**
+     * Removes a game server from this scheduler
+     *
+     * @param server The game server to remove
+     * @return <code>true</code> if the server has been removed
+     */
+    public synchronized boolean remove(GameServer server) {
+        Entry entry = this.servers.remove(server);
+        if(entry == null) {
+            return false;
+        }
+
+        for(State state : entry.states.values()) {
+            state.cancel();
+        }
+
+        return true;
+    }
+
+    /**
+     * Sets the refresh interval for the given kind of data
+     * <p>
+     * The new interval is used for refreshes scheduled afterwards.
+     *
+     * @param field The kind of data
+     * @param interval The refresh interval
+     * @param unit The unit of the interval
+     */
+    public synchronized void setInterval(Field field, long interval, TimeUnit unit) {
+        if(interval <= 0) {
+            throw new IllegalArgumentException("Refresh interval must be positive.");
+        }
+
+        this.intervals.put(field, unit.toMillis(interval));
+    }
+
+    /**
+     * Sets the share of each delay that is randomized
+     *
+     * @param jitter The jitter between <code>0.0</code> and
+     *        <code>1.0</code>, <code>0.1</code> by default
+     */
+    public synchronized void setJitter(double jitter) {
+        if(jitter < 0.0 || jitter > 1.0) {
+            throw new IllegalArgumentException("Jitter must be between 0.0 and 1.0.");
+        }
+
+        this.jitter = jitter;
+    }
+
+    /**
+     * Sets the maximum delay between refreshes of unresponsive servers
+     *
+     * @param maxBackoff The maximum delay
+     * @param unit The unit of the delay
+     */
+    public synchronized void setMaxBackoff(long maxBackoff, TimeUnit unit) {
+        this.maxBackoff = unit.toMillis(maxBackoff);
+    }
+
+    /**
+     * Starts refreshing the servers of this scheduler in the background
+     */
+    public synchronized void start() {
+        if(this.scheduler != null) {
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "steam-condenser-refresh-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        for(Entry entry : this.servers.values()) {
+            this.scheduleInitial(entry);
+        }
+    }
+
+    /**
+     * Stops refreshing the servers of this scheduler
+     * <p>
+     * Refreshes already running will still update the values of this
+     * scheduler.
+     */
+    public synchronized void stop() {
+        if(this.scheduler == null) {
+            return;
+        }
+
+        for(Entry entry : this.servers.values()) {
+            for(State state : entry.states.values()) {
+                state.cancel();
+            }
+        }
+
+        this.scheduler.shutdownNow();
+        this.scheduler = null;
+    }
+
+    /**
+     * Returns the delay until the next refresh of the given data
+     *
+     * @param state The refresh state of the data
+     * @return The delay in milliseconds
+     */
+    private synchronized long delay(State state) {
+        long delay = this.intervals.get(state.field);
+        if(state.failures > 0) {
+            delay = Math.min(delay << Math.min(state.failures, 16), Math.max(delay, this.maxBackoff));
+        }
+
+        return this.randomize(delay);
+    }
+
+    /**
+     * Returns the last received value of the given data and triggers a
+     * refresh if the value is stale
+     *
+     * @param server The game server
+     * @param field The kind of data
+     * @return The last received value or <code>null</code>
+     */
+    private Object get(GameServer server, Field field) {
+        Entry entry = this.servers.get(server);
+        if(entry == null) {
+            return null;
+        }
+
+        State state = entry.states.get(field);
+        long interval;
+        synchronized(this) {
+            interval = this.intervals.get(field);
+        }
+        if(!state.refreshing && System.currentTimeMillis() - state.updatedAt >= interval) {
+            this.refresh(state);
+        }
+
+        return state.value;
+    }
+
+    /**
+     * Randomizes the given delay by the configured jitter
+     *
+     * @param delay The delay in milliseconds
+     * @return The randomized delay in milliseconds
+     */
+    private long randomize(long delay) {
+        if(this.jitter == 0.0) {
+            return delay;
+        }
+
+        double factor = 1.0 + this.jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+        return (long) (delay * factor);
+    }
+
+    /**
+     * Sends the request for the given data unless it is already running and
+     * schedules the next refresh once it completes
+     *
+     * @param state The refresh state of the data
+     * @return A future that completes when the refresh has finished
+     */
+    private CompletableFuture<Void> refresh(final State state) {
+        synchronized(state) {
+            if(state.refreshing) {
+                return state.running;
+            }
+            state.refreshing = true;
+
+            final GameServer server = state.server;
+            CompletableFuture<?> request;
+            switch(state.field) {
+                case INFO:
+                    request = server.updateServerInfoAsync().thenApply(info -> server.serverInfo);
+                    break;
+                case PLAYERS:
+                    request = server.updatePlayersAsync();
+                    break;
+                default:
+                    request = server.updateRulesAsync();
+            }
+
+            state.running = request.handle((value, failure) -> {
+                synchronized(state) {
+                    if(failure == null) {
+                        state.failures = 0;
+                        state.updatedAt = System.currentTimeMillis();
+                        state.value = value;
+                    } else {
+                        state.failures ++;
+                    }
+                    state.refreshing = false;
+                }
+
+                this.schedule(state, this.delay(state));
+
+                return null;
+            });
+
+            return state.running;
+        }
+    }
+
+    /**
+     * Schedules the next refresh of the given data replacing any refresh
+     * scheduled before
+     *
+     * @param state The refresh state of the data
+     * @param delay The delay in milliseconds
+     */
+    private synchronized void schedule(final State state, long delay) {
+        if(this.scheduler == null || this.servers.get(state.server) != state.entry) {
+            return;
+        }
+
+        state.cancel();
+        state.next = this.scheduler.schedule(new Runnable() {
+            public void run() {
+                RefreshScheduler.this.refresh(state);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules the first refreshes of the given server
+     * <p>
+     * The offsets of consecutive servers follow a low-discrepancy sequence,
+     * so any number of servers is spread evenly across the intervals.
+     *
+     * @param entry The server's entry
+     */
+    private synchronized void scheduleInitial(Entry entry) {
+        double offset = (entry.sequence * GOLDEN_RATIO_FRACTION) % 1.0;
+        for(State state : entry.states.values()) {
+            long interval = this.intervals.get(state.field);
+            this.schedule(state, this.randomize((long) (offset * interval)));
+        }
+    }
+
+    /**
+     * The refresh states of a single server
+     */
+    private static class Entry {
+
+        final long sequence;
+
+        final Map<Field, State> states;
+
+        Entry(GameServer server, long sequence) {
+            this.sequence = sequence;
+            this.states = new EnumMap<Field, State>(Field.class);
+            for(Field field : Field.values()) {
+                this.states.put(field, new State(this, server, field));
+            }
+        }
+    }
+
+    /**
+     * The refresh state of a single kind of data of a single server
+     */
+    private static class State {
+
+        final Entry entry;
+
+        volatile int failures;
+
+        final Field field;
+
+        ScheduledFuture<?> next;
+
+        volatile boolean refreshing;
+
+        CompletableFuture<Void> running;
+
+        final GameServer server;
+
+        volatile long updatedAt;
+
+        volatile Object value;
+
+        State(Entry entry, GameServer server, Field field) {
+            this.entry = entry;
+            this.field = field;
+            this.server = server;
+        }
+
+        void cancel() {
+            if(this.next != null) {
+                this.next.cancel(false);
+                this.next = null;
+            }
+        }
+    }
+
+}
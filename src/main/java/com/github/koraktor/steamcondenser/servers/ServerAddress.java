@@ -0,0 +1,100 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * This class provides helper methods for game server addresses packed into a
+ * single <code>long</code> value
+ * <p>
+ * The upper 32 bits of the lower 48 bits contain the IPv4 address and the
+ * lowest 16 bits contain the port number. This is the same layout the master
+ * servers use on the wire, so addresses can be stored and compared without
+ * creating any objects.
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer#streamServers
+ */
+public abstract class ServerAddress {
+
+    /**
+     * Returns the IPv4 address of the given packed address as an integer
+     *
+     * @param address The packed server address
+     * @return The IPv4 address of the server
+     */
+    public static int getIpAddress(long address) {
+        return (int) (address >>> 16);
+    }
+
+    /**
+     * Returns the port number of the given packed address
+     *
+     * @param address The packed server address
+     * @return The port number of the server
+     */
+    public static int getPort(long address) {
+        return (int) (address & 0xFFFF);
+    }
+
+    /**
+     * Packs the given IPv4 address and port number into a single value
+     *
+     * @param ipAddress The IPv4 address of the server
+     * @param port The port number of the server
+     * @return The packed server address
+     */
+    public static long pack(int ipAddress, int port) {
+        return ((ipAddress & 0xFFFFFFFFL) << 16) | (port & 0xFFFF);
+    }
+
+    /**
+     * Returns the socket address for the given packed address
+     * <p>
+     * This never causes a DNS lookup.
+     *
+     * @param address The packed server address
+     * @return The socket address of the server
+     */
+    public static InetSocketAddress toInetSocketAddress(long address) {
+        int ipAddress = getIpAddress(address);
+        byte[] octets = new byte[] {
+            (byte) (ipAddress >>> 24), (byte) (ipAddress >>> 16),
+            (byte) (ipAddress >>> 8), (byte) ipAddress
+        };
+
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(octets), getPort(address));
+        } catch(UnknownHostException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Returns the string representation (<code>a.b.c.d:port</code>) of the
+     * given packed address
+     *
+     * @param address The packed server address
+     * @return The string representation of the server address
+     */
+    public static String toString(long address) {
+        int ipAddress = getIpAddress(address);
+
+        return new StringBuilder(21)
+            .append(ipAddress >>> 24).append('.')
+            .append((ipAddress >>> 16) & 0xFF).append('.')
+            .append((ipAddress >>> 8) & 0xFF).append('.')
+            .append(ipAddress & 0xFF).append(':')
+            .append(getPort(address))
+            .toString();
+    }
+
+}
@@ -0,0 +1,30 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+/**
+ * This interface can be implemented to process the servers returned by a
+ * master server while the remaining batches are still being requested
+ *
+ * @author Sebastian Staudt
+ * @see MasterServer#streamServers
+ * @see ServerAddress
+ */
+public interface ServerBatchListener {
+
+    /**
+     * Called for every batch of servers received from the master server
+     * <p>
+     * The array is not used by the master server afterwards, so it may be
+     * kept by the listener.
+     *
+     * @param servers The packed addresses of the servers in this batch
+     */
+    void batchReceived(long[] servers);
+
+}
@@ -0,0 +1,751 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.HashMap;
+
+import com.github.koraktor.steamcondenser.PacketBuffer;
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+
+/**
+ * This class represents the basic information of a game server as replied to
+ * an A2S_INFO request
+ * <p>
+ * The information is decoded from the retained packet data when any value is
+ * accessed for the first time. Afterwards the object is immutable and may be
+ * shared between threads. Replies are checked for completeness using
+ * {@link #validate} when they are received, so decoding them later cannot
+ * fail.
+ * <p>
+ * Values missing from a reply are <code>null</code> for strings and
+ * <code>0</code> for numeric values.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#getInfo
+ * @see com.github.koraktor.steamcondenser.servers.packets.S2A_INFO2_Packet
+ * @see com.github.koraktor.steamcondenser.servers.packets.S2A_INFO_DETAILED_Packet
+ */
+public final class ServerInfo {
+
+    private static final byte EDF_GAME_ID     = (byte) 0x01;
+    private static final byte EDF_GAME_PORT   = (byte) 0x80;
+    private static final byte EDF_SERVER_ID   = (byte) 0x10;
+    private static final byte EDF_SERVER_TAGS = (byte) 0x20;
+    private static final byte EDF_SOURCE_TV   = (byte) 0x40;
+
+    private PacketBuffer data;
+
+    private volatile boolean decoded;
+
+    private RuntimeException decodingFailure;
+
+    private final boolean detailed;
+
+    private volatile HashMap<String, Object> map;
+
+    private int appId;
+
+    private byte dedicated;
+
+    private byte extraDataFlag;
+
+    private String gameDescription;
+
+    private String gameDir;
+
+    private long gameId;
+
+    private String gameVersion;
+
+    private boolean hasBotsAndSecure;
+
+    private String mapName;
+
+    private int maxPlayers;
+
+    private boolean mod;
+
+    private boolean modClientDll;
+
+    private int modSize;
+
+    private boolean modServerOnly;
+
+    private String modUrlDownload;
+
+    private String modUrlInfo;
+
+    private int modVersion;
+
+    private boolean modVersionInfo;
+
+    private int networkVersion;
+
+    private int numberOfBots;
+
+    private int numberOfPlayers;
+
+    private byte operatingSystem;
+
+    private boolean passwordProtected;
+
+    private boolean secure;
+
+    private long serverId;
+
+    private String serverIp;
+
+    private String serverName;
+
+    private int serverPort;
+
+    private String serverTags;
+
+    private String tvName;
+
+    private int tvPort;
+
+    /**
+     * Checks whether the given packet data contains complete server
+     * information
+     * <p>
+     * Only the structure of the data is checked, no values are decoded. So
+     * this is cheap enough to be done for each reply when it is received,
+     * while the actual decoding is still deferred until the information is
+     * accessed.
+     *
+     * @param data The raw packet data
+     * @param offset The offset of the S2A_INFO2 or S2A_INFO_DETAILED reply
+     *        content in the data
+     * @param length The length of the reply content
+     * @param detailed <code>true</code> if the data is in the
+     *        S2A_INFO_DETAILED format used by old GoldSrc servers
+     * @throws PacketFormatException if the data is truncated or malformed
+     */
+    public static void validate(byte[] data, int offset, int length, boolean detailed)
+            throws PacketFormatException {
+        int end = offset + length;
+        int position;
+
+        if(detailed) {
+            position = skipStrings(data, offset, end, 5);
+            position = skipBytes(position, 7, end);
+            if(data[position - 1] == 1) {
+                position = skipStrings(data, position, end, 2);
+                skipBytes(position, 1, end);
+            } else {
+                skipBytes(position, 2, end);
+            }
+        } else {
+            position = skipBytes(offset, 1, end);
+            position = skipStrings(data, position, end, 4);
+            position = skipBytes(position, 9, end);
+            position = skipStrings(data, position, end, 1);
+
+            if(position < end) {
+                byte extraDataFlag = data[position ++];
+
+                if((extraDataFlag & EDF_GAME_PORT) != 0) {
+                    position = skipBytes(position, 2, end);
+                }
+                if((extraDataFlag & EDF_SERVER_ID) != 0) {
+                    position = skipBytes(position, 8, end);
+                }
+                if((extraDataFlag & EDF_SOURCE_TV) != 0) {
+                    position = skipBytes(position, 2, end);
+                    position = skipStrings(data, position, end, 1);
+                }
+                if((extraDataFlag & EDF_SERVER_TAGS) != 0) {
+                    position = skipStrings(data, position, end, 1);
+                }
+                if((extraDataFlag & EDF_GAME_ID) != 0) {
+                    skipBytes(position, 8, end);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position after the given number of bytes
+     *
+     * @param position The current position in the data
+     * @param bytes The number of bytes to skip
+     * @param end The end of the data
+     * @return The position after the skipped bytes
+     * @throws PacketFormatException if the data ends before
+     */
+    private static int skipBytes(int position, int bytes, int end)
+            throws PacketFormatException {
+        position += bytes;
+        if(position > end) {
+            throw new PacketFormatException("Server information is truncated.");
+        }
+
+        return position;
+    }
+
+    /**
+     * Returns the position after the given number of zero-terminated
+     * strings
+     *
+     * @param data The raw packet data
+     * @param position The current position in the data
+     * @param end The end of the data
+     * @param count The number of strings to skip
+     * @return The position after the skipped strings
+     * @throws PacketFormatException if the data ends before
+     */
+    private static int skipStrings(byte[] data, int position, int end, int count)
+            throws PacketFormatException {
+        for(int i = 0; i < count; i ++) {
+            while(position < end && data[position] != 0) {
+                position ++;
+            }
+            position = skipBytes(position, 1, end);
+        }
+
+        return position;
+    }
+
+    /**
+     * Creates a new server information object for the given packet data
+     * <p>
+     * The data is not decoded until the information is accessed.
+     *
+     * @param data The content of the S2A_INFO2 or S2A_INFO_DETAILED reply
+     * @param detailed <code>true</code> if the data is in the
+     *        S2A_INFO_DETAILED format used by old GoldSrc servers
+     */
+    public ServerInfo(PacketBuffer data, boolean detailed) {
+        this.data = data;
+        this.detailed = detailed;
+    }
+
+    /**
+     * Returns the Steam application ID of the game running on the server
+     *
+     * @return The application ID of the game
+     */
+    public int getAppId() {
+        this.decode();
+        return this.appId;
+    }
+
+    /**
+     * Returns the type of the server
+     *
+     * @return <code>'d'</code> for dedicated servers, <code>'l'</code> for
+     *         listen servers and <code>'p'</code> for SourceTV proxies
+     */
+    public char getDedicated() {
+        this.decode();
+        return (char) this.dedicated;
+    }
+
+    /**
+     * Returns the description of the game running on the server
+     *
+     * @return The description of the game
+     */
+    public String getGameDescription() {
+        this.decode();
+        return this.gameDescription;
+    }
+
+    /**
+     * Returns the directory of the game or mod running on the server
+     *
+     * @return The game directory
+     */
+    public String getGameDir() {
+        this.decode();
+        return this.gameDir;
+    }
+
+    /**
+     * Returns the full 64 bit game ID of the game running on the server
+     *
+     * @return The game ID
+     */
+    public long getGameId() {
+        this.decode();
+        return this.gameId;
+    }
+
+    /**
+     * Returns the version of the game running on the server
+     *
+     * @return The version of the game
+     */
+    public String getGameVersion() {
+        this.decode();
+        return this.gameVersion;
+    }
+
+    /**
+     * Returns the name of the map currently running on the server
+     *
+     * @return The current map
+     */
+    public String getMapName() {
+        this.decode();
+        return this.mapName;
+    }
+
+    /**
+     * Returns the maximum number of players on the server
+     *
+     * @return The maximum number of players
+     */
+    public int getMaxPlayers() {
+        this.decode();
+        return this.maxPlayers;
+    }
+
+    /**
+     * Returns the size of the mod running on a GoldSrc server
+     *
+     * @return The size of the mod in bytes
+     */
+    public int getModSize() {
+        this.decode();
+        return this.modSize;
+    }
+
+    /**
+     * Returns the download URL of the mod running on a GoldSrc server
+     *
+     * @return The download URL of the mod
+     */
+    public String getModUrlDownload() {
+        this.decode();
+        return this.modUrlDownload;
+    }
+
+    /**
+     * Returns the website of the mod running on a GoldSrc server
+     *
+     * @return The website of the mod
+     */
+    public String getModUrlInfo() {
+        this.decode();
+        return this.modUrlInfo;
+    }
+
+    /**
+     * Returns the version of the mod running on a GoldSrc server
+     *
+     * @return The version of the mod
+     */
+    public int getModVersion() {
+        this.decode();
+        return this.modVersion;
+    }
+
+    /**
+     * Returns the network protocol version of the server
+     *
+     * @return The protocol version
+     */
+    public int getNetworkVersion() {
+        this.decode();
+        return this.networkVersion;
+    }
+
+    /**
+     * Returns the number of bots on the server
+     *
+     * @return The number of bots
+     */
+    public int getNumberOfBots() {
+        this.decode();
+        return this.numberOfBots;
+    }
+
+    /**
+     * Returns the number of players on the server
+     *
+     * @return The number of players
+     */
+    public int getNumberOfPlayers() {
+        this.decode();
+        return this.numberOfPlayers;
+    }
+
+    /**
+     * Returns the operating system of the server
+     *
+     * @return <code>'l'</code> for Linux, <code>'w'</code> for Windows and
+     *         <code>'m'</code> or <code>'o'</code> for Mac OS
+     */
+    public char getOperatingSystem() {
+        this.decode();
+        return (char) this.operatingSystem;
+    }
+
+    /**
+     * Returns the Steam ID of the server
+     *
+     * @return The Steam ID of the server
+     */
+    public long getServerId() {
+        this.decode();
+        return this.serverId;
+    }
+
+    /**
+     * Returns the address of a GoldSrc server as reported by the server
+     *
+     * @return The address of the server
+     */
+    public String getServerIp() {
+        this.decode();
+        return this.serverIp;
+    }
+
+    /**
+     * Returns the name of the server
+     *
+     * @return The name of the server
+     */
+    public String getServerName() {
+        this.decode();
+        return this.serverName;
+    }
+
+    /**
+     * Returns the game port of the server
+     *
+     * @return The game port of the server
+     */
+    public int getServerPort() {
+        this.decode();
+        return this.serverPort;
+    }
+
+    /**
+     * Returns the tags of the server
+     *
+     * @return The tags of the server
+     */
+    public String getServerTags() {
+        this.decode();
+        return this.serverTags;
+    }
+
+    /**
+     * Returns the name of the SourceTV instance of the server
+     *
+     * @return The name of the SourceTV instance
+     */
+    public String getTvName() {
+        this.decode();
+        return this.tvName;
+    }
+
+    /**
+     * Returns the port of the SourceTV instance of the server
+     *
+     * @return The port of the SourceTV instance
+     */
+    public int getTvPort() {
+        this.decode();
+        return this.tvPort;
+    }
+
+    /**
+     * Returns whether the server is running a mod of a GoldSrc game
+     *
+     * @return <code>true</code> if the server is running a mod
+     */
+    public boolean isMod() {
+        this.decode();
+        return this.mod;
+    }
+
+    /**
+     * Returns whether the mod running on a GoldSrc server uses its own
+     * client DLL
+     *
+     * @return <code>true</code> if the mod uses its own client DLL
+     */
+    public boolean isModClientDll() {
+        this.decode();
+        return this.modClientDll;
+    }
+
+    /**
+     * Returns whether the mod running on a GoldSrc server is server-side only
+     *
+     * @return <code>true</code> if the mod is server-side only
+     */
+    public boolean isModServerOnly() {
+        this.decode();
+        return this.modServerOnly;
+    }
+
+    /**
+     * Returns whether the server is protected by a password
+     *
+     * @return <code>true</code> if the server is protected by a password
+     */
+    public boolean isPasswordProtected() {
+        this.decode();
+        return this.passwordProtected;
+    }
+
+    /**
+     * Returns whether the server is secured by VAC
+     *
+     * @return <code>true</code> if the server is secured by VAC
+     */
+    public boolean isSecure() {
+        this.decode();
+        return this.secure;
+    }
+
+    /**
+     * Returns the information of this server as a map using the keys and
+     * value types of previous versions
+     * <p>
+     * The map is created on first use and the same map is returned on every
+     * further call, like the map stored by previous versions. Changes to the
+     * map do not affect the typed values of this object.
+     *
+     * @return The information of the server
+     */
+    public HashMap<String, Object> toMap() {
+        HashMap<String, Object> map = this.map;
+        if(map == null) {
+            synchronized(this) {
+                map = this.map;
+                if(map == null) {
+                    this.map = map = this.buildMap();
+                }
+            }
+        }
+
+        return map;
+    }
+
+    /**
+     * Creates a map of the information of this server
+     *
+     * @return The information of the server
+     * @see #toMap
+     */
+    private HashMap<String, Object> buildMap() {
+        this.decode();
+
+        HashMap<String, Object> info = new HashMap<String, Object>();
+
+        if(this.detailed) {
+            info.put("serverIp", this.serverIp);
+        }
+        info.put("serverName", this.serverName);
+        info.put("mapName", this.mapName);
+        info.put("gameDir", this.gameDir);
+        info.put("gameDescription", this.gameDescription);
+        info.put("numberOfPlayers", (byte) this.numberOfPlayers);
+        info.put("maxPlayers", (byte) this.maxPlayers);
+        info.put("networkVersion", (byte) this.networkVersion);
+        info.put("dedicated", this.dedicated);
+        info.put("operatingSystem", this.operatingSystem);
+        info.put("passwordProtected", this.passwordProtected);
+
+        if(this.hasBotsAndSecure) {
+            info.put("numberOfBots", (byte) this.numberOfBots);
+            info.put("secure", this.secure);
+        }
+
+        if(this.detailed) {
+            info.put("isMod", this.mod);
+            if(this.mod) {
+                HashMap<String, Object> modInfo = new HashMap<String, Object>(6);
+                modInfo.put("urlInfo", this.modUrlInfo);
+                modInfo.put("urlDl", this.modUrlDownload);
+                if(this.modVersionInfo) {
+                    modInfo.put("modVersion", this.modVersion);
+                    modInfo.put("modSize", this.modSize);
+                    modInfo.put("svOnly", this.modServerOnly);
+                    modInfo.put("clDll", this.modClientDll);
+                }
+                info.put("modInfo", modInfo);
+            }
+        } else {
+            info.put("appId", (short) this.appId);
+            info.put("gameVersion", this.gameVersion);
+
+            if((this.extraDataFlag & EDF_GAME_PORT) != 0) {
+                info.put("serverPort", (short) this.serverPort);
+            }
+            if((this.extraDataFlag & EDF_SERVER_ID) != 0) {
+                info.put("serverId", this.serverId);
+            }
+            if((this.extraDataFlag & EDF_SOURCE_TV) != 0) {
+                info.put("tvPort", (short) this.tvPort);
+                info.put("tvName", this.tvName);
+            }
+            if((this.extraDataFlag & EDF_SERVER_TAGS) != 0) {
+                info.put("serverTags", this.serverTags);
+            }
+            if((this.extraDataFlag & EDF_GAME_ID) != 0) {
+                info.put("gameId", this.gameId);
+            }
+        }
+
+        return info;
+    }
+
+    /**
+     * Returns a string representation of this server information
+     *
+     * @return The information of the server
+     */
+    @Override
+    public String toString() {
+        return this.buildMap().toString();
+    }
+
+    /**
+     * Decodes the retained packet data if this has not happened yet
+     * <p>
+     * If the data cannot be decoded, the failure is rethrown on every access,
+     * so values of partly decoded data are never returned.
+     *
+     * @throws IllegalStateException if the data is malformed
+     * @see #validate
+     */
+    private void decode() {
+        if(this.decoded) {
+            return;
+        }
+
+        synchronized(this) {
+            if(this.decoded) {
+                return;
+            }
+
+            if(this.decodingFailure == null) {
+                try {
+                    if(this.detailed) {
+                        this.decodeDetailed();
+                    } else {
+                        this.decodeInfo2();
+                    }
+
+                    this.data = null;
+                    this.decoded = true;
+                    return;
+                } catch(RuntimeException e) {
+                    this.data = null;
+                    this.decodingFailure = new IllegalStateException("Server information is malformed.", e);
+                }
+            }
+
+            throw this.decodingFailure;
+        }
+    }
+
+    /**
+     * Decodes data in the S2A_INFO_DETAILED format
+     */
+    private void decodeDetailed() {
+        this.serverIp = this.data.getString();
+        this.serverName = this.data.getString();
+        this.mapName = this.data.getCachedString();
+        this.gameDir = this.data.getCachedString();
+        this.gameDescription = this.data.getCachedString();
+        this.numberOfPlayers = this.data.getByte() & 0xFF;
+        this.maxPlayers = this.data.getByte() & 0xFF;
+        this.networkVersion = this.data.getByte() & 0xFF;
+        this.dedicated = this.data.getByte();
+        this.operatingSystem = this.data.getByte();
+        this.passwordProtected = this.data.getByte() == 1;
+        this.mod = this.data.getByte() == 1;
+
+        if(this.mod) {
+            this.modUrlInfo = this.data.getString();
+            this.modUrlDownload = this.data.getString();
+            this.data.getByte();
+            if(this.data.remaining() == 12) {
+                this.modVersionInfo = true;
+                this.modVersion = Integer.reverseBytes(this.data.getInt());
+                this.modSize = Integer.reverseBytes(this.data.getInt());
+                this.modServerOnly = this.data.getByte() == 1;
+                this.modClientDll = this.data.getByte() == 1;
+                this.hasBotsAndSecure = true;
+                this.secure = this.data.getByte() == 1;
+                this.numberOfBots = this.data.getByte() & 0xFF;
+            }
+        } else {
+            this.hasBotsAndSecure = true;
+            this.secure = this.data.getByte() == 1;
+            this.numberOfBots = this.data.getByte() & 0xFF;
+        }
+    }
+
+    /**
+     * Decodes data in the S2A_INFO2 format
+     */
+    private void decodeInfo2() {
+        this.networkVersion = this.data.getByte() & 0xFF;
+        this.serverName = this.data.getString();
+        this.mapName = this.data.getCachedString();
+        this.gameDir = this.data.getCachedString();
+        this.gameDescription = this.data.getCachedString();
+        this.appId = Short.reverseBytes(this.data.getShort()) & 0xFFFF;
+        this.numberOfPlayers = this.data.getByte() & 0xFF;
+        this.maxPlayers = this.data.getByte() & 0xFF;
+        this.numberOfBots = this.data.getByte() & 0xFF;
+        this.dedicated = this.data.getByte();
+        this.operatingSystem = this.data.getByte();
+        this.passwordProtected = this.data.getByte() == 1;
+        this.secure = this.data.getByte() == 1;
+        this.hasBotsAndSecure = true;
+        this.gameVersion = this.data.getCachedString();
+
+        if(this.data.remaining() > 0) {
+            this.extraDataFlag = this.data.getByte();
+
+            if((this.extraDataFlag & EDF_GAME_PORT) != 0) {
+                this.serverPort = Short.reverseBytes(this.data.getShort()) & 0xFFFF;
+            }
+
+            if((this.extraDataFlag & EDF_SERVER_ID) != 0) {
+                this.serverId = this.getLong();
+            }
+
+            if((this.extraDataFlag & EDF_SOURCE_TV) != 0) {
+                this.tvPort = Short.reverseBytes(this.data.getShort()) & 0xFFFF;
+                this.tvName = this.data.getString();
+            }
+
+            if((this.extraDataFlag & EDF_SERVER_TAGS) != 0) {
+                this.serverTags = this.data.getString();
+            }
+
+            if((this.extraDataFlag & EDF_GAME_ID) != 0) {
+                this.gameId = this.getLong();
+            }
+        }
+    }
+
+    /**
+     * Reads a little-endian 64 bit value from the packet data
+     *
+     * @return The 64 bit value
+     */
+    private long getLong() {
+        long low = Integer.reverseBytes(this.data.getInt()) & 0xFFFFFFFFL;
+        long high = Integer.reverseBytes(this.data.getInt()) & 0xFFFFFFFFL;
+
+        return (high << 32) | low;
+    }
+
+}
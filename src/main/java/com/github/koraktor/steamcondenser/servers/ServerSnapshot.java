@@ -0,0 +1,651 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.net.Inet4Address;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class represents an immutable, column-oriented snapshot of the state of
+ * many game servers
+ * <p>
+ * Each server is stored as a row of primitive columns. Map names and server
+ * tags are dictionary-encoded, so filtering for a map or a tag only compares
+ * integers. Snapshots are created using a {@link Builder} and queried using
+ * {@link #select}.
+ *
+ * @author Sebastian Staudt
+ * @see ServerSnapshotStore
+ */
+public final class ServerSnapshot {
+
+    /**
+     * The numeric columns a selection can be sorted by
+     */
+    public enum Column {
+        APP_ID, BOTS, MAX_PLAYERS, PING, PLAYERS
+    }
+
+    /**
+     * The ping recorded for servers whose latency has not been measured
+     */
+    public static final int NO_PING = -1;
+
+    private final long[] addresses;
+
+    private final int[] appIds;
+
+    private final int[] bots;
+
+    private final String[] dictionary;
+
+    private final Map<String, Integer> dictionaryIndex;
+
+    private final int[] maps;
+
+    private final int[] maxPlayers;
+
+    private final int[] pings;
+
+    private final int[] players;
+
+    private final int size;
+
+    private final int[] tagOffsets;
+
+    private final int[] tags;
+
+    private final long timestamp;
+
+    private ServerSnapshot(Builder builder) {
+        this.size = builder.size;
+        this.addresses = Arrays.copyOf(builder.addresses, this.size);
+        this.appIds = Arrays.copyOf(builder.appIds, this.size);
+        this.bots = Arrays.copyOf(builder.bots, this.size);
+        this.maps = Arrays.copyOf(builder.maps, this.size);
+        this.maxPlayers = Arrays.copyOf(builder.maxPlayers, this.size);
+        this.pings = Arrays.copyOf(builder.pings, this.size);
+        this.players = Arrays.copyOf(builder.players, this.size);
+        this.tagOffsets = Arrays.copyOf(builder.tagOffsets, this.size + 1);
+        this.tags = Arrays.copyOf(builder.tags, builder.tagCount);
+        this.dictionary = builder.dictionary.toArray(new String[builder.dictionary.size()]);
+        this.dictionaryIndex = new HashMap<String, Integer>(builder.dictionaryIndex);
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the packed address of the server in the given row
+     *
+     * @param row The row of the server
+     * @return The packed address of the server
+     * @see ServerAddress
+     */
+    public long getAddress(int row) {
+        return this.addresses[row];
+    }
+
+    /**
+     * Returns the Steam application ID of the server in the given row
+     *
+     * @param row The row of the server
+     * @return The application ID of the game running on the server
+     */
+    public int getAppId(int row) {
+        return this.appIds[row];
+    }
+
+    /**
+     * Returns the number of bots on the server in the given row
+     *
+     * @param row The row of the server
+     * @return The number of bots on the server
+     */
+    public int getBots(int row) {
+        return this.bots[row];
+    }
+
+    /**
+     * Returns the current map of the server in the given row
+     *
+     * @param row The row of the server
+     * @return The name of the current map
+     */
+    public String getMapName(int row) {
+        int map = this.maps[row];
+        return (map < 0) ? null : this.dictionary[map];
+    }
+
+    /**
+     * Returns the maximum number of players on the server in the given row
+     *
+     * @param row The row of the server
+     * @return The maximum number of players on the server
+     */
+    public int getMaxPlayers(int row) {
+        return this.maxPlayers[row];
+    }
+
+    /**
+     * Returns the ping of the server in the given row
+     *
+     * @param row The row of the server
+     * @return The latency of the server in milliseconds or {@link #NO_PING}
+     *         if it has not been measured
+     */
+    public int getPing(int row) {
+        return this.pings[row];
+    }
+
+    /**
+     * Returns the number of players on the server in the given row
+     *
+     * @param row The row of the server
+     * @return The number of players on the server
+     */
+    public int getPlayers(int row) {
+        return this.players[row];
+    }
+
+    /**
+     * Returns the tags of the server in the given row
+     *
+     * @param row The row of the server
+     * @return The tags of the server
+     */
+    public String[] getTags(int row) {
+        int start = this.tagOffsets[row];
+        String[] serverTags = new String[this.tagOffsets[row + 1] - start];
+        for(int i = 0; i < serverTags.length; i ++) {
+            serverTags[i] = this.dictionary[this.tags[start + i]];
+        }
+        return serverTags;
+    }
+
+    /**
+     * Returns the time this snapshot has been created
+     *
+     * @return The creation time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Returns a selection of all servers in this snapshot
+     *
+     * @return A selection of all servers
+     */
+    public Selection select() {
+        int[] rows = new int[this.size];
+        for(int i = 0; i < this.size; i ++) {
+            rows[i] = i;
+        }
+        return new Selection(rows, this.size);
+    }
+
+    /**
+     * Returns the number of servers in this snapshot
+     *
+     * @return The number of servers
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the packed address of the given server
+     *
+     * @param server The server
+     * @return The packed address of the server, or <code>0</code> if the
+     *         server has no IPv4 address
+     */
+    private static long packAddress(Server server) {
+        if(!(server.ipAddress instanceof Inet4Address)) {
+            return 0;
+        }
+
+        byte[] ip = server.ipAddress.getAddress();
+        int address = (ip[0] & 0xFF) << 24 | (ip[1] & 0xFF) << 16 |
+                      (ip[2] & 0xFF) << 8 | (ip[3] & 0xFF);
+
+        return ServerAddress.pack(address, server.port);
+    }
+
+    /**
+     * Returns the column values for the given column
+     *
+     * @param column The column to return
+     * @return The values of the column
+     */
+    private int[] column(Column column) {
+        switch(column) {
+            case APP_ID:
+                return this.appIds;
+            case BOTS:
+                return this.bots;
+            case MAX_PLAYERS:
+                return this.maxPlayers;
+            case PING:
+                return this.pings;
+            default:
+                return this.players;
+        }
+    }
+
+    /**
+     * This class is used to build a new snapshot from the state of game
+     * servers
+     * <p>
+     * A builder is not thread-safe.
+     */
+    public static class Builder {
+
+        private long[] addresses;
+
+        private int[] appIds;
+
+        private int[] bots;
+
+        private final List<String> dictionary;
+
+        private final Map<String, Integer> dictionaryIndex;
+
+        private int[] maps;
+
+        private int[] maxPlayers;
+
+        private int[] pings;
+
+        private int[] players;
+
+        private int size;
+
+        private int tagCount;
+
+        private int[] tagOffsets;
+
+        private int[] tags;
+
+        /**
+         * Creates a new builder for a snapshot
+         */
+        public Builder() {
+            this(256);
+        }
+
+        /**
+         * Creates a new builder for a snapshot with space for the given
+         * number of servers
+         *
+         * @param capacity The expected number of servers
+         */
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+
+            this.addresses = new long[capacity];
+            this.appIds = new int[capacity];
+            this.bots = new int[capacity];
+            this.dictionary = new ArrayList<String>();
+            this.dictionaryIndex = new HashMap<String, Integer>();
+            this.maps = new int[capacity];
+            this.maxPlayers = new int[capacity];
+            this.pings = new int[capacity];
+            this.players = new int[capacity];
+            this.tagOffsets = new int[capacity + 1];
+            this.tags = new int[capacity];
+        }
+
+        /**
+         * Adds the last queried state of the given game server
+         * <p>
+         * This does not send any requests to the server. Servers whose
+         * information has not been queried yet are ignored.
+         *
+         * @param server The game server to add
+         * @return <code>true</code> if the server has been added
+         */
+        public boolean add(GameServer server) {
+            ServerInfo info = server.serverInfo;
+            if(info == null) {
+                return false;
+            }
+
+            int ping = server.isPingMeasured() ? server.ping : NO_PING;
+            this.add(packAddress(server), info, ping);
+
+            return true;
+        }
+
+        /**
+         * Adds a server with the given address, information and ping
+         *
+         * @param address The packed address of the server
+         * @param info The information of the server
+         * @param ping The latency of the server in milliseconds or
+         *        {@link ServerSnapshot#NO_PING} if it has not been measured
+         * @see ServerAddress#pack
+         */
+        public void add(long address, ServerInfo info, int ping) {
+            if(this.size == this.addresses.length) {
+                this.grow();
+            }
+
+            int row = this.size;
+            this.addresses[row] = address;
+            this.appIds[row] = info.getAppId();
+            this.bots[row] = info.getNumberOfBots();
+            this.maps[row] = this.encode(info.getMapName());
+            this.maxPlayers[row] = info.getMaxPlayers();
+            this.pings[row] = (ping < 0) ? NO_PING : ping;
+            this.players[row] = info.getNumberOfPlayers();
+
+            String serverTags = info.getServerTags();
+            if(serverTags != null) {
+                for(String tag : serverTags.split(",")) {
+                    tag = tag.trim();
+                    if(tag.isEmpty()) {
+                        continue;
+                    }
+                    if(this.tagCount == this.tags.length) {
+                        this.tags = Arrays.copyOf(this.tags, this.tags.length * 2);
+                    }
+                    this.tags[this.tagCount ++] = this.encode(tag);
+                }
+            }
+
+            this.size ++;
+            this.tagOffsets[this.size] = this.tagCount;
+        }
+
+        /**
+         * Adds the last queried state of all given game servers
+         *
+         * @param servers The game servers to add
+         * @return This builder
+         */
+        public Builder addAll(Iterable<? extends GameServer> servers) {
+            for(GameServer server : servers) {
+                this.add(server);
+            }
+
+            return this;
+        }
+
+        /**
+         * Creates a new snapshot from the servers added to this builder
+         *
+         * @return The new snapshot
+         */
+        public ServerSnapshot build() {
+            return new ServerSnapshot(this);
+        }
+
+        /**
+         * Returns the dictionary index of the given string, adding it to the
+         * dictionary if required
+         *
+         * @param value The string to encode
+         * @return The dictionary index of the string or <code>-1</code> for
+         *         <code>null</code>
+         */
+        private int encode(String value) {
+            if(value == null) {
+                return -1;
+            }
+
+            Integer index = this.dictionaryIndex.get(value);
+            if(index == null) {
+                index = this.dictionary.size();
+                this.dictionary.add(value);
+                this.dictionaryIndex.put(value, index);
+            }
+
+            return index;
+        }
+
+        /**
+         * Doubles the capacity of all columns
+         */
+        private void grow() {
+            int capacity = this.addresses.length * 2;
+
+            this.addresses = Arrays.copyOf(this.addresses, capacity);
+            this.appIds = Arrays.copyOf(this.appIds, capacity);
+            this.bots = Arrays.copyOf(this.bots, capacity);
+            this.maps = Arrays.copyOf(this.maps, capacity);
+            this.maxPlayers = Arrays.copyOf(this.maxPlayers, capacity);
+            this.pings = Arrays.copyOf(this.pings, capacity);
+            this.players = Arrays.copyOf(this.players, capacity);
+            this.tagOffsets = Arrays.copyOf(this.tagOffsets, capacity + 1);
+        }
+    }
+
+    /**
+     * This class represents an ordered selection of rows of a snapshot
+     * <p>
+     * Each filter is applied to the whole selection at once by scanning the
+     * affected column and returns a new, narrowed selection. Selections are
+     * immutable.
+     */
+    public final class Selection {
+
+        private final int[] rows;
+
+        private final int size;
+
+        private Selection(int[] rows, int size) {
+            this.rows = rows;
+            this.size = size;
+        }
+
+        /**
+         * Selects the servers running the game with the given application ID
+         *
+         * @param appId The application ID of the game
+         * @return The narrowed selection
+         */
+        public Selection appId(int appId) {
+            return this.equal(appIds, appId);
+        }
+
+        /**
+         * Selects the servers running the given map
+         *
+         * @param mapName The name of the map
+         * @return The narrowed selection
+         */
+        public Selection mapName(String mapName) {
+            Integer map = dictionaryIndex.get(mapName);
+            if(map == null) {
+                return new Selection(new int[0], 0);
+            }
+
+            return this.equal(maps, map);
+        }
+
+        /**
+         * Selects the servers with a ping below the given value
+         * <p>
+         * Servers whose ping has not been measured are not selected.
+         *
+         * @param maxPing The exclusive upper bound of the ping in milliseconds
+         * @return The narrowed selection
+         */
+        public Selection maxPing(int maxPing) {
+            int[] column = pings;
+            int[] selected = new int[this.size];
+            int count = 0;
+            for(int i = 0; i < this.size; i ++) {
+                int row = this.rows[i];
+                if(column[row] != NO_PING && column[row] < maxPing) {
+                    selected[count ++] = row;
+                }
+            }
+
+            return new Selection(selected, count);
+        }
+
+        /**
+         * Selects the servers with at least the given number of players
+         *
+         * @param minPlayers The minimum number of players
+         * @return The narrowed selection
+         */
+        public Selection minPlayers(int minPlayers) {
+            int[] column = players;
+            int[] selected = new int[this.size];
+            int count = 0;
+            for(int i = 0; i < this.size; i ++) {
+                int row = this.rows[i];
+                if(column[row] >= minPlayers) {
+                    selected[count ++] = row;
+                }
+            }
+
+            return new Selection(selected, count);
+        }
+
+        /**
+         * Selects the servers with free player slots
+         *
+         * @return The narrowed selection
+         */
+        public Selection notFull() {
+            int[] current = players;
+            int[] maximum = maxPlayers;
+            int[] selected = new int[this.size];
+            int count = 0;
+            for(int i = 0; i < this.size; i ++) {
+                int row = this.rows[i];
+                if(current[row] < maximum[row]) {
+                    selected[count ++] = row;
+                }
+            }
+
+            return new Selection(selected, count);
+        }
+
+        /**
+         * Returns the number of selected servers
+         *
+         * @return The number of selected servers
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * Sorts the selected servers by the values of the given column
+         * <p>
+         * The sort is stable, i.e. servers with equal values keep their order.
+         * Servers whose ping has not been measured are always sorted last.
+         *
+         * @param column The column to sort by
+         * @param descending Whether to sort in descending order
+         * @return The sorted selection
+         */
+        public Selection sortBy(Column column, boolean descending) {
+            int[] values = column(column);
+            long[] keys = new long[this.size];
+            for(int i = 0; i < this.size; i ++) {
+                long value = values[this.rows[i]];
+                if(column == Column.PING && value == NO_PING) {
+                    value = Integer.MAX_VALUE;
+                } else if(descending) {
+                    value = -value;
+                }
+                keys[i] = value << 32 | i;
+            }
+            Arrays.sort(keys);
+
+            int[] sorted = new int[this.size];
+            for(int i = 0; i < this.size; i ++) {
+                sorted[i] = this.rows[(int) keys[i]];
+            }
+
+            return new Selection(sorted, this.size);
+        }
+
+        /**
+         * Selects the servers having the given tag
+         *
+         * @param tag The tag to search for
+         * @return The narrowed selection
+         */
+        public Selection tag(String tag) {
+            Integer index = dictionaryIndex.get(tag);
+            if(index == null) {
+                return new Selection(new int[0], 0);
+            }
+
+            int value = index;
+            int[] selected = new int[this.size];
+            int count = 0;
+            for(int i = 0; i < this.size; i ++) {
+                int row = this.rows[i];
+                for(int j = tagOffsets[row]; j < tagOffsets[row + 1]; j ++) {
+                    if(tags[j] == value) {
+                        selected[count ++] = row;
+                        break;
+                    }
+                }
+            }
+
+            return new Selection(selected, count);
+        }
+
+        /**
+         * Returns the addresses of the selected servers
+         *
+         * @return The addresses of the selected servers
+         */
+        public List<InetSocketAddress> toAddresses() {
+            List<InetSocketAddress> result = new ArrayList<InetSocketAddress>(this.size);
+            for(int i = 0; i < this.size; i ++) {
+                result.add(ServerAddress.toInetSocketAddress(addresses[this.rows[i]]));
+            }
+
+            return result;
+        }
+
+        /**
+         * Returns the rows of the selected servers in the snapshot
+         *
+         * @return The rows of the selected servers
+         */
+        public int[] toRows() {
+            return Arrays.copyOf(this.rows, this.size);
+        }
+
+        /**
+         * Selects the rows having the given value in the given column
+         *
+         * @param column The column to compare
+         * @param value The value to search for
+         * @return The narrowed selection
+         */
+        private Selection equal(int[] column, int value) {
+            int[] selected = new int[this.size];
+            int count = 0;
+            for(int i = 0; i < this.size; i ++) {
+                int row = this.rows[i];
+                if(column[row] == value) {
+                    selected[count ++] = row;
+                }
+            }
+
+            return new Selection(selected, count);
+        }
+    }
+
+}
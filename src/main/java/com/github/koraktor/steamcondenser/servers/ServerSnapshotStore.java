@@ -0,0 +1,69 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class holds the current snapshot of a fleet of game servers
+ * <p>
+ * Readers always see a complete snapshot. A new snapshot is built off to the
+ * side on each refresh cycle and replaces the current one atomically.
+ *
+ * @author Sebastian Staudt
+ * @see ServerSnapshot
+ */
+public class ServerSnapshotStore {
+
+    private final AtomicReference<ServerSnapshot> snapshot;
+
+    /**
+     * Creates a new store holding an empty snapshot
+     */
+    public ServerSnapshotStore() {
+        this.snapshot = new AtomicReference<ServerSnapshot>(new ServerSnapshot.Builder(1).build());
+    }
+
+    /**
+     * Returns the current snapshot
+     *
+     * @return The current snapshot
+     */
+    public ServerSnapshot get() {
+        return this.snapshot.get();
+    }
+
+    /**
+     * Replaces the current snapshot with the given one
+     *
+     * @param snapshot The new snapshot
+     * @return The previous snapshot
+     */
+    public ServerSnapshot swap(ServerSnapshot snapshot) {
+        if(snapshot == null) {
+            throw new IllegalArgumentException("Snapshot must not be null.");
+        }
+
+        return this.snapshot.getAndSet(snapshot);
+    }
+
+    /**
+     * Builds a new snapshot from the last queried state of the given servers
+     * and makes it the current snapshot
+     *
+     * @param servers The game servers to include in the snapshot
+     * @return The new snapshot
+     */
+    public ServerSnapshot update(Iterable<? extends GameServer> servers) {
+        ServerSnapshot newSnapshot = new ServerSnapshot.Builder().addAll(servers).build();
+        this.snapshot.set(newSnapshot);
+
+        return newSnapshot;
+    }
+
+}
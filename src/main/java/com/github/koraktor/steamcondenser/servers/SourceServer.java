@@ -9,22 +9,24 @@ package com.github.koraktor.steamcondenser.servers;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.Random;
 import java.util.concurrent.TimeoutException;
-
-import org.apache.commons.lang3.StringUtils;
+import java.util.function.Consumer;
 
 import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
 import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONAuthRequestPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONAuthResponse;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecRequestPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecResponsePacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONTerminator;
+import com.github.koraktor.steamcondenser.servers.sockets.RCONConnection;
 import com.github.koraktor.steamcondenser.servers.sockets.RCONSocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SharedQuerySocket;
 import com.github.koraktor.steamcondenser.servers.sockets.SourceSocket;
 
 /**
@@ -41,7 +43,6 @@ import com.github.koraktor.steamcondenser.servers.sockets.SourceSocket;
 public class SourceServer extends GameServer {
 
     protected RCONSocket rconSocket;
-    protected boolean rconAuthenticated;
     protected int rconRequestId;
 
     /**
@@ -121,15 +122,29 @@ public class SourceServer extends GameServer {
         this.rconSocket.close();
     }
 
+    /**
+     * Returns the TCP socket used for RCON communication with the server
+     *
+     * @return The socket used for RCON commands
+     */
+    protected RCONSocket getRconSocket() {
+        return this.rconSocket;
+    }
+
     /**
      * Initializes the sockets to communicate with the Source server
      *
      * @see RCONSocket
+     * @see SharedQuerySocket
      * @see SourceSocket
      */
     public void initSocket() throws SteamCondenserException {
         this.rconSocket = new RCONSocket(this.ipAddress, this.port);
-        this.socket = new SourceSocket(this.ipAddress, this.port);
+        if(this.queryEngine == null) {
+            this.socket = new SourceSocket(this.ipAddress, this.port);
+        } else {
+            this.socket = new SharedQuerySocket(this.queryEngine, this.ipAddress, this.port, false);
+        }
     }
 
     /**
@@ -157,6 +172,36 @@ public class SourceServer extends GameServer {
         return this.rconAuthenticated;
     }
 
+    /**
+     * Opens a new RCON connection to the server that can execute multiple
+     * commands concurrently
+     * <p>
+     * The connection is independent of the connection used by
+     * {@link #rconExec} and has to be closed by the caller.
+     *
+     * @param password The RCON password of the server
+     * @return An authenticated RCON connection
+     * @see RCONConnection
+     * @throws RCONBanException if banned by the server
+     * @throws RCONNoAuthException if the password has not been accepted
+     * @throws SteamCondenserException if the connection fails
+     * @throws TimeoutException if the request times out
+     */
+    public RCONConnection openRconConnection(String password)
+            throws TimeoutException, SteamCondenserException {
+        RCONConnection connection = new RCONConnection(this.ipAddress, this.port, this.socketTimeout);
+        try {
+            if(!connection.authenticate(password)) {
+                throw new RCONNoAuthException();
+            }
+        } catch(SteamCondenserException | TimeoutException e) {
+            connection.close();
+            throw e;
+        }
+
+        return connection;
+    }
+
     /**
      * Remotely executes a command on the server via RCON
      *
@@ -175,28 +220,95 @@ public class SourceServer extends GameServer {
             throw new RCONNoAuthException();
         }
 
-        this.rconSocket.send(new RCONExecRequestPacket(this.rconRequestId, command));
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            this.rconSocket.send(new RCONExecRequestPacket(this.rconRequestId, command));
 
-        boolean isMulti = false;
-         RCONPacket responsePacket;
-        ArrayList<String> response = new ArrayList<String>();
-        do {
-            responsePacket = this.rconSocket.getReply();
+            boolean isMulti = false;
+            int emptyResponses = 0;
+            int responses = 0;
+            RCONPacket responsePacket;
+            StringBuilder response = new StringBuilder();
+            do {
+                responsePacket = this.rconSocket.getReply();
 
-            if (responsePacket == null ||
-                    responsePacket instanceof RCONAuthResponse) {
-                this.rconAuthenticated = false;
-                throw new RCONNoAuthException();
-            }
+                if (responsePacket == null ||
+                        responsePacket instanceof RCONAuthResponse) {
+                    this.rconAuthenticated = false;
+                    throw new RCONNoAuthException();
+                }
 
-            if (!isMulti && ((RCONExecResponsePacket) responsePacket).getResponse().length() > 0) {
-                isMulti = true;
-                this.rconSocket.send(new RCONTerminator(this.rconRequestId));
-            }
-            response.add(((RCONExecResponsePacket) responsePacket).getResponse());
-        } while(isMulti && !(response.size() > 2 && response.get(response.size() - 2).equals("") && response.get(response.size() - 1).equals("")));
+                String data = ((RCONExecResponsePacket) responsePacket).getResponse();
+                if (!isMulti && data.length() > 0) {
+                    isMulti = true;
+                    this.rconSocket.send(new RCONTerminator(this.rconRequestId));
+                }
+                emptyResponses = data.isEmpty() ? emptyResponses + 1 : 0;
+                responses ++;
+                response.append(data);
+            } while(isMulti && !(responses > 2 && emptyResponses >= 2));
 
-        return StringUtils.join(response.toArray()).trim();
+            success = true;
+            return response.toString().trim();
+        } finally {
+            Metrics.getRecorder().rconRoundTrip(Protocol.RCON, System.nanoTime() - start, success);
+        }
+    }
+
+    /**
+     * Remotely executes a command on the server via RCON and passes its
+     * output to the given consumer as it arrives
+     * <p>
+     * The output is decoded directly from the receive buffer of the RCON
+     * socket, so no intermediate strings are created. The character
+     * sequences passed to the consumer are only valid during the call, i.e.
+     * they have to be copied if they should be kept. The output is passed
+     * as received from the server and not trimmed.
+     *
+     * @param command The command to execute on the server via RCON
+     * @param output The consumer receiving the parts of the output
+     * @see #rconExec(String)
+     * @throws RCONBanException if banned by the server
+     * @throws RCONNoAuthException if not authenticated with the server
+     * @throws SteamCondenserException if a problem occurs while parsing the
+     *         reply
+     * @throws TimeoutException if the request times out
+     */
+    public void rconExec(String command, Consumer<? super CharSequence> output)
+            throws TimeoutException, SteamCondenserException {
+        if(!this.rconAuthenticated) {
+            throw new RCONNoAuthException();
+        }
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            this.rconSocket.send(new RCONExecRequestPacket(this.rconRequestId, command));
+
+            boolean isMulti = false;
+            int emptyResponses = 0;
+            int responses = 0;
+            do {
+                int length = this.rconSocket.readResponse(output);
+
+                if (length < 0) {
+                    this.rconAuthenticated = false;
+                    throw new RCONNoAuthException();
+                }
+
+                if (!isMulti && length > 0) {
+                    isMulti = true;
+                    this.rconSocket.send(new RCONTerminator(this.rconRequestId));
+                }
+                emptyResponses = (length == 0) ? emptyResponses + 1 : 0;
+                responses ++;
+            } while(isMulti && !(responses > 2 && emptyResponses >= 2));
+
+            success = true;
+        } finally {
+            Metrics.getRecorder().rconRoundTrip(Protocol.RCON, System.nanoTime() - start, success);
+        }
     }
 
 }
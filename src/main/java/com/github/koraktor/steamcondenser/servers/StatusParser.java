@@ -0,0 +1,518 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * This class parses the output of the <code>status</code> RCON command and
+ * adds the information to the players of a server
+ * <p>
+ * The output is parsed in a single pass over its characters. The header
+ * line defines the order of the columns, all following lines starting with
+ * <code>#</code> contain a single player each. Values are written directly
+ * to the matching {@link SteamPlayer} object. Lines of players that are not
+ * known to the server yet are skipped without being parsed any further.
+ * <p>
+ * Both the formats used by GoldSrc and Source servers are supported,
+ * including status lines of bots which lack the columns for the connection
+ * time, ping and loss.
+ *
+ * @author Sebastian Staudt
+ * @see GameServer#updatePlayers(String)
+ */
+final class StatusParser {
+
+    private static final int ADDRESS = 1;
+    private static final int LOSS = 2;
+    private static final int NAME = 3;
+    private static final int PING = 4;
+    private static final int RATE = 5;
+    private static final int STATE = 6;
+    private static final int STEAM_ID = 7;
+    private static final int USER_ID = 8;
+    private static final int UNKNOWN = 0;
+
+    private final int[] columns;
+
+    private final int nameColumn;
+
+    private final int stateColumn;
+
+    private final CharSequence status;
+
+    private int position;
+
+    /**
+     * Parses the given status output and adds the information to the given
+     * players
+     *
+     * @param status The output of the <code>status</code> command
+     * @param players The players of the server by name
+     * @return The number of players that have been extended
+     */
+    static int parse(CharSequence status, Map<String, SteamPlayer> players) {
+        return parse(status, players::get);
+    }
+
+    /**
+     * Parses the given status output and adds the information to the given
+     * players
+     * <p>
+     * Players using the same name are extended in order, i.e. the first line
+     * using a name is added to the first player with this name and so on.
+     *
+     * @param status The output of the <code>status</code> command
+     * @param players All players of the server
+     * @return The number of players that have been extended
+     */
+    static int parse(CharSequence status, Collection<SteamPlayer> players) {
+        final Map<String, Deque<SteamPlayer>> playersByName = new HashMap<String, Deque<SteamPlayer>>();
+        for(SteamPlayer player : players) {
+            playersByName.computeIfAbsent(player.getName(), name -> new ArrayDeque<SteamPlayer>()).add(player);
+        }
+
+        return parse(status, name -> {
+            Deque<SteamPlayer> namesakes = playersByName.get(name);
+            return (namesakes == null) ? null : namesakes.poll();
+        });
+    }
+
+    /**
+     * Parses the given status output and adds the information to the players
+     * returned by the given lookup
+     *
+     * @param status The output of the <code>status</code> command
+     * @param players The lookup returning the player to extend for a name
+     * @return The number of players that have been extended
+     */
+    private static int parse(CharSequence status, Function<String, SteamPlayer> players) {
+        int length = status.length();
+        int position = 0;
+        while(position < length) {
+            int lineEnd = lineEnd(status, position);
+            if(isHeader(status, position, lineEnd)) {
+                return new StatusParser(status, position, lineEnd).parsePlayers(players);
+            }
+            position = lineEnd + 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Parses the player attribute names of the given header line
+     * <p>
+     * This is the string based parsing used before {@link #parse} and is
+     * only kept for the deprecated methods of {@link GameServer}.
+     *
+     * @param statusHeader The header line of the <code>status</code> output
+     * @return The names of the player attributes
+     * @see #splitPlayerStatus
+     */
+    static List<String> getPlayerStatusAttributes(String statusHeader) {
+        List<String> statusAttributes = new ArrayList<String>();
+        for(String attribute : statusHeader.split("\\s+")) {
+            if(attribute.equals("connected")) {
+                statusAttributes.add("time");
+            } else if(attribute.equals("frag")) {
+                statusAttributes.add("score");
+            } else {
+                statusAttributes.add(attribute);
+            }
+        }
+
+        return statusAttributes;
+    }
+
+    /**
+     * Splits the status line of a single player into its attributes
+     * <p>
+     * This is the string based parsing used before {@link #parse} and is
+     * only kept for the deprecated methods of {@link GameServer}.
+     *
+     * @param attributes The names of the player attributes
+     * @param playerStatus The status line of a single player
+     * @return The attributes with the corresponding values of this player
+     * @see #getPlayerStatusAttributes
+     */
+    static Map<String, String> splitPlayerStatus(List<String> attributes, String playerStatus) {
+        if(!attributes.get(0).equals("userid")) {
+            playerStatus = playerStatus.replaceAll("^\\d+ +", "");
+        }
+
+        int firstQuote = playerStatus.indexOf('"');
+        int lastQuote  = playerStatus.lastIndexOf('"');
+        List<String> tmpData = new ArrayList<String>();
+        tmpData.add(playerStatus.substring(0, firstQuote));
+        tmpData.add(playerStatus.substring(firstQuote + 1, lastQuote));
+        tmpData.add(playerStatus.substring(lastQuote + 1));
+
+        List<String> data = new ArrayList<String>();
+        data.addAll(Arrays.asList(tmpData.get(0).trim().split("\\s+")));
+        data.add(tmpData.get(1));
+        data.addAll(Arrays.asList(tmpData.get(2).trim().split("\\s+")));
+        data.remove("");
+
+        if(attributes.size() > data.size() && attributes.contains("state")) {
+            data.add(3, null);
+            data.add(3, null);
+            data.add(3, null);
+        } else if(attributes.size() < data.size()) {
+            data.remove(1);
+        }
+
+        Map<String, String> playerData = new HashMap<String, String>();
+        for(int i = 0; i < data.size(); i ++) {
+            playerData.put(attributes.get(i), data.get(i));
+        }
+
+        return playerData;
+    }
+
+    /**
+     * Creates a new parser for the columns defined in the given header line
+     *
+     * @param status The output of the <code>status</code> command
+     * @param start The start of the header line
+     * @param end The end of the header line
+     */
+    private StatusParser(CharSequence status, int start, int end) {
+        this.status = status;
+
+        int count = 0;
+        int[] columns = new int[16];
+        int nameColumn = -1;
+        int stateColumn = -1;
+        int position = start + 1;
+        while(true) {
+            position = skipSpaces(status, position, end);
+            if(position >= end) {
+                break;
+            }
+            int tokenEnd = tokenEnd(status, position, end);
+
+            int column = column(status, position, tokenEnd);
+            if(column == NAME) {
+                nameColumn = count;
+            } else if(column == STATE) {
+                stateColumn = count;
+            }
+            if(count == columns.length) {
+                int[] newColumns = new int[count * 2];
+                System.arraycopy(columns, 0, newColumns, 0, count);
+                columns = newColumns;
+            }
+            columns[count ++] = column;
+
+            position = tokenEnd;
+        }
+
+        this.columns = new int[count];
+        System.arraycopy(columns, 0, this.columns, 0, count);
+        this.nameColumn = nameColumn;
+        this.stateColumn = stateColumn;
+        this.position = end + 1;
+    }
+
+    /**
+     * Parses all player lines following the header
+     *
+     * @param players The lookup returning the player to extend for a name
+     * @return The number of players that have been extended
+     */
+    private int parsePlayers(Function<String, SteamPlayer> players) {
+        if(this.nameColumn < 0) {
+            return 0;
+        }
+
+        int extended = 0;
+        int length = this.status.length();
+        while(this.position < length) {
+            int start = this.position;
+            int end = lineEnd(this.status, start);
+            this.position = end + 1;
+
+            if(end - start < 2 || this.status.charAt(start) != '#' ||
+               isEnd(this.status, start, end)) {
+                continue;
+            }
+
+            if(this.parsePlayer(start + 1, end, players)) {
+                extended ++;
+            }
+        }
+
+        return extended;
+    }
+
+    /**
+     * Parses a single player line and adds the information to the player
+     * with the same name
+     *
+     * @param start The start of the line after the leading <code>#</code>
+     * @param end The end of the line
+     * @param players The lookup returning the player to extend for a name
+     * @return <code>true</code> if a player has been extended
+     */
+    private boolean parsePlayer(int start, int end, Function<String, SteamPlayer> players) {
+        int firstQuote = -1;
+        int lastQuote = -1;
+        for(int i = start; i < end; i ++) {
+            if(this.status.charAt(i) == '"') {
+                if(firstQuote < 0) {
+                    firstQuote = i;
+                }
+                lastQuote = i;
+            }
+        }
+        if(firstQuote == lastQuote) {
+            return false;
+        }
+
+        SteamPlayer player = players.apply(this.status.subSequence(firstQuote + 1, lastQuote).toString());
+        if(player == null) {
+            return false;
+        }
+
+        int userId = -1;
+        if(this.nameColumn > 0 && this.columns[0] == USER_ID) {
+            int position = skipSpaces(this.status, start, firstQuote);
+            userId = parseInt(this.status, position, tokenEnd(this.status, position, firstQuote));
+        }
+
+        int tokens = 0;
+        int position = lastQuote + 1;
+        while((position = skipSpaces(this.status, position, end)) < end) {
+            position = tokenEnd(this.status, position, end);
+            tokens ++;
+        }
+        boolean missingColumns = this.stateColumn > this.nameColumn + 2 &&
+                                 tokens < this.columns.length - this.nameColumn - 1;
+
+        int loss = 0;
+        int ping = 0;
+        int rate = 0;
+        String address = null;
+        String state = null;
+        String steamId = null;
+
+        int column = this.nameColumn + 1;
+        position = lastQuote + 1;
+        while(column < this.columns.length &&
+              (position = skipSpaces(this.status, position, end)) < end) {
+            int tokenEnd = tokenEnd(this.status, position, end);
+            switch(this.columns[column]) {
+                case ADDRESS:
+                    address = this.status.subSequence(position, tokenEnd).toString();
+                    break;
+                case LOSS:
+                    loss = parseInt(this.status, position, tokenEnd);
+                    break;
+                case PING:
+                    ping = parseInt(this.status, position, tokenEnd);
+                    break;
+                case RATE:
+                    rate = parseInt(this.status, position, tokenEnd);
+                    break;
+                case STATE:
+                    state = this.status.subSequence(position, tokenEnd).toString();
+                    break;
+                case STEAM_ID:
+                    steamId = this.status.subSequence(position, tokenEnd).toString();
+                    if(missingColumns) {
+                        column = this.stateColumn - 1;
+                    }
+                    break;
+                case USER_ID:
+                    userId = parseInt(this.status, position, tokenEnd);
+                    break;
+            }
+
+            column ++;
+            position = tokenEnd;
+        }
+
+        if(steamId == null) {
+            return false;
+        }
+
+        player.addInformation(userId, steamId, state, ping, loss, rate, address);
+
+        return true;
+    }
+
+    /**
+     * Returns the column type for the given column name
+     *
+     * @param header The header line
+     * @param start The start of the column name
+     * @param end The end of the column name
+     * @return The type of the column
+     */
+    private static int column(CharSequence header, int start, int end) {
+        if(regionEquals(header, start, end, "adr")) {
+            return ADDRESS;
+        } else if(regionEquals(header, start, end, "loss")) {
+            return LOSS;
+        } else if(regionEquals(header, start, end, "name")) {
+            return NAME;
+        } else if(regionEquals(header, start, end, "ping")) {
+            return PING;
+        } else if(regionEquals(header, start, end, "rate")) {
+            return RATE;
+        } else if(regionEquals(header, start, end, "state")) {
+            return STATE;
+        } else if(regionEquals(header, start, end, "uniqueid")) {
+            return STEAM_ID;
+        } else if(regionEquals(header, start, end, "userid")) {
+            return USER_ID;
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Returns whether the given line is the <code>#end</code> marker
+     *
+     * @param status The output of the <code>status</code> command
+     * @param start The start of the line
+     * @param end The end of the line
+     * @return <code>true</code> if the line marks the end of the player list
+     */
+    private static boolean isEnd(CharSequence status, int start, int end) {
+        return regionEquals(status, start, end, "#end");
+    }
+
+    /**
+     * Returns whether the given line is the header of the player list, i.e.
+     * it starts with <code>#</code> followed by a column name
+     *
+     * @param status The output of the <code>status</code> command
+     * @param start The start of the line
+     * @param end The end of the line
+     * @return <code>true</code> if the line is the header line
+     */
+    private static boolean isHeader(CharSequence status, int start, int end) {
+        if(start >= end || status.charAt(start) != '#') {
+            return false;
+        }
+
+        int position = skipSpaces(status, start + 1, end);
+        int tokenEnd = tokenEnd(status, position, end);
+        int column = column(status, position, tokenEnd);
+
+        return column == NAME || column == USER_ID;
+    }
+
+    /**
+     * Returns the end of the line starting at the given position
+     *
+     * @param status The output of the <code>status</code> command
+     * @param start The start of the line
+     * @return The position of the line break or the end of the output
+     */
+    private static int lineEnd(CharSequence status, int start) {
+        int length = status.length();
+        int position = start;
+        while(position < length && status.charAt(position) != '\n') {
+            position ++;
+        }
+
+        if(position > start && status.charAt(position - 1) == '\r') {
+            return position - 1;
+        }
+        return position;
+    }
+
+    /**
+     * Parses a non-negative decimal number
+     *
+     * @param status The output of the <code>status</code> command
+     * @param start The start of the number
+     * @param end The end of the number
+     * @return The value of the number or <code>0</code> if it is not a
+     *         valid number
+     */
+    private static int parseInt(CharSequence status, int start, int end) {
+        int value = 0;
+        for(int i = start; i < end; i ++) {
+            char c = status.charAt(i);
+            if(c < '0' || c > '9') {
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns whether the given region equals the given string
+     *
+     * @param status The output of the <code>status</code> command
+     * @param start The start of the region
+     * @param end The end of the region
+     * @param string The string to compare with
+     * @return <code>true</code> if the region equals the string
+     */
+    private static boolean regionEquals(CharSequence status, int start, int end, String string) {
+        if(end - start != string.length()) {
+            return false;
+        }
+
+        for(int i = 0; i < string.length(); i ++) {
+            if(status.charAt(start + i) != string.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Skips whitespace
+     *
+     * @param status The output of the <code>status</code> command
+     * @param position The position to start at
+     * @param end The end of the line
+     * @return The position of the next non-whitespace character
+     */
+    private static int skipSpaces(CharSequence status, int position, int end) {
+        while(position < end && Character.isWhitespace(status.charAt(position))) {
+            position ++;
+        }
+
+        return position;
+    }
+
+    /**
+     * Returns the end of the token starting at the given position
+     *
+     * @param status The output of the <code>status</code> command
+     * @param position The start of the token
+     * @param end The end of the line
+     * @return The position after the last character of the token
+     */
+    private static int tokenEnd(CharSequence status, int position, int end) {
+        while(position < end && !Character.isWhitespace(status.charAt(position))) {
+            position ++;
+        }
+
+        return position;
+    }
+
+}
@@ -63,26 +63,65 @@ public class SteamPlayer {
             throw new SteamCondenserException("Information to add belongs to a different player.");
         }
 
+        int loss = 0;
+        int ping = 0;
+        int rate = 0;
+        String steamId = playerData.get("uniqueid");
+        if(!"BOT".equals(steamId) && !"HLTV".equals(steamId)) {
+            loss = Integer.parseInt(playerData.get("loss"));
+            ping = Integer.parseInt(playerData.get("ping"));
+
+            if(playerData.containsKey("rate")) {
+                rate = Integer.parseInt(playerData.get("rate"));
+            }
+        }
+
+        this.addInformation(Integer.parseInt(playerData.get("userid")),
+                steamId, playerData.get("state"), ping, loss, rate,
+                playerData.get("adr"));
+    }
+
+    /**
+     * Extends a player object with information retrieved from a RCON call to
+     * the status command
+     * <p>
+     * Ping, loss, rate and address are ignored for bots and HLTV clients.
+     *
+     * @param connectionId The connection ID of the player
+     * @param steamId The SteamID of the player
+     * @param state The connection state of the player or <code>null</code>
+     * @param ping The ping of the player
+     * @param loss The packet loss of the player's connection
+     * @param rate The rate of the player or <code>0</code>
+     * @param address The address of the player, i.e. IP address and port, or
+     *        <code>null</code>
+     */
+    void addInformation(int connectionId, String steamId, String state,
+                        int ping, int loss, int rate, String address) {
         this.extended = true;
-        this.connectionId = Integer.parseInt(playerData.get("userid"));
-        this.steamId = playerData.get("uniqueid");
+        this.connectionId = connectionId;
+        this.steamId = steamId;
 
-        if(playerData.containsKey("state")) {
-            this.state = playerData.get("state");
+        if(state != null) {
+            this.state = state;
         }
 
         if(!this.isBot() && !this.isHLTV()) {
-            this.loss  = Integer.parseInt(playerData.get("loss"));
-            this.ping  = Integer.parseInt(playerData.get("ping"));
+            this.loss = loss;
+            this.ping = ping;
 
-            if(playerData.containsKey("adr")) {
-                String[] address = playerData.get("adr").split(":");
-                this.ipAddress   = address[0];
-                this.clientPort  = Integer.parseInt(address[1]);
+            if(address != null) {
+                int colon = address.indexOf(':');
+                if(colon < 0) {
+                    this.ipAddress = address;
+                } else {
+                    this.ipAddress = address.substring(0, colon);
+                    this.clientPort = Integer.parseInt(address.substring(colon + 1));
+                }
             }
 
-            if(playerData.containsKey("rate")) {
-                this.rate = Integer.parseInt(playerData.get("rate"));
+            if(rate > 0) {
+                this.rate = rate;
             }
         }
     }
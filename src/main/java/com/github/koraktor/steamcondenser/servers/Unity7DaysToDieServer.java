@@ -18,6 +18,7 @@ import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecResponseP
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONTerminator;
 import com.github.koraktor.steamcondenser.servers.sockets.RCONSocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SharedQuerySocket;
 import com.github.koraktor.steamcondenser.servers.sockets.SourceSocket;
 
 public class Unity7DaysToDieServer extends GameServer {
@@ -160,7 +161,11 @@ public class Unity7DaysToDieServer extends GameServer {
      * @see SourceSocket
      */
     public void initSocket() throws SteamCondenserException {
-        this.socket = new SourceSocket(this.ipAddress, this.port);
+        if(this.queryEngine == null) {
+            this.socket = new SourceSocket(this.ipAddress, this.port);
+        } else {
+            this.socket = new SharedQuerySocket(this.queryEngine, this.ipAddress, this.port, false);
+        }
     }
     public void updateStatus()  throws SteamCondenserException, TimeoutException
     {
@@ -198,7 +203,7 @@ public class Unity7DaysToDieServer extends GameServer {
     }
     private String updateServerName()
     {
-        String hostname = (String) serverInfo.get(VAR_SERVER_NAME);
+        String hostname = serverInfo.getServerName();
         return hostname;
     }
     public String getServerName() throws SteamCondenserException, TimeoutException
@@ -212,7 +217,7 @@ public class Unity7DaysToDieServer extends GameServer {
     }
     private Integer updateNumPlayers()
     {
-        Integer players = ((Byte) serverInfo.get(VAR_NUM_PLAYERS)).intValue();
+        Integer players = serverInfo.getNumberOfPlayers();
         return players;
     }
     public Integer reportNumPlayers()
@@ -226,7 +231,7 @@ public class Unity7DaysToDieServer extends GameServer {
     }
     private Integer updateMaxPlayers()
     {
-        Integer players = ((Byte) serverInfo.get(VAR_MAX_PLAYERS)).intValue();
+        Integer players = serverInfo.getMaxPlayers();
         return players;
     }
     public Integer getMaxPlayers() throws SteamCondenserException, TimeoutException
@@ -241,7 +246,7 @@ public class Unity7DaysToDieServer extends GameServer {
     }
     private String updateMapName()
     {
-        String mapname = (String) serverInfo.get(VAR_MAP_NAME);
+        String mapname = serverInfo.getMapName();
         return mapname;
     }
     public String getMapName() throws SteamCondenserException, TimeoutException
@@ -261,8 +266,8 @@ public class Unity7DaysToDieServer extends GameServer {
     public boolean isFull(Integer reservedSlots) throws SteamCondenserException, TimeoutException
     {
     	this.updateServerInfo();
-    	Integer players = ((Byte) serverInfo.get(VAR_NUM_PLAYERS)).intValue();
-    	Integer maxPlayers = ((Byte) serverInfo.get(VAR_MAX_PLAYERS)).intValue();
+    	Integer players = serverInfo.getNumberOfPlayers();
+    	Integer maxPlayers = serverInfo.getMaxPlayers();
     	
     	return (maxPlayers - players) > reservedSlots;
     }
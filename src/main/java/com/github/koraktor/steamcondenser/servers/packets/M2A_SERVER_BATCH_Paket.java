@@ -10,6 +10,7 @@ package com.github.koraktor.steamcondenser.servers.packets;
 import java.util.Vector;
 
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.servers.ServerAddress;
 
 /**
  * This packet class represents a M2A_SERVER_BATCH response replied by a master
@@ -23,6 +24,8 @@ import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
  */
 public class M2A_SERVER_BATCH_Paket extends SteamPacket {
 
+    private long[] serverAddresses;
+
     private Vector<String> serverArray;
 
     /**
@@ -33,32 +36,68 @@ public class M2A_SERVER_BATCH_Paket extends SteamPacket {
      */
     public M2A_SERVER_BATCH_Paket(byte[] data)
             throws PacketFormatException {
-        super(SteamPacket.M2A_SERVER_BATCH_HEADER, data);
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Creates a new M2A_SERVER_BATCH response object based on a part of
+     * the given data
+     * <p>
+     * The data is not copied.
+     *
+     * @param data The raw packet data replied from the server
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     * @throws PacketFormatException if the packet data is not well formatted
+     */
+    public M2A_SERVER_BATCH_Paket(byte[] data, int offset, int length)
+            throws PacketFormatException {
+        super(SteamPacket.M2A_SERVER_BATCH_HEADER, data, offset, length);
 
         if(this.contentData.getByte() != 0x0A) {
             throw new PacketFormatException("Master query response is missing additional 0x0A byte.");
         }
 
-        int firstOctet, secondOctet, thirdOctet, fourthOctet, portNumber;
-        this.serverArray = new Vector<String>();
+        this.serverAddresses = new long[Math.max(1, this.contentData.remaining() / 6)];
 
+        int i = 0;
         do {
-            firstOctet = this.contentData.getByte() & 0xFF;
-            secondOctet = this.contentData.getByte() & 0xFF;
-            thirdOctet = this.contentData.getByte() & 0xFF;
-            fourthOctet = this.contentData.getByte() & 0xFF;
-            portNumber = this.contentData.getShort() & 0xFFFF;
+            int ipAddress = this.contentData.getInt();
+            int portNumber = this.contentData.getShort();
+            this.serverAddresses[i ++] = ServerAddress.pack(ipAddress, portNumber);
+        } while(this.contentData.remaining() >= 6);
+    }
 
-            this.serverArray.add(firstOctet + "." + secondOctet + "." + thirdOctet + "." + fourthOctet + ":" + portNumber);
-        } while(this.contentData.remaining() > 0);
+    /**
+     * Returns the servers returned from the server in this packet in their
+     * packed form
+     * <p>
+     * The last batch of a query ends with <code>0</code> (i.e.
+     * <code>0.0.0.0:0</code>).
+     *
+     * @return The packed addresses of the servers
+     * @see ServerAddress
+     */
+    public long[] getServerAddresses() {
+        return this.serverAddresses;
     }
 
     /**
      * Returns the list of servers returned from the server in this packet
      *
      * @return An array of server addresses (i.e. IP addresses + port numbers)
+     * @deprecated Use {@link #getServerAddresses()} which does not create a
+     *             string for every server
      */
+    @Deprecated
     public Vector<String> getServers() {
+        if(this.serverArray == null) {
+            this.serverArray = new Vector<String>(this.serverAddresses.length);
+            for(long serverAddress : this.serverAddresses) {
+                this.serverArray.add(ServerAddress.toString(serverAddress));
+            }
+        }
+
         return this.serverArray;
     }
 }
@@ -9,9 +9,17 @@ package com.github.koraktor.steamcondenser.servers.packets;
 
 import java.util.HashMap;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.servers.ServerInfo;
+
 /**
  * This module implements methods to generate and access server information
  * from S2A_INFO_DETAILED and S2A_INFO2 response packets
+ * <p>
+ * The packet data is checked for completeness when the packet is created,
+ * but decoded lazily by the {@link ServerInfo} object when any of the
+ * information is accessed for the first time.
  *
  * @author Sebastian Staudt
  * @see S2A_INFO_DETAILED_Packet
@@ -19,12 +27,14 @@ import java.util.HashMap;
  */
 public abstract class S2A_INFO_BasePacket extends SteamPacket {
 
-    protected HashMap<String, Object> info;
+    protected final ServerInfo serverInfo;
 
-    S2A_INFO_BasePacket(byte headerByte, byte[] dataBytes) {
-        super(headerByte, dataBytes);
+    S2A_INFO_BasePacket(byte headerByte, byte[] dataBytes, int offset, int length, boolean detailed)
+            throws PacketFormatException {
+        super(headerByte, dataBytes, offset, length);
 
-        this.info = new HashMap<String, Object>();
+        ServerInfo.validate(dataBytes, offset, length, detailed);
+        this.serverInfo = new ServerInfo(new PacketBuffer(dataBytes, offset, length), detailed);
     }
 
     /**
@@ -32,9 +42,19 @@ public abstract class S2A_INFO_BasePacket extends SteamPacket {
      * variables of the packet object
      *
      * @return The information provided by the server
+     * @see ServerInfo#toMap
      */
     public HashMap<String, Object> getInfo() {
-        return this.info;
+        return this.serverInfo.toMap();
+    }
+
+    /**
+     * Returns the typed server information of this packet
+     *
+     * @return The information provided by the server
+     */
+    public ServerInfo getServerInfo() {
+        return this.serverInfo;
     }
 
 }
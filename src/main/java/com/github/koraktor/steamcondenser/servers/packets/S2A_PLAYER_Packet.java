@@ -7,7 +7,9 @@
 
 package com.github.koraktor.steamcondenser.servers.packets;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.servers.SteamPlayer;
@@ -24,6 +26,8 @@ public class S2A_PLAYER_Packet extends SteamPacket {
 
     private HashMap<String, SteamPlayer> playerHash;
 
+    private List<SteamPlayer> players;
+
     /**
      * Creates a new S2A_PLAYER response object based on the given data
      *
@@ -31,23 +35,43 @@ public class S2A_PLAYER_Packet extends SteamPacket {
      */
     public S2A_PLAYER_Packet(byte[] dataBytes)
             throws PacketFormatException {
-        super(SteamPacket.S2A_PLAYER_HEADER, dataBytes);
+        this(dataBytes, 0, dataBytes.length);
+    }
+
+    /**
+     * Creates a new S2A_PLAYER response object based on a part of
+     * the given data
+     * <p>
+     * The data is not copied.
+     *
+     * @param dataBytes The raw packet data replied from the server
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     * @throws PacketFormatException if the packet data is not well formatted
+     */
+    public S2A_PLAYER_Packet(byte[] dataBytes, int offset, int length)
+            throws PacketFormatException {
+        super(SteamPacket.S2A_PLAYER_HEADER, dataBytes, offset, length);
 
         if(this.contentData.getLength() == 0) {
             throw new PacketFormatException("Wrong formatted S2A_PLAYER response packet.");
         }
 
-        this.playerHash = new HashMap<String, SteamPlayer>(this.contentData.getByte());
+        int playerCount = this.contentData.getByte() & 0xff;
+        this.playerHash = new HashMap<String, SteamPlayer>(playerCount);
+        this.players = new ArrayList<SteamPlayer>(playerCount);
 
         while(this.contentData.hasRemaining()) {
             int playerId = this.contentData.getByte() & 0xff;
             String playerName = this.contentData.getString();
-            this.playerHash.put(playerName, new SteamPlayer(
+            SteamPlayer player = new SteamPlayer(
                 playerId,
                 playerName,
                 Integer.reverseBytes(this.contentData.getInt()),
                 Float.intBitsToFloat(Integer.reverseBytes(this.contentData.getInt()))
-            ));
+            );
+            this.players.add(player);
+            this.playerHash.put(playerName, player);
         }
     }
 
@@ -59,4 +83,17 @@ public class S2A_PLAYER_Packet extends SteamPacket {
     public HashMap<String, SteamPlayer> getPlayerHash() {
         return this.playerHash;
     }
+
+    /**
+     * Returns all active players provided by the server in the order they
+     * have been sent
+     * <p>
+     * Different from {@link #getPlayerHash} this contains every player, even
+     * if several players are using the same name.
+     *
+     * @return All active players on the server
+     */
+    public List<SteamPlayer> getPlayers() {
+        return this.players;
+    }
 }
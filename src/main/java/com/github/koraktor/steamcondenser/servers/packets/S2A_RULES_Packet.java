@@ -31,7 +31,22 @@ public class S2A_RULES_Packet extends SteamPacket {
      */
     public S2A_RULES_Packet(byte[] dataBytes)
             throws PacketFormatException {
-        super(SteamPacket.S2A_RULES_HEADER, dataBytes);
+        this(dataBytes, 0, dataBytes.length);
+    }
+
+    /**
+     * Creates a new S2A_RULES response object based on a part of the given data
+     * <p>
+     * The data is not copied.
+     *
+     * @param dataBytes The raw packet data replied from the server
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     * @throws PacketFormatException if the packet data is not well formatted
+     */
+    public S2A_RULES_Packet(byte[] dataBytes, int offset, int length)
+            throws PacketFormatException {
+        super(SteamPacket.S2A_RULES_HEADER, dataBytes, offset, length);
 
         if (this.contentData.getLength() == 0) {
             throw new PacketFormatException("Wrong formatted S2A_RULES response packet.");
@@ -43,8 +58,8 @@ public class S2A_RULES_Packet extends SteamPacket {
         String rule;
         String value;
         for (int i = 0; i < rulesCount; i++) {
-            rule = this.contentData.getString();
-            value = this.contentData.getString();
+            rule = this.contentData.getCachedString();
+            value = this.contentData.getCachedString();
 
             if(rule.equals("")) {
                 break;
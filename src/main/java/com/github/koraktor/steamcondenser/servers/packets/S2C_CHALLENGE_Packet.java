@@ -25,7 +25,21 @@ public class S2C_CHALLENGE_Packet extends SteamPacket {
      * @param challengeNumberBytes The raw packet data replied from the server
      */
     public S2C_CHALLENGE_Packet(byte[] challengeNumberBytes) {
-        super(SteamPacket.S2C_CHALLENGE_HEADER, challengeNumberBytes);
+        this(challengeNumberBytes, 0, challengeNumberBytes.length);
+    }
+
+    /**
+     * Creates a new S2C_CHALLENGE response object based on a part of
+     * the given data
+     * <p>
+     * The data is not copied.
+     *
+     * @param challengeNumberBytes The raw data replied from the server
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     */
+    public S2C_CHALLENGE_Packet(byte[] challengeNumberBytes, int offset, int length) {
+        super(SteamPacket.S2C_CHALLENGE_HEADER, challengeNumberBytes, offset, length);
     }
 
     /**
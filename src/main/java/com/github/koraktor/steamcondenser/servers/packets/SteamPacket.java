@@ -64,6 +64,30 @@ abstract public class SteamPacket {
         this.headerData = headerData;
     }
 
+    /**
+     * Creates a new packet object based on a part of the given data
+     * <p>
+     * The data is not copied.
+     *
+     * @param headerData The packet header
+     * @param contentBytes The raw data containing the packet
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     */
+    protected SteamPacket(byte headerData, byte[] contentBytes, int offset, int length) {
+        this.contentData = new PacketBuffer(contentBytes, offset, length);
+        this.headerData = headerData;
+    }
+
+    /**
+     * Returns the header byte identifying the type of this packet
+     *
+     * @return The header of this packet
+     */
+    public byte getHeader() {
+        return this.headerData;
+    }
+
     /**
      * Returns the raw data representing this packet
      *
@@ -76,7 +100,7 @@ abstract public class SteamPacket {
         bytes[2] = (byte) 0xFF;
         bytes[3] = (byte) 0xFF;
         bytes[4] = this.headerData;
-        System.arraycopy(this.contentData.array(), 0, bytes, 5, bytes.length - 5);
+        System.arraycopy(this.contentData.array(), this.contentData.arrayOffset(), bytes, 5, bytes.length - 5);
         return bytes;
     }
 }
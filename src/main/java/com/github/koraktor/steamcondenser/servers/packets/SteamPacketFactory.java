@@ -10,6 +10,7 @@ package com.github.koraktor.steamcondenser.servers.packets;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.zip.CRC32;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -17,6 +18,7 @@ import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 import com.github.koraktor.steamcondenser.Helper;
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONGoldSrcResponsePacket;
 
 /**
@@ -39,45 +41,67 @@ public abstract class SteamPacketFactory {
      */
     public static SteamPacket getPacketFromData(byte[] rawData)
             throws PacketFormatException {
-        byte header = rawData[0];
-        byte[] data = new byte[rawData.length - 1];
-        System.arraycopy(rawData, 1, data, 0, rawData.length - 1);
+        return SteamPacketFactory.getPacketFromData(rawData, 0, rawData.length);
+    }
+
+    /**
+     * Creates a new packet object based on the header byte of the given part
+     * of the raw data
+     * <p>
+     * The packet object uses the given array directly, so the data must not
+     * be changed afterwards.
+     *
+     * @param rawData The raw data containing the packet
+     * @param offset The offset of the packet's header byte
+     * @param length The length of the packet including the header byte
+     * @throws PacketFormatException if the packet header is not recognized
+     * @return The packet object generated from the packet data
+     */
+    public static SteamPacket getPacketFromData(byte[] rawData, int offset, int length)
+            throws PacketFormatException {
+        if(length < 1) {
+            throw new PacketFormatException("Empty packet received.");
+        }
+
+        byte header = rawData[offset];
+        int dataOffset = offset + 1;
+        int dataLength = length - 1;
 
         switch(header) {
             case SteamPacket.A2S_INFO_HEADER:
                 return new A2S_INFO_Packet();
 
             case SteamPacket.S2A_INFO_DETAILED_HEADER:
-                return new S2A_INFO_DETAILED_Packet(data);
+                return new S2A_INFO_DETAILED_Packet(rawData, dataOffset, dataLength);
 
             case SteamPacket.S2A_INFO2_HEADER:
-                return new S2A_INFO2_Packet(data);
+                return new S2A_INFO2_Packet(rawData, dataOffset, dataLength);
 
             case SteamPacket.A2S_PLAYER_HEADER:
-                return new A2S_PLAYER_Packet(Helper.integerFromByteArray(data));
+                return new A2S_PLAYER_Packet(Helper.integerFromByteArray(Arrays.copyOfRange(rawData, dataOffset, dataOffset + dataLength)));
 
             case SteamPacket.S2A_PLAYER_HEADER:
-                return new S2A_PLAYER_Packet(data);
+                return new S2A_PLAYER_Packet(rawData, dataOffset, dataLength);
 
             case SteamPacket.A2S_RULES_HEADER:
-                return new A2S_RULES_Packet(Helper.integerFromByteArray(data));
+                return new A2S_RULES_Packet(Helper.integerFromByteArray(Arrays.copyOfRange(rawData, dataOffset, dataOffset + dataLength)));
 
             case SteamPacket.S2A_RULES_HEADER:
-                return new S2A_RULES_Packet(data);
+                return new S2A_RULES_Packet(rawData, dataOffset, dataLength);
 
             case SteamPacket.A2S_SERVERQUERY_GETCHALLENGE_HEADER:
                 return new A2S_SERVERQUERY_GETCHALLENGE_Packet();
 
             case SteamPacket.S2C_CHALLENGE_HEADER:
-                return new S2C_CHALLENGE_Packet(data);
+                return new S2C_CHALLENGE_Packet(rawData, dataOffset, dataLength);
 
             case SteamPacket.M2A_SERVER_BATCH_HEADER:
-                return new M2A_SERVER_BATCH_Paket(data);
+                return new M2A_SERVER_BATCH_Paket(rawData, dataOffset, dataLength);
 
             case SteamPacket.RCON_GOLDSRC_CHALLENGE_HEADER:
             case SteamPacket.RCON_GOLDSRC_NO_CHALLENGE_HEADER:
             case SteamPacket.RCON_GOLDSRC_RESPONSE_HEADER:
-                return new RCONGoldSrcResponsePacket(data);
+                return new RCONGoldSrcResponsePacket(rawData, dataOffset, dataLength);
 
             default:
                 throw new PacketFormatException("Unknown packet with header 0x"
@@ -118,25 +142,61 @@ public abstract class SteamPacketFactory {
     public static SteamPacket reassemblePacket(ArrayList<byte[]> splitPackets,
             boolean isCompressed, int uncompressedSize, int packetChecksum)
             throws SteamCondenserException {
-        byte[] packetData, tmpData;
-        packetData = new byte[0];
+        int length = 0;
+        for(byte[] splitPacket : splitPackets) {
+            length += splitPacket.length;
+        }
 
+        byte[] packetData = new byte[length];
+        int offset = 0;
         for(byte[] splitPacket : splitPackets) {
-            tmpData = packetData;
-            packetData = new byte[tmpData.length + splitPacket.length];
-            System.arraycopy(tmpData, 0, packetData, 0, tmpData.length);
-            System.arraycopy(splitPacket, 0, packetData, tmpData.length,
-                    splitPacket.length);
+            System.arraycopy(splitPacket, 0, packetData, offset, splitPacket.length);
+            offset += splitPacket.length;
         }
 
+        return SteamPacketFactory.reassemblePacket(packetData, length,
+                isCompressed, uncompressedSize, packetChecksum);
+    }
+
+    /**
+     * Creates a packet object from the already reassembled data of a split
+     * and/or compressed packet
+     * <p>
+     * Uncompressed data is not copied, the packet object uses the given array
+     * directly.
+     *
+     * @param packetData The reassembled packet data, including the packet
+     *        header
+     * @param length The number of valid bytes in <code>packetData</code>
+     * @param isCompressed whether the data of this packet is compressed
+     * @param uncompressedSize The size of the decompressed packet data
+     * @param packetChecksum The CRC32 checksum of the decompressed
+     *        packet data
+     * @throws SteamCondenserException if decompressing the packet data fails
+     * @throws PacketFormatException if the calculated CRC32 checksum does not
+     *         match the expected value
+     * @return SteamPacket The reassembled packet
+     * @see SteamPacketFactory#getPacketFromData
+     */
+    public static SteamPacket reassemblePacket(byte[] packetData, int length,
+            boolean isCompressed, int uncompressedSize, int packetChecksum)
+            throws SteamCondenserException {
         if(isCompressed) {
+            long start = System.nanoTime();
             try {
-                ByteArrayInputStream stream = new ByteArrayInputStream(packetData);
+                ByteArrayInputStream stream = new ByteArrayInputStream(packetData, 0, length);
                 stream.read();
                 stream.read();
                 BZip2CompressorInputStream bzip2 = new BZip2CompressorInputStream(stream);
                 byte[] uncompressedPacketData = new byte[uncompressedSize];
-                bzip2.read(uncompressedPacketData, 0, uncompressedSize);
+                int bytesRead = 0;
+                while(bytesRead < uncompressedSize) {
+                    int read = bzip2.read(uncompressedPacketData, bytesRead, uncompressedSize - bytesRead);
+                    if(read < 0) {
+                        break;
+                    }
+                    bytesRead += read;
+                }
 
                 CRC32 crc32 = new CRC32();
                 crc32.update(uncompressedPacketData);
@@ -146,16 +206,18 @@ public abstract class SteamPacketFactory {
                     throw new PacketFormatException(
                             "CRC32 checksum mismatch of uncompressed packet data.");
                 }
+                Metrics.getRecorder().packetDecompressed(length, uncompressedSize, System.nanoTime() - start);
                 packetData = uncompressedPacketData;
+                length = uncompressedSize;
             } catch(IOException e) {
                 throw new SteamCondenserException(e.getMessage(), e);
             }
         }
 
-        tmpData = packetData;
-        packetData = new byte[tmpData.length - 4];
-        System.arraycopy(tmpData, 4, packetData, 0, tmpData.length - 4);
+        if(length < 5) {
+            throw new PacketFormatException("Split packet is too short.");
+        }
 
-        return SteamPacketFactory.getPacketFromData(packetData);
+        return SteamPacketFactory.getPacketFromData(packetData, 4, length - 4);
     }
 }
@@ -19,6 +19,8 @@ package com.github.koraktor.steamcondenser.servers.packets.rcon;
  */
 public class RCONExecResponsePacket extends RCONPacket {
 
+    private final String response;
+
     /**
      * Creates a RCON command response for the given request ID and command
      * output
@@ -28,6 +30,8 @@ public class RCONExecResponsePacket extends RCONPacket {
      */
     public RCONExecResponsePacket(int requestId, String commandReturn) {
         super(requestId, RCONPacket.SERVERDATA_RESPONSE_VALUE, commandReturn);
+
+        this.response = commandReturn;
     }
 
     /**
@@ -36,7 +40,6 @@ public class RCONExecResponsePacket extends RCONPacket {
      * @return The output of the command
      */
     public String getResponse() {
-        String response = new String(this.contentData.array());
-        return response.substring(0, response.length() - 2);
+        return this.response;
     }
 }
@@ -26,7 +26,21 @@ public class RCONGoldSrcResponsePacket extends SteamPacket {
      * @param commandResponse The output of the command executed on the server
      */
     public RCONGoldSrcResponsePacket(byte[] commandResponse) {
-        super(SteamPacket.RCON_GOLDSRC_RESPONSE_HEADER, commandResponse);
+        this(commandResponse, 0, commandResponse.length);
+    }
+
+    /**
+     * Creates a new RCON command response object based on a part of
+     * the given data
+     * <p>
+     * The data is not copied.
+     *
+     * @param commandResponse The raw data replied from the server
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     */
+    public RCONGoldSrcResponsePacket(byte[] commandResponse, int offset, int length) {
+        super(SteamPacket.RCON_GOLDSRC_RESPONSE_HEADER, commandResponse, offset, length);
     }
 
     /**
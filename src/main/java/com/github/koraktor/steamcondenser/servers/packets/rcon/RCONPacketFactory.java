@@ -31,7 +31,24 @@ public abstract class RCONPacketFactory {
      */
     public static RCONPacket getPacketFromData(byte[] rawData)
             throws PacketFormatException {
-        PacketBuffer packetBuffer = new PacketBuffer(rawData);
+        return getPacketFromData(rawData, 0, rawData.length);
+    }
+
+    /**
+     * Creates a new packet object based on the header byte of a part of the
+     * given raw data
+     * <p>
+     * The data is decoded in place without copying it first.
+     *
+     * @param rawData The buffer containing the raw data of the packet
+     * @param offset The offset of the packet data
+     * @param length The length of the packet data
+     * @return RCONPacket The packet object generated from the packet data
+     * @throws PacketFormatException if the packet header is not recognized
+     */
+    public static RCONPacket getPacketFromData(byte[] rawData, int offset, int length)
+            throws PacketFormatException {
+        PacketBuffer packetBuffer = new PacketBuffer(rawData, offset, length);
 
         int requestId = Integer.reverseBytes(packetBuffer.getInt());
         int header = Integer.reverseBytes(packetBuffer.getInt());
@@ -0,0 +1,211 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class implements a thread-safe pool of direct byte buffers used by the
+ * sockets to receive data
+ * <p>
+ * Buffers are grouped into size classes (powers of two from 2 KiB up to
+ * 64 KiB), so a buffer borrowed for a 1,400 byte query reply can be reused
+ * for a 1,500 byte master server reply. Bigger buffers are allocated on
+ * demand and never pooled.
+ * <p>
+ * The counters of a pool can be used to verify that a steady stream of
+ * requests does not cause any further allocations.
+ *
+ * @author Sebastian Staudt
+ * @see SteamSocket#setBufferPool
+ */
+public class BufferPool {
+
+    private static final int MAX_SIZE_CLASS = 16;
+
+    private static final int MIN_SIZE_CLASS = 11;
+
+    private final AtomicLong acquisitions;
+
+    private final AtomicLong allocations;
+
+    private final AtomicInteger[] idleCounts;
+
+    private final Queue<ByteBuffer>[] idleBuffers;
+
+    private final int maxIdleBuffers;
+
+    private final AtomicLong releases;
+
+    /**
+     * Creates a new buffer pool keeping up to 64 idle buffers per size class
+     */
+    public BufferPool() {
+        this(64);
+    }
+
+    /**
+     * Creates a new buffer pool keeping up to the given number of idle buffers
+     * per size class
+     *
+     * @param maxIdleBuffers The maximum number of idle buffers per size class
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(int maxIdleBuffers) {
+        int sizeClasses = MAX_SIZE_CLASS - MIN_SIZE_CLASS + 1;
+
+        this.acquisitions = new AtomicLong();
+        this.allocations = new AtomicLong();
+        this.idleBuffers = new Queue[sizeClasses];
+        this.idleCounts = new AtomicInteger[sizeClasses];
+        this.maxIdleBuffers = maxIdleBuffers;
+        this.releases = new AtomicLong();
+
+        for(int i = 0; i < sizeClasses; i ++) {
+            this.idleBuffers[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+            this.idleCounts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Borrows a buffer for at least the given number of bytes from this pool
+     * <p>
+     * The buffer is positioned at zero, its limit is set to the requested
+     * length and it uses big-endian byte order. It should be returned using
+     * {@link #release} as soon as it is not used anymore.
+     *
+     * @param length The number of bytes the buffer has to hold
+     * @return A direct buffer for at least <code>length</code> bytes
+     */
+    public ByteBuffer acquire(int length) {
+        this.acquisitions.incrementAndGet();
+
+        int sizeClass = sizeClass(length);
+        ByteBuffer buffer = null;
+        if(sizeClass <= MAX_SIZE_CLASS) {
+            int index = sizeClass - MIN_SIZE_CLASS;
+            buffer = this.idleBuffers[index].poll();
+            if(buffer != null) {
+                this.idleCounts[index].decrementAndGet();
+            }
+        }
+
+        if(buffer == null) {
+            this.allocations.incrementAndGet();
+            int capacity = (sizeClass <= MAX_SIZE_CLASS) ? 1 << sizeClass : length;
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+
+        buffer.clear();
+        buffer.limit(length);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        return buffer;
+    }
+
+    /**
+     * Returns the number of buffers borrowed from this pool
+     *
+     * @return The number of calls to {@link #acquire}
+     */
+    public long getAcquisitions() {
+        return this.acquisitions.get();
+    }
+
+    /**
+     * Returns the number of buffers allocated by this pool
+     * <p>
+     * In a steady state this number does not increase anymore.
+     *
+     * @return The number of allocated buffers
+     */
+    public long getAllocations() {
+        return this.allocations.get();
+    }
+
+    /**
+     * Returns the number of buffers currently idle in this pool
+     *
+     * @return The number of idle buffers
+     */
+    public int getIdleBuffers() {
+        int idleBuffers = 0;
+        for(AtomicInteger idleCount : this.idleCounts) {
+            idleBuffers += idleCount.get();
+        }
+        return idleBuffers;
+    }
+
+    /**
+     * Returns the number of buffers returned to this pool
+     *
+     * @return The number of calls to {@link #release}
+     */
+    public long getReleases() {
+        return this.releases.get();
+    }
+
+    /**
+     * Returns a buffer borrowed using {@link #acquire} to this pool
+     * <p>
+     * The buffer must not be used by the caller afterwards. Buffers that have
+     * not been created by a pool are ignored.
+     *
+     * @param buffer The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        if(buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        this.releases.incrementAndGet();
+
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClass(capacity);
+        if(sizeClass > MAX_SIZE_CLASS || capacity != 1 << sizeClass) {
+            return;
+        }
+
+        int index = sizeClass - MIN_SIZE_CLASS;
+        if(this.idleCounts[index].incrementAndGet() <= this.maxIdleBuffers) {
+            this.idleBuffers[index].offer(buffer);
+        } else {
+            this.idleCounts[index].decrementAndGet();
+        }
+    }
+
+    /**
+     * Resets the counters of this pool
+     */
+    public void resetCounters() {
+        this.acquisitions.set(0);
+        this.allocations.set(0);
+        this.releases.set(0);
+    }
+
+    /**
+     * Returns the size class (i.e. the binary logarithm of the buffer
+     * capacity) for the given length
+     *
+     * @param length The number of bytes to store
+     * @return The size class for the given length
+     */
+    private static int sizeClass(int length) {
+        if(length <= 1 << MIN_SIZE_CLASS) {
+            return MIN_SIZE_CLASS;
+        }
+
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+
+}
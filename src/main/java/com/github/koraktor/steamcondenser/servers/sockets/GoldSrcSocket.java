@@ -9,6 +9,9 @@ package com.github.koraktor.steamcondenser.servers.sockets;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.concurrent.TimeoutException;
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
@@ -16,8 +19,8 @@ import java.util.concurrent.TimeoutException;
 import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
 import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
-import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONGoldSrcRequestPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONGoldSrcResponsePacket;
 
@@ -31,9 +34,15 @@ public class GoldSrcSocket extends QuerySocket {
 
     //protected static final Logger LOG = LoggerFactory.getLogger(GoldSrcSocket.class);
 
+    private static final int MAX_RCON_BATCH_LENGTH = 1000;
+
     protected boolean isHLTV;
     protected long rconChallenge = -1;
 
+    private int rconMarkerCount;
+
+    private final int rconMarkerPrefix = new Random().nextInt();
+
     /**
      * Creates a new socket to communicate with the server on the given IP
      * address and port
@@ -79,45 +88,30 @@ public class GoldSrcSocket extends QuerySocket {
      */
     public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException {
-        int bytesRead;
         SteamPacket packet;
 
-        bytesRead = this.receivePacket(1400);
+        this.startReply();
+        try {
+            this.receivePacket(1400);
 
-        if(this.packetIsSplit()) {
-            byte[] splitData;
-            int packetCount, packetNumber;
-            int requestId;
-            byte packetNumberAndCount;
-            ArrayList<byte[]> splitPackets = new ArrayList<byte[]>();
+            if(this.packetIsSplit()) {
+                SplitPacketTable splitPackets = new SplitPacketTable();
 
-            do {
-                requestId = Integer.reverseBytes(this.buffer.getInt());
-                packetNumberAndCount = this.buffer.get();
-                packetCount = packetNumberAndCount & 0xF;
-                packetNumber = (packetNumberAndCount >> 4) + 1;
-
-                splitData = new byte[this.buffer.remaining()];
-                this.buffer.get(splitData);
-                splitPackets.ensureCapacity(packetCount);
-                splitPackets.add(packetNumber - 1, splitData);
-
-                //LOG.info("Received packet #" + packetNumber + " of " + packetCount + " for request ID " + requestId + ".");
-
-                if(splitPackets.size() < packetCount) {
-                    try {
-                        bytesRead = this.receivePacket();
-                    } catch(TimeoutException e) {
-                        bytesRead = 0;
-                    }
-                } else {
-                    bytesRead = 0;
-                }
-            } while(bytesRead > 0 && this.packetIsSplit());
+                do {
+                    packet = splitPackets.addGoldSrcPacket(this.buffer);
 
-            packet = SteamPacketFactory.reassemblePacket(splitPackets);
-        } else {
-            packet = this.getPacketFromData();
+                    if(packet == null) {
+                        do {
+                            this.receivePacket();
+                        } while(!this.packetIsSplit());
+                    }
+                } while(packet == null);
+            } else {
+                packet = this.getPacketFromData();
+            }
+        } finally {
+            this.releaseBuffer();
+            this.finishReply();
         }
 
         //LOG.info("Received packet of type \"" + packet.getClass().getSimpleName() + "\"");
@@ -142,38 +136,195 @@ public class GoldSrcSocket extends QuerySocket {
      */
     public String rconExec(String password, String command)
             throws TimeoutException, SteamCondenserException {
-        if(this.rconChallenge == -1 || this.isHLTV) {
-            this.rconGetChallenge();
-        }
+        return this.rconExec(password, Collections.singletonList(command)).get(0);
+    }
 
-        this.rconSend("rcon " + this.rconChallenge + " " + password + " " + command);
+    /**
+     * Executes the given commands on the server via RCON
+     * <p>
+     * The RCON challenge is reused for all commands and only requested again
+     * if the server rejects it. Game servers get as many commands as possible
+     * in a single request. Each command is followed by an <code>echo</code>
+     * of a unique marker, so the end of each command's output is detected
+     * as soon as its marker arrives. HLTV servers get one request per command
+     * and the output is complete once no more replies arrive in time.
+     *
+     * @param password The password to authenticate with the server
+     * @param commands The commands to execute on the server
+     * @return The responses replied by the server in the order of the
+     *         commands
+     * @see #rconChallenge
+     * @see #rconSend
+     * @throws RCONBanException if the IP of the local machine has been banned
+     *         on the game server
+     * @throws RCONNoAuthException if the password is incorrect
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @throws TimeoutException if the request times out
+     */
+    public List<String> rconExec(String password, List<String> commands)
+            throws TimeoutException, SteamCondenserException {
+        List<String> responses = new ArrayList<String>(commands.size());
 
-        String response;
         if(this.isHLTV) {
-            try {
-                response = ((RCONGoldSrcResponsePacket)this.getReply()).getResponse();
-            } catch(TimeoutException e) {
-                response = "";
+            for(String command : commands) {
+                responses.add(this.rconExecHLTV(password, command));
             }
-        } else {
-            response = ((RCONGoldSrcResponsePacket)this.getReply()).getResponse();
+            return responses;
         }
 
-        if(response.trim().equals("Bad rcon_password.")) {
-            throw new RCONNoAuthException();
-        } else if(response.trim().equals("You have been banned from this server")) {
-            throw new RCONBanException();
+        int i = 0;
+        String marker = this.nextRconMarker();
+        while(i < commands.size()) {
+            StringBuilder batch = new StringBuilder();
+            List<String> markers = new ArrayList<String>();
+            do {
+                if(batch.length() > 0) {
+                    batch.append(';');
+                }
+                batch.append(commands.get(i)).append(";echo ").append(marker);
+                markers.add(marker);
+                marker = this.nextRconMarker();
+                i ++;
+            } while(i < commands.size() &&
+                    batch.length() + ";".length() + commands.get(i).length() +
+                        ";echo ".length() + marker.length() <= MAX_RCON_BATCH_LENGTH);
+
+            responses.addAll(this.rconExecBatch(password, batch.toString(), markers));
+        }
+
+        return responses;
+    }
+
+    /**
+     * Returns a new unique marker to be echoed after a command
+     *
+     * @return A new marker
+     */
+    private String nextRconMarker() {
+        return String.format("sc-%08x-%d", this.rconMarkerPrefix, this.rconMarkerCount ++);
+    }
+
+    /**
+     * Sends a batch of commands followed by markers and splits the replies
+     * into the output of the single commands
+     *
+     * @param password The password to authenticate with the server
+     * @param batch The commands and the echo commands for the markers
+     * @param markers The markers echoed after each command
+     * @return The responses of the commands
+     * @throws RCONBanException if the IP of the local machine has been banned
+     *         on the game server
+     * @throws RCONNoAuthException if the password is incorrect
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @throws TimeoutException if the request times out
+     */
+    private List<String> rconExecBatch(String password, String batch, List<String> markers)
+            throws TimeoutException, SteamCondenserException {
+        StringBuilder response = new StringBuilder(this.rconSendCommand(password, batch));
+        List<String> responses = new ArrayList<String>(markers.size());
+
+        int position = 0;
+        while(true) {
+            while(responses.size() < markers.size()) {
+                String marker = markers.get(responses.size());
+                int markerPosition = response.indexOf(marker, position);
+                if(markerPosition < 0) {
+                    break;
+                }
+
+                responses.add(response.substring(position, markerPosition));
+                position = markerPosition + marker.length();
+                if(position < response.length() && response.charAt(position) == '\n') {
+                    position ++;
+                }
+            }
+
+            if(responses.size() == markers.size()) {
+                return responses;
+            }
+
+            response.append(((RCONGoldSrcResponsePacket) this.getReply()).getResponse());
+        }
+    }
+
+    /**
+     * Executes a single command on a HLTV server
+     * <p>
+     * HLTV does not reply to every command, so the output is collected
+     * until no more replies arrive in time.
+     *
+     * @param password The password to authenticate with the server
+     * @param command The command to execute on the server
+     * @return The response replied by the server
+     * @throws RCONBanException if the IP of the local machine has been banned
+     *         on the game server
+     * @throws RCONNoAuthException if the password is incorrect
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     */
+    private String rconExecHLTV(String password, String command)
+            throws SteamCondenserException {
+        String response;
+        try {
+            response = this.rconSendCommand(password, command);
+        } catch(TimeoutException e) {
+            return "";
+        }
+
+        StringBuilder output = new StringBuilder(response);
+        try {
+            while(true) {
+                output.append(((RCONGoldSrcResponsePacket) this.getReply()).getResponse());
+            }
+        } catch(TimeoutException e) {
+            return output.toString();
         }
+    }
 
-        this.rconSend("rcon " + this.rconChallenge + " " + password);
+    /**
+     * Sends the given RCON command line and returns the first reply
+     * <p>
+     * If the server rejects the challenge, a new challenge is requested and
+     * the command is sent again.
+     *
+     * @param password The password to authenticate with the server
+     * @param command The command line to send
+     * @return The first part of the reply
+     * @throws RCONBanException if the IP of the local machine has been banned
+     *         on the game server
+     * @throws RCONNoAuthException if the password is incorrect
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @throws TimeoutException if the request times out
+     */
+    private String rconSendCommand(String password, String command)
+            throws TimeoutException, SteamCondenserException {
+        boolean renewedChallenge = false;
+        while(true) {
+            if(this.rconChallenge == -1) {
+                this.rconGetChallenge();
+                renewedChallenge = true;
+            }
 
-        String responsePart;
-        do {
-            responsePart = ((RCONGoldSrcResponsePacket)this.getReply()).getResponse();
-            response += responsePart;
-        } while(responsePart.length() > 0);
+            this.rconSend("rcon " + this.rconChallenge + " " + password + " " + command);
+            String response = ((RCONGoldSrcResponsePacket) this.getReply()).getResponse();
 
-        return response;
+            String status = response.trim();
+            if(status.equals("Bad challenge.")) {
+                this.rconChallenge = -1;
+                if(renewedChallenge) {
+                    throw new SteamCondenserException("The server rejected a new RCON challenge.");
+                }
+            } else if(status.equals("Bad rcon_password.")) {
+                throw new RCONNoAuthException();
+            } else if(status.equals("You have been banned from this server")) {
+                throw new RCONBanException();
+            } else {
+                return response;
+            }
+        }
     }
 
     /**
@@ -211,4 +362,14 @@ public class GoldSrcSocket extends QuerySocket {
             throws SteamCondenserException {
         this.send(new RCONGoldSrcRequestPacket(command));
     }
+
+    /**
+     * Returns the protocol of this socket used to report metrics
+     *
+     * @return {@link Protocol#GOLDSRC}
+     */
+    protected Protocol getProtocol() {
+        return Protocol.GOLDSRC;
+    }
+
 }
@@ -0,0 +1,362 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.servers.packets.A2S_INFO_Packet;
+
+/**
+ * This class measures the latency of game servers using A2S_INFO requests
+ * <p>
+ * Times are taken using {@link System#nanoTime} right after a request has
+ * been handed to the network stack and right after the channel has been
+ * selected as readable, so neither socket setup nor packet parsing is part
+ * of the measured time.
+ * <p>
+ * All servers are probed concurrently over a single channel. As the query
+ * protocol has no way to correlate a reply with its request, there is at
+ * most one request per server in flight. Requests that are not answered
+ * within the timeout are counted as lost.
+ * <p>
+ * A probe may also measure a set of servers periodically in the background.
+ * The latest statistics of each server are available using
+ * {@link #getStatistics}.
+ *
+ * @author Sebastian Staudt
+ * @see LatencyStatistics
+ */
+public class LatencyProbe {
+
+    private final DatagramChannel channel;
+
+    private final Object measureLock;
+
+    private final byte[] requestData;
+
+    private ScheduledExecutorService scheduler;
+
+    private final Selector selector;
+
+    private final Map<InetSocketAddress, LatencyStatistics> statistics;
+
+    /**
+     * Creates a new latency probe with its own UDP channel
+     *
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    public LatencyProbe() throws SteamCondenserException {
+        try {
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.bind(null);
+            this.selector = Selector.open();
+            this.channel.register(this.selector, SelectionKey.OP_READ);
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+
+        this.measureLock = new Object();
+        this.requestData = new A2S_INFO_Packet().getBytes();
+        this.statistics = new ConcurrentHashMap<InetSocketAddress, LatencyStatistics>();
+    }
+
+    /**
+     * Stops any background measurement and closes the channel of this probe
+     * <p>
+     * A running measurement fails once the channel has been closed.
+     */
+    public synchronized void close() {
+        this.stop();
+
+        try {
+            this.selector.close();
+            this.channel.close();
+        } catch(IOException ignored) {}
+    }
+
+    /**
+     * Returns the latest statistics measured for the given server
+     *
+     * @param address The address of the server
+     * @return The latest statistics of the server or <code>null</code> if
+     *         the server has not been measured yet
+     */
+    public LatencyStatistics getStatistics(InetSocketAddress address) {
+        return this.statistics.get(address);
+    }
+
+    /**
+     * Measures the latency of the given servers using the socket timeout set
+     * with {@link SteamSocket#setTimeout}
+     *
+     * @param addresses The addresses of the servers to measure
+     * @param samples The number of requests to send to each server
+     * @param interval The minimum time in milliseconds between two requests
+     *        to the same server
+     * @return The statistics of each server
+     * @throws SteamCondenserException if sending or receiving fails
+     */
+    public Map<InetSocketAddress, LatencyStatistics> measure(Collection<InetSocketAddress> addresses, int samples, int interval)
+            throws SteamCondenserException {
+        return this.measure(addresses, samples, interval, SteamSocket.timeout);
+    }
+
+    /**
+     * Measures the latency of the given servers
+     * <p>
+     * This blocks until all requests have been answered or have timed out.
+     * Concurrent measurements are run one after another. After a request has
+     * timed out, the next request to the same server is delayed by the
+     * interval, too.
+     *
+     * @param addresses The addresses of the servers to measure
+     * @param samples The number of requests to send to each server
+     * @param interval The minimum time in milliseconds between two requests
+     *        to the same server
+     * @param timeout The time in milliseconds after which a request is
+     *        counted as lost
+     * @return The statistics of each server
+     * @throws SteamCondenserException if sending or receiving fails
+     */
+    public Map<InetSocketAddress, LatencyStatistics> measure(Collection<InetSocketAddress> addresses, int samples, int interval, int timeout)
+            throws SteamCondenserException {
+        if(samples < 1) {
+            throw new IllegalArgumentException("At least one sample is required.");
+        }
+
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(interval);
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        synchronized(this.measureLock) {
+            return this.probe(addresses, samples, intervalNanos, timeoutNanos);
+        }
+    }
+
+    /**
+     * Sends the requests to the given servers and waits for their replies
+     *
+     * @param addresses The addresses of the servers to measure
+     * @param samples The number of requests to send to each server
+     * @param intervalNanos The minimum time in nanoseconds between two
+     *        requests to the same server
+     * @param timeoutNanos The time in nanoseconds after which a request is
+     *        counted as lost
+     * @return The statistics of each server
+     * @throws SteamCondenserException if sending or receiving fails
+     */
+    private Map<InetSocketAddress, LatencyStatistics> probe(Collection<InetSocketAddress> addresses, int samples, long intervalNanos, long timeoutNanos)
+            throws SteamCondenserException {
+        Map<InetSocketAddress, Target> targets = new HashMap<InetSocketAddress, Target>();
+        for(InetSocketAddress address : addresses) {
+            targets.put(address, new Target(address, samples));
+        }
+
+        ByteBuffer receiveBuffer = ByteBuffer.allocate(1400);
+        ByteBuffer sendBuffer = ByteBuffer.wrap(this.requestData);
+
+        try {
+            this.drain(receiveBuffer);
+
+            int pending = targets.size();
+            while(pending > 0) {
+                long now = System.nanoTime();
+                long nextEvent = Long.MAX_VALUE;
+
+                for(Target target : targets.values()) {
+                    if(target.isFinished()) {
+                        continue;
+                    }
+
+                    if(target.inFlight && now - target.sentAt >= timeoutNanos) {
+                        target.inFlight = false;
+                        target.nextSendAt = now + intervalNanos;
+                        if(target.isFinished()) {
+                            pending --;
+                            continue;
+                        }
+                    }
+
+                    if(!target.inFlight && now - target.nextSendAt >= 0) {
+                        sendBuffer.rewind();
+                        if(this.channel.send(sendBuffer, target.address) > 0) {
+                            target.inFlight = true;
+                            target.sentAt = System.nanoTime();
+                            target.nextSendAt = target.sentAt + intervalNanos;
+                            target.sent ++;
+                            now = target.sentAt;
+                        }
+                    }
+
+                    long targetEvent = target.inFlight ? target.sentAt + timeoutNanos : target.nextSendAt;
+                    if(nextEvent == Long.MAX_VALUE || targetEvent - nextEvent < 0) {
+                        nextEvent = targetEvent;
+                    }
+                }
+
+                if(pending == 0) {
+                    break;
+                }
+
+                long remaining = (nextEvent == Long.MAX_VALUE) ? 1 : nextEvent - System.nanoTime();
+                if(remaining > 0) {
+                    this.selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + 999999)));
+                } else {
+                    this.selector.selectNow();
+                }
+                long readyAt = System.nanoTime();
+                this.selector.selectedKeys().clear();
+
+                InetSocketAddress address;
+                while(true) {
+                    receiveBuffer.clear();
+                    address = (InetSocketAddress) this.channel.receive(receiveBuffer);
+                    if(address == null) {
+                        break;
+                    }
+
+                    Target target = targets.get(address);
+                    if(target != null && target.inFlight) {
+                        target.roundTripTimes[target.replies ++] = readyAt - target.sentAt;
+                        target.inFlight = false;
+                        if(target.isFinished()) {
+                            pending --;
+                        }
+                    }
+                }
+            }
+        } catch(ClosedSelectorException e) {
+            throw new SteamCondenserException("The latency probe has been closed.", e);
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+
+        Map<InetSocketAddress, LatencyStatistics> result = new HashMap<InetSocketAddress, LatencyStatistics>();
+        for(Target target : targets.values()) {
+            LatencyStatistics targetStatistics = new LatencyStatistics(target.roundTripTimes, target.replies, target.sent);
+            result.put(target.address, targetStatistics);
+            this.statistics.put(target.address, targetStatistics);
+        }
+
+        return result;
+    }
+
+    /**
+     * Starts measuring the latency of the given servers periodically in the
+     * background
+     * <p>
+     * Any previously started background measurement is stopped. Failed
+     * measurements are skipped silently.
+     *
+     * @param addresses The addresses of the servers to measure
+     * @param samples The number of requests to send to each server per
+     *        measurement
+     * @param interval The minimum time in milliseconds between two requests
+     *        to the same server
+     * @param period The time between the start of two measurements
+     * @param unit The unit of the period
+     * @return The future of the periodic task
+     * @see #getStatistics
+     */
+    public synchronized ScheduledFuture<?> start(Collection<InetSocketAddress> addresses, final int samples, final int interval, long period, TimeUnit unit) {
+        this.stop();
+
+        final List<InetSocketAddress> servers = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(addresses));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "steam-condenser-latency-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        return this.scheduler.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    LatencyProbe.this.measure(servers, samples, interval);
+                } catch(SteamCondenserException e) {
+                    //LOG.warn("Latency measurement failed.", e);
+                }
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * Stops the background measurement of this probe
+     * <p>
+     * This does not wait for a running measurement to finish.
+     */
+    public synchronized void stop() {
+        if(this.scheduler != null) {
+            this.scheduler.shutdown();
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * Discards replies that arrived after a previous measurement has ended
+     *
+     * @param buffer The buffer to receive into
+     * @throws IOException if reading from the channel fails
+     */
+    private void drain(ByteBuffer buffer) throws IOException {
+        do {
+            buffer.clear();
+        } while(this.channel.receive(buffer) != null);
+    }
+
+    /**
+     * The state of the measurement of a single server
+     */
+    private static class Target {
+
+        final InetSocketAddress address;
+
+        boolean inFlight;
+
+        long nextSendAt;
+
+        int replies;
+
+        final long[] roundTripTimes;
+
+        int sent;
+
+        long sentAt;
+
+        Target(InetSocketAddress address, int samples) {
+            this.address = address;
+            this.nextSendAt = System.nanoTime();
+            this.roundTripTimes = new long[samples];
+        }
+
+        boolean isFinished() {
+            return this.sent == this.roundTripTimes.length && !this.inFlight;
+        }
+    }
+
+}
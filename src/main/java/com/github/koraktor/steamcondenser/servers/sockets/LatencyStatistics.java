@@ -0,0 +1,188 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the latency statistics of a single game server measured
+ * by a {@link LatencyProbe}
+ * <p>
+ * All times are given in nanoseconds.
+ *
+ * @author Sebastian Staudt
+ * @see LatencyProbe
+ */
+public final class LatencyStatistics {
+
+    private final long jitter;
+
+    private final long maximum;
+
+    private final long median;
+
+    private final long minimum;
+
+    private final long percentile95;
+
+    private final int replies;
+
+    private final int samples;
+
+    private final long timestamp;
+
+    /**
+     * Creates new statistics from the given round-trip times
+     *
+     * @param roundTripTimes The round-trip times of the answered requests in
+     *        the order the requests have been sent
+     * @param replies The number of answered requests
+     * @param samples The number of requests sent
+     */
+    LatencyStatistics(long[] roundTripTimes, int replies, int samples) {
+        this.replies = replies;
+        this.samples = samples;
+        this.timestamp = System.currentTimeMillis();
+
+        if(replies == 0) {
+            this.jitter = 0;
+            this.maximum = 0;
+            this.median = 0;
+            this.minimum = 0;
+            this.percentile95 = 0;
+            return;
+        }
+
+        long jitter = 0;
+        for(int i = 1; i < replies; i ++) {
+            jitter += Math.abs(roundTripTimes[i] - roundTripTimes[i - 1]);
+        }
+        this.jitter = (replies > 1) ? jitter / (replies - 1) : 0;
+
+        long[] sorted = Arrays.copyOf(roundTripTimes, replies);
+        Arrays.sort(sorted);
+        this.minimum = sorted[0];
+        this.maximum = sorted[replies - 1];
+        this.median = (replies % 2 == 1) ? sorted[replies / 2] :
+                      (sorted[replies / 2 - 1] + sorted[replies / 2]) / 2;
+        this.percentile95 = sorted[(int) Math.ceil(0.95 * replies) - 1];
+    }
+
+    /**
+     * Returns the mean difference between the round-trip times of
+     * consecutive requests
+     *
+     * @return The jitter in nanoseconds
+     */
+    public long getJitter() {
+        return this.jitter;
+    }
+
+    /**
+     * Returns the share of requests that have not been answered
+     *
+     * @return The packet loss between <code>0.0</code> and <code>1.0</code>
+     */
+    public double getLoss() {
+        if(this.samples == 0) {
+            return 0.0;
+        }
+
+        return (this.samples - this.replies) / (double) this.samples;
+    }
+
+    /**
+     * Returns the highest round-trip time
+     *
+     * @return The maximum latency in nanoseconds
+     */
+    public long getMaximum() {
+        return this.maximum;
+    }
+
+    /**
+     * Returns the median round-trip time
+     *
+     * @return The median latency in nanoseconds
+     */
+    public long getMedian() {
+        return this.median;
+    }
+
+    /**
+     * Returns the lowest round-trip time
+     *
+     * @return The minimum latency in nanoseconds
+     */
+    public long getMinimum() {
+        return this.minimum;
+    }
+
+    /**
+     * Returns the 95th percentile of the round-trip times
+     *
+     * @return The 95th percentile of the latency in nanoseconds
+     */
+    public long getPercentile95() {
+        return this.percentile95;
+    }
+
+    /**
+     * Returns the number of answered requests
+     *
+     * @return The number of replies
+     */
+    public int getReplies() {
+        return this.replies;
+    }
+
+    /**
+     * Returns the number of requests sent
+     *
+     * @return The number of samples
+     */
+    public int getSamples() {
+        return this.samples;
+    }
+
+    /**
+     * Returns the time the measurement has been finished
+     *
+     * @return The time in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * Returns whether the server has answered at least one request
+     *
+     * @return <code>true</code> if the server is reachable
+     */
+    public boolean isReachable() {
+        return this.replies > 0;
+    }
+
+    /**
+     * Returns a human-readable summary of these statistics
+     *
+     * @return The statistics in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format("min %.3f ms, median %.3f ms, p95 %.3f ms, jitter %.3f ms, loss %d/%d",
+                millis(this.minimum), millis(this.median), millis(this.percentile95),
+                millis(this.jitter), this.samples - this.replies, this.samples);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+}
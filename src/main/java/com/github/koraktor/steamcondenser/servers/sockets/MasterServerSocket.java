@@ -14,6 +14,7 @@ import java.util.concurrent.TimeoutException;
 
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 
 /**
@@ -49,17 +50,33 @@ public class MasterServerSocket extends QuerySocket {
      */
     public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException {
-        this.receivePacket(1500);
+        SteamPacket packet;
+        this.startReply();
+        try {
+            this.receivePacket(1500);
 
-        if(this.buffer.getInt() != -1) {
-            throw new PacketFormatException("Master query response has wrong packet header.");
-        }
+            if(this.buffer.getInt() != -1) {
+                throw new PacketFormatException("Master query response has wrong packet header.");
+            }
 
-        SteamPacket packet = this.getPacketFromData();
+            packet = this.getPacketFromData();
+        } finally {
+            this.releaseBuffer();
+            this.finishReply();
+        }
 
         //LOG.info("Received reply of type \"" + packet.getClass().getSimpleName() + "\"");
 
         return packet;
     }
 
+    /**
+     * Returns the protocol of this socket used to report metrics
+     *
+     * @return {@link Protocol#MASTER}
+     */
+    protected Protocol getProtocol() {
+        return Protocol.MASTER;
+    }
+
 }
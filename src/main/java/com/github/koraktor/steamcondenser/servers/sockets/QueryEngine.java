@@ -0,0 +1,629 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
+
+/**
+ * This class implements a selector-driven engine that sends the queries for
+ * many game servers over a single unconnected UDP channel
+ * <p>
+ * Replies are matched to their requests by the address they have been sent
+ * from. As the query protocol has no other way to correlate a reply with its
+ * request, only one request per game server is in flight at any time.
+ * Further requests to the same server are queued and sent as soon as the
+ * previous one has been answered or has timed out.
+ * <p>
+ * All socket operations are done by a single daemon thread owned by the
+ * engine. Unless an executor for completing the futures is given, the
+ * returned futures are completed on this thread. Any dependent action, e.g.
+ * added using {@link CompletableFuture#thenApply} or
+ * {@link CompletableFuture#whenComplete}, then runs on the I/O thread and
+ * stalls the queries of all servers until it returns. So dependent actions
+ * doing any real work should either use the <code>*Async</code> variants of
+ * {@link CompletableFuture} or the engine should be created with an
+ * executor.
+ *
+ * @author Sebastian Staudt
+ * @see SharedQuerySocket
+ */
+public class QueryEngine {
+
+    private static final int MAX_PACKET_SIZE = 65535;
+
+    private final DatagramChannel channel;
+
+    private int completedDeadlines;
+
+    private final Executor completionExecutor;
+
+    private final PriorityQueue<Request> deadlines;
+
+    private final ByteBuffer receiveBuffer;
+
+    private volatile boolean running;
+
+    private final SelectionKey selectionKey;
+
+    private final Selector selector;
+
+    private final Queue<Request> submissions;
+
+    private final Map<InetSocketAddress, Target> targets;
+
+    private final Thread thread;
+
+    private final Queue<Target> writeQueue;
+
+    /**
+     * Creates a new query engine with its own UDP channel and I/O thread
+     * <p>
+     * The futures returned by this engine are completed on the I/O thread.
+     *
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    public QueryEngine() throws SteamCondenserException {
+        this(null);
+    }
+
+    /**
+     * Creates a new query engine with its own UDP channel and I/O thread
+     *
+     * @param completionExecutor The executor used to complete the futures
+     *        returned by this engine, so that dependent actions do not run on
+     *        the I/O thread, or <code>null</code> to complete them on the I/O
+     *        thread
+     * @throws SteamCondenserException if the channel cannot be opened
+     */
+    public QueryEngine(Executor completionExecutor) throws SteamCondenserException {
+        this.completionExecutor = completionExecutor;
+
+        try {
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.bind(null);
+            this.selector = Selector.open();
+            this.selectionKey = this.channel.register(this.selector, SelectionKey.OP_READ);
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+
+        this.deadlines = new PriorityQueue<Request>();
+        this.receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        this.receiveBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.submissions = new ConcurrentLinkedQueue<Request>();
+        this.targets = new HashMap<InetSocketAddress, Target>();
+        this.writeQueue = new ArrayDeque<Target>();
+
+        this.running = true;
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                QueryEngine.this.run();
+            }
+        }, "steam-condenser-query-engine");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Stops the I/O thread of this engine and closes its channel
+     * <p>
+     * Requests that have not been answered yet will fail.
+     */
+    public void close() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Returns whether this engine is still accepting requests
+     *
+     * @return <code>true</code> if this engine has not been closed yet
+     */
+    public boolean isOpen() {
+        return this.running;
+    }
+
+    /**
+     * Sends the given packet to the given game server and returns the reply
+     * of the server as soon as it arrives
+     * <p>
+     * The request will time out after the number of milliseconds set with
+     * {@link SteamSocket#setTimeout}.
+     * <p>
+     * Unless this engine has been created with an executor, the future is
+     * completed on the I/O thread of this engine.
+     *
+     * @param address The address of the game server
+     * @param packet The packet to send to the server or <code>null</code> to
+     *        only wait for the next packet sent by the server
+     * @param goldSrc Whether the server is a GoldSrc server which uses a
+     *        different format for split packets
+     * @return The future reply of the server
+     */
+    public CompletableFuture<SteamPacket> request(InetSocketAddress address, SteamPacket packet, boolean goldSrc) {
+        return this.request(address, packet, goldSrc, SteamSocket.timeout);
+    }
+
+    /**
+     * Sends the given packet to the given game server and returns the reply
+     * of the server as soon as it arrives
+     *
+     * @param address The address of the game server
+     * @param packet The packet to send to the server or <code>null</code> to
+     *        only wait for the next packet sent by the server
+     * @param goldSrc Whether the server is a GoldSrc server which uses a
+     *        different format for split packets
+     * @param timeout The amount of milliseconds to wait for the reply after
+     *        the request has been sent
+     * @return The future reply of the server
+     */
+    public CompletableFuture<SteamPacket> request(InetSocketAddress address, SteamPacket packet, boolean goldSrc, int timeout) {
+        Request request = new Request(address, packet == null ? null : packet.getBytes(), goldSrc, timeout);
+
+        if(!this.running) {
+            request.future.completeExceptionally(new SteamCondenserException("Query engine has been closed."));
+            return request.future;
+        }
+
+        this.submissions.add(request);
+        if(!this.running && this.submissions.remove(request)) {
+            request.future.completeExceptionally(new SteamCondenserException("Query engine has been closed."));
+        }
+        this.selector.wakeup();
+
+        return request.future;
+    }
+
+    /**
+     * Activates the next queued request for the given target, i.e. sends it
+     * to the server and starts its timeout
+     *
+     * @param target The target to activate the next request for
+     */
+    private void activateNext(Target target) {
+        while(target.current == null && !target.queue.isEmpty()) {
+            Request request = target.queue.poll();
+            if(request.future.isDone()) {
+                continue;
+            }
+
+            target.current = request;
+            request.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.timeout);
+            request.queued = true;
+            this.deadlines.add(request);
+
+            if(request.data != null) {
+                try {
+                    if(!this.send(target, request)) {
+                        request.unsent = true;
+                        this.writeQueue.add(target);
+                        this.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                } catch(IOException e) {
+                    target.current = null;
+                    this.finish(request, null, new SteamCondenserException(e.getMessage(), e));
+                }
+            }
+        }
+
+        if(target.current == null) {
+            this.targets.remove(target.address);
+        }
+    }
+
+    /**
+     * Completes the current request of the given target and activates the
+     * next queued request
+     *
+     * @param target The target the reply belongs to
+     * @param packet The reply packet or <code>null</code> if the request
+     *        failed
+     * @param failure The reason of the failure or <code>null</code>
+     */
+    private void complete(Target target, SteamPacket packet, Throwable failure) {
+        Request request = target.current;
+        target.current = null;
+        target.splitPackets.clear();
+
+        this.finish(request, packet, failure);
+
+        this.activateNext(target);
+    }
+
+    /**
+     * Rebuilds the queue of deadlines without the requests that have already
+     * been completed
+     * <p>
+     * Completed requests are not removed from the queue immediately, because
+     * this would take linear time for each request.
+     */
+    private void compactDeadlines() {
+        List<Request> pending = new ArrayList<Request>(this.deadlines.size() - this.completedDeadlines);
+        for(Request request : this.deadlines) {
+            if(request.completed) {
+                request.queued = false;
+            } else {
+                pending.add(request);
+            }
+        }
+
+        this.deadlines.clear();
+        this.deadlines.addAll(pending);
+        this.completedDeadlines = 0;
+    }
+
+    /**
+     * Fails all requests whose timeout has been reached
+     */
+    private void expireRequests() {
+        long now = System.nanoTime();
+        Request request;
+        while((request = this.deadlines.peek()) != null && request.deadline <= now) {
+            this.deadlines.poll();
+            request.queued = false;
+            if(request.completed) {
+                this.completedDeadlines --;
+                continue;
+            }
+
+            Target target = this.targets.get(request.address);
+            if(target != null && target.current == request) {
+                Metrics.getRecorder().requestTimedOut(request.getProtocol());
+                this.complete(target, null, new TimeoutException());
+            }
+        }
+    }
+
+    /**
+     * Handles a single packet received from the given target
+     * <p>
+     * Packets that are not a reply to the current request of the target are
+     * dropped, e.g. a late reply to a request that has already timed out or
+     * packets with an unknown header.
+     *
+     * @param target The target that sent the packet
+     * @param buffer The buffer containing the received packet
+     */
+    private void handlePacket(Target target, ByteBuffer buffer) {
+        Request request = target.current;
+        try {
+            int header = buffer.getInt();
+            if(header == 0xFFFFFFFF) {
+                if(!buffer.hasRemaining() || !request.accepts(buffer.get(buffer.position()))) {
+                    return;
+                }
+
+                byte[] packetData = new byte[buffer.remaining()];
+                buffer.get(packetData);
+                this.complete(target, SteamPacketFactory.getPacketFromData(packetData), null);
+            } else if(header == 0xFFFFFFFE) {
+                SteamPacket packet;
+                if(request.goldSrc) {
+                    packet = target.splitPackets.addGoldSrcPacket(buffer);
+                } else {
+                    packet = target.splitPackets.addSourcePacket(buffer);
+                }
+                if(packet != null && request.accepts(packet.getHeader())) {
+                    this.complete(target, packet, null);
+                }
+            }
+        } catch(SteamCondenserException e) {
+            this.complete(target, null, e);
+        } catch(RuntimeException e) {
+            this.complete(target, null, new PacketFormatException("Query response is malformed."));
+        }
+    }
+
+    /**
+     * Reads all packets available on the channel and dispatches them to the
+     * targets they have been sent from
+     *
+     * @throws IOException if reading from the channel fails
+     */
+    private void receivePackets() throws IOException {
+        InetSocketAddress address;
+        while(true) {
+            this.receiveBuffer.clear();
+            address = (InetSocketAddress) this.channel.receive(this.receiveBuffer);
+            if(address == null) {
+                break;
+            }
+            this.receiveBuffer.flip();
+
+            Target target = this.targets.get(address);
+            if(target != null && target.current != null) {
+                Metrics.getRecorder().packetReceived(target.current.getProtocol(), this.receiveBuffer.remaining());
+                this.handlePacket(target, this.receiveBuffer);
+            }
+        }
+    }
+
+    /**
+     * The main loop of the I/O thread
+     */
+    private void run() {
+        try {
+            while(this.running) {
+                Request request;
+                while((request = this.submissions.poll()) != null) {
+                    Target target = this.targets.get(request.address);
+                    if(target == null) {
+                        target = new Target(request.address);
+                        this.targets.put(request.address, target);
+                    }
+                    target.queue.add(request);
+                    this.activateNext(target);
+                }
+
+                this.expireRequests();
+
+                long timeout = 0;
+                Request next = this.deadlines.peek();
+                if(next != null) {
+                    timeout = Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.deadline - System.nanoTime()));
+                }
+                this.selector.select(timeout);
+
+                if(this.selectionKey.isReadable()) {
+                    this.receivePackets();
+                }
+                if(this.selectionKey.isValid() && this.selectionKey.isWritable()) {
+                    this.writePackets();
+                }
+                this.selector.selectedKeys().clear();
+            }
+        } catch(IOException e) {
+            this.running = false;
+        } finally {
+            this.shutdown();
+        }
+    }
+
+    /**
+     * Sends the given request to its target
+     *
+     * @param target The target to send the request to
+     * @param request The request to send
+     * @return <code>false</code> if the channel is not ready for writing
+     * @throws IOException if writing to the channel fails
+     */
+    private boolean send(Target target, Request request) throws IOException {
+        int bytes = this.channel.send(ByteBuffer.wrap(request.data), target.address);
+        if(bytes == 0) {
+            return false;
+        }
+
+        Metrics.getRecorder().packetSent(request.getProtocol(), bytes);
+        return true;
+    }
+
+    /**
+     * Completes the future of the given request and releases the request
+     * data
+     * <p>
+     * If many completed requests are still waiting for their deadline, the
+     * queue of deadlines is compacted.
+     *
+     * @param request The request to complete
+     * @param packet The reply packet or <code>null</code> if the request
+     *        failed
+     * @param failure The reason of the failure or <code>null</code>
+     */
+    private void finish(final Request request, final SteamPacket packet, final Throwable failure) {
+        request.completed = true;
+        request.data = null;
+        if(request.queued) {
+            this.completedDeadlines ++;
+            if(this.completedDeadlines > 64 && this.completedDeadlines > this.deadlines.size() / 2) {
+                this.compactDeadlines();
+            }
+        }
+
+        Runnable completion = () -> {
+            if(failure == null) {
+                request.future.complete(packet);
+            } else {
+                request.future.completeExceptionally(failure);
+            }
+        };
+
+        if(this.completionExecutor == null) {
+            completion.run();
+        } else {
+            try {
+                this.completionExecutor.execute(completion);
+            } catch(RejectedExecutionException e) {
+                completion.run();
+            }
+        }
+    }
+
+    /**
+     * Fails all pending requests and releases the resources of this engine
+     */
+    private void shutdown() {
+        SteamCondenserException closed = new SteamCondenserException("Query engine has been closed.");
+
+        Request request;
+        while((request = this.submissions.poll()) != null) {
+            request.future.completeExceptionally(closed);
+        }
+        for(Target target : this.targets.values()) {
+            if(target.current != null) {
+                target.current.future.completeExceptionally(closed);
+            }
+            for(Request queued : target.queue) {
+                queued.future.completeExceptionally(closed);
+            }
+        }
+        this.targets.clear();
+
+        try {
+            this.selector.close();
+            this.channel.close();
+        } catch(IOException ignored) {}
+    }
+
+    /**
+     * Sends the requests that could not be sent before because the channel
+     * was not ready for writing
+     */
+    private void writePackets() {
+        Target target;
+        while((target = this.writeQueue.peek()) != null) {
+            Request request = target.current;
+            if(request != null && request.unsent) {
+                try {
+                    if(!this.send(target, request)) {
+                        return;
+                    }
+                    request.unsent = false;
+                } catch(IOException e) {
+                    this.writeQueue.poll();
+                    this.complete(target, null, new SteamCondenserException(e.getMessage(), e));
+                    continue;
+                }
+            }
+            this.writeQueue.poll();
+        }
+
+        this.selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * A single request to a game server
+     */
+    private static class Request implements Comparable<Request> {
+
+        final InetSocketAddress address;
+
+        boolean completed;
+
+        byte[] data;
+
+        long deadline;
+
+        final CompletableFuture<SteamPacket> future;
+
+        final boolean goldSrc;
+
+        boolean queued;
+
+        final byte[] replyHeaders;
+
+        final int timeout;
+
+        boolean unsent;
+
+        Request(InetSocketAddress address, byte[] data, boolean goldSrc, int timeout) {
+            this.address = address;
+            this.data = data;
+            this.future = new CompletableFuture<SteamPacket>();
+            this.goldSrc = goldSrc;
+            this.replyHeaders = getReplyHeaders(data);
+            this.timeout = timeout;
+        }
+
+        /**
+         * Returns the headers of the packets a server may reply to the given
+         * request
+         *
+         * @param data The data of the request or <code>null</code>
+         * @return The headers of the possible replies
+         */
+        private static byte[] getReplyHeaders(byte[] data) {
+            byte requestHeader = (data == null || data.length < 5) ? 0 : data[4];
+            switch(requestHeader) {
+                case SteamPacket.A2S_INFO_HEADER:
+                    return new byte[] { SteamPacket.S2A_INFO2_HEADER, SteamPacket.S2A_INFO_DETAILED_HEADER, SteamPacket.S2C_CHALLENGE_HEADER };
+                case SteamPacket.A2S_PLAYER_HEADER:
+                    return new byte[] { SteamPacket.S2A_PLAYER_HEADER, SteamPacket.S2C_CHALLENGE_HEADER };
+                case SteamPacket.A2S_RULES_HEADER:
+                    return new byte[] { SteamPacket.S2A_RULES_HEADER, SteamPacket.S2C_CHALLENGE_HEADER };
+                case SteamPacket.A2S_SERVERQUERY_GETCHALLENGE_HEADER:
+                    return new byte[] { SteamPacket.S2C_CHALLENGE_HEADER };
+                default:
+                    return new byte[] { SteamPacket.S2A_INFO2_HEADER, SteamPacket.S2A_INFO_DETAILED_HEADER,
+                        SteamPacket.S2A_PLAYER_HEADER, SteamPacket.S2A_RULES_HEADER, SteamPacket.S2C_CHALLENGE_HEADER };
+            }
+        }
+
+        /**
+         * Returns whether a packet with the given header is a reply to this
+         * request
+         *
+         * @param header The header of the received packet
+         * @return <code>true</code> if the packet is a reply to this request
+         */
+        boolean accepts(byte header) {
+            for(byte replyHeader : this.replyHeaders) {
+                if(header == replyHeader) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public int compareTo(Request other) {
+            return Long.signum(this.deadline - other.deadline);
+        }
+
+        Protocol getProtocol() {
+            return this.goldSrc ? Protocol.GOLDSRC : Protocol.SOURCE;
+        }
+    }
+
+    /**
+     * The state of the communication with a single game server
+     */
+    private static class Target {
+
+        final InetSocketAddress address;
+
+        Request current;
+
+        final Queue<Request> queue;
+
+        final SplitPacketTable splitPackets;
+
+        Target(InetSocketAddress address) {
+            this.address = address;
+            this.queue = new ArrayDeque<Request>();
+            this.splitPackets = new SplitPacketTable();
+        }
+    }
+
+}
@@ -16,6 +16,7 @@ import java.util.concurrent.TimeoutException;
 //import org.slf4j.LoggerFactory;
 
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 
 /**
@@ -37,8 +38,27 @@ public abstract class QuerySocket extends SteamSocket {
      */
     protected QuerySocket(InetAddress ipAddress, int portNumber)
             throws  SteamCondenserException {
+        this(ipAddress, portNumber, true);
+    }
+
+    /**
+     * Creates a new socket to communicate with the server on the given IP
+     * address and port
+     *
+     * @param ipAddress Either the IP address or the DNS name of the server
+     * @param portNumber The port the server is listening on
+     * @param openChannel Whether to open a channel for this socket. Sockets
+     *        sharing a channel with other sockets will not open their own.
+     * @throws SteamCondenserException if the socket cannot be opened
+     */
+    protected QuerySocket(InetAddress ipAddress, int portNumber, boolean openChannel)
+            throws  SteamCondenserException {
         super(ipAddress, portNumber);
 
+        if(!openChannel) {
+            return;
+        }
+
         try {
             this.channel = DatagramChannel.open();
             this.channel.configureBlocking(false);
@@ -82,9 +102,9 @@ public abstract class QuerySocket extends SteamSocket {
         //LOG.info("Sending data packet of type \"" + dataPacket.getClass().getSimpleName() + "\"");
 
         try {
-            this.buffer = ByteBuffer.wrap(dataPacket.getBytes());
-            ((DatagramChannel) this.channel).send(this.buffer, this.remoteSocket);
-            this.buffer.flip();
+            ByteBuffer sendBuffer = ByteBuffer.wrap(dataPacket.getBytes());
+            int bytes = ((DatagramChannel) this.channel).send(sendBuffer, this.remoteSocket);
+            Metrics.getRecorder().packetSent(this.getProtocol(), bytes);
         } catch(IOException e) {
             throw new SteamCondenserException(e.getMessage(), e);
         }
@@ -0,0 +1,515 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
+import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONAuthRequestPacket;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONAuthResponse;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecRequestPacket;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecResponsePacket;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONTerminator;
+
+/**
+ * This class implements a Source RCON connection that can execute multiple
+ * commands concurrently
+ * <p>
+ * Every command gets a request ID of its own and is directly followed by an
+ * empty terminator packet using the same ID. The server answers the packets
+ * of a connection in order, so the output of a command is complete as soon
+ * as the echo of its terminator arrives. Replies are read by a dedicated
+ * daemon thread and routed to the command they belong to using their
+ * request ID, so any number of commands may be in flight at the same time.
+ * <p>
+ * Commands that have not been sent yet or that are rejected by the server
+ * fail with a {@link RCONNoAuthException}, so they can safely be sent again.
+ * Commands that have already been sent when the connection is closed fail
+ * with a {@link ConnectionResetException} instead, because the server may
+ * have executed them.
+ * <p>
+ * Connecting and authenticating are bounded by the socket timeout of the
+ * connection. Additionally a deadline can be set to bound the time of all
+ * following operations, e.g. an authentication followed by a command.
+ *
+ * @author Sebastian Staudt
+ * @see com.github.koraktor.steamcondenser.servers.SourceServer#openRconConnection
+ */
+public class RCONConnection {
+
+    private CompletableFuture<Boolean> authFuture;
+
+    private int authRequestId;
+
+    private volatile boolean authenticated;
+
+    private final SocketChannel channel;
+
+    private volatile boolean closed;
+
+    private volatile long deadline;
+
+    private final AtomicInteger nextRequestId;
+
+    private final Map<Integer, Command> pendingCommands;
+
+    private final Thread readerThread;
+
+    private final InetSocketAddress remoteAddress;
+
+    private final int socketTimeout;
+
+    private final ReentrantLock writeLock;
+
+    /**
+     * Opens a new RCON connection to the server at the given address using
+     * the global timeout
+     *
+     * @param ipAddress The IP address of the server
+     * @param port The port the server is listening on
+     * @throws SteamCondenserException if the connection cannot be established
+     * @see SteamSocket#setTimeout
+     */
+    public RCONConnection(InetAddress ipAddress, int port)
+            throws SteamCondenserException {
+        this(ipAddress, port, 0);
+    }
+
+    /**
+     * Opens a new RCON connection to the server at the given address
+     *
+     * @param ipAddress The IP address of the server
+     * @param port The port the server is listening on
+     * @param timeout The amount of milliseconds before connecting or
+     *        authenticating times out or <code>0</code> to use the global
+     *        timeout
+     * @throws SteamCondenserException if the connection cannot be established
+     */
+    public RCONConnection(InetAddress ipAddress, int port, int timeout)
+            throws SteamCondenserException {
+        this.remoteAddress = new InetSocketAddress(ipAddress, port);
+        this.socketTimeout = timeout;
+        this.nextRequestId = new AtomicInteger(new Random().nextInt(Integer.MAX_VALUE));
+        this.pendingCommands = new ConcurrentHashMap<Integer, Command>();
+        this.writeLock = new ReentrantLock();
+
+        try {
+            this.channel = SocketChannel.open();
+            this.channel.socket().connect(this.remoteAddress, this.getSocketTimeout());
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+
+        this.readerThread = new Thread(new Runnable() {
+            public void run() {
+                RCONConnection.this.read();
+            }
+        }, "steam-condenser-rcon-" + this.remoteAddress);
+        this.readerThread.setDaemon(true);
+        this.readerThread.start();
+    }
+
+    /**
+     * Authenticates this connection with the given RCON password
+     * <p>
+     * If the authentication fails or times out, it may be retried.
+     *
+     * @param password The RCON password of the server
+     * @return <code>true</code> if the password has been accepted
+     * @throws RCONBanException if banned by the server
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public boolean authenticate(String password)
+            throws SteamCondenserException, TimeoutException {
+        CompletableFuture<Boolean> future;
+        synchronized(this) {
+            if(this.authFuture != null && !this.authFuture.isDone()) {
+                throw new IllegalStateException("Authentication is already in progress.");
+            }
+            this.authRequestId = this.newRequestId();
+            this.authFuture = future = new CompletableFuture<Boolean>();
+        }
+
+        try {
+            this.write(null, new RCONAuthRequestPacket(this.authRequestId, password));
+            this.authenticated = await(future, this.getRemainingTimeout(this.getSocketTimeout()));
+        } catch(SteamCondenserException | TimeoutException | RuntimeException e) {
+            synchronized(this) {
+                future.completeExceptionally(e);
+                if(this.authFuture == future) {
+                    this.authFuture = null;
+                }
+            }
+            throw e;
+        }
+
+        return this.authenticated;
+    }
+
+    /**
+     * Closes this connection
+     * <p>
+     * Commands that have not been answered yet will fail.
+     */
+    public void close() {
+        this.closed = true;
+        try {
+            this.channel.close();
+        } catch(IOException ignored) {}
+    }
+
+    /**
+     * Executes the given command on the server and waits for its output
+     *
+     * @param command The command to execute
+     * @param timeout The time in milliseconds to wait for the complete
+     *        output
+     * @return The output of the command
+     * @throws ConnectionResetException if the connection is closed after
+     *         the command has been sent
+     * @throws RCONNoAuthException if this connection is not authenticated
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the output is not received in time
+     */
+    public String exec(String command, int timeout)
+            throws SteamCondenserException, TimeoutException {
+        CompletableFuture<String> future = this.execute(command);
+        try {
+            return await(future, this.getRemainingTimeout(timeout));
+        } catch(TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the given command to the server without waiting for previous
+     * commands to complete
+     *
+     * @param command The command to execute
+     * @return The future output of the command
+     */
+    public CompletableFuture<String> execute(String command) {
+        Command pending = new Command();
+
+        if(!this.authenticated) {
+            pending.future.completeExceptionally(new RCONNoAuthException());
+            return pending.future;
+        }
+
+        final int requestId = this.newRequestId();
+        final long start = System.nanoTime();
+        this.pendingCommands.put(requestId, pending);
+        pending.future.whenComplete((output, failure) -> {
+            this.pendingCommands.remove(requestId);
+            Metrics.getRecorder().rconRoundTrip(Protocol.RCON, System.nanoTime() - start, failure == null);
+        });
+
+        try {
+            this.write(pending, new RCONExecRequestPacket(requestId, command), new RCONTerminator(requestId));
+        } catch(SteamCondenserException e) {
+            this.pendingCommands.remove(requestId);
+            pending.future.completeExceptionally(e);
+        }
+
+        return pending.future;
+    }
+
+    /**
+     * Returns the deadline for operations of this connection
+     *
+     * @return The value of {@link System#nanoTime} after which operations of
+     *         this connection time out or <code>0</code> if there is no
+     *         deadline
+     * @see #setDeadline
+     */
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Sets a deadline for all following blocking operations of this
+     * connection
+     * <p>
+     * Waiting for an authentication or the output of a command is shortened
+     * so that it does not last beyond the deadline.
+     *
+     * @param deadline The value of {@link System#nanoTime} after which
+     *        operations of this connection time out or <code>0</code> to
+     *        remove the deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the given timeout shortened to the deadline of this connection
+     *
+     * @param timeout The amount of milliseconds to wait at most
+     * @return The amount of milliseconds to wait
+     * @see #setDeadline
+     */
+    private long getRemainingTimeout(long timeout) {
+        return SteamSocket.getRemainingTimeout(timeout, this.deadline);
+    }
+
+    /**
+     * Returns the address of the server this connection is connected to
+     *
+     * @return The address of the server
+     */
+    public InetSocketAddress getRemoteAddress() {
+        return this.remoteAddress;
+    }
+
+    /**
+     * Returns the number of commands that have not been answered completely
+     *
+     * @return The number of pending commands
+     */
+    public int getPendingCommands() {
+        return this.pendingCommands.size();
+    }
+
+    /**
+     * Returns the timeout for connecting and authenticating
+     *
+     * @return The amount of milliseconds before connecting or authenticating
+     *         times out
+     * @see SteamSocket#getSocketTimeout
+     */
+    public int getSocketTimeout() {
+        return (this.socketTimeout > 0) ? this.socketTimeout : SteamSocket.timeout;
+    }
+
+    /**
+     * Returns whether this connection has been authenticated successfully
+     *
+     * @return <code>true</code> if this connection is authenticated
+     */
+    public boolean isAuthenticated() {
+        return this.authenticated;
+    }
+
+    /**
+     * Returns whether this connection is still open
+     *
+     * @return <code>true</code> if this connection can be used
+     */
+    public boolean isOpen() {
+        return !this.closed && this.channel.isOpen();
+    }
+
+    /**
+     * Waits for the given future and unwraps its failure
+     *
+     * @param future The future to wait for
+     * @param timeout The time in milliseconds to wait
+     * @return The value of the future
+     * @throws SteamCondenserException if the future failed
+     * @throws TimeoutException if the future is not completed in time
+     */
+    private static <T> T await(CompletableFuture<T> future, long timeout)
+            throws SteamCondenserException, TimeoutException {
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof SteamCondenserException) {
+                throw (SteamCondenserException) e.getCause();
+            }
+            throw new SteamCondenserException(e.getCause().getMessage(), e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while waiting for a RCON reply.", e);
+        }
+    }
+
+    /**
+     * Fails all pending requests after the connection has been closed
+     */
+    private void failPending() {
+        this.closed = true;
+        this.authenticated = false;
+
+        synchronized(this) {
+            if(this.authFuture != null) {
+                this.authFuture.completeExceptionally(new RCONBanException());
+            }
+        }
+
+        for(Command command : this.pendingCommands.values()) {
+            if(command.sent) {
+                command.future.completeExceptionally(new ConnectionResetException());
+            } else {
+                command.future.completeExceptionally(new RCONNoAuthException());
+            }
+        }
+        this.pendingCommands.clear();
+    }
+
+    /**
+     * Handles a single packet received from the server
+     *
+     * @param packet The packet received from the server
+     */
+    private void handlePacket(RCONPacket packet) {
+        int requestId = packet.getRequestId();
+
+        if(packet instanceof RCONAuthResponse) {
+            synchronized(this) {
+                if(this.authFuture != null && (requestId == this.authRequestId || requestId == -1)) {
+                    this.authFuture.complete(requestId == this.authRequestId);
+                    return;
+                }
+            }
+
+            Command command = this.pendingCommands.remove(requestId);
+            this.authenticated = false;
+            if(command != null) {
+                command.future.completeExceptionally(new RCONNoAuthException());
+            }
+            return;
+        }
+
+        Command command = this.pendingCommands.get(requestId);
+        if(command != null && command.add(((RCONExecResponsePacket) packet).getResponse())) {
+            this.pendingCommands.remove(requestId);
+            command.future.complete(command.output.toString().trim());
+        }
+    }
+
+    /**
+     * Returns a new request ID that is neither <code>-1</code> (used by the
+     * server for failed authentications) nor <code>0</code>
+     *
+     * @return A new request ID
+     */
+    private int newRequestId() {
+        int requestId;
+        do {
+            requestId = this.nextRequestId.incrementAndGet();
+        } while(requestId == -1 || requestId == 0);
+
+        return requestId;
+    }
+
+    /**
+     * The main loop of the reader thread
+     */
+    private void read() {
+        RCONPacketReader reader = new RCONPacketReader() {
+            protected int read(ByteBuffer buffer) throws IOException {
+                return RCONConnection.this.channel.read(buffer);
+            }
+        };
+
+        try {
+            RCONPacket packet;
+            while(!this.closed && (packet = reader.readPacket()) != null) {
+                this.handlePacket(packet);
+            }
+        } catch(IOException ignored) {
+        } catch(SteamCondenserException ignored) {
+        } catch(TimeoutException ignored) {
+        } finally {
+            this.close();
+            this.failPending();
+        }
+    }
+
+    /**
+     * Writes the given packets to the channel without any other packets in
+     * between
+     * <p>
+     * A lock is used instead of a monitor, so threads blocked while writing
+     * can be virtual threads.
+     *
+     * @param command The command the packets belong to or <code>null</code>
+     * @param packets The packets to write
+     * @throws RCONNoAuthException if this connection has already been closed
+     * @throws SteamCondenserException if writing to the channel fails
+     */
+    private void write(Command command, RCONPacket... packets)
+            throws SteamCondenserException {
+        this.writeLock.lock();
+        try {
+            if(this.closed) {
+                throw new RCONNoAuthException();
+            }
+            if(command != null) {
+                command.sent = true;
+            }
+
+            for(RCONPacket packet : packets) {
+                ByteBuffer buffer = ByteBuffer.wrap(packet.getBytes());
+                while(buffer.hasRemaining()) {
+                    this.channel.write(buffer);
+                }
+                Metrics.getRecorder().packetSent(Protocol.RCON, buffer.limit());
+            }
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * The output received for a single command
+     * <p>
+     * The output is complete after two consecutive empty packets, i.e. the
+     * echo of the terminator packet sent after the command.
+     */
+    private static class Command {
+
+        int emptyPackets;
+
+        final CompletableFuture<String> future;
+
+        final StringBuilder output;
+
+        volatile boolean sent;
+
+        Command() {
+            this.future = new CompletableFuture<String>();
+            this.output = new StringBuilder();
+        }
+
+        boolean add(String response) {
+            if(response.isEmpty()) {
+                return ++ this.emptyPackets == 2;
+            }
+
+            this.emptyPackets = 0;
+            this.output.append(response);
+
+            return false;
+        }
+    }
+
+}
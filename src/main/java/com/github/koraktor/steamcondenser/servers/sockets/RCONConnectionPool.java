@@ -0,0 +1,558 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
+import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+
+/**
+ * This class keeps authenticated RCON connections to Source servers open so
+ * they can be reused for subsequent commands
+ * <p>
+ * Connections are opened and authenticated on first use. Commands are sent
+ * to the least busy connection of a server and a new connection is only
+ * opened if all existing ones are busy and the limit of connections per
+ * server has not been reached yet. Connections that have been idle for the
+ * keep-alive interval are sent an empty command, so neither the server nor
+ * any firewall in between closes them. Closed connections and connections
+ * that do not answer a keep-alive are dropped from the pool and replaced by
+ * a newly authenticated one. New connections are opened by a separate
+ * thread, so neither the callers nor the reader threads of other
+ * connections are blocked while connecting.
+ * <p>
+ * If a command fails because its connection has been closed before it was
+ * sent or because the server rejected it as unauthenticated, it is executed
+ * once more on a new connection. Commands that have already been sent when
+ * the connection is closed are never repeated, as the server may have
+ * executed them. These fail with a {@link ConnectionResetException}.
+ *
+ * @author Sebastian Staudt
+ * @see RCONConnection
+ */
+public class RCONConnectionPool {
+
+    private static final long DEFAULT_KEEP_ALIVE = 30000;
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 2;
+
+    private volatile boolean closed;
+
+    private final ExecutorService connector;
+
+    private final Map<InetSocketAddress, Host> hosts;
+
+    private final long keepAliveInterval;
+
+    private final int maxConnectionsPerHost;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Creates a new pool using at most two connections per server and
+     * sending keep-alives every 30 seconds
+     */
+    public RCONConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a new pool with the given limits
+     *
+     * @param maxConnectionsPerHost The maximum number of connections to open
+     *        to a single server
+     * @param keepAliveInterval The time a connection may be idle before a
+     *        keep-alive is sent
+     * @param unit The unit of the keep-alive interval
+     */
+    public RCONConnectionPool(int maxConnectionsPerHost, long keepAliveInterval, TimeUnit unit) {
+        if(maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("At least one connection per host is required.");
+        }
+
+        this.hosts = new ConcurrentHashMap<InetSocketAddress, Host>();
+        this.keepAliveInterval = unit.toMillis(keepAliveInterval);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "steam-condenser-rcon-pool");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.connector = Executors.newCachedThreadPool(threadFactory);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        long period = Math.max(1, this.keepAliveInterval / 2);
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                RCONConnectionPool.this.keepAlive();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Closes all connections of this pool and stops sending keep-alives
+     */
+    public void close() {
+        this.closed = true;
+        this.scheduler.shutdownNow();
+        this.connector.shutdown();
+
+        for(Host host : this.hosts.values()) {
+            host.close();
+        }
+        this.hosts.clear();
+    }
+
+    /**
+     * Closes all connections to the given server
+     *
+     * @param address The address of the server
+     */
+    public void evict(InetSocketAddress address) {
+        Host host = this.hosts.remove(address);
+        if(host != null) {
+            host.close();
+        }
+    }
+
+    /**
+     * Executes the given command on the server and waits for its output
+     *
+     * @param address The address of the server
+     * @param password The RCON password of the server
+     * @param command The command to execute
+     * @param timeout The time in milliseconds to wait for the output
+     * @return The output of the command
+     * @throws ConnectionResetException if the connection has been closed
+     *         after the command has been sent
+     * @throws RCONBanException if banned by the server
+     * @throws RCONNoAuthException if the password has not been accepted
+     * @throws SteamCondenserException if the request fails
+     * @throws TimeoutException if the request times out
+     */
+    public String exec(InetSocketAddress address, String password, String command, int timeout)
+            throws SteamCondenserException, TimeoutException {
+        CompletableFuture<String> future = this.execute(address, password, command);
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof SteamCondenserException) {
+                throw (SteamCondenserException) e.getCause();
+            }
+            if(e.getCause() instanceof TimeoutException) {
+                throw (TimeoutException) e.getCause();
+            }
+            throw new SteamCondenserException(e.getCause().getMessage(), e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while waiting for a RCON reply.", e);
+        } catch(TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the given command to the server using a pooled connection
+     * <p>
+     * If there is no usable connection to the server yet, the command is
+     * sent as soon as a new connection has been opened and authenticated.
+     * All failures, including a closed pool, are reported through the
+     * returned future.
+     *
+     * @param address The address of the server
+     * @param password The RCON password of the server
+     * @param command The command to execute
+     * @return The future output of the command
+     */
+    public CompletableFuture<String> execute(InetSocketAddress address,
+                                             String password,
+                                             String command) {
+        CompletableFuture<String> result = new CompletableFuture<String>();
+        this.execute(address, password, command, result, true);
+
+        return result;
+    }
+
+    /**
+     * Sends the given command to the server and completes the given future
+     * with its output
+     *
+     * @param address The address of the server
+     * @param password The RCON password of the server
+     * @param command The command to execute
+     * @param result The future to complete
+     * @param retry Whether the command should be sent again if it has not
+     *        been executed by the server
+     */
+    private void execute(final InetSocketAddress address,
+                         final String password,
+                         final String command,
+                         final CompletableFuture<String> result,
+                         final boolean retry) {
+        if(this.closed) {
+            result.completeExceptionally(new IllegalStateException("The connection pool has been closed."));
+            return;
+        }
+
+        final Host host = this.getHost(address, password);
+        host.acquire().whenComplete((connection, connectFailure) -> {
+            if(connectFailure != null) {
+                result.completeExceptionally(connectFailure);
+                return;
+            }
+
+            connection.execute(command).whenComplete((output, failure) -> {
+                if(failure == null) {
+                    result.complete(output);
+                    return;
+                }
+
+                if(failure instanceof RCONNoAuthException ||
+                   failure instanceof ConnectionResetException) {
+                    host.remove(connection);
+                }
+                if(retry && failure instanceof RCONNoAuthException && !this.closed) {
+                    this.execute(address, password, command, result, false);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+            });
+        });
+    }
+
+    /**
+     * Returns an authenticated connection to the given server
+     * <p>
+     * The least busy open connection is returned. A new connection is opened
+     * and authenticated if there is none or all connections are busy and
+     * the connection limit has not been reached.
+     *
+     * @param address The address of the server
+     * @param password The RCON password of the server
+     * @return An authenticated connection to the server
+     * @throws IllegalStateException if this pool has been closed
+     * @throws RCONBanException if banned by the server
+     * @throws RCONNoAuthException if the password has not been accepted
+     * @throws SteamCondenserException if the connection fails
+     * @throws TimeoutException if the authentication times out
+     */
+    public RCONConnection getConnection(InetSocketAddress address, String password)
+            throws SteamCondenserException, TimeoutException {
+        if(this.closed) {
+            throw new IllegalStateException("The connection pool has been closed.");
+        }
+
+        try {
+            return this.getHost(address, password).acquire().get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof SteamCondenserException) {
+                throw (SteamCondenserException) e.getCause();
+            }
+            if(e.getCause() instanceof TimeoutException) {
+                throw (TimeoutException) e.getCause();
+            }
+            throw new SteamCondenserException(e.getCause().getMessage(), e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while waiting for a RCON connection.", e);
+        }
+    }
+
+    /**
+     * Returns the number of open connections to the given server
+     *
+     * @param address The address of the server
+     * @return The number of open connections
+     */
+    public int getConnections(InetSocketAddress address) {
+        Host host = this.hosts.get(address);
+        if(host == null) {
+            return 0;
+        }
+
+        int connections = 0;
+        for(Pooled pooled : host.connections) {
+            if(pooled.isUsable()) {
+                connections ++;
+            }
+        }
+
+        return connections;
+    }
+
+    /**
+     * Returns the state of the given server, replacing its connections if the
+     * password has changed
+     *
+     * @param address The address of the server
+     * @param password The RCON password of the server
+     * @return The state of the server
+     */
+    private Host getHost(InetSocketAddress address, String password) {
+        Host host = this.hosts.computeIfAbsent(address, key -> new Host(key, password));
+        if(!Objects.equals(host.password, password)) {
+            Host newHost = new Host(address, password);
+            if(this.hosts.replace(address, host, newHost)) {
+                host.close();
+            }
+            host = this.hosts.get(address);
+        }
+
+        return host;
+    }
+
+    /**
+     * Sends keep-alives over idle connections and replaces connections that
+     * have been closed
+     * <p>
+     * Connections are dropped if a keep-alive fails or has not been answered
+     * within the keep-alive interval or the socket timeout of the connection,
+     * whichever is longer.
+     */
+    private void keepAlive() {
+        long now = System.currentTimeMillis();
+        long idleSince = now - this.keepAliveInterval;
+        for(final Host host : this.hosts.values()) {
+            if(this.closed) {
+                return;
+            }
+
+            boolean lost = false;
+            for(final Pooled pooled : host.connections) {
+                CompletableFuture<String> keepAlive = pooled.keepAlive;
+                long unansweredSince = now - Math.max(this.keepAliveInterval, pooled.connection.getSocketTimeout());
+                if(!pooled.isUsable() ||
+                   (keepAlive != null && !keepAlive.isDone() && pooled.keepAliveSent < unansweredSince)) {
+                    host.remove(pooled.connection);
+                    lost = true;
+                } else if(pooled.connection.getPendingCommands() == 0 &&
+                          pooled.lastUsed < idleSince) {
+                    pooled.lastUsed = pooled.keepAliveSent = System.currentTimeMillis();
+                    final CompletableFuture<String> pending = new CompletableFuture<String>();
+                    pooled.keepAlive = pending;
+                    pooled.connection.execute("").whenComplete((output, failure) -> {
+                        if(failure != null) {
+                            host.remove(pooled.connection);
+                        }
+                        pending.complete(output);
+                    });
+                }
+            }
+
+            if(lost && host.connections.isEmpty()) {
+                host.acquire();
+            }
+        }
+    }
+
+    /**
+     * The connections to a single server
+     */
+    private class Host {
+
+        final InetSocketAddress address;
+
+        private CompletableFuture<RCONConnection> connect;
+
+        final List<Pooled> connections;
+
+        final String password;
+
+        Host(InetSocketAddress address, String password) {
+            this.address = address;
+            this.connections = new CopyOnWriteArrayList<Pooled>();
+            this.password = password;
+        }
+
+        /**
+         * Returns the least busy connection or opens a new one
+         * <p>
+         * Only a single connection is opened at a time. Concurrent callers
+         * share the future of the connection being opened.
+         */
+        CompletableFuture<RCONConnection> acquire() {
+            Pooled best = this.leastBusy();
+            if(best != null && (best.getLoad() == 0 ||
+                    this.connections.size() >= maxConnectionsPerHost)) {
+                best.lastUsed = System.currentTimeMillis();
+                return CompletableFuture.completedFuture(best.connection);
+            }
+
+            final CompletableFuture<RCONConnection> connect;
+            synchronized(this) {
+                if(this.connect != null) {
+                    return this.connect;
+                }
+                this.connect = connect = new CompletableFuture<RCONConnection>();
+            }
+
+            try {
+                connector.execute(new Runnable() {
+                    public void run() {
+                        Host.this.connect(connect);
+                    }
+                });
+            } catch(RejectedExecutionException e) {
+                this.finishConnect(connect, null, new IllegalStateException("The connection pool has been closed."));
+            }
+
+            return connect;
+        }
+
+        void close() {
+            for(Pooled pooled : this.connections) {
+                pooled.connection.close();
+            }
+            this.connections.clear();
+        }
+
+        Pooled leastBusy() {
+            List<Pooled> closed = new ArrayList<Pooled>();
+            Pooled best = null;
+            for(Pooled pooled : this.connections) {
+                if(!pooled.isUsable()) {
+                    closed.add(pooled);
+                } else if(best == null || pooled.getLoad() < best.getLoad()) {
+                    best = pooled;
+                }
+            }
+
+            for(Pooled pooled : closed) {
+                pooled.connection.close();
+            }
+            this.connections.removeAll(closed);
+
+            return best;
+        }
+
+        /**
+         * Opens and authenticates a new connection and completes the given
+         * future with it
+         * <p>
+         * The connection is closed again if this server has been evicted or
+         * its password has changed in the meantime.
+         */
+        void connect(CompletableFuture<RCONConnection> connect) {
+            RCONConnection connection = null;
+            try {
+                if(this.password == null) {
+                    throw new RCONNoAuthException();
+                }
+
+                connection = new RCONConnection(this.address.getAddress(), this.address.getPort());
+                if(!connection.authenticate(this.password)) {
+                    throw new RCONNoAuthException();
+                }
+
+                this.connections.add(new Pooled(connection));
+                if(closed || hosts.get(this.address) != this) {
+                    this.remove(connection);
+                    throw new IllegalStateException(closed ?
+                        "The connection pool has been closed." :
+                        "The connections to the server have been closed.");
+                }
+                this.finishConnect(connect, connection, null);
+            } catch(SteamCondenserException | TimeoutException | RuntimeException e) {
+                if(connection != null) {
+                    connection.close();
+                }
+                this.finishConnect(connect, null, e);
+            }
+        }
+
+        /**
+         * Allows the next connection to be opened and completes the given
+         * future
+         */
+        void finishConnect(CompletableFuture<RCONConnection> connect,
+                           RCONConnection connection, Throwable failure) {
+            synchronized(this) {
+                if(this.connect == connect) {
+                    this.connect = null;
+                }
+            }
+
+            if(failure == null) {
+                connect.complete(connection);
+            } else {
+                connect.completeExceptionally(failure);
+            }
+        }
+
+        void remove(RCONConnection connection) {
+            for(Pooled pooled : this.connections) {
+                if(pooled.connection == connection) {
+                    this.connections.remove(pooled);
+                }
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * A pooled connection and the times it has been used and kept alive last
+     */
+    private static class Pooled {
+
+        final RCONConnection connection;
+
+        volatile CompletableFuture<String> keepAlive;
+
+        volatile long keepAliveSent;
+
+        volatile long lastUsed;
+
+        Pooled(RCONConnection connection) {
+            this.connection = connection;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        /**
+         * Returns the number of pending commands not counting a keep-alive
+         * <p>
+         * A keep-alive does not delay other commands noticeably, so a
+         * connection waiting only for its keep-alive is still considered
+         * idle.
+         */
+        int getLoad() {
+            int load = this.connection.getPendingCommands();
+            CompletableFuture<String> keepAlive = this.keepAlive;
+            if(keepAlive != null && !keepAlive.isDone()) {
+                load --;
+            }
+
+            return Math.max(0, load);
+        }
+
+        boolean isUsable() {
+            return this.connection.isOpen() && this.connection.isAuthenticated();
+        }
+    }
+
+}
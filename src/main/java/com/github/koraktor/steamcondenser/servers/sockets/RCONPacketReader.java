@@ -0,0 +1,266 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacketFactory;
+
+/**
+ * This class reads framed Source RCON packets from a stream using a single
+ * reusable buffer
+ * <p>
+ * Data is read in chunks as big as the buffer allows, so a single read may
+ * return several packets or only parts of a packet. Packets are decoded
+ * directly from the buffer. Command output can also be decoded into a
+ * reusable character buffer and handed to a consumer without creating any
+ * strings.
+ *
+ * @author Sebastian Staudt
+ * @see RCONConnection
+ * @see RCONSocket
+ */
+abstract class RCONPacketReader {
+
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private static final int MIN_PACKET_SIZE = 10;
+
+    private ByteBuffer buffer;
+
+    private CharBuffer charBuffer;
+
+    private final CharsetDecoder decoder;
+
+    private boolean endOfStream;
+
+    /**
+     * Creates a new packet reader with an empty buffer
+     */
+    RCONPacketReader() {
+        this.buffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer.limit(0);
+        this.charBuffer = CharBuffer.allocate(INITIAL_CAPACITY);
+        this.decoder = Charset.forName("UTF-8").newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Reads more data from the underlying stream into the given buffer
+     *
+     * @param buffer The buffer to read into
+     * @return The number of bytes read or <code>-1</code> if the stream has
+     *         been closed
+     * @throws IOException if reading from the stream fails
+     * @throws SteamCondenserException if reading from the stream fails
+     * @throws TimeoutException if no data is available in time
+     */
+    protected abstract int read(ByteBuffer buffer)
+            throws IOException, SteamCondenserException, TimeoutException;
+
+    /**
+     * Reads the next packet and creates a packet object for it
+     *
+     * @return The next packet or <code>null</code> if the stream has been
+     *         closed
+     * @throws IOException if reading from the stream fails
+     * @throws SteamCondenserException if the packet cannot be read or parsed
+     * @throws TimeoutException if no data is available in time
+     */
+    RCONPacket readPacket()
+            throws IOException, SteamCondenserException, TimeoutException {
+        int size = this.nextPacket();
+        if(size < 0) {
+            return null;
+        }
+
+        int start = this.buffer.position();
+        try {
+            return RCONPacketFactory.getPacketFromData(this.buffer.array(),
+                    this.buffer.arrayOffset() + start, size);
+        } finally {
+            this.buffer.position(start + size);
+        }
+    }
+
+    /**
+     * Reads the next packet and passes its text to the given consumer if it
+     * is a non-empty command response
+     * <p>
+     * The character sequence passed to the consumer is only valid during the
+     * call and must not be stored.
+     *
+     * @param consumer The consumer to pass the command output to
+     * @return The length of the command output in bytes or <code>-1</code>
+     *         if the stream has been closed or the packet is not a command
+     *         response
+     * @throws IOException if reading from the stream fails
+     * @throws SteamCondenserException if the packet cannot be read
+     * @throws TimeoutException if no data is available in time
+     */
+    int readResponse(Consumer<? super CharSequence> consumer)
+            throws IOException, SteamCondenserException, TimeoutException {
+        int size = this.nextPacket();
+        if(size < 0) {
+            return -1;
+        }
+
+        int start = this.buffer.position();
+        int end = start + size;
+        try {
+            if(this.buffer.getInt(start + 4) != RCONPacket.SERVERDATA_RESPONSE_VALUE) {
+                return -1;
+            }
+
+            byte[] data = this.buffer.array();
+            int offset = this.buffer.arrayOffset();
+            int bodyStart = start + 8;
+            int bodyEnd = bodyStart;
+            while(bodyEnd < end && data[offset + bodyEnd] != 0) {
+                bodyEnd ++;
+            }
+
+            int length = bodyEnd - bodyStart;
+            if(length > 0) {
+                consumer.accept(this.decode(data, offset + bodyStart, length));
+            }
+
+            return length;
+        } finally {
+            this.buffer.position(end);
+        }
+    }
+
+    /**
+     * Discards all buffered data, e.g. after the connection has been
+     * reestablished
+     */
+    void reset() {
+        this.buffer.clear();
+        this.buffer.limit(0);
+        this.endOfStream = false;
+    }
+
+    /**
+     * Returns whether the underlying stream has been closed
+     *
+     * @return <code>true</code> if the end of the stream has been reached
+     */
+    boolean isEndOfStream() {
+        return this.endOfStream;
+    }
+
+    /**
+     * Decodes UTF-8 encoded text into the reusable character buffer
+     *
+     * @param data The array containing the text
+     * @param offset The offset of the text
+     * @param length The length of the text in bytes
+     * @return The character buffer containing the decoded text
+     */
+    private CharBuffer decode(byte[] data, int offset, int length) {
+        if(this.charBuffer.capacity() < length) {
+            this.charBuffer = CharBuffer.allocate(Math.max(length, this.charBuffer.capacity() * 2));
+        }
+
+        this.charBuffer.clear();
+        this.decoder.reset();
+        this.decoder.decode(ByteBuffer.wrap(data, offset, length), this.charBuffer, true);
+        this.decoder.flush(this.charBuffer);
+        this.charBuffer.flip();
+
+        return this.charBuffer;
+    }
+
+    /**
+     * Makes sure that the given number of bytes is available in the buffer
+     *
+     * @param length The number of bytes required
+     * @return <code>false</code> if the stream has been closed before
+     * @throws IOException if reading from the stream fails
+     * @throws SteamCondenserException if reading from the stream fails
+     * @throws TimeoutException if no data is available in time
+     */
+    private boolean fill(int length)
+            throws IOException, SteamCondenserException, TimeoutException {
+        if(this.buffer.remaining() >= length) {
+            return true;
+        }
+
+        if(this.buffer.capacity() < length) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(length, this.buffer.capacity() * 2));
+            newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            newBuffer.put(this.buffer);
+            newBuffer.flip();
+            this.buffer = newBuffer;
+        }
+
+        this.buffer.compact();
+        try {
+            while(this.buffer.position() < length) {
+                if(this.read(this.buffer) < 0) {
+                    this.endOfStream = true;
+                    return false;
+                }
+            }
+        } finally {
+            this.buffer.flip();
+        }
+
+        return true;
+    }
+
+    /**
+     * Makes sure the next packet is available in the buffer
+     * <p>
+     * The size of the packet is only consumed once the whole packet has been
+     * buffered. So if reading times out in the middle of a packet, the
+     * packet can still be read completely later on.
+     *
+     * @return The size of the packet or <code>-1</code> if the stream has
+     *         been closed
+     * @throws IOException if reading from the stream fails
+     * @throws SteamCondenserException if the packet size is invalid
+     * @throws TimeoutException if no data is available in time
+     */
+    private int nextPacket()
+            throws IOException, SteamCondenserException, TimeoutException {
+        if(!this.fill(4)) {
+            return -1;
+        }
+
+        int size = this.buffer.getInt(this.buffer.position());
+        if(size < MIN_PACKET_SIZE) {
+            throw new PacketFormatException("Invalid RCON packet size " + size + ".");
+        }
+
+        if(!this.fill(size + 4)) {
+            return -1;
+        }
+        this.buffer.position(this.buffer.position() + 4);
+        Metrics.getRecorder().packetReceived(Protocol.RCON, size + 4);
+
+        return size;
+    }
+
+}
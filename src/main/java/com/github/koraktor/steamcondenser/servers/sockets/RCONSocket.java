@@ -10,15 +10,19 @@ package com.github.koraktor.steamcondenser.servers.sockets;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
 import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
-import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacketFactory;
 
 /**
  * This class represents a socket used for RCON communication with game servers
@@ -33,6 +37,10 @@ public class RCONSocket extends SteamSocket {
 
     //protected final static Logger LOG = LoggerFactory.getLogger(RCONSocket.class.getName());
 
+    private RCONPacketReader reader;
+
+    private Selector selector;
+
     /**
      * Creates a new TCP socket to communicate with the server on the given IP
      * address and port
@@ -55,27 +63,42 @@ public class RCONSocket extends SteamSocket {
             ((SocketChannel) this.channel).isConnected()) {
             super.close();
         }
+        this.closeSelector();
     }
 
     /**
      * Sends the given RCON packet to the server
+     * <p>
+     * If the send buffer of the socket is full, this waits until the socket
+     * is writable again instead of retrying immediately.
      *
      * @param dataPacket The RCON packet to send to the server
      * @throws SteamCondenserException if an error occurs while writing to the
      *         socket
+     * @throws TimeoutException if the socket does not become writable in
+     *         time
      */
     public void send(RCONPacket dataPacket)
-            throws SteamCondenserException {
+            throws SteamCondenserException, TimeoutException {
         try {
             if (this.channel == null ||
                !((SocketChannel)this.channel).isConnected()) {
+                this.closeSelector();
+                this.getReader().reset();
                 this.channel = SocketChannel.open();
-                ((SocketChannel) this.channel).socket().connect(this.remoteSocket, SteamSocket.timeout);
+                ((SocketChannel) this.channel).socket().connect(this.remoteSocket, (int) Math.max(1, this.getRemainingTimeout()));
                 this.channel.configureBlocking(false);
+                this.selector = Selector.open();
+                this.channel.register(this.selector, SelectionKey.OP_READ);
             }
 
-            this.buffer = ByteBuffer.wrap(dataPacket.getBytes());
-            ((SocketChannel)this.channel).write(this.buffer);
+            ByteBuffer sendBuffer = ByteBuffer.wrap(dataPacket.getBytes());
+            while(sendBuffer.hasRemaining()) {
+                if(((SocketChannel) this.channel).write(sendBuffer) == 0) {
+                    this.awaitWritable();
+                }
+            }
+            Metrics.getRecorder().packetSent(Protocol.RCON, sendBuffer.limit());
         } catch(IOException e) {
             throw new SteamCondenserException(e.getMessage(), e);
         }
@@ -85,8 +108,8 @@ public class RCONSocket extends SteamSocket {
      * Reads a packet from the socket
      * <p>
      * The Source RCON protocol allows packets of an arbitrary sice transmitted
-     * using multiple TCP packets. The data is received in chunks and
-     * concatenated into a single response packet.
+     * using multiple TCP packets. The data is received in chunks into a
+     * reusable buffer and the packet is decoded directly from this buffer.
      *
      * @return The packet replied from the server or <code>null</code> if the
      *         connection has been closed by the server
@@ -96,35 +119,167 @@ public class RCONSocket extends SteamSocket {
      */
     public RCONPacket getReply()
             throws SteamCondenserException, TimeoutException {
+        RCONPacket packet;
+        this.startReply();
+        try {
+            packet = this.getReader().readPacket();
+        } catch(ConnectionResetException e) {
+            packet = null;
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        } finally {
+            this.finishReply();
+        }
+
+        if(packet == null) {
+            this.closeChannel();
+        }
+
+        //LOG.info("Received packet of type \"" + packet.getClass() + "\".");
+
+        return packet;
+    }
+
+    /**
+     * Reads a single packet from the socket and passes the command output
+     * contained in it to the given consumer
+     * <p>
+     * The output is decoded straight from the receive buffer into a reusable
+     * character buffer. The character sequence passed to the consumer is
+     * only valid during the call and must not be stored. Empty output is not
+     * passed to the consumer.
+     *
+     * @param consumer The consumer to pass the command output to
+     * @return The length of the output in bytes or <code>-1</code> if the
+     *         connection has been closed by the server or the packet is no
+     *         command response
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @throws TimeoutException if the request times out
+     */
+    public int readResponse(Consumer<? super CharSequence> consumer)
+            throws SteamCondenserException, TimeoutException {
+        this.startReply();
         try {
-            if (this.receivePacket(4) == 0) {
-                try {
-                    this.channel.close();
-                } catch (IOException ignored) {}
-                return null;
+            int length = this.getReader().readResponse(consumer);
+            if(length < 0 && this.getReader().isEndOfStream()) {
+                this.closeChannel();
             }
-        } catch (ConnectionResetException e) {
-            try {
-                this.channel.close();
-            } catch (IOException ignored) {}
-            return null;
+            return length;
+        } catch(ConnectionResetException e) {
+            this.closeChannel();
+            return -1;
+        } catch(IOException e) {
+            throw new SteamCondenserException(e.getMessage(), e);
+        } finally {
+            this.finishReply();
         }
+    }
 
-        int packetSize = Integer.reverseBytes(this.buffer.getInt());
-        int remainingBytes = packetSize;
+    /**
+     * Reads the data available on the socket into the given buffer, waiting
+     * up to the remaining timeout for data to arrive
+     *
+     * @param buffer The buffer to read into
+     * @return The number of bytes read or <code>-1</code> if the connection
+     *         has been closed by the server
+     * @throws SteamCondenserException if an error occurs while reading from
+     *         the socket
+     * @throws TimeoutException if no data is received on time
+     */
+    protected int receive(ByteBuffer buffer)
+            throws SteamCondenserException, TimeoutException {
+        try {
+            long timeout = this.getRemainingTimeout();
+            int selected = (timeout > 0) ? this.selector.select(timeout) : this.selector.selectNow();
+            if(selected == 0) {
+                Metrics.getRecorder().requestTimedOut(Protocol.RCON);
+                throw new TimeoutException();
+            }
+            this.selector.selectedKeys().clear();
 
-        byte[] packetData = new byte[packetSize];
-        int receivedBytes;
-        do {
-            receivedBytes = this.receivePacket(remainingBytes);
-            System.arraycopy(this.buffer.array(), 0, packetData, packetSize - remainingBytes, receivedBytes);
-            remainingBytes -= receivedBytes;
-        } while(remainingBytes > 0);
+            return ((SocketChannel) this.channel).read(buffer);
+        } catch(IOException e) {
+            if ("Connection reset by peer".equals(e.getMessage())) {
+                throw new ConnectionResetException();
+            }
+            throw new SteamCondenserException(e.getMessage(), e);
+        }
+    }
 
-        RCONPacket packet = RCONPacketFactory.getPacketFromData(packetData);
+    /**
+     * Returns the reader used to receive packets from this socket
+     * <p>
+     * The reader is created on first use and kept for the whole lifetime of
+     * this socket, so its buffer is reused for all replies.
+     *
+     * @return The packet reader of this socket
+     */
+    private RCONPacketReader getReader() {
+        if(this.reader == null) {
+            this.reader = new RCONPacketReader() {
+                protected int read(ByteBuffer buffer)
+                        throws SteamCondenserException, TimeoutException {
+                    return RCONSocket.this.receive(buffer);
+                }
+            };
+        }
 
-        //LOG.info("Received packet of type \"" + packet.getClass() + "\".");
+        return this.reader;
+    }
 
-        return packet;
+    /**
+     * Waits up to the remaining timeout until the socket can be written to
+     *
+     * @throws IOException if an error occurs while waiting
+     * @throws TimeoutException if the socket does not become writable in
+     *         time
+     */
+    private void awaitWritable() throws IOException, TimeoutException {
+        SelectionKey key = this.channel.keyFor(this.selector);
+        key.interestOps(SelectionKey.OP_WRITE);
+        try {
+            long timeout = this.getRemainingTimeout();
+            int selected = (timeout > 0) ? this.selector.select(timeout) : this.selector.selectNow();
+            this.selector.selectedKeys().clear();
+            if(selected == 0) {
+                Metrics.getRecorder().requestTimedOut(Protocol.RCON);
+                throw new TimeoutException();
+            }
+        } finally {
+            key.interestOps(SelectionKey.OP_READ);
+        }
     }
+
+    /**
+     * Closes the channel after the connection has been closed by the server
+     */
+    private void closeChannel() {
+        try {
+            this.channel.close();
+        } catch (IOException ignored) {}
+        this.closeSelector();
+    }
+
+    /**
+     * Closes the selector used to wait for data
+     */
+    private void closeSelector() {
+        if(this.selector != null) {
+            try {
+                this.selector.close();
+            } catch(IOException ignored) {}
+            this.selector = null;
+        }
+    }
+
+    /**
+     * Returns the protocol of this socket used to report metrics
+     *
+     * @return {@link Protocol#RCON}
+     */
+    protected Protocol getProtocol() {
+        return Protocol.RCON;
+    }
+
 }
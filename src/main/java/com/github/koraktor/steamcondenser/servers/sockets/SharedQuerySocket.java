@@ -0,0 +1,191 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.net.InetAddress;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
+
+/**
+ * This class implements a query socket that does not own a channel, but sends
+ * its requests through a {@link QueryEngine} shared with other sockets
+ * <p>
+ * It can be used as a drop-in replacement for {@link SourceSocket} and
+ * {@link GoldSrcSocket} when querying a large number of servers.
+ *
+ * @author Sebastian Staudt
+ * @see QueryEngine
+ */
+public class SharedQuerySocket extends QuerySocket {
+
+    private QueryEngine engine;
+
+    private boolean goldSrc;
+
+    private Queue<CompletableFuture<SteamPacket>> replies;
+
+    /**
+     * Creates a new socket to communicate with the server on the given IP
+     * address and port using the given query engine
+     *
+     * @param engine The query engine to send requests with
+     * @param ipAddress Either the IP address or the DNS name of the server
+     * @param portNumber The port the server is listening on
+     * @param goldSrc Whether the server is a GoldSrc server
+     * @throws SteamCondenserException if the socket cannot be created
+     */
+    public SharedQuerySocket(QueryEngine engine, InetAddress ipAddress, int portNumber, boolean goldSrc)
+            throws SteamCondenserException {
+        super(ipAddress, portNumber, false);
+
+        this.engine = engine;
+        this.goldSrc = goldSrc;
+        this.replies = new ConcurrentLinkedQueue<CompletableFuture<SteamPacket>>();
+    }
+
+    /**
+     * Discards all replies that have not been received yet
+     * <p>
+     * The shared channel is left open for the other sockets using the engine.
+     */
+    @Override
+    public void close() {
+        CompletableFuture<SteamPacket> reply;
+        while((reply = this.replies.poll()) != null) {
+            reply.cancel(false);
+        }
+    }
+
+    /**
+     * Returns the query engine used by this socket
+     *
+     * @return The query engine of this socket
+     */
+    public QueryEngine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Waits for the reply to the oldest request sent with {@link #send}
+     * <p>
+     * If there is no such request, this waits for the next packet sent by the
+     * server.
+     *
+     * @return The packet replied from the server
+     * @throws SteamCondenserException if an error occurs while communicating
+     *         with the server
+     * @throws TimeoutException if the request times out
+     */
+    public SteamPacket getReply()
+            throws SteamCondenserException, TimeoutException {
+        CompletableFuture<SteamPacket> reply = this.replies.poll();
+        if(reply == null) {
+            reply = this.engine.request(this.remoteSocket, null, this.goldSrc, this.getRequestTimeout(0));
+        }
+
+        try {
+            return reply.get();
+        } catch(ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof TimeoutException) {
+                throw (TimeoutException) cause;
+            } else if(cause instanceof SteamCondenserException) {
+                throw (SteamCondenserException) cause;
+            }
+            throw new SteamCondenserException(cause.getMessage(), cause);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SteamCondenserException("Interrupted while waiting for a reply.", e);
+        }
+    }
+
+    /**
+     * Returns the timeout for a request sent through the query engine
+     * <p>
+     * The engine waits for a complete reply, so this is the socket timeout
+     * shortened to the deadline of this socket, if any. A request sent after
+     * the deadline times out immediately.
+     *
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        request times out or <code>0</code> to only use the deadline of
+     *        this socket
+     * @return The amount of milliseconds before the request times out
+     */
+    private int getRequestTimeout(long deadline) {
+        long timeout = SteamSocket.getRemainingTimeout(this.getRemainingTimeout(), deadline);
+
+        return (int) Math.max(1, timeout);
+    }
+
+    /**
+     * Returns whether this socket is used to communicate with a GoldSrc server
+     *
+     * @return <code>true</code> if the server is a GoldSrc server
+     */
+    public boolean isGoldSrc() {
+        return this.goldSrc;
+    }
+
+    /**
+     * Sends the given packet to the server and returns its future reply
+     * without blocking the calling thread
+     *
+     * @param dataPacket The packet to send to the server
+     * @return The future reply of the server
+     */
+    public CompletableFuture<SteamPacket> request(SteamPacket dataPacket) {
+        return this.request(dataPacket, 0);
+    }
+
+    /**
+     * Sends the given packet to the server and returns its future reply
+     * without blocking the calling thread
+     * <p>
+     * The deadline applies to this request only. Different from
+     * {@link #setDeadline}, it does not affect other requests sent through
+     * this socket at the same time.
+     *
+     * @param dataPacket The packet to send to the server
+     * @param deadline The value of {@link System#nanoTime} after which the
+     *        request times out or <code>0</code> to only use the deadline of
+     *        this socket
+     * @return The future reply of the server
+     */
+    public CompletableFuture<SteamPacket> request(SteamPacket dataPacket, long deadline) {
+        return this.engine.request(this.remoteSocket, dataPacket, this.goldSrc, this.getRequestTimeout(deadline));
+    }
+
+    /**
+     * Sends the given packet to the server
+     * <p>
+     * The reply can be obtained using {@link #getReply}.
+     *
+     * @param dataPacket The packet to send to the server
+     */
+    @Override
+    public void send(SteamPacket dataPacket) {
+        this.replies.add(this.request(dataPacket));
+    }
+
+    /**
+     * Returns the protocol of this socket used to report metrics
+     *
+     * @return {@link Protocol#GOLDSRC} or {@link Protocol#SOURCE}
+     */
+    protected Protocol getProtocol() {
+        return this.goldSrc ? Protocol.GOLDSRC : Protocol.SOURCE;
+    }
+
+}
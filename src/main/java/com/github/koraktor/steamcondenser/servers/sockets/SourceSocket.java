@@ -8,14 +8,13 @@
 package com.github.koraktor.steamcondenser.servers.sockets;
 
 import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.concurrent.TimeoutException;
 //import org.slf4j.Logger;
 //import org.slf4j.LoggerFactory;
 
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
-import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
 
 /**
  * This class represents a socket used to communicate with game servers based
@@ -56,66 +55,44 @@ public class SourceSocket extends QuerySocket {
      */
     public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException {
-        int bytesRead;
-        boolean isCompressed = false;
         SteamPacket packet;
 
-        bytesRead = this.receivePacket(1400);
+        this.startReply();
+        try {
+            this.receivePacket(1400);
 
-        if(this.packetIsSplit()) {
-            byte[] splitData;
-            int packetCount, packetNumber, requestId, splitSize;
-            int packetChecksum = 0;
-            ArrayList<byte[]> splitPackets = new ArrayList<byte[]>();
+            if(this.packetIsSplit()) {
+                SplitPacketTable splitPackets = new SplitPacketTable();
 
-            do {
-                requestId = Integer.reverseBytes(this.buffer.getInt());
-                isCompressed = ((requestId & 0x80000000) != 0);
-                packetCount = this.buffer.get();
-                packetNumber = this.buffer.get() + 1;
+                do {
+                    packet = splitPackets.addSourcePacket(this.buffer);
 
-                if(isCompressed) {
-                    splitSize = Integer.reverseBytes(this.buffer.getInt());
-                    packetChecksum = Integer.reverseBytes(this.buffer.getInt());
-                } else {
-                    splitSize = Short.reverseBytes(this.buffer.getShort());
-                }
-
-                splitData = new byte[Math.min(splitSize, this.buffer.remaining())];
-                this.buffer.get(splitData);
-                splitPackets.ensureCapacity(packetCount);
-                splitPackets.add(packetNumber - 1, splitData);
-
-                if(splitPackets.size() < packetCount) {
-                    try {
-                        bytesRead = this.receivePacket();
-                    } catch(TimeoutException e) {
-                        bytesRead = 0;
+                    if(packet == null) {
+                        do {
+                            this.receivePacket();
+                        } while(!this.packetIsSplit());
                     }
-                } else {
-                    bytesRead = 0;
-                }
-
-                //LOG.info("Received packet #" + packetNumber + " of " + packetCount + " for request ID " + requestId + ".");
-            } while(bytesRead > 0 && this.packetIsSplit());
-
-            if(isCompressed) {
-                packet = SteamPacketFactory.reassemblePacket(splitPackets, true, splitSize, packetChecksum);
+                } while(packet == null);
             } else {
-                packet = SteamPacketFactory.reassemblePacket(splitPackets);
+                packet = this.getPacketFromData();
             }
-        } else {
-            packet = this.getPacketFromData();
+        } finally {
+            this.releaseBuffer();
+            this.finishReply();
         }
 
-        this.buffer.flip();
-
-        if(isCompressed) {
-           //LOG.info("Received compressed reply of type \"" + packet.getClass().getSimpleName() + "\"");
-        } else {
-            //LOG.info("Received reply of type \"" + packet.getClass().getSimpleName() + "\"");
-        }
+        //LOG.info("Received reply of type \"" + packet.getClass().getSimpleName() + "\"");
 
         return packet;
     }
+
+    /**
+     * Returns the protocol of this socket used to report metrics
+     *
+     * @return {@link Protocol#SOURCE}
+     */
+    protected Protocol getProtocol() {
+        return Protocol.SOURCE;
+    }
+
 }
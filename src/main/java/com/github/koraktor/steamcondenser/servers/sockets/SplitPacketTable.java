@@ -0,0 +1,301 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
+
+/**
+ * This class collects the packets of split replies and reassembles them once
+ * all packets of a reply have been received
+ * <p>
+ * Packets are grouped by their request ID, so packets belonging to different
+ * replies cannot be mixed up. They may arrive in any order and duplicates are
+ * ignored. The data of each packet is copied exactly once, straight into its
+ * final position inside a single buffer which is then handed to the packet
+ * factory without any further copying.
+ *
+ * @author Sebastian Staudt
+ * @see SteamPacketFactory#reassemblePacket(byte[], int, boolean, int, int)
+ */
+class SplitPacketTable {
+
+    private final Map<Integer, SplitPacket> splitPackets;
+
+    /**
+     * Creates a new empty table for split packets
+     */
+    SplitPacketTable() {
+        this.splitPackets = new HashMap<Integer, SplitPacket>();
+    }
+
+    /**
+     * Stores a single packet of a split GoldSrc reply
+     * <p>
+     * The buffer has to be positioned right after the split packet header
+     * (<code>0xFFFFFFFE</code>).
+     *
+     * @param buffer The buffer containing the packet data
+     * @return The reassembled reply if all packets have been received,
+     *         <code>null</code> otherwise
+     * @throws SteamCondenserException if the reply cannot be reassembled
+     */
+    SteamPacket addGoldSrcPacket(ByteBuffer buffer)
+            throws SteamCondenserException {
+        int requestId = this.getInt(buffer);
+        byte packetNumberAndCount = buffer.get();
+        int packetCount = packetNumberAndCount & 0xF;
+        int packetNumber = (packetNumberAndCount & 0xFF) >> 4;
+        Metrics.getRecorder().splitPacketReceived(Protocol.GOLDSRC);
+
+        SplitPacket splitPacket = this.getSplitPacket(requestId, packetCount, false, 0, 0);
+
+        return this.add(requestId, splitPacket, packetNumber, buffer, buffer.remaining());
+    }
+
+    /**
+     * Stores a single packet of a split Source reply
+     * <p>
+     * The buffer has to be positioned right after the split packet header
+     * (<code>0xFFFFFFFE</code>).
+     *
+     * @param buffer The buffer containing the packet data
+     * @return The reassembled reply if all packets have been received,
+     *         <code>null</code> otherwise
+     * @throws SteamCondenserException if the reply cannot be reassembled
+     */
+    SteamPacket addSourcePacket(ByteBuffer buffer)
+            throws SteamCondenserException {
+        int requestId = this.getInt(buffer);
+        boolean isCompressed = ((requestId & 0x80000000) != 0);
+        int packetCount = buffer.get() & 0xFF;
+        int packetNumber = buffer.get() & 0xFF;
+        Metrics.getRecorder().splitPacketReceived(Protocol.SOURCE);
+        int length;
+        int packetChecksum = 0;
+        int uncompressedSize = 0;
+
+        if(isCompressed) {
+            uncompressedSize = this.getInt(buffer);
+            packetChecksum = this.getInt(buffer);
+            length = buffer.remaining();
+        } else {
+            int splitSize = (buffer.get() & 0xFF) | (buffer.get() & 0xFF) << 8;
+            length = Math.min(splitSize, buffer.remaining());
+        }
+
+        SplitPacket splitPacket = this.getSplitPacket(requestId, packetCount, isCompressed, uncompressedSize, packetChecksum);
+
+        return this.add(requestId, splitPacket, packetNumber, buffer, length);
+    }
+
+    /**
+     * Discards all partially received replies
+     */
+    void clear() {
+        this.splitPackets.clear();
+    }
+
+    /**
+     * Returns whether there are partially received replies
+     *
+     * @return <code>true</code> if no reply is partially received
+     */
+    boolean isEmpty() {
+        return this.splitPackets.isEmpty();
+    }
+
+    /**
+     * Adds a packet to a split reply and reassembles the reply if it is
+     * complete
+     *
+     * @param requestId The request ID of the reply
+     * @param splitPacket The split reply the packet belongs to
+     * @param packetNumber The zero-based number of the packet
+     * @param buffer The buffer positioned at the packet's payload
+     * @param length The length of the packet's payload
+     * @return The reassembled reply if all packets have been received,
+     *         <code>null</code> otherwise
+     * @throws SteamCondenserException if the reply cannot be reassembled
+     */
+    private SteamPacket add(int requestId, SplitPacket splitPacket, int packetNumber, ByteBuffer buffer, int length)
+            throws SteamCondenserException {
+        if(!splitPacket.add(packetNumber, buffer, length)) {
+            return null;
+        }
+
+        this.splitPackets.remove(requestId);
+
+        return splitPacket.reassemble();
+    }
+
+    /**
+     * Reads a little-endian integer from the given buffer regardless of the
+     * buffer's byte order
+     *
+     * @param buffer The buffer to read from
+     * @return The integer value
+     */
+    private int getInt(ByteBuffer buffer) {
+        int value = buffer.getInt();
+        if(buffer.order() == ByteOrder.BIG_ENDIAN) {
+            value = Integer.reverseBytes(value);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the split reply with the given request ID, creating a new one if
+     * required
+     *
+     * @param requestId The request ID of the reply
+     * @param packetCount The number of packets the reply consists of
+     * @param isCompressed Whether the reply is compressed
+     * @param uncompressedSize The size of the decompressed reply
+     * @param packetChecksum The CRC32 checksum of the decompressed reply
+     * @return The split reply with the given request ID
+     * @throws PacketFormatException if the packet count is invalid or differs
+     *         from the packet count of previous packets
+     */
+    private SplitPacket getSplitPacket(int requestId, int packetCount, boolean isCompressed, int uncompressedSize, int packetChecksum)
+            throws PacketFormatException {
+        if(packetCount < 1) {
+            throw new PacketFormatException("Split packet has an invalid packet count.");
+        }
+
+        SplitPacket splitPacket = this.splitPackets.get(requestId);
+        if(splitPacket == null) {
+            splitPacket = new SplitPacket(packetCount, isCompressed, uncompressedSize, packetChecksum);
+            this.splitPackets.put(requestId, splitPacket);
+        } else if(splitPacket.packetCount != packetCount) {
+            throw new PacketFormatException("Split packets of the same reply differ in packet count.");
+        }
+
+        return splitPacket;
+    }
+
+    /**
+     * The packets of a single split reply
+     * <p>
+     * All packets but the last one of a reply have the same size, so each
+     * packet is written directly to <code>packetNumber * packetSize</code>
+     * inside a single array. As long as only the last packet has been
+     * received, its size is unknown and its data is kept separately.
+     */
+    private static class SplitPacket {
+
+        byte[] data;
+
+        final boolean isCompressed;
+
+        byte[] lastPacket;
+
+        int lastPacketSize;
+
+        final int packetChecksum;
+
+        final int packetCount;
+
+        int packetSize;
+
+        int packetsReceived;
+
+        final boolean[] received;
+
+        final int uncompressedSize;
+
+        SplitPacket(int packetCount, boolean isCompressed, int uncompressedSize, int packetChecksum) {
+            this.isCompressed = isCompressed;
+            this.packetChecksum = packetChecksum;
+            this.packetCount = packetCount;
+            this.received = new boolean[packetCount];
+            this.uncompressedSize = uncompressedSize;
+        }
+
+        /**
+         * Copies the payload of a packet to its position in the reply
+         *
+         * @param packetNumber The zero-based number of the packet
+         * @param buffer The buffer positioned at the packet's payload
+         * @param length The length of the packet's payload
+         * @return <code>true</code> if all packets have been received
+         * @throws PacketFormatException if the packet does not fit into the
+         *         reply
+         */
+        boolean add(int packetNumber, ByteBuffer buffer, int length)
+                throws PacketFormatException {
+            if(packetNumber >= this.packetCount) {
+                throw new PacketFormatException("Split packet has an invalid packet number.");
+            }
+
+            if(this.received[packetNumber]) {
+                return false;
+            }
+
+            if(packetNumber == this.packetCount - 1) {
+                if(this.data == null) {
+                    this.lastPacket = new byte[length];
+                    buffer.get(this.lastPacket);
+                } else {
+                    if(length > this.packetSize) {
+                        throw new PacketFormatException("Last split packet is bigger than the others.");
+                    }
+                    buffer.get(this.data, packetNumber * this.packetSize, length);
+                }
+                this.lastPacketSize = length;
+            } else {
+                if(this.data == null) {
+                    this.packetSize = length;
+                    this.data = new byte[this.packetCount * length];
+                    if(this.lastPacket != null) {
+                        if(this.lastPacketSize > length) {
+                            throw new PacketFormatException("Last split packet is bigger than the others.");
+                        }
+                        System.arraycopy(this.lastPacket, 0, this.data, (this.packetCount - 1) * length, this.lastPacketSize);
+                        this.lastPacket = null;
+                    }
+                } else if(length != this.packetSize) {
+                    throw new PacketFormatException("Split packets of the same reply differ in size.");
+                }
+                buffer.get(this.data, packetNumber * this.packetSize, length);
+            }
+
+            this.received[packetNumber] = true;
+            this.packetsReceived ++;
+
+            return this.packetsReceived == this.packetCount;
+        }
+
+        /**
+         * Creates the packet object from the complete data of this reply
+         *
+         * @return The reassembled reply
+         * @throws SteamCondenserException if the reply cannot be reassembled
+         */
+        SteamPacket reassemble() throws SteamCondenserException {
+            byte[] packetData = this.data;
+            if(packetData == null) {
+                packetData = this.lastPacket;
+            }
+            int length = (this.packetCount - 1) * this.packetSize + this.lastPacketSize;
+
+            return SteamPacketFactory.reassemblePacket(packetData, length,
+                    this.isCompressed, this.uncompressedSize, this.packetChecksum);
+        }
+    }
+
+}
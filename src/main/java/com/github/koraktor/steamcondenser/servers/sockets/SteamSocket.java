@@ -11,22 +11,34 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
 import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
 
 /**
  * This abstract class implements common functionality for sockets used to
  * connect to game and master servers
+ * <p>
+ * Each socket waits for replies using a selector of its own that is opened
+ * on first use and kept until the socket is closed. The timeout can be set
+ * for a single socket, otherwise the global timeout is used. So many sockets
+ * can be used at the same time, e.g. one per server and thread.
+ * <p>
+ * The timeout bounds the time to receive a complete reply, even if it is
+ * split into several packets. Additionally a deadline can be set to bound
+ * the time of a sequence of requests, e.g. a challenge request followed by
+ * the actual query.
  *
  * @author Sebastian Staudt
  */
@@ -34,9 +46,36 @@ abstract public class SteamSocket {
 
     protected static int timeout = 1000;
 
+    private static BufferPool bufferPool = new BufferPool();
+
     protected ByteBuffer buffer;
+
+    private boolean bufferBorrowed;
     protected SelectableChannel channel;
+    private long deadline;
     protected InetSocketAddress remoteSocket;
+    private long replyDeadline;
+    private long replyTime;
+    private Selector selector;
+    private int socketTimeout;
+
+    /**
+     * Returns the pool the sockets borrow their receive buffers from
+     *
+     * @return The buffer pool used by all sockets
+     */
+    public static BufferPool getBufferPool() {
+        return SteamSocket.bufferPool;
+    }
+
+    /**
+     * Sets the pool the sockets borrow their receive buffers from
+     *
+     * @param bufferPool The buffer pool to use for all sockets
+     */
+    public static void setBufferPool(BufferPool bufferPool) {
+        SteamSocket.bufferPool = bufferPool;
+    }
 
     /**
      * Sets the timeout for socket operations
@@ -50,6 +89,123 @@ abstract public class SteamSocket {
         SteamSocket.timeout = timeout;
     }
 
+    /**
+     * Returns the earlier of the given deadlines
+     *
+     * @param deadline A value of {@link System#nanoTime} or <code>0</code>
+     *        for no deadline
+     * @param other Another value of {@link System#nanoTime} or
+     *        <code>0</code> for no deadline
+     * @return The earlier deadline or <code>0</code> if there is none
+     */
+    public static long getEarliestDeadline(long deadline, long other) {
+        if(deadline == 0 || (other != 0 && other - deadline < 0)) {
+            return other;
+        }
+
+        return deadline;
+    }
+
+    /**
+     * Returns the given timeout shortened to the given deadline
+     *
+     * @param timeout The amount of milliseconds to wait at most
+     * @param deadline The value of {@link System#nanoTime} after which
+     *        waiting is pointless or <code>0</code> if there is no deadline
+     * @return The amount of milliseconds to wait. Zero or less if the
+     *         deadline has already been reached.
+     */
+    static long getRemainingTimeout(long timeout, long deadline) {
+        if(deadline != 0) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime() + 999999);
+            timeout = Math.min(timeout, remaining);
+        }
+
+        return timeout;
+    }
+
+    /**
+     * Returns the deadline for operations of this socket
+     *
+     * @return The value of {@link System#nanoTime} after which operations of
+     *         this socket time out or <code>0</code> if there is no deadline
+     * @see #setDeadline
+     */
+    public long getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * Sets a deadline for all following operations of this socket
+     * <p>
+     * While waiting for a reply, the socket timeout is shortened so that no
+     * operation lasts beyond the deadline. This bounds the total time of
+     * several requests, e.g. a challenge request followed by the actual
+     * query, independent of the number of packets received.
+     *
+     * @param deadline The value of {@link System#nanoTime} after which
+     *        operations of this socket time out or <code>0</code> to remove
+     *        the deadline
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Returns the time to wait for the next packet
+     * <p>
+     * This is the socket timeout unless a reply or the socket has a deadline
+     * that will be reached earlier.
+     *
+     * @return The amount of milliseconds to wait for the next packet. Zero
+     *         or less if the deadline has already been reached.
+     * @see #getSocketTimeout
+     * @see #setDeadline
+     * @see #startReply
+     */
+    protected long getRemainingTimeout() {
+        long deadline = (this.replyDeadline != 0) ? this.replyDeadline : this.deadline;
+
+        return SteamSocket.getRemainingTimeout(this.getSocketTimeout(), deadline);
+    }
+
+    /**
+     * Returns the time the first packet of the last reply has been received
+     * <p>
+     * This is taken as soon as the socket is ready for reading, i.e. before
+     * the packet is read, reassembled or parsed. So it is suitable for
+     * measuring the round trip time of a request.
+     *
+     * @return The value of {@link System#nanoTime} when the first packet of
+     *         the last reply became available or <code>0</code> if no reply
+     *         has been received yet
+     */
+    public long getReplyTime() {
+        return this.replyTime;
+    }
+
+    /**
+     * Returns the timeout for operations of this socket
+     *
+     * @return The amount of milliseconds before a request of this socket
+     *         times out
+     * @see #setSocketTimeout
+     */
+    public int getSocketTimeout() {
+        return (this.socketTimeout > 0) ? this.socketTimeout : SteamSocket.timeout;
+    }
+
+    /**
+     * Sets the timeout for operations of this socket only
+     *
+     * @param timeout The amount of milliseconds before a request of this
+     *        socket times out or <code>0</code> to use the global timeout
+     * @see #setTimeout
+     */
+    public void setSocketTimeout(int timeout) {
+        this.socketTimeout = timeout;
+    }
+
     /**
      * Creates a new UDP socket to communicate with the server on the given IP
      * address and port
@@ -58,9 +214,6 @@ abstract public class SteamSocket {
      * @param portNumber The port the server is listening on
      */
     protected SteamSocket(InetAddress ipAddress, int portNumber) {
-        this.buffer = ByteBuffer.allocate(1400);
-        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
-
         this.remoteSocket = new InetSocketAddress(ipAddress, portNumber);
     }
 
@@ -90,6 +243,39 @@ abstract public class SteamSocket {
     abstract public SteamPacket getReply()
             throws SteamCondenserException, TimeoutException;
 
+    /**
+     * Marks the start of receiving a reply
+     * <p>
+     * Until {@link #finishReply} is called, all packets received must arrive
+     * within a single socket timeout starting now, so a reply split into
+     * several packets cannot take longer than one timeout.
+     *
+     * @see #getRemainingTimeout
+     */
+    protected void startReply() {
+        long replyDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.getSocketTimeout());
+
+        this.replyDeadline = SteamSocket.getEarliestDeadline(this.deadline, replyDeadline);
+        this.replyTime = 0;
+    }
+
+    /**
+     * Marks the end of receiving a reply
+     *
+     * @see #startReply
+     */
+    protected void finishReply() {
+        this.replyDeadline = 0;
+    }
+
+    /**
+     * Returns the protocol of this socket used to report metrics
+     *
+     * @return The protocol of this socket
+     * @see Metrics
+     */
+    protected abstract Protocol getProtocol();
+
     /**
      * Reads the given amount of data from the socket and wraps it into the
      * buffer
@@ -103,21 +289,31 @@ abstract public class SteamSocket {
      */
     protected int receivePacket(int bufferLength)
             throws SteamCondenserException, TimeoutException {
-        Selector selector = null;
         try {
-            selector = Selector.open();
-            this.channel.register(selector, SelectionKey.OP_READ);
+            if(this.selector == null) {
+                this.selector = Selector.open();
+                this.channel.register(this.selector, SelectionKey.OP_READ);
+            }
 
-            if(selector.select(SteamSocket.timeout) == 0) {
+            long timeout = this.getRemainingTimeout();
+            int selected = (timeout > 0) ? this.selector.select(timeout) : this.selector.selectNow();
+            this.selector.selectedKeys().clear();
+            if(selected == 0) {
+                Metrics.getRecorder().requestTimedOut(this.getProtocol());
                 throw new TimeoutException();
             }
+            if(this.replyTime == 0) {
+                this.replyTime = System.nanoTime();
+            }
 
             int bytesRead;
 
-            if (bufferLength == 0) {
+            if (bufferLength == 0 && this.buffer != null) {
                 this.buffer.clear();
             } else {
-                this.buffer = ByteBuffer.allocate(bufferLength);
+                this.releaseBuffer();
+                this.buffer = SteamSocket.bufferPool.acquire(bufferLength == 0 ? 1400 : bufferLength);
+                this.bufferBorrowed = true;
             }
 
             bytesRead = ((ReadableByteChannel) this.channel).read(this.buffer);
@@ -127,6 +323,7 @@ abstract public class SteamSocket {
 
             this.buffer.rewind();
             this.buffer.limit(bytesRead);
+            Metrics.getRecorder().packetReceived(this.getProtocol(), bytesRead);
 
             return bytesRead;
         } catch(IOException e) {
@@ -134,14 +331,22 @@ abstract public class SteamSocket {
                 throw new ConnectionResetException();
             }
             throw new SteamCondenserException(e.getMessage(), e);
-        } finally {
-            if(selector != null) {
-                try {
-                    selector.close();
-                } catch(IOException e) {
-                    throw new SteamCondenserException(e.getMessage(), e);
-                }
-            }
+        }
+    }
+
+    /**
+     * Returns the receive buffer borrowed by this socket to the buffer pool
+     * <p>
+     * This should be called as soon as a reply has been read completely. The
+     * buffer must not be used afterwards.
+     *
+     * @see BufferPool#release
+     */
+    protected void releaseBuffer() {
+        if(this.bufferBorrowed) {
+            SteamSocket.bufferPool.release(this.buffer);
+            this.buffer = null;
+            this.bufferBorrowed = false;
         }
     }
 
@@ -161,6 +366,15 @@ abstract public class SteamSocket {
      * @see SelectableChannel#close
      */
     public void close() {
+        this.releaseBuffer();
+
+        try {
+            if(this.selector != null) {
+                this.selector.close();
+                this.selector = null;
+            }
+        } catch(IOException e) {}
+
         try {
             if (this.channel.isOpen()) {
                 this.channel.close();
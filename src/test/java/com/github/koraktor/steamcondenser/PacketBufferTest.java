@@ -0,0 +1,59 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class PacketBufferTest {
+
+    @Test
+    public void testGetString() {
+        PacketBuffer buffer = new PacketBuffer(new byte[] { 'a', 'b', 0x0, 0x0, 'c' });
+
+        assertEquals("ab", buffer.getString());
+        assertEquals("", buffer.getString());
+        assertNull(buffer.getString());
+        assertEquals(1, buffer.remaining());
+    }
+
+    @Test
+    public void testGetStringFromSlice() {
+        PacketBuffer buffer = new PacketBuffer(new byte[] { 'x', 0x0, 'a', 0x0, 'b', 0x0 }, 2, 3);
+
+        assertEquals("a", buffer.getString());
+        assertNull(buffer.getString());
+    }
+
+    @Test
+    public void testGetStringUtf8() {
+        PacketBuffer buffer = new PacketBuffer(new byte[] { (byte) 0xC3, (byte) 0xA4, (byte) 0xE2, (byte) 0x82, (byte) 0xAC, 0x0 });
+
+        assertEquals("ä€", buffer.getString());
+    }
+
+    @Test
+    public void testGetCachedString() {
+        PacketBuffer buffer1 = new PacketBuffer("de_dust2\0cp_badlands\0".getBytes());
+        PacketBuffer buffer2 = new PacketBuffer("\0de_dust2\0".getBytes(), 1, 9);
+
+        String mapName = buffer1.getCachedString();
+
+        assertEquals("de_dust2", mapName);
+        assertEquals("cp_badlands", buffer1.getCachedString());
+        assertSame(mapName, buffer2.getCachedString());
+        assertNull(buffer1.getCachedString());
+    }
+
+}
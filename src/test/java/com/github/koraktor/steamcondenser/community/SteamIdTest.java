@@ -187,7 +187,7 @@ public class SteamIdTest {
             thenReturn("{ \"response\": { \"success\": 42 } }");
 
         Long steamID64 = SteamId.resolveVanityUrl("unknown");
-        assertThat(steamID64, is(eq(null)));
+        assertThat(steamID64, is(eq((Long) null)));
     }
 
 }
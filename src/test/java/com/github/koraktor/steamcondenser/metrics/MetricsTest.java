@@ -0,0 +1,43 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.metrics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class MetricsTest {
+
+    @After
+    public void teardown() {
+        Metrics.setRecorder(null);
+    }
+
+    @Test
+    public void testDefaultRecorder() {
+        assertSame(MetricsRecorder.NONE, Metrics.getRecorder());
+    }
+
+    @Test
+    public void testSetRecorder() {
+        MetricsRecorder recorder = mock(MetricsRecorder.class);
+        Metrics.setRecorder(recorder);
+
+        assertSame(recorder, Metrics.getRecorder());
+
+        Metrics.setRecorder(null);
+
+        assertSame(MetricsRecorder.NONE, Metrics.getRecorder());
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ChallengeCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InetSocketAddress address1 = new InetSocketAddress(InetAddress.getLoopbackAddress(), 27015);
+
+    private InetSocketAddress address2 = new InetSocketAddress(InetAddress.getLoopbackAddress(), 27016);
+
+    @Test
+    public void testPutAndInvalidate() {
+        ChallengeCache cache = new ChallengeCache();
+        cache.put(this.address1, 1234);
+        cache.put(this.address2, 0xFFFFFFFE);
+
+        assertEquals(Integer.valueOf(1234), cache.get(this.address1));
+        assertEquals(Integer.valueOf(0xFFFFFFFE), cache.get(this.address2));
+
+        cache.put(this.address1, 5678);
+        assertEquals(Integer.valueOf(5678), cache.get(this.address1));
+
+        cache.invalidate(this.address1);
+        assertNull(cache.get(this.address1));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        ChallengeCache cache = new ChallengeCache(0, TimeUnit.MILLISECONDS);
+        cache.put(this.address1, 1234);
+
+        assertNull(cache.get(this.address1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = new File(this.folder.getRoot(), "challenges");
+        ChallengeCache cache = new ChallengeCache();
+        cache.put(this.address1, 1234);
+        cache.put(this.address2, 0xFFFFFFFE);
+
+        assertEquals(2, cache.save(file));
+        assertEquals(2, cache.save(file));
+
+        ChallengeCache loadedCache = new ChallengeCache();
+        assertEquals(2, loadedCache.load(file));
+        assertEquals(Integer.valueOf(1234), loadedCache.get(this.address1));
+        assertEquals(Integer.valueOf(0xFFFFFFFE), loadedCache.get(this.address2));
+    }
+
+}
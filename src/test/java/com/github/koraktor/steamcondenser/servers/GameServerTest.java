@@ -14,16 +14,21 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
-import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.github.koraktor.steamcondenser.PacketBuffer;
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
 import com.github.koraktor.steamcondenser.servers.packets.A2S_INFO_Packet;
 import com.github.koraktor.steamcondenser.servers.packets.A2S_PLAYER_Packet;
@@ -37,15 +42,19 @@ import com.github.koraktor.steamcondenser.servers.sockets.QuerySocket;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.hamcrest.number.OrderingComparison.lessThan;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.spy;
 import static org.powermock.api.mockito.PowerMockito.when;
 
@@ -53,7 +62,6 @@ import static org.powermock.api.mockito.PowerMockito.when;
  * @author Sebastian Staudt
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(GameServer.class)
 public class GameServerTest {
 
     private GameServer server;
@@ -62,6 +70,9 @@ public class GameServerTest {
 
     @Before
     public void setup() throws Exception {
+        GameServer.setChallengeCache(new ChallengeCache());
+        GameServer.setPlayerIndex(null);
+        GameServer.setQueryExecutor(null);
         this.server = spy(new GenericGameServer());
         this.socket = mock(QuerySocket.class);
         this.server.socket = this.socket;
@@ -84,6 +95,85 @@ public class GameServerTest {
         assertEquals(packet, this.server.getReply());
     }
 
+    @Test
+    public void testSendRequestAsyncWithExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        GameServer.setQueryExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        SteamPacket packet = mock(SteamPacket.class);
+        SteamPacket reply = mock(SteamPacket.class);
+        when(this.socket.getReply()).thenReturn(reply);
+
+        this.server.setSocketTimeout(500);
+        CompletableFuture<SteamPacket> future = this.server.sendRequestAsync(packet);
+
+        assertEquals(1, tasks.size());
+        tasks.get(0).run();
+        assertSame(reply, future.get());
+        verify(this.socket).send(packet);
+        verify(this.socket, times(2)).setSocketTimeout(500);
+    }
+
+    @Test
+    public void testSendRequestAsyncWithDefaultExecutor() throws Exception {
+        final List<String> threads = new ArrayList<String>();
+        SteamPacket reply = mock(SteamPacket.class);
+        doAnswer(new Answer<SteamPacket>() {
+            public SteamPacket answer(InvocationOnMock invocationOnMock) throws Throwable {
+                threads.add(Thread.currentThread().getName());
+                return null;
+            }
+        }).when(this.socket).send(any(SteamPacket.class));
+        when(this.socket.getReply()).thenReturn(reply);
+
+        assertSame(reply, this.server.sendRequestAsync(mock(SteamPacket.class)).get());
+        assertEquals("steam-condenser-query", threads.get(0));
+    }
+
+    @Test
+    public void testSendRequestAsyncWithQueryTimeout() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        GameServer.setQueryExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+        long previousDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        when(this.socket.getDeadline()).thenReturn(previousDeadline);
+
+        this.server.setQueryTimeout(100);
+        long start = System.nanoTime();
+        this.server.sendRequestAsync(mock(SteamPacket.class));
+        tasks.get(0).run();
+
+        ArgumentCaptor<Long> deadlines = ArgumentCaptor.forClass(Long.class);
+        verify(this.socket, times(2)).setDeadline(deadlines.capture());
+        long deadline = deadlines.getAllValues().get(0);
+        assertThat(deadline - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100))));
+        assertThat(deadline - System.nanoTime(), is(lessThan(TimeUnit.MILLISECONDS.toNanos(100))));
+        assertEquals(previousDeadline, (long) deadlines.getAllValues().get(1));
+    }
+
+    @Test
+    public void testUpdateWithTimeout() throws Exception {
+        long previousDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        when(this.socket.getDeadline()).thenReturn(previousDeadline);
+        doNothing().when(this.server).handleResponseForRequest(GameServer.REQUEST_INFO, true);
+
+        long start = System.nanoTime();
+        this.server.updateServerInfo(50, TimeUnit.MILLISECONDS);
+
+        ArgumentCaptor<Long> deadlines = ArgumentCaptor.forClass(Long.class);
+        verify(this.socket, times(2)).setDeadline(deadlines.capture());
+        long deadline = deadlines.getAllValues().get(0);
+        assertThat(deadline - start, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50))));
+        assertThat(deadline - System.nanoTime(), is(lessThan(TimeUnit.MILLISECONDS.toNanos(50))));
+        assertEquals(previousDeadline, (long) deadlines.getAllValues().get(1));
+    }
+
     @Test
     public void testUpdatePing() throws Exception {
         doAnswer(new Answer<SteamPacket>() {
@@ -99,6 +189,84 @@ public class GameServerTest {
         assertThat(this.server.getPing(), is(greaterThanOrEqualTo(50)));
     }
 
+    @Test
+    public void testUpdatePingUsesReplyTime() throws Exception {
+        final long[] replyTime = new long[1];
+        doAnswer(new Answer<SteamPacket>() {
+            public SteamPacket answer(InvocationOnMock invocationOnMock) throws Throwable {
+                replyTime[0] = System.nanoTime();
+                Thread.sleep(50);
+                return null;
+            }
+        }).when(this.server).getReply();
+        when(this.socket.getReplyTime()).thenAnswer(new Answer<Long>() {
+            public Long answer(InvocationOnMock invocationOnMock) throws Throwable {
+                return replyTime[0];
+            }
+        });
+
+        this.server.updatePing();
+
+        assertTrue(this.server.isPingMeasured());
+        assertThat(this.server.getPing(), is(lessThan(50)));
+        assertThat(this.server.getPing(TimeUnit.MILLISECONDS), is(lessThan(50L)));
+        verify(this.server, times(1)).updatePing();
+    }
+
+    @Test
+    public void testPingMaxAge() throws Exception {
+        doAnswer(new Answer<SteamPacket>() {
+            public SteamPacket answer(InvocationOnMock invocationOnMock) throws Throwable {
+                return null;
+            }
+        }).when(this.server).getReply();
+
+        this.server.setPingMaxAge(20);
+        assertFalse(this.server.isPingMeasured());
+        this.server.getPing();
+        this.server.getPing();
+
+        verify(this.server, times(1)).updatePing();
+
+        Thread.sleep(30);
+        this.server.getPing();
+
+        verify(this.server, times(2)).updatePing();
+    }
+
+    @Test
+    public void testUpdatePingLocksSocket() throws Exception {
+        final boolean[] locked = new boolean[1];
+        doAnswer(new Answer<SteamPacket>() {
+            public SteamPacket answer(InvocationOnMock invocationOnMock) throws Throwable {
+                locked[0] = server.socketLock.isHeldByCurrentThread();
+                return null;
+            }
+        }).when(this.server).getReply();
+
+        this.server.updatePing();
+
+        assertTrue(locked[0]);
+        assertFalse(this.server.socketLock.isLocked());
+    }
+
+    @Test
+    public void testUpdatePingAsyncExcludesQueueTime() throws Exception {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        GameServer.setQueryExecutor(new Executor() {
+            public void execute(Runnable task) {
+                tasks.add(task);
+            }
+        });
+
+        CompletableFuture<Integer> ping = this.server.updatePingAsync();
+        Thread.sleep(50);
+        tasks.get(0).run();
+
+        assertThat(ping.get(), is(lessThan(50)));
+        verify(this.socket).send(any(A2S_INFO_Packet.class));
+    }
+
     @Test
     public void testUpdateChallengeNumber() throws Exception {
         doNothing().when(this.server).handleResponseForRequest(GameServer.REQUEST_CHALLENGE);
@@ -202,153 +370,100 @@ public class GameServerTest {
     public void testCacheServerInfo() throws Exception {
         doAnswer(new Answer<Object>() {
             public SteamPacket answer(InvocationOnMock invocationOnMock) throws Throwable {
-                ((GameServer) invocationOnMock.getMock()).serverInfo = new HashMap<String, Object>();
+                ((GameServer) invocationOnMock.getMock()).serverInfo = new ServerInfo(new PacketBuffer(new byte[0]), false);
                 return null;
             }
         }).when(this.server).updateServerInfo();
 
-        this.server.getServerInfo();
-        this.server.getServerInfo();
+        this.server.getInfo();
+        this.server.getInfo();
 
         verify(this.server, times(1)).updateServerInfo();
     }
 
     @Test
     public void testPlayerInfoSourceWithPassword() throws Exception {
-        String status = this.readFixture("status_source");
-
-        SteamPlayer someone = mock(SteamPlayer.class);
-        SteamPlayer somebody = mock(SteamPlayer.class);
-        HashMap<String, SteamPlayer> playerMap = new HashMap<String, SteamPlayer>();
-        playerMap.put("someone", someone);
-        playerMap.put("somebody", somebody);
-        this.server.playerHash = playerMap;
-
-        doNothing().when(this.server).handleResponseForRequest(GameServer.REQUEST_PLAYER);
-        when(this.server.rconExec("status")).thenReturn(status);
-
-        HashMap<String, String> someoneData = new HashMap<String, String>();
-        someoneData.put("name", "someone");
-        someoneData.put("userid", "1");
-        someoneData.put("uniqueid", "STEAM_0:0:123456");
-        someoneData.put("score", "10");
-        someoneData.put("time", "3:52");
-        someoneData.put("ping", "12");
-        someoneData.put("loss", "0");
-        someoneData.put("state", "active");
-        HashMap<String, String> somebodyData = new HashMap<String, String>();
-        somebodyData.put("name", "somebody");
-        somebodyData.put("userid", "2");
-        somebodyData.put("uniqueid", "STEAM_0:0:123457");
-        somebodyData.put("score", "3");
-        somebodyData.put("time", "2:42");
-        somebodyData.put("ping", "34");
-        somebodyData.put("loss", "0");
-        somebodyData.put("state", "active");
-
-        mockStatic(GameServer.class);
-        ArrayList<String> attributes = new ArrayList<String>();
-        when(GameServer.getPlayerStatusAttributes("userid name           uniqueid            score connected ping loss state")).thenReturn(attributes);
-        when(GameServer.splitPlayerStatus(attributes, "1 \"someone\"      STEAM_0:0:123456    10    3:52      12   0    active")).thenReturn(someoneData);
-        when(GameServer.splitPlayerStatus(attributes, "2 \"somebody\"     STEAM_0:0:123457    3     2:42      34   0    active")).thenReturn(somebodyData);
+        SteamPlayer someone = new SteamPlayer(1, "someone", 10, 232);
+        SteamPlayer somebody = new SteamPlayer(2, "somebody", 3, 162);
+        this.mockPlayers(someone, somebody);
+        when(this.server.rconExec("status")).thenReturn(this.readFixture("status_source"));
 
         this.server.updatePlayers("password");
 
         verify(this.server).rconAuth("password");
-        verify(someone).addInformation(someoneData);
-        verify(somebody).addInformation(somebodyData);
+        this.assertSourcePlayers(someone, somebody);
     }
 
     @Test
     public void testPlayerInfoSourceAuthenticated() throws Exception {
-        String status = this.readFixture("status_source");
-
-        SteamPlayer someone = mock(SteamPlayer.class);
-        SteamPlayer somebody = mock(SteamPlayer.class);
-        HashMap<String, SteamPlayer> playerMap = new HashMap<String, SteamPlayer>();
-        playerMap.put("someone", someone);
-        playerMap.put("somebody", somebody);
-        this.server.playerHash = playerMap;
+        SteamPlayer someone = new SteamPlayer(1, "someone", 10, 232);
+        SteamPlayer somebody = new SteamPlayer(2, "somebody", 3, 162);
+        this.mockPlayers(someone, somebody);
         this.server.rconAuthenticated = true;
-
-        doNothing().when(this.server).handleResponseForRequest(GameServer.REQUEST_PLAYER);
-        when(this.server.rconExec("status")).thenReturn(status);
-
-        HashMap<String, String> someoneData = new HashMap<String, String>();
-        someoneData.put("name", "someone");
-        someoneData.put("userid", "1");
-        someoneData.put("uniqueid", "STEAM_0:0:123456");
-        someoneData.put("score", "10");
-        someoneData.put("time", "3:52");
-        someoneData.put("ping", "12");
-        someoneData.put("loss", "0");
-        someoneData.put("state", "active");
-        HashMap<String, String> somebodyData = new HashMap<String, String>();
-        somebodyData.put("name", "somebody");
-        somebodyData.put("userid", "2");
-        somebodyData.put("uniqueid", "STEAM_0:0:123457");
-        somebodyData.put("score", "3");
-        somebodyData.put("time", "2:42");
-        somebodyData.put("ping", "34");
-        somebodyData.put("loss", "0");
-        somebodyData.put("state", "active");
-
-        mockStatic(GameServer.class);
-        ArrayList<String> attributes = new ArrayList<String>();
-        when(GameServer.getPlayerStatusAttributes("userid name           uniqueid            score connected ping loss state")).thenReturn(attributes);
-        when(GameServer.splitPlayerStatus(attributes, "1 \"someone\"      STEAM_0:0:123456    10    3:52      12   0    active")).thenReturn(someoneData);
-        when(GameServer.splitPlayerStatus(attributes, "2 \"somebody\"     STEAM_0:0:123457    3     2:42      34   0    active")).thenReturn(somebodyData);
+        when(this.server.rconExec("status")).thenReturn(this.readFixture("status_source"));
 
         this.server.updatePlayers();
 
-        verify(someone).addInformation(someoneData);
-        verify(somebody).addInformation(somebodyData);
+        verify(this.server, times(0)).rconAuth("password");
+        this.assertSourcePlayers(someone, somebody);
     }
 
     @Test
     public void testPlayerInfoGoldSrcWithPassword() throws Exception {
-        String status = this.readFixture("status_goldsrc");
-
-        SteamPlayer someone = mock(SteamPlayer.class);
-        SteamPlayer somebody = mock(SteamPlayer.class);
-        HashMap<String, SteamPlayer> playerMap = new HashMap<String, SteamPlayer>();
-        playerMap.put("someone", someone);
-        playerMap.put("somebody", somebody);
-        this.server.playerHash = playerMap;
-
-        doNothing().when(this.server).handleResponseForRequest(GameServer.REQUEST_PLAYER);
-        when(this.server.rconExec("status")).thenReturn(status);
-
-        HashMap<String, String> someoneData = new HashMap<String, String>();
-        someoneData.put("name", "someone");
-        someoneData.put("userid", "1");
-        someoneData.put("uniqueid", "STEAM_0:0:123456");
-        someoneData.put("score", "10");
-        someoneData.put("time", "3:52");
-        someoneData.put("ping", "12");
-        someoneData.put("loss", "0");
-        someoneData.put("adr", "0");
-        HashMap<String, String> somebodyData = new HashMap<String, String>();
-        somebodyData.put("name", "somebody");
-        somebodyData.put("userid", "2");
-        somebodyData.put("uniqueid", "STEAM_0:0:123457");
-        somebodyData.put("score", "3");
-        somebodyData.put("time", "2:42");
-        somebodyData.put("ping", "34");
-        somebodyData.put("loss", "0");
-        somebodyData.put("adr", "0");
-
-        mockStatic(GameServer.class);
-        ArrayList<String> attributes = new ArrayList<String>();
-        when(GameServer.getPlayerStatusAttributes("name userid uniqueid frag time ping loss adr")).thenReturn(attributes);
-        when(GameServer.splitPlayerStatus(attributes, "1   \"someone\" 1 STEAM_0:0:123456 10 3:52 12 0 0")).thenReturn(someoneData);
-        when(GameServer.splitPlayerStatus(attributes, "2   \"somebody\" 2 STEAM_0:0:123457 3 2:42 34 0 0")).thenReturn(somebodyData);
+        SteamPlayer someone = new SteamPlayer(1, "someone", 10, 232);
+        SteamPlayer somebody = new SteamPlayer(2, "somebody", 3, 162);
+        this.mockPlayers(someone, somebody);
+        when(this.server.rconExec("status")).thenReturn(this.readFixture("status_goldsrc"));
 
         this.server.updatePlayers("password");
 
         verify(this.server).rconAuth("password");
-        verify(someone).addInformation(someoneData);
-        verify(somebody).addInformation(somebodyData);
+        assertTrue(someone.isExtended());
+        assertEquals(1, someone.getConnectionId());
+        assertEquals("STEAM_0:0:123456", someone.getSteamId());
+        assertEquals(12, someone.getPing());
+        assertEquals("0", someone.getIpAddress());
+        assertNull(someone.getState());
+        assertEquals(2, somebody.getConnectionId());
+        assertEquals("STEAM_0:0:123457", somebody.getSteamId());
+        assertEquals(34, somebody.getPing());
+    }
+
+    @Test
+    public void testPlayerDiff() throws Exception {
+        SteamPlayer someone = new SteamPlayer(1, "someone", 10, 232);
+        SteamPlayer somebody = new SteamPlayer(2, "somebody", 3, 162);
+        this.mockPlayers(someone);
+        this.server.updatePlayers();
+
+        assertEquals(1, this.server.getPlayerDiff().getJoined().size());
+
+        SteamPlayer someoneLater = new SteamPlayer(1, "someone", 12, 240);
+        this.mockPlayers(someoneLater, somebody);
+        this.server.updatePlayers();
+
+        PlayerDiff diff = this.server.getPlayerDiff();
+        assertFalse(diff.isEmpty());
+        assertEquals(1, diff.getJoined().size());
+        assertSame(somebody, diff.getJoined().get(0));
+        assertSame(someoneLater, diff.getChanged().get(0));
+        assertTrue(diff.getLeft().isEmpty());
+    }
+
+    @Test
+    public void testPlayerIndex() throws Exception {
+        PlayerIndex index = new PlayerIndex();
+        GameServer.setPlayerIndex(index);
+        this.mockPlayers(new SteamPlayer(1, "someone", 10, 232));
+
+        this.server.updatePlayers();
+
+        assertTrue(index.getServersByName("someone").contains(this.server));
+
+        this.mockPlayers();
+        this.server.updatePlayers();
+
+        assertTrue(index.getServersByName("someone").isEmpty());
     }
 
     @Test
@@ -366,14 +481,13 @@ public class GameServerTest {
     @Test
     public void testHandleInfoRequests() throws Exception {
         S2A_INFO2_Packet packet = mock(S2A_INFO2_Packet.class);
-        HashMap<String, Object> infoMap = new HashMap<String, Object>();
-        infoMap.put("test", "test");
-        when(packet.getInfo()).thenReturn(infoMap);
+        ServerInfo serverInfo = new ServerInfo(new PacketBuffer(new byte[0]), false);
+        when(packet.getServerInfo()).thenReturn(serverInfo);
         when(server.getReply()).thenReturn(packet);
 
         this.server.handleResponseForRequest(GameServer.REQUEST_INFO);
 
-        assertEquals("test", this.server.serverInfo.get("test"));
+        assertSame(serverInfo, this.server.serverInfo);
         verify(this.server).sendRequest(any(A2S_INFO_Packet.class));
     }
 
@@ -409,9 +523,8 @@ public class GameServerTest {
     @Test
     public void testHandleUnexpectedResponses() throws Exception {
         S2A_INFO2_Packet packet1 = mock(S2A_INFO2_Packet.class);
-        HashMap<String, Object> infoMap = new HashMap<String, Object>();
-        infoMap.put("test", "test");
-        when(packet1.getInfo()).thenReturn(infoMap);
+        ServerInfo serverInfo = new ServerInfo(new PacketBuffer(new byte[0]), false);
+        when(packet1.getServerInfo()).thenReturn(serverInfo);
         SteamPlayer player = mock(SteamPlayer.class);
         S2A_PLAYER_Packet packet2 = mock(S2A_PLAYER_Packet.class);
         HashMap<String, SteamPlayer> playerMap = new HashMap<String, SteamPlayer>();
@@ -421,11 +534,38 @@ public class GameServerTest {
 
         this.server.handleResponseForRequest(GameServer.REQUEST_PLAYER);
 
-        assertEquals("test", this.server.serverInfo.get("test"));
+        assertSame(serverInfo, this.server.serverInfo);
         assertEquals(player, this.server.playerHash.get("test"));
         verify(this.server, times(2)).sendRequest(any(A2S_PLAYER_Packet.class));
     }
 
+    private void assertSourcePlayers(SteamPlayer someone, SteamPlayer somebody) {
+        assertTrue(someone.isExtended());
+        assertEquals(1, someone.getConnectionId());
+        assertEquals("STEAM_0:0:123456", someone.getSteamId());
+        assertEquals(12, someone.getPing());
+        assertEquals(0, someone.getLoss());
+        assertEquals("active", someone.getState());
+        assertTrue(somebody.isExtended());
+        assertEquals(2, somebody.getConnectionId());
+        assertEquals("STEAM_0:0:123457", somebody.getSteamId());
+        assertEquals(34, somebody.getPing());
+        assertEquals("active", somebody.getState());
+    }
+
+    private void mockPlayers(final SteamPlayer... players) throws Exception {
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                HashMap<String, SteamPlayer> playerMap = new HashMap<String, SteamPlayer>();
+                for(SteamPlayer player : players) {
+                    playerMap.put(player.getName(), player);
+                }
+                ((GameServer) invocationOnMock.getMock()).playerHash = playerMap;
+                return null;
+            }
+        }).when(this.server).handleResponseForRequest(GameServer.REQUEST_PLAYER);
+    }
+
     private String readFixture(String fixture) throws IOException {
         BufferedReader reader = new BufferedReader(new InputStreamReader(this.getClass().getResourceAsStream(fixture)));
         String result = "";
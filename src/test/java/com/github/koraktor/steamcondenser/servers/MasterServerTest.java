@@ -9,12 +9,17 @@ package com.github.koraktor.steamcondenser.servers;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
-import java.util.Vector;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +33,7 @@ import com.github.koraktor.steamcondenser.servers.sockets.MasterServerSocket;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.argThat;
@@ -56,16 +62,9 @@ public class MasterServerTest {
     @Test
     public void testGetServers() throws Exception {
         M2A_SERVER_BATCH_Paket packet1 = mock(M2A_SERVER_BATCH_Paket.class);
-        Vector<String> servers1 = new Vector<String>();
-        servers1.add("127.0.0.1:27015");
-        servers1.add("127.0.0.2:27015");
-        servers1.add("127.0.0.3:27015");
-        when(packet1.getServers()).thenReturn(servers1);
+        when(packet1.getServerAddresses()).thenReturn(this.packedAddresses("127.0.0.1:27015", "127.0.0.2:27015", "127.0.0.3:27015"));
         M2A_SERVER_BATCH_Paket packet2 = mock(M2A_SERVER_BATCH_Paket.class);
-        Vector<String> servers2 = new Vector<String>();
-        servers2.add("127.0.0.4:27015");
-        servers2.add("0.0.0.0:0");
-        when(packet2.getServers()).thenReturn(servers2);
+        when(packet2.getServerAddresses()).thenReturn(this.packedAddresses("127.0.0.4:27015", "0.0.0.0:0"));
         when(this.server.socket.getReply()).thenReturn(packet1).thenReturn(packet2);
 
         Set<InetSocketAddress> servers = new HashSet<>();
@@ -105,11 +104,7 @@ public class MasterServerTest {
         MasterServer.setRetries(1);
 
         M2A_SERVER_BATCH_Paket packet1 = mock(M2A_SERVER_BATCH_Paket.class);
-        Vector<String> servers1 = new Vector<String>();
-        servers1.add("127.0.0.1:27015");
-        servers1.add("127.0.0.2:27015");
-        servers1.add("127.0.0.3:27015");
-        when(packet1.getServers()).thenReturn(servers1);
+        when(packet1.getServerAddresses()).thenReturn(this.packedAddresses("127.0.0.1:27015", "127.0.0.2:27015", "127.0.0.3:27015"));
         when(this.server.socket.getReply()).thenReturn(packet1).thenThrow(new TimeoutException());
 
         Set<InetSocketAddress> servers = new HashSet<>();
@@ -146,16 +141,9 @@ public class MasterServerTest {
     @Test
     public void testGetServersSwapIp() throws Exception {
         M2A_SERVER_BATCH_Paket packet1 = mock(M2A_SERVER_BATCH_Paket.class);
-        Vector<String> servers1 = new Vector<String>();
-        servers1.add("127.0.0.1:27015");
-        servers1.add("127.0.0.2:27015");
-        servers1.add("127.0.0.3:27015");
-        when(packet1.getServers()).thenReturn(servers1);
+        when(packet1.getServerAddresses()).thenReturn(this.packedAddresses("127.0.0.1:27015", "127.0.0.2:27015", "127.0.0.3:27015"));
         M2A_SERVER_BATCH_Paket packet2 = mock(M2A_SERVER_BATCH_Paket.class);
-        Vector<String> servers2 = new Vector<String>();
-        servers2.add("127.0.0.4:27015");
-        servers2.add("0.0.0.0:0");
-        when(packet2.getServers()).thenReturn(servers2);
+        when(packet2.getServerAddresses()).thenReturn(this.packedAddresses("127.0.0.4:27015", "0.0.0.0:0"));
         when(this.server.socket.getReply())
             .thenReturn(packet1)
             .thenThrow(new TimeoutException())
@@ -198,6 +186,41 @@ public class MasterServerTest {
         }));
     }
 
+    @Test
+    public void testStreamServers() throws Exception {
+        M2A_SERVER_BATCH_Paket packet1 = mock(M2A_SERVER_BATCH_Paket.class);
+        when(packet1.getServerAddresses()).thenReturn(this.packedAddresses("127.0.0.1:27015", "127.0.0.2:27016"));
+        M2A_SERVER_BATCH_Paket packet2 = mock(M2A_SERVER_BATCH_Paket.class);
+        when(packet2.getServerAddresses()).thenReturn(this.packedAddresses("255.0.0.3:27017", "0.0.0.0:0"));
+        when(this.server.socket.getReply()).thenReturn(packet1).thenReturn(packet2);
+
+        final List<long[]> batches = new ArrayList<>();
+        int serverCount = this.server.streamServers(MasterServer.REGION_EUROPE, "filter", false, new ServerBatchListener() {
+            public void batchReceived(long[] servers) {
+                batches.add(servers);
+            }
+        });
+
+        assertEquals(3, serverCount);
+        assertEquals(2, batches.size());
+        assertThat(batches.get(0), is(equalTo(this.packedAddresses("127.0.0.1:27015", "127.0.0.2:27016"))));
+        assertThat(batches.get(1), is(equalTo(this.packedAddresses("255.0.0.3:27017"))));
+        assertThat(ServerAddress.toString(batches.get(1)[0]), is(equalTo("255.0.0.3:27017")));
+        assertThat(ServerAddress.toInetSocketAddress(batches.get(1)[0]), is(equalTo(new InetSocketAddress("255.0.0.3", 27017))));
+
+        verify(this.server.socket).send(argThat(new BaseMatcher<A2M_GET_SERVERS_BATCH2_Paket>() {
+            public boolean matches(Object o) {
+                if(!(o instanceof A2M_GET_SERVERS_BATCH2_Paket)) {
+                    return false;
+                }
+                A2M_GET_SERVERS_BATCH2_Paket packet = (A2M_GET_SERVERS_BATCH2_Paket) o;
+                return Arrays.equals(packet.getBytes(), "\u0031\u0003127.0.0.2:27016\0filter\0".getBytes());
+            }
+
+            public void describeTo(Description description) {}
+        }));
+    }
+
     @Test
     public void testGetServersTimeout() throws Exception {
         int retries = new Random().nextInt(4) + 1;
@@ -223,4 +246,72 @@ public class MasterServerTest {
         }));
     }
 
+    @Test
+    public void testCrawl() throws Exception {
+        final DatagramChannel master = DatagramChannel.open();
+        master.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        Thread masterThread = new Thread() {
+            public void run() {
+                try {
+                    ByteBuffer request = ByteBuffer.allocate(1400);
+                    while(true) {
+                        request.clear();
+                        SocketAddress client = master.receive(request);
+                        String[] data = new String(request.array(), 2, request.position() - 2).split("\0");
+                        ByteBuffer reply = ByteBuffer.allocate(18);
+                        reply.putInt(-1).put((byte) 0x66).put((byte) 0x0A);
+                        byte shard = (byte) (data[1].equals("a") ? 1 : 2);
+                        if(data[0].equals("0.0.0.0:0")) {
+                            reply.put(new byte[] { 10, 0, 0, 1, 0x69, (byte) 0x87 });
+                            reply.put(new byte[] { 10, 0, shard, 2, 0x69, (byte) 0x87 });
+                        } else {
+                            reply.put(new byte[] { 10, 0, shard, 3, 0x69, (byte) 0x87 });
+                            reply.put(new byte[] { 0, 0, 0, 0, 0, 0 });
+                        }
+                        reply.flip();
+                        master.send(reply, client);
+                    }
+                } catch(Exception e) {}
+            }
+        };
+        masterThread.start();
+
+        final AtomicInteger finishedShards = new AtomicInteger();
+        try {
+            MasterServer server = new MasterServer(InetAddress.getLoopbackAddress(), ((InetSocketAddress) master.getLocalAddress()).getPort());
+            Set<InetSocketAddress> servers = server.crawl(new byte[] { MasterServer.REGION_EUROPE }, new String[] { "a", "b" }, 2, false, new CrawlListener() {
+                public void batchReceived(byte regionCode, String filter, int batchSize, int totalServers) {}
+
+                public void shardFailed(byte regionCode, String filter, Exception cause) {}
+
+                public void shardFinished(byte regionCode, String filter, int shardServers) {
+                    assertEquals(3, shardServers);
+                    finishedShards.incrementAndGet();
+                }
+            });
+
+            Set<InetSocketAddress> expected = new HashSet<>();
+            expected.add(new InetSocketAddress("10.0.0.1", 27015));
+            expected.add(new InetSocketAddress("10.0.1.2", 27015));
+            expected.add(new InetSocketAddress("10.0.1.3", 27015));
+            expected.add(new InetSocketAddress("10.0.2.2", 27015));
+            expected.add(new InetSocketAddress("10.0.2.3", 27015));
+
+            assertThat(servers, is(equalTo(expected)));
+            assertEquals(2, finishedShards.get());
+        } finally {
+            master.close();
+        }
+    }
+
+    private long[] packedAddresses(String... servers) throws Exception {
+        long[] addresses = new long[servers.length];
+        for(int i = 0; i < servers.length; i ++) {
+            String[] address = servers[i].split(":");
+            byte[] ipAddress = InetAddress.getByName(address[0]).getAddress();
+            addresses[i] = ServerAddress.pack(ByteBuffer.wrap(ipAddress).getInt(), Integer.parseInt(address[1]));
+        }
+        return addresses;
+    }
+
 }
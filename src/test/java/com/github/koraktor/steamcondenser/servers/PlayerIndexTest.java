@@ -0,0 +1,122 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.SortedMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class PlayerIndexTest {
+
+    private PlayerIndex index;
+
+    private GameServer server1;
+
+    private GameServer server2;
+
+    @Before
+    public void setup() {
+        this.index = new PlayerIndex();
+        this.server1 = mock(GameServer.class);
+        this.server2 = mock(GameServer.class);
+    }
+
+    @Test
+    public void testLookup() {
+        this.index.update(this.server1, players("someone", "somebody"));
+        this.index.update(this.server2, players("someone"));
+
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server1, this.server2)),
+                     this.index.getServersByName("someone"));
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server1)),
+                     this.index.getServersByName("somebody"));
+        assertTrue(this.index.getServersByName("nobody").isEmpty());
+        assertEquals(2, this.index.getNameCount());
+    }
+
+    @Test
+    public void testSteamId() {
+        HashMap<String, SteamPlayer> players = players("someone", "Bot");
+        players.get("someone").addInformation(1, "STEAM_0:0:123456", "active", 12, 0, 0, null);
+        players.get("Bot").addInformation(2, "BOT", "active", 0, 0, 0, null);
+        this.index.update(this.server1, players);
+
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server1)),
+                     this.index.getServersBySteamId("STEAM_0:0:123456"));
+        assertTrue(this.index.getServersBySteamId("BOT").isEmpty());
+
+        this.index.update(this.server1, players("someone"));
+
+        assertTrue(this.index.getServersBySteamId("STEAM_0:0:123456").isEmpty());
+    }
+
+    @Test
+    public void testDuplicateNames() {
+        SteamPlayer first = new SteamPlayer(0, "Player", 0, 0);
+        SteamPlayer second = new SteamPlayer(1, "Player", 0, 0);
+        first.addInformation(1, "STEAM_0:0:123456", "active", 12, 0, 0, null);
+        second.addInformation(2, "STEAM_0:0:654321", "active", 12, 0, 0, null);
+        this.index.update(this.server1, Arrays.asList(first, second));
+
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server1)),
+                     this.index.getServersBySteamId("STEAM_0:0:123456"));
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server1)),
+                     this.index.getServersBySteamId("STEAM_0:0:654321"));
+        assertEquals(1, this.index.getNameCount());
+    }
+
+    @Test
+    public void testIncrementalUpdate() {
+        this.index.update(this.server1, players("someone", "somebody"));
+        this.index.update(this.server2, players("somebody"));
+        this.index.update(this.server1, players("someone", "anyone"));
+
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server2)),
+                     this.index.getServersByName("somebody"));
+        assertEquals(new HashSet<GameServer>(Arrays.asList(this.server1)),
+                     this.index.getServersByName("anyone"));
+
+        this.index.remove(this.server2);
+
+        assertTrue(this.index.getServersByName("somebody").isEmpty());
+        assertEquals(2, this.index.getNameCount());
+    }
+
+    @Test
+    public void testPrefixSearch() {
+        this.index.update(this.server1, players("someone", "somebody", "anyone"));
+        this.index.update(this.server2, players("something"));
+
+        SortedMap<String, ?> result = this.index.findByNamePrefix("some");
+
+        assertEquals(Arrays.asList("somebody", "someone", "something"),
+                     Arrays.asList(result.keySet().toArray()));
+        assertTrue(this.index.findByNamePrefix("x").isEmpty());
+    }
+
+    private static HashMap<String, SteamPlayer> players(String... names) {
+        HashMap<String, SteamPlayer> players = new HashMap<String, SteamPlayer>();
+        for(int i = 0; i < names.length; i ++) {
+            players.put(names[i], new SteamPlayer(i, names[i], 0, 0));
+        }
+
+        return players;
+    }
+
+}
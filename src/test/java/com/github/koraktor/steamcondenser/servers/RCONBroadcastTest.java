@@ -0,0 +1,136 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+import com.github.koraktor.steamcondenser.servers.sockets.RCONSocket;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class RCONBroadcastTest {
+
+    @Test
+    public void testExecute() throws Exception {
+        GameServer server1 = mock(GameServer.class);
+        GameServer server2 = mock(GameServer.class);
+        when(server1.rconExec("status")).thenReturn("ok");
+        when(server2.rconExec("status")).thenThrow(new RCONNoAuthException());
+
+        final List<RCONBroadcast.Result> streamed = new ArrayList<RCONBroadcast.Result>();
+        RCONBroadcast.Report report = new RCONBroadcast(2, 1000).execute(Arrays.asList(server1, server2), null, "status", new Consumer<RCONBroadcast.Result>() {
+            public void accept(RCONBroadcast.Result result) {
+                streamed.add(result);
+            }
+        });
+
+        assertFalse(report.isSuccessful());
+        assertEquals(report.getResults(), streamed);
+        assertEquals("ok", report.getResult(server1).getOutput());
+        assertTrue(report.getResult(server1).isSuccessful());
+        assertNull(report.getResult(server2).getOutput());
+        assertThat(report.getResult(server2).getFailure(), is(instanceOf(RCONNoAuthException.class)));
+        assertEquals(1, report.getFailures().size());
+    }
+
+    @Test
+    public void testAuthenticate() throws Exception {
+        GameServer server1 = mock(GameServer.class);
+        GameServer server2 = mock(GameServer.class);
+        when(server1.isRconAuthenticated()).thenReturn(true);
+        when(server2.rconAuth("secret")).thenReturn(true);
+        when(server1.rconExec("status")).thenReturn("ok");
+        when(server2.rconExec("status")).thenReturn("ok");
+
+        RCONBroadcast.Report report = new RCONBroadcast().execute(Arrays.asList(server1, server2), "secret", "status", null);
+
+        assertTrue(report.isSuccessful());
+        verify(server1, never()).rconAuth("secret");
+        verify(server2).rconAuth("secret");
+    }
+
+    @Test
+    public void testParallelism() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Answer<String> answer = new Answer<String>() {
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                int current = running.incrementAndGet();
+                maxRunning.accumulateAndGet(current, Math::max);
+                Thread.sleep(20);
+                running.decrementAndGet();
+                return "ok";
+            }
+        };
+
+        List<GameServer> servers = new ArrayList<GameServer>();
+        for(int i = 0; i < 8; i ++) {
+            GameServer server = mock(GameServer.class);
+            when(server.rconExec("status")).thenAnswer(answer);
+            servers.add(server);
+        }
+
+        RCONBroadcast.Report report = new RCONBroadcast(3, 1000).execute(servers, "status");
+
+        assertTrue(report.isSuccessful());
+        assertEquals(8, report.getResults().size());
+        assertThat(maxRunning.get(), is(lessThanOrEqualTo(3)));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        GameServer server1 = mock(GameServer.class);
+        GameServer server2 = mock(GameServer.class);
+        final RCONSocket socket = new RCONSocket(InetAddress.getLoopbackAddress(), 27015);
+        when(server1.rconExec("status")).thenReturn("ok");
+        when(server2.getRconSocket()).thenReturn(socket);
+        when(server2.rconExec("status")).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                assertFalse(Thread.currentThread().isInterrupted());
+                assertTrue(socket.getDeadline() != 0);
+                assertThat(socket.getDeadline() - System.nanoTime(), is(lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100))));
+                throw new TimeoutException();
+            }
+        });
+
+        RCONBroadcast.Report report = new RCONBroadcast(2, 100).execute(Arrays.asList(server1, server2), "status");
+
+        assertTrue(report.getResult(server1).isSuccessful());
+        assertThat(report.getResult(server2).getFailure(), is(instanceOf(TimeoutException.class)));
+        assertEquals(0, socket.getDeadline());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+}
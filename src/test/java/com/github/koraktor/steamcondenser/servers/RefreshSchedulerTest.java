@@ -0,0 +1,107 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class RefreshSchedulerTest {
+
+    private HashMap<String, SteamPlayer> players;
+
+    private RefreshScheduler scheduler;
+
+    private GameServer server;
+
+    @Before
+    public void setup() {
+        this.players = new HashMap<String, SteamPlayer>();
+        this.scheduler = new RefreshScheduler();
+        this.server = mock(GameServer.class);
+
+        when(this.server.updatePlayersAsync()).thenReturn(CompletableFuture.completedFuture(this.players));
+        when(this.server.updateServerInfoAsync()).thenReturn(CompletableFuture.completedFuture(new HashMap<String, Object>()));
+
+        CompletableFuture<HashMap<String, String>> failure = new CompletableFuture<HashMap<String, String>>();
+        failure.completeExceptionally(new SteamCondenserException("Failed"));
+        when(this.server.updateRulesAsync()).thenReturn(failure);
+    }
+
+    @After
+    public void teardown() {
+        this.scheduler.stop();
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        assertTrue(this.scheduler.add(this.server));
+        assertFalse(this.scheduler.add(this.server));
+        assertTrue(this.scheduler.remove(this.server));
+        assertFalse(this.scheduler.remove(this.server));
+        assertNull(this.scheduler.getPlayers(this.server));
+    }
+
+    @Test
+    public void testBackoff() throws Exception {
+        this.scheduler.add(this.server);
+
+        this.scheduler.refresh(this.server, RefreshScheduler.Field.RULES).get();
+        this.scheduler.refresh(this.server, RefreshScheduler.Field.RULES).get();
+
+        assertEquals(2, this.scheduler.getFailures(this.server, RefreshScheduler.Field.RULES));
+        assertEquals(0, this.scheduler.getLastUpdate(this.server, RefreshScheduler.Field.RULES));
+    }
+
+    @Test
+    public void testScheduledRefresh() throws Exception {
+        this.scheduler.setInterval(RefreshScheduler.Field.PLAYERS, 10, TimeUnit.MILLISECONDS);
+        this.scheduler.add(this.server);
+        this.scheduler.start();
+
+        Thread.sleep(200);
+        this.scheduler.stop();
+
+        verify(this.server, atLeast(3)).updatePlayersAsync();
+        verify(this.server, atLeast(1)).updateServerInfoAsync();
+        assertSame(this.players, this.scheduler.getPlayers(this.server));
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        this.scheduler.add(this.server);
+
+        assertSame(this.players, this.scheduler.getPlayers(this.server));
+        verify(this.server).updatePlayersAsync();
+
+        assertSame(this.players, this.scheduler.getPlayers(this.server));
+        verify(this.server, times(1)).updatePlayersAsync();
+        assertEquals(0, this.scheduler.getFailures(this.server, RefreshScheduler.Field.PLAYERS));
+    }
+
+}
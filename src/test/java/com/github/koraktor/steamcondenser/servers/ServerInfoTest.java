@@ -0,0 +1,185 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.PacketBuffer;
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerInfoTest {
+
+    @Test
+    public void testInfo2() {
+        ServerInfo info = new ServerInfo(new PacketBuffer(this.info2Data()), false);
+
+        assertEquals(17, info.getNetworkVersion());
+        assertEquals("Test server", info.getServerName());
+        assertEquals("de_dust2", info.getMapName());
+        assertEquals("cstrike", info.getGameDir());
+        assertEquals("Counter-Strike", info.getGameDescription());
+        assertEquals(240, info.getAppId());
+        assertEquals(200, info.getNumberOfPlayers());
+        assertEquals(255, info.getMaxPlayers());
+        assertEquals(3, info.getNumberOfBots());
+        assertEquals('d', info.getDedicated());
+        assertEquals('l', info.getOperatingSystem());
+        assertTrue(info.isPasswordProtected());
+        assertFalse(info.isSecure());
+        assertEquals("1.0.0.1", info.getGameVersion());
+        assertEquals(27015, info.getServerPort());
+        assertEquals(0x0123456789ABCDEFL, info.getServerId());
+        assertEquals(0xFEDCBA9876543210L, info.getGameId());
+        assertEquals(0, info.getTvPort());
+        assertNull(info.getTvName());
+        assertNull(info.getServerTags());
+
+        HashMap<String, Object> map = info.toMap();
+        assertEquals((byte) 17, map.get("networkVersion"));
+        assertEquals((short) 240, map.get("appId"));
+        assertEquals((byte) 200, map.get("numberOfPlayers"));
+        assertEquals((byte) 'd', map.get("dedicated"));
+        assertEquals(true, map.get("passwordProtected"));
+        assertEquals((short) 27015, map.get("serverPort"));
+        assertEquals(0x0123456789ABCDEFL, map.get("serverId"));
+        assertFalse(map.containsKey("tvPort"));
+        assertFalse(map.containsKey("serverTags"));
+    }
+
+    @Test
+    public void testValidate() throws Exception {
+        byte[] data = this.info2Data();
+
+        ServerInfo.validate(data, 0, data.length, false);
+        // The extra data flag and its 18 bytes of data are optional
+        ServerInfo.validate(data, 0, data.length - 19, false);
+
+        for(int length = 0; length < data.length; length ++) {
+            if(length == data.length - 19) {
+                continue;
+            }
+            try {
+                ServerInfo.validate(data, 0, length, false);
+                fail("Expected a PacketFormatException for " + length + " bytes.");
+            } catch(PacketFormatException e) {}
+        }
+    }
+
+    @Test
+    public void testMalformedData() {
+        byte[] data = this.info2Data();
+        ServerInfo info = new ServerInfo(new PacketBuffer(data, 0, 30), false);
+
+        IllegalStateException failure = null;
+        try {
+            info.getServerName();
+            fail("Expected an IllegalStateException.");
+        } catch(IllegalStateException e) {
+            failure = e;
+        }
+
+        try {
+            info.getMapName();
+            fail("Expected an IllegalStateException.");
+        } catch(IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testInfoDetailed() {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        this.writeString(data, "127.0.0.1:27015");
+        this.writeString(data, "Test server");
+        this.writeString(data, "crossfire");
+        this.writeString(data, "valve");
+        this.writeString(data, "Half-Life");
+        data.write(1);
+        data.write(16);
+        data.write(47);
+        data.write('l');
+        data.write('w');
+        data.write(0);
+        data.write(0);
+        data.write(1);
+        data.write(2);
+
+        ServerInfo info = new ServerInfo(new PacketBuffer(data.toByteArray()), true);
+
+        assertEquals("127.0.0.1:27015", info.getServerIp());
+        assertEquals("crossfire", info.getMapName());
+        assertEquals(1, info.getNumberOfPlayers());
+        assertEquals(16, info.getMaxPlayers());
+        assertEquals(47, info.getNetworkVersion());
+        assertEquals('l', info.getDedicated());
+        assertEquals('w', info.getOperatingSystem());
+        assertFalse(info.isMod());
+        assertTrue(info.isSecure());
+        assertEquals(2, info.getNumberOfBots());
+
+        HashMap<String, Object> map = info.toMap();
+        assertEquals("127.0.0.1:27015", map.get("serverIp"));
+        assertEquals(false, map.get("isMod"));
+        assertEquals((byte) 2, map.get("numberOfBots"));
+        assertFalse(map.containsKey("modInfo"));
+        assertFalse(map.containsKey("appId"));
+        assertSame(map, info.toMap());
+    }
+
+    private void writeLong(ByteArrayOutputStream data, long value) {
+        for(int i = 0; i < 8; i ++) {
+            data.write((int) (value >> (i * 8)) & 0xFF);
+        }
+    }
+
+    private byte[] info2Data() {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(17);
+        this.writeString(data, "Test server");
+        this.writeString(data, "de_dust2");
+        this.writeString(data, "cstrike");
+        this.writeString(data, "Counter-Strike");
+        data.write(0xF0);
+        data.write(0x00);
+        data.write(200);
+        data.write(255);
+        data.write(3);
+        data.write('d');
+        data.write('l');
+        data.write(1);
+        data.write(0);
+        this.writeString(data, "1.0.0.1");
+        data.write(0x80 | 0x10 | 0x01);
+        data.write(0x87);
+        data.write(0x69);
+        this.writeLong(data, 0x0123456789ABCDEFL);
+        this.writeLong(data, 0xFEDCBA9876543210L);
+
+        return data.toByteArray();
+    }
+
+    private void writeString(ByteArrayOutputStream data, String value) {
+        byte[] bytes = value.getBytes();
+        data.write(bytes, 0, bytes.length);
+        data.write(0);
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.PacketBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class ServerSnapshotTest {
+
+    private ServerSnapshot snapshot;
+
+    @Before
+    public void setup() {
+        ServerSnapshot.Builder builder = new ServerSnapshot.Builder(2);
+        builder.add(ServerAddress.pack(0x7F000001, 27015), this.serverInfo("de_dust2", 240, 10, 16, "secure,hltv"), 50);
+        builder.add(ServerAddress.pack(0x7F000001, 27016), this.serverInfo("de_dust2", 240, 16, 16, null), 20);
+        builder.add(ServerAddress.pack(0x7F000001, 27017), this.serverInfo("cs_office", 240, 3, 16, "secure"), 30);
+        builder.add(ServerAddress.pack(0x7F000001, 27018), this.serverInfo("de_dust2", 240, 1, 32, "secure"), 90);
+        builder.add(ServerAddress.pack(0x7F000001, 27019), this.serverInfo("de_dust2", 440, 5, 24, null), 10);
+        this.snapshot = builder.build();
+    }
+
+    @Test
+    public void testColumns() {
+        assertEquals(5, this.snapshot.size());
+        assertEquals(ServerAddress.pack(0x7F000001, 27017), this.snapshot.getAddress(2));
+        assertEquals("cs_office", this.snapshot.getMapName(2));
+        assertEquals(3, this.snapshot.getPlayers(2));
+        assertEquals(16, this.snapshot.getMaxPlayers(2));
+        assertEquals(30, this.snapshot.getPing(2));
+        assertEquals(240, this.snapshot.getAppId(2));
+        assertArrayEquals(new String[] { "secure", "hltv" }, this.snapshot.getTags(0));
+        assertArrayEquals(new String[0], this.snapshot.getTags(1));
+    }
+
+    @Test
+    public void testFilter() {
+        int[] rows = this.snapshot.select().appId(240).mapName("de_dust2").notFull().maxPing(80).toRows();
+
+        assertArrayEquals(new int[] { 0 }, rows);
+        assertArrayEquals(new int[] { 0, 2, 3 }, this.snapshot.select().tag("secure").toRows());
+        assertEquals(0, this.snapshot.select().mapName("de_nuke").size());
+        assertEquals(0, this.snapshot.select().tag("unknown").size());
+    }
+
+    @Test
+    public void testSort() {
+        assertArrayEquals(new int[] { 4, 1, 2, 0, 3 }, this.snapshot.select().sortBy(ServerSnapshot.Column.PING, false).toRows());
+        assertArrayEquals(new int[] { 1, 0, 4, 2, 3 }, this.snapshot.select().minPlayers(1).sortBy(ServerSnapshot.Column.PLAYERS, true).toRows());
+        assertArrayEquals(new int[] { 0, 1, 2, 4, 3 }, this.snapshot.select().sortBy(ServerSnapshot.Column.MAX_PLAYERS, false).toRows());
+    }
+
+    @Test
+    public void testUnmeasuredPing() {
+        ServerSnapshot.Builder builder = new ServerSnapshot.Builder(2);
+        builder.add(ServerAddress.pack(0x7F000001, 27015), this.serverInfo("de_dust2", 240, 10, 16, null), ServerSnapshot.NO_PING);
+        builder.add(ServerAddress.pack(0x7F000001, 27016), this.serverInfo("de_dust2", 240, 16, 16, null), 20);
+        builder.add(ServerAddress.pack(0x7F000001, 27017), this.serverInfo("cs_office", 240, 3, 16, null), 0);
+        ServerSnapshot snapshot = builder.build();
+
+        assertEquals(ServerSnapshot.NO_PING, snapshot.getPing(0));
+        assertArrayEquals(new int[] { 1, 2 }, snapshot.select().maxPing(80).toRows());
+        assertArrayEquals(new int[] { 2, 1, 0 }, snapshot.select().sortBy(ServerSnapshot.Column.PING, false).toRows());
+        assertArrayEquals(new int[] { 1, 2, 0 }, snapshot.select().sortBy(ServerSnapshot.Column.PING, true).toRows());
+    }
+
+    @Test
+    public void testStoreSwap() {
+        ServerSnapshotStore store = new ServerSnapshotStore();
+        ServerSnapshot empty = store.get();
+
+        assertEquals(0, empty.size());
+        assertSame(empty, store.swap(this.snapshot));
+        assertSame(this.snapshot, store.get());
+    }
+
+    private ServerInfo serverInfo(String mapName, int appId, int players, int maxPlayers, String tags) {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(17);
+        this.writeString(data, "Test server");
+        this.writeString(data, mapName);
+        this.writeString(data, "cstrike");
+        this.writeString(data, "Counter-Strike");
+        data.write(appId & 0xFF);
+        data.write(appId >> 8);
+        data.write(players);
+        data.write(maxPlayers);
+        data.write(0);
+        data.write('d');
+        data.write('l');
+        data.write(0);
+        data.write(1);
+        this.writeString(data, "1.0.0.1");
+        if(tags != null) {
+            data.write(0x20);
+            this.writeString(data, tags);
+        }
+
+        return new ServerInfo(new PacketBuffer(data.toByteArray()), false);
+    }
+
+    private void writeString(ByteArrayOutputStream data, String value) {
+        byte[] bytes = value.getBytes();
+        data.write(bytes, 0, bytes.length);
+        data.write(0);
+    }
+
+}
@@ -8,7 +8,11 @@
 package com.github.koraktor.steamcondenser.servers;
 
 import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -24,23 +28,34 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.MetricsRecorder;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.packets.S2A_PLAYER_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.S2C_CHALLENGE_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONAuthRequestPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONAuthResponse;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecRequestPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecResponsePacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONTerminator;
+import com.github.koraktor.steamcondenser.servers.sockets.QueryEngine;
 import com.github.koraktor.steamcondenser.servers.sockets.RCONSocket;
+import com.github.koraktor.steamcondenser.servers.sockets.SharedQuerySocket;
 import com.github.koraktor.steamcondenser.servers.sockets.SourceSocket;
 
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -95,6 +110,11 @@ public class SourceServerTest {
         public void describeTo(Description description) {}
     };
 
+    @After
+    public void teardown() {
+        Metrics.setRecorder(null);
+    }
+
     @Before
     public void setup() throws Exception {
         LOCALHOST = InetAddress.getByAddress(new byte[] { 0x7f, 0x0, 0x0, 0x1 });
@@ -135,6 +155,40 @@ public class SourceServerTest {
         assertThat(this.server.rconSocket, is(equalTo(rconSocket)));
     }
 
+    @Test
+    public void testInitSharedSocket() throws Exception {
+        QueryEngine engine = mock(QueryEngine.class);
+        SharedQuerySocket socket = mock(SharedQuerySocket.class);
+        whenNew(SharedQuerySocket.class).withArguments(engine, LOCALHOST, 27015, false).thenReturn(socket);
+
+        this.server.setQueryEngine(engine);
+
+        verify(this.socket).close();
+        assertThat((SharedQuerySocket) this.server.socket, is(equalTo(socket)));
+    }
+
+    @Test
+    public void testUpdatePlayersAsyncWithChallenge() throws Exception {
+        SharedQuerySocket socket = mock(SharedQuerySocket.class);
+        this.server.socket = socket;
+
+        S2C_CHALLENGE_Packet challengePacket = mock(S2C_CHALLENGE_Packet.class);
+        when(challengePacket.getChallengeNumber()).thenReturn(1234);
+        S2A_PLAYER_Packet playerPacket = mock(S2A_PLAYER_Packet.class);
+        HashMap<String, SteamPlayer> players = new HashMap<String, SteamPlayer>();
+        SteamPlayer someone = new SteamPlayer(1, "someone", 10, 232);
+        players.put(someone.getName(), someone);
+        when(playerPacket.getPlayerHash()).thenReturn(players);
+        when(socket.request(any(SteamPacket.class), eq(0L)))
+            .thenReturn(CompletableFuture.<SteamPacket>completedFuture(challengePacket))
+            .thenReturn(CompletableFuture.<SteamPacket>completedFuture(playerPacket));
+
+        assertThat(this.server.updatePlayersAsync().get(), is(equalTo(players)));
+        assertEquals(1, this.server.getPlayerDiff().getJoined().size());
+        assertEquals(1234, this.server.challengeNumber);
+        verify(socket, times(2)).request(any(SteamPacket.class), eq(0L));
+    }
+
     @Test
     public void testRconAuthSuccess() throws Exception {
         final SourceServer server = this.server;
@@ -223,4 +277,19 @@ public class SourceServerTest {
         verify(this.rconSocket).send(argThat(this.terminatorMatcher));
     }
 
+    @Test
+    public void testRCONExecStreamingMetrics() throws Exception {
+        MetricsRecorder recorder = mock(MetricsRecorder.class);
+        Metrics.setRecorder(recorder);
+        this.server.rconAuthenticated = true;
+        this.server.rconRequestId = 1234;
+
+        when(this.rconSocket.readResponse(any(Consumer.class))).thenReturn(0);
+
+        this.server.rconExec("command", output -> {});
+
+        verify(this.rconSocket).send(argThat(this.requestMatcher));
+        verify(recorder).rconRoundTrip(eq(Protocol.RCON), anyLong(), eq(true));
+    }
+
 }
@@ -0,0 +1,100 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class StatusParserTest {
+
+    private HashMap<String, SteamPlayer> players;
+
+    @Before
+    public void setup() {
+        this.players = new HashMap<String, SteamPlayer>();
+        this.players.put("some \"one\"", new SteamPlayer(0, "some \"one\"", 10, 232));
+        this.players.put("Bot", new SteamPlayer(1, "Bot", 3, 162));
+    }
+
+    @Test
+    public void testSourceWithBots() {
+        String status = "hostname: Test\n" +
+            "players : 1 humans, 1 bots (16/0 max) (not hibernating)\n" +
+            "\n" +
+            "# userid name uniqueid connected ping loss state rate adr\r\n" +
+            "#  2 1 \"some \"one\"\" STEAM_1:0:123456 03:52 12 1 active 80000 10.0.0.1:27005\r\n" +
+            "# 3 \"Bot\" BOT active\r\n" +
+            "# 4 \"unknown\" STEAM_1:0:1 00:01 20 0 spawning 80000 10.0.0.2:27005\r\n" +
+            "#end\n";
+
+        assertEquals(2, StatusParser.parse(status, this.players));
+
+        SteamPlayer someone = this.players.get("some \"one\"");
+        assertEquals(2, someone.getConnectionId());
+        assertEquals("STEAM_1:0:123456", someone.getSteamId());
+        assertEquals(12, someone.getPing());
+        assertEquals(1, someone.getLoss());
+        assertEquals("active", someone.getState());
+        assertEquals(80000, someone.getRate());
+        assertEquals("10.0.0.1", someone.getIpAddress());
+        assertEquals(27005, someone.getClientPort());
+
+        SteamPlayer bot = this.players.get("Bot");
+        assertTrue(bot.isBot());
+        assertEquals(3, bot.getConnectionId());
+        assertEquals("active", bot.getState());
+        assertEquals(0, bot.getPing());
+    }
+
+    @Test
+    public void testDuplicateNames() {
+        SteamPlayer first = new SteamPlayer(0, "Player", 10, 232);
+        SteamPlayer second = new SteamPlayer(1, "Player", 3, 162);
+        String status = "# userid name uniqueid connected ping loss state rate adr\n" +
+            "#  2 \"Player\" STEAM_1:0:123456 03:52 12 1 active 80000 10.0.0.1:27005\n" +
+            "#  3 \"Player\" STEAM_1:0:654321 01:23 42 0 active 80000 10.0.0.2:27005\n";
+
+        assertEquals(2, StatusParser.parse(status, Arrays.asList(first, second)));
+
+        assertEquals("STEAM_1:0:123456", first.getSteamId());
+        assertEquals("STEAM_1:0:654321", second.getSteamId());
+    }
+
+    @Test
+    public void testNoHeader() {
+        assertEquals(0, StatusParser.parse("Unknown command \"status\"\n", this.players));
+        assertFalse(this.players.get("Bot").isExtended());
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testDeprecatedHelpers() {
+        List<String> attributes = GameServer.getPlayerStatusAttributes("userid name uniqueid connected ping loss state");
+        assertEquals(Arrays.asList("userid", "name", "uniqueid", "time", "ping", "loss", "state"), attributes);
+
+        Map<String, String> playerData = GameServer.splitPlayerStatus(attributes, "2 \"someone\" STEAM_1:0:123456 03:52 12 1 active");
+        assertEquals("2", playerData.get("userid"));
+        assertEquals("someone", playerData.get("name"));
+        assertEquals("STEAM_1:0:123456", playerData.get("uniqueid"));
+        assertEquals("03:52", playerData.get("time"));
+        assertEquals("active", playerData.get("state"));
+    }
+
+}
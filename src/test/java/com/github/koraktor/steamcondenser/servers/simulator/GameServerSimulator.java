@@ -0,0 +1,747 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/**
+ * A simulator for many Source or GoldSrc game servers on the loopback
+ * interface
+ * <p>
+ * Each simulated server listens on a port of its own and answers
+ * A2S_INFO, A2S_PLAYER, A2S_RULES and challenge requests. If a RCON password
+ * has been set, Source RCON connections are accepted on the same port using
+ * TCP. The RCON commands <code>status</code> and <code>echo</code> are
+ * supported.
+ * <p>
+ * Replies larger than the split size are split like real servers do, using
+ * either the GoldSrc or the Source format. Source replies may additionally
+ * be compressed using BZip2. The settings are applied to all servers opened
+ * afterwards.
+ * <p>
+ * All replies are built when a server is opened, so the simulator's thread
+ * is hardly ever the bottleneck of a load test.
+ *
+ * @author Sebastian Staudt
+ */
+public class GameServerSimulator extends Simulator {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private volatile boolean challenges;
+
+    private volatile boolean compression;
+
+    private volatile boolean goldSrc;
+
+    private volatile int playerCount;
+
+    private volatile String rconPassword;
+
+    private final ByteBuffer receiveBuffer;
+
+    private volatile int ruleCount;
+
+    private int serverCount;
+
+    private volatile int splitSize;
+
+    /**
+     * Creates a new game server simulator without any servers
+     *
+     * @throws IOException if the simulator cannot be started
+     */
+    public GameServerSimulator() throws IOException {
+        this(0);
+    }
+
+    /**
+     * Creates a new game server simulator without any servers
+     *
+     * @param seed The seed used for all random decisions of the simulator
+     * @throws IOException if the simulator cannot be started
+     */
+    public GameServerSimulator(long seed) throws IOException {
+        super("GameServerSimulator", seed);
+
+        this.challenges = true;
+        this.playerCount = 24;
+        this.receiveBuffer = ByteBuffer.allocate(1400);
+        this.ruleCount = 50;
+        this.splitSize = 1248;
+
+        this.start();
+    }
+
+    /**
+     * Opens the given number of simulated servers
+     *
+     * @param count The number of servers to open
+     * @return The addresses of the new servers
+     * @throws IOException if a server cannot be opened, e.g. because there
+     *         are no file descriptors left
+     */
+    public List<InetSocketAddress> open(final int count) throws IOException {
+        return this.execute(() -> {
+            List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>(count);
+            for(int i = 0; i < count; i ++) {
+                addresses.add(this.openServer());
+            }
+
+            return addresses;
+        });
+    }
+
+    /**
+     * Sets whether the servers require a challenge number for A2S_PLAYER and
+     * A2S_RULES requests
+     *
+     * @param challenges <code>true</code> if a challenge is required
+     */
+    public void setChallenges(boolean challenges) {
+        this.challenges = challenges;
+    }
+
+    /**
+     * Sets whether split Source replies are compressed using BZip2
+     *
+     * @param compression <code>true</code> if split replies are compressed
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Sets whether the servers split replies using the GoldSrc format
+     * <p>
+     * GoldSrc replies are never compressed.
+     *
+     * @param goldSrc <code>true</code> to simulate GoldSrc servers
+     */
+    public void setGoldSrc(boolean goldSrc) {
+        this.goldSrc = goldSrc;
+    }
+
+    /**
+     * Sets the number of players on each server
+     *
+     * @param playerCount The number of players, at most 255
+     */
+    public void setPlayerCount(int playerCount) {
+        if(playerCount < 0 || playerCount > 255) {
+            throw new IllegalArgumentException("Invalid player count: " + playerCount);
+        }
+        this.playerCount = playerCount;
+    }
+
+    /**
+     * Sets the RCON password of the servers
+     *
+     * @param rconPassword The RCON password or <code>null</code> to not
+     *        accept RCON connections at all
+     */
+    public void setRconPassword(String rconPassword) {
+        this.rconPassword = rconPassword;
+    }
+
+    /**
+     * Sets the number of rules of each server
+     *
+     * @param ruleCount The number of rules
+     */
+    public void setRuleCount(int ruleCount) {
+        if(ruleCount < 0 || ruleCount > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid rule count: " + ruleCount);
+        }
+        this.ruleCount = ruleCount;
+    }
+
+    /**
+     * Sets the maximum size of a single packet's payload
+     * <p>
+     * Replies exceeding this size are split.
+     *
+     * @param splitSize The maximum payload size in bytes
+     */
+    public void setSplitSize(int splitSize) {
+        if(splitSize < 64 || splitSize > 1248) {
+            throw new IllegalArgumentException("Invalid split size: " + splitSize);
+        }
+        this.splitSize = splitSize;
+    }
+
+    protected void handle(SelectionKey key) throws IOException {
+        Object attachment = key.attachment();
+        if(attachment instanceof Server) {
+            Server server = (Server) attachment;
+            if(key.channel() instanceof DatagramChannel) {
+                server.receive();
+            } else {
+                server.accept((ServerSocketChannel) key.channel());
+            }
+        } else {
+            RCONConnection connection = (RCONConnection) attachment;
+            if(key.isReadable()) {
+                connection.read();
+            }
+            if(key.isValid() && key.isWritable()) {
+                connection.write();
+            }
+        }
+    }
+
+    /**
+     * Opens a single simulated server
+     * <p>
+     * If RCON is enabled, the UDP and TCP channels are bound to the same port.
+     * If the TCP port is already in use, another port is tried.
+     *
+     * @return The address of the new server
+     * @throws IOException if the server cannot be opened
+     */
+    private InetSocketAddress openServer() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        String password = this.rconPassword;
+
+        for(int attempt = 0; ; attempt ++) {
+            DatagramChannel channel = DatagramChannel.open();
+            ServerSocketChannel rconChannel = null;
+            try {
+                channel.bind(new InetSocketAddress(loopback, 0));
+                InetSocketAddress address = (InetSocketAddress) channel.getLocalAddress();
+
+                if(password != null) {
+                    rconChannel = ServerSocketChannel.open();
+                    rconChannel.bind(address);
+                    rconChannel.configureBlocking(false);
+                }
+
+                Server server = new Server(++ this.serverCount, address, channel, password);
+                channel.configureBlocking(false);
+                channel.register(this.selector, SelectionKey.OP_READ, server);
+                if(rconChannel != null) {
+                    rconChannel.register(this.selector, SelectionKey.OP_ACCEPT, server);
+                }
+
+                return address;
+            } catch(IOException e) {
+                channel.close();
+                if(rconChannel != null) {
+                    rconChannel.close();
+                }
+                if(!(e instanceof BindException) || attempt == 10) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the datagrams of a reply according to the current settings
+     *
+     * @param packet The packet data starting with the header byte
+     * @return The reply
+     * @throws IOException if the reply cannot be compressed
+     */
+    private Reply reply(byte[] packet) throws IOException {
+        byte[] data = new byte[packet.length + 4];
+        data[0] = data[1] = data[2] = data[3] = (byte) 0xFF;
+        System.arraycopy(packet, 0, data, 4, packet.length);
+
+        int splitSize = this.splitSize;
+        if(data.length <= splitSize) {
+            return new Reply(Arrays.asList(data), false, false);
+        }
+
+        if(this.goldSrc) {
+            int count = (data.length + splitSize - 1) / splitSize;
+            if(count > 15) {
+                throw new IllegalArgumentException("Reply is too large for GoldSrc split packets.");
+            }
+
+            List<byte[]> datagrams = new ArrayList<byte[]>(count);
+            for(int i = 0; i < count; i ++) {
+                Writer writer = new Writer();
+                writer.putInt(0xFFFFFFFE);
+                writer.putInt(0);
+                writer.putByte((i << 4) | count);
+                writer.putBytes(data, i * splitSize, Math.min(splitSize, data.length - i * splitSize));
+                datagrams.add(writer.toByteArray());
+            }
+
+            return new Reply(datagrams, true, false);
+        }
+
+        boolean compressed = this.compression;
+        byte[] payload = data;
+        CRC32 crc32 = new CRC32();
+        if(compressed) {
+            crc32.update(data);
+
+            ByteArrayOutputStream compressedData = new ByteArrayOutputStream();
+            compressedData.write(0);
+            compressedData.write(0);
+            BZip2CompressorOutputStream bzip2 = new BZip2CompressorOutputStream(compressedData);
+            bzip2.write(data);
+            bzip2.close();
+            payload = compressedData.toByteArray();
+        }
+
+        int count = (payload.length + splitSize - 1) / splitSize;
+        List<byte[]> datagrams = new ArrayList<byte[]>(count);
+        for(int i = 0; i < count; i ++) {
+            Writer writer = new Writer();
+            writer.putInt(0xFFFFFFFE);
+            writer.putInt(0);
+            writer.putByte(count);
+            writer.putByte(i);
+            if(compressed) {
+                writer.putInt(data.length);
+                writer.putInt((int) crc32.getValue());
+            } else {
+                writer.putShort(splitSize);
+            }
+            writer.putBytes(payload, i * splitSize, Math.min(splitSize, payload.length - i * splitSize));
+            datagrams.add(writer.toByteArray());
+        }
+
+        return new Reply(datagrams, true, compressed);
+    }
+
+    /**
+     * The prebuilt datagrams of a reply
+     */
+    private class Reply {
+
+        final boolean compressed;
+
+        final List<byte[]> datagrams;
+
+        final boolean split;
+
+        Reply(List<byte[]> datagrams, boolean split, boolean compressed) {
+            this.compressed = compressed;
+            this.datagrams = datagrams;
+            this.split = split;
+        }
+
+        /**
+         * Returns the datagrams of this reply
+         * <p>
+         * Split replies get a new request ID each time, so stale packets of
+         * previous replies are not mixed up with the current one.
+         *
+         * @return A new list of datagrams
+         */
+        List<byte[]> datagrams() {
+            List<byte[]> datagrams = new ArrayList<byte[]>(this.datagrams.size());
+            if(!this.split) {
+                datagrams.addAll(this.datagrams);
+                return datagrams;
+            }
+
+            int requestId = random.nextInt() & 0x7FFFFFFF;
+            if(this.compressed) {
+                requestId |= 0x80000000;
+            }
+            for(byte[] datagram : this.datagrams) {
+                byte[] copy = datagram.clone();
+                copy[4] = (byte) requestId;
+                copy[5] = (byte) (requestId >> 8);
+                copy[6] = (byte) (requestId >> 16);
+                copy[7] = (byte) (requestId >> 24);
+                datagrams.add(copy);
+            }
+
+            return datagrams;
+        }
+    }
+
+    /**
+     * A single simulated server
+     */
+    private class Server {
+
+        final int challenge;
+
+        final Reply challengeReply;
+
+        final DatagramChannel channel;
+
+        final boolean challenges;
+
+        final Reply infoReply;
+
+        final String password;
+
+        final Reply playersReply;
+
+        final Reply rulesReply;
+
+        final String status;
+
+        Server(int number, InetSocketAddress address, DatagramChannel channel, String password)
+                throws IOException {
+            this.challenge = random.nextInt();
+            this.challenges = GameServerSimulator.this.challenges;
+            this.channel = channel;
+            this.password = password;
+
+            int playerCount = GameServerSimulator.this.playerCount;
+            int ruleCount = GameServerSimulator.this.ruleCount;
+            String name = "Simulated server #" + number;
+
+            Writer writer = new Writer();
+            writer.putByte(0x41);
+            writer.putInt(this.challenge);
+            this.challengeReply = reply(writer.toByteArray());
+
+            writer = new Writer();
+            writer.putByte(0x49);
+            writer.putByte(17);
+            writer.putString(name);
+            writer.putString("ctf_2fort");
+            writer.putString("tf");
+            writer.putString("Team Fortress");
+            writer.putShort(440);
+            writer.putByte(playerCount);
+            writer.putByte(Math.max(playerCount, 24));
+            writer.putByte(0);
+            writer.putByte('d');
+            writer.putByte('l');
+            writer.putByte(0);
+            writer.putByte(1);
+            writer.putString("2963012");
+            writer.putByte(0x80 | 0x01);
+            writer.putShort(address.getPort());
+            writer.putLong(440);
+            this.infoReply = reply(writer.toByteArray());
+
+            StringBuilder status = new StringBuilder();
+            status.append("hostname: ").append(name).append('\n')
+                  .append("version : 2963012/24 2963012 secure\n")
+                  .append("udp/ip  : ").append(address.getAddress().getHostAddress())
+                  .append(':').append(address.getPort()).append('\n')
+                  .append("map     : ctf_2fort at: 0 x, 0 y, 0 z\n")
+                  .append("players : ").append(playerCount)
+                  .append(" (").append(Math.max(playerCount, 24)).append(" max)\n\n")
+                  .append("# userid name uniqueid connected ping loss state adr\n");
+
+            writer = new Writer();
+            writer.putByte(0x44);
+            writer.putByte(playerCount);
+            for(int i = 0; i < playerCount; i ++) {
+                int ping = 5 + random.nextInt(150);
+                int time = random.nextInt(7200);
+                String playerName = "Player " + (i + 1);
+
+                writer.putByte(i);
+                writer.putString(playerName);
+                writer.putInt(random.nextInt(80));
+                writer.putInt(Float.floatToIntBits(time));
+
+                status.append(String.format("# %6d \"%s\" STEAM_0:%d:%d %02d:%02d %d 0 active 127.0.0.1:%d\n",
+                        i + 2, playerName, i % 2, 1000000 + number * 256 + i,
+                        time / 60, time % 60, ping, 27005 + i));
+            }
+            status.append("#end\n");
+            this.playersReply = reply(writer.toByteArray());
+            this.status = status.toString();
+
+            writer = new Writer();
+            writer.putByte(0x45);
+            writer.putShort(ruleCount);
+            for(int i = 0; i < ruleCount; i ++) {
+                writer.putString("sv_rule_" + i);
+                writer.putString(String.valueOf(random.nextInt(1000)));
+            }
+            this.rulesReply = reply(writer.toByteArray());
+        }
+
+        /**
+         * Accepts all pending RCON connections
+         *
+         * @param rconChannel The channel accepting RCON connections
+         * @throws IOException if the connections cannot be accepted
+         */
+        void accept(ServerSocketChannel rconChannel) throws IOException {
+            SocketChannel client;
+            while((client = rconChannel.accept()) != null) {
+                try {
+                    new RCONConnection(this, client);
+                } catch(IOException e) {
+                    client.close();
+                }
+            }
+        }
+
+        /**
+         * Answers all pending queries
+         */
+        void receive() {
+            while(true) {
+                SocketAddress client;
+                ByteBuffer buffer = receiveBuffer;
+                buffer.clear();
+                try {
+                    client = this.channel.receive(buffer);
+                } catch(IOException e) {
+                    return;
+                }
+                if(client == null) {
+                    return;
+                }
+                buffer.flip();
+                received();
+
+                if(buffer.remaining() < 5 || buffer.getInt() != 0xFFFFFFFF) {
+                    continue;
+                }
+
+                Reply reply;
+                switch(buffer.get()) {
+                    case 0x54:
+                        reply = this.infoReply;
+                        break;
+                    case 0x55:
+                    case 0x56:
+                        boolean player = buffer.get(4) == 0x55;
+                        if(this.challenges && (buffer.remaining() < 4 ||
+                           Integer.reverseBytes(buffer.getInt()) != this.challenge)) {
+                            reply = this.challengeReply;
+                        } else {
+                            reply = player ? this.playersReply : this.rulesReply;
+                        }
+                        break;
+                    case 0x57:
+                        reply = this.challengeReply;
+                        break;
+                    default:
+                        continue;
+                }
+
+                send(this.channel, client, reply.datagrams());
+            }
+        }
+    }
+
+    /**
+     * A single RCON connection to a simulated server
+     */
+    private class RCONConnection {
+
+        boolean authenticated;
+
+        final SocketChannel channel;
+
+        ByteBuffer input;
+
+        final SelectionKey key;
+
+        final ArrayDeque<ByteBuffer> output;
+
+        final Server server;
+
+        RCONConnection(Server server, SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.input = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+            this.output = new ArrayDeque<ByteBuffer>();
+            this.server = server;
+
+            channel.configureBlocking(false);
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+        }
+
+        /**
+         * Reads and answers all complete RCON packets
+         *
+         * @throws IOException if the connection is closed or sends an
+         *         invalid packet
+         */
+        void read() throws IOException {
+            if(this.channel.read(this.input) < 0) {
+                throw new IOException("Connection closed.");
+            }
+            this.input.flip();
+
+            while(this.input.remaining() >= 4) {
+                int size = this.input.getInt(this.input.position());
+                if(size < 10 || size > 4106) {
+                    throw new IOException("Invalid RCON packet size: " + size);
+                }
+                if(this.input.remaining() < size + 4) {
+                    break;
+                }
+
+                this.input.getInt();
+                int requestId = this.input.getInt();
+                int type = this.input.getInt();
+                byte[] body = new byte[size - 10];
+                this.input.get(body);
+                this.input.getShort();
+                received();
+
+                this.answer(requestId, type, new String(body, UTF8));
+            }
+
+            this.input.compact();
+        }
+
+        /**
+         * Writes all pending packets until the socket's send buffer is full
+         *
+         * @throws IOException if the connection is closed
+         */
+        void write() throws IOException {
+            while(!this.output.isEmpty()) {
+                ByteBuffer packet = this.output.peek();
+                this.channel.write(packet);
+                if(packet.hasRemaining()) {
+                    return;
+                }
+                this.output.poll();
+            }
+
+            this.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /**
+         * Answers a single RCON packet like SrcDS does
+         *
+         * @param requestId The request ID of the packet
+         * @param type The type of the packet
+         * @param body The body of the packet
+         */
+        private void answer(int requestId, int type, String body) {
+            if(type == 3) {
+                this.authenticated = body.equals(this.server.password);
+                this.send(requestId, 0, new byte[0]);
+                this.send(this.authenticated ? requestId : -1, 2, new byte[0]);
+            } else if(type == 2) {
+                if(!this.authenticated) {
+                    this.send(-1, 2, new byte[0]);
+                    return;
+                }
+
+                byte[] response = this.execute(body).getBytes(UTF8);
+                int offset = 0;
+                do {
+                    int length = Math.min(4096, response.length - offset);
+                    this.send(requestId, 0, Arrays.copyOfRange(response, offset, offset + length));
+                    offset += length;
+                } while(offset < response.length);
+            } else {
+                this.send(requestId, 0, new byte[0]);
+                this.send(requestId, 0, new byte[] { 0, 1, 0, 0 });
+            }
+        }
+
+        /**
+         * Executes a RCON command
+         *
+         * @param command The command line
+         * @return The output of the command
+         */
+        private String execute(String command) {
+            if(command.equals("status")) {
+                return this.server.status;
+            }
+            if(command.startsWith("echo ")) {
+                return command.substring(5) + "\n";
+            }
+
+            return "Unknown command \"" + command + "\"\n";
+        }
+
+        /**
+         * Schedules a RCON packet to be sent
+         *
+         * @param requestId The request ID of the packet
+         * @param type The type of the packet
+         * @param body The body of the packet
+         */
+        private void send(int requestId, int type, byte[] body) {
+            final ByteBuffer packet = ByteBuffer.allocate(body.length + 14).order(ByteOrder.LITTLE_ENDIAN);
+            packet.putInt(body.length + 10);
+            packet.putInt(requestId);
+            packet.putInt(type);
+            packet.put(body);
+            packet.putShort((short) 0);
+            packet.flip();
+
+            schedule(() -> {
+                if(this.key.isValid()) {
+                    this.output.add(packet);
+                    this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    sent();
+                }
+            });
+        }
+    }
+
+    /**
+     * A simple little-endian writer for packet data
+     */
+    private static final class Writer {
+
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream(1400);
+
+        void putByte(int value) {
+            this.data.write(value);
+        }
+
+        void putBytes(byte[] bytes, int offset, int length) {
+            this.data.write(bytes, offset, length);
+        }
+
+        void putInt(int value) {
+            this.putShort(value);
+            this.putShort(value >> 16);
+        }
+
+        void putLong(long value) {
+            this.putInt((int) value);
+            this.putInt((int) (value >> 32));
+        }
+
+        void putShort(int value) {
+            this.data.write(value);
+            this.data.write(value >> 8);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(UTF8);
+            this.data.write(bytes, 0, bytes.length);
+            this.data.write(0);
+        }
+
+        byte[] toByteArray() {
+            return this.data.toByteArray();
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.simulator;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A simulated master server on the loopback interface
+ * <p>
+ * The simulator answers A2M_GET_SERVERS_BATCH2 requests with pages of the
+ * given server list. Like the real master servers, each page contains up to
+ * 231 servers starting after the address sent as the seed of the request.
+ * The last page ends with <code>0.0.0.0:0</code>. Filters and region codes
+ * are ignored.
+ *
+ * @author Sebastian Staudt
+ */
+public class MasterServerSimulator extends Simulator {
+
+    /**
+     * The maximum number of servers in a single reply
+     */
+    public static final int PAGE_SIZE = 231;
+
+    private final InetSocketAddress address;
+
+    private final DatagramChannel channel;
+
+    private final ByteBuffer receiveBuffer;
+
+    private final Map<String, Integer> seeds;
+
+    private final List<InetSocketAddress> servers;
+
+    /**
+     * Creates a new master server simulator serving the given servers
+     *
+     * @param servers The addresses of the servers to serve
+     * @throws IOException if the simulator cannot be started
+     */
+    public MasterServerSimulator(List<InetSocketAddress> servers) throws IOException {
+        this(servers, 0);
+    }
+
+    /**
+     * Creates a new master server simulator serving the given servers
+     *
+     * @param servers The addresses of the servers to serve
+     * @param seed The seed used for all random decisions of the simulator
+     * @throws IOException if the simulator cannot be started
+     */
+    public MasterServerSimulator(List<InetSocketAddress> servers, long seed) throws IOException {
+        super("MasterServerSimulator", seed);
+
+        this.receiveBuffer = ByteBuffer.allocate(1400);
+        this.servers = Collections.unmodifiableList(new ArrayList<InetSocketAddress>(servers));
+        this.seeds = new HashMap<String, Integer>();
+        for(int i = 0; i < this.servers.size(); i ++) {
+            InetSocketAddress server = this.servers.get(i);
+            this.seeds.put(server.getAddress().getHostAddress() + ":" + server.getPort(), i + 1);
+        }
+
+        this.channel = DatagramChannel.open();
+        this.channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.channel.configureBlocking(false);
+        this.channel.register(this.selector, SelectionKey.OP_READ);
+        this.address = (InetSocketAddress) this.channel.getLocalAddress();
+
+        this.start();
+    }
+
+    /**
+     * Returns the address of this master server
+     *
+     * @return The address of this master server
+     */
+    public InetSocketAddress getAddress() {
+        return this.address;
+    }
+
+    /**
+     * Returns the servers served by this master server
+     *
+     * @return The addresses of the servers
+     */
+    public List<InetSocketAddress> getServers() {
+        return this.servers;
+    }
+
+    protected void handle(SelectionKey key) {
+        while(true) {
+            SocketAddress client;
+            ByteBuffer buffer = this.receiveBuffer;
+            buffer.clear();
+            try {
+                client = this.channel.receive(buffer);
+            } catch(IOException e) {
+                return;
+            }
+            if(client == null) {
+                return;
+            }
+            buffer.flip();
+            this.received();
+
+            if(buffer.remaining() < 3 || buffer.get() != 0x31) {
+                continue;
+            }
+            buffer.get();
+
+            StringBuilder seed = new StringBuilder();
+            byte character;
+            while(buffer.hasRemaining() && (character = buffer.get()) != 0) {
+                seed.append((char) character);
+            }
+
+            this.send(this.channel, client, Collections.singletonList(this.page(seed.toString())));
+        }
+    }
+
+    /**
+     * Builds the page of servers following the given seed
+     *
+     * @param seed The address of the last server received by the client
+     * @return The M2A_SERVER_BATCH reply
+     */
+    private byte[] page(String seed) {
+        Integer start = this.seeds.get(seed);
+        if(start == null) {
+            start = 0;
+        }
+        int end = Math.min(this.servers.size(), start + PAGE_SIZE);
+        boolean last = (end == this.servers.size() && end - start < PAGE_SIZE);
+
+        ByteBuffer page = ByteBuffer.allocate(6 + (end - start + (last ? 1 : 0)) * 6);
+        page.putInt(0xFFFFFFFF);
+        page.put((byte) 0x66);
+        page.put((byte) 0x0A);
+        for(int i = start; i < end; i ++) {
+            InetSocketAddress server = this.servers.get(i);
+            page.put(server.getAddress().getAddress());
+            page.putShort((short) server.getPort());
+        }
+        if(last) {
+            page.put(new byte[6]);
+        }
+
+        return page.array();
+    }
+
+}
@@ -0,0 +1,381 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is the base class for the simulated servers used to test the query
+ * stack against real sockets on the loopback interface
+ * <p>
+ * All channels of a simulator are served by a single thread using a
+ * {@link Selector}. Outgoing data is not written immediately, but scheduled
+ * for delivery. This allows to inject latency and jitter, to drop datagrams
+ * and to reorder the packets of split replies like a real network would.
+ *
+ * @author Sebastian Staudt
+ */
+public abstract class Simulator implements Closeable {
+
+    private volatile boolean closed;
+
+    private long deliveryCount;
+
+    private final PriorityQueue<Delivery> deliveries;
+
+    private final AtomicLong droppedPackets;
+
+    private volatile int jitter;
+
+    private volatile int latency;
+
+    private volatile float loss;
+
+    protected final Random random;
+
+    private final AtomicLong receivedPackets;
+
+    private volatile float reordering;
+
+    protected final Selector selector;
+
+    private final AtomicLong sentPackets;
+
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+
+    private final Thread thread;
+
+    /**
+     * Creates a new simulator
+     * <p>
+     * Subclasses have to call {@link #start} once they are initialized.
+     *
+     * @param name The name of the simulator's thread
+     * @param seed The seed used for all random decisions of the simulator
+     * @throws IOException if the selector cannot be opened
+     */
+    protected Simulator(String name, long seed) throws IOException {
+        this.deliveries = new PriorityQueue<Delivery>();
+        this.droppedPackets = new AtomicLong();
+        this.random = new Random(seed);
+        this.receivedPackets = new AtomicLong();
+        this.selector = Selector.open();
+        this.sentPackets = new AtomicLong();
+        this.tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        this.thread = new Thread(name) {
+            public void run() {
+                loop();
+            }
+        };
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Stops this simulator and closes all of its channels
+     *
+     * @throws IOException if the simulator's thread is interrupted while
+     *         shutting down
+     */
+    public void close() throws IOException {
+        this.closed = true;
+        this.selector.wakeup();
+        try {
+            this.thread.join(1000);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of datagrams dropped by this simulator on purpose
+     *
+     * @return The number of dropped datagrams
+     * @see #setLoss
+     */
+    public long getDroppedPackets() {
+        return this.droppedPackets.get();
+    }
+
+    /**
+     * Returns the number of requests received by this simulator
+     *
+     * @return The number of received requests
+     */
+    public long getReceivedPackets() {
+        return this.receivedPackets.get();
+    }
+
+    /**
+     * Returns the number of packets sent by this simulator
+     *
+     * @return The number of sent packets
+     */
+    public long getSentPackets() {
+        return this.sentPackets.get();
+    }
+
+    /**
+     * Sets the random delay added to the latency of each packet
+     *
+     * @param jitter The maximum additional delay in milliseconds
+     */
+    public void setJitter(int jitter) {
+        this.jitter = jitter;
+    }
+
+    /**
+     * Sets the delay of all packets sent by this simulator
+     *
+     * @param latency The delay in milliseconds
+     */
+    public void setLatency(int latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets the probability of a datagram to be dropped
+     * <p>
+     * Packets sent via TCP are never dropped.
+     *
+     * @param loss The probability between <code>0</code> and <code>1</code>
+     */
+    public void setLoss(float loss) {
+        this.loss = loss;
+    }
+
+    /**
+     * Sets the probability of the packets of a split reply to be sent in
+     * random order
+     *
+     * @param reordering The probability between <code>0</code> and
+     *        <code>1</code>
+     */
+    public void setReordering(float reordering) {
+        this.reordering = reordering;
+    }
+
+    /**
+     * Runs the given task on the simulator's thread and waits for its result
+     * <p>
+     * Channels have to be registered with the selector using this method.
+     *
+     * @param task The task to run
+     * @return The result of the task
+     * @throws IOException if the task fails or the simulator has been closed
+     */
+    protected <T> T execute(Callable<T> task) throws IOException {
+        if(this.closed) {
+            throw new IOException("The simulator has been closed.");
+        }
+
+        FutureTask<T> future = new FutureTask<T>(task);
+        this.tasks.add(future);
+        this.selector.wakeup();
+
+        try {
+            return future.get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Handles a channel that is ready for I/O
+     * <p>
+     * If this method throws an exception, the channel is closed.
+     *
+     * @param key The selection key of the channel
+     * @throws IOException if the channel cannot be read or written
+     */
+    protected abstract void handle(SelectionKey key) throws IOException;
+
+    /**
+     * Counts a request received by this simulator
+     */
+    protected void received() {
+        this.receivedPackets.incrementAndGet();
+    }
+
+    /**
+     * Schedules the given datagrams to be sent to a client
+     * <p>
+     * Each datagram may be dropped and the datagrams may be sent in random
+     * order according to the configured loss and reordering.
+     *
+     * @param channel The channel to send the datagrams with
+     * @param client The address of the client
+     * @param datagrams The datagrams to send
+     */
+    protected void send(final DatagramChannel channel, final SocketAddress client, List<byte[]> datagrams) {
+        if(datagrams.size() > 1 && this.random.nextFloat() < this.reordering) {
+            Collections.shuffle(datagrams, this.random);
+        }
+
+        for(final byte[] datagram : datagrams) {
+            if(this.random.nextFloat() < this.loss) {
+                this.droppedPackets.incrementAndGet();
+                continue;
+            }
+
+            this.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        channel.send(ByteBuffer.wrap(datagram), client);
+                        sentPackets.incrementAndGet();
+                    } catch(IOException e) {
+                        droppedPackets.incrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Schedules the given output to be run after the configured latency
+     * <p>
+     * Outputs with the same delay are run in the order they have been
+     * scheduled.
+     *
+     * @param output The output to run
+     */
+    protected void schedule(Runnable output) {
+        long delay = this.latency;
+        if(this.jitter > 0) {
+            delay += this.random.nextInt(this.jitter + 1);
+        }
+
+        this.deliveries.add(new Delivery(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay),
+                                         this.deliveryCount ++, output));
+    }
+
+    /**
+     * Counts a packet sent by this simulator outside of {@link #send}
+     */
+    protected void sent() {
+        this.sentPackets.incrementAndGet();
+    }
+
+    /**
+     * Starts the simulator's thread
+     */
+    protected void start() {
+        this.thread.start();
+    }
+
+    /**
+     * Runs all outputs that are due
+     */
+    private void deliver() {
+        long now = System.nanoTime();
+        while(!this.deliveries.isEmpty() && this.deliveries.peek().due - now <= 0) {
+            this.deliveries.poll().output.run();
+        }
+    }
+
+    /**
+     * The event loop of the simulator's thread
+     */
+    private void loop() {
+        try {
+            while(!this.closed) {
+                Runnable task;
+                while((task = this.tasks.poll()) != null) {
+                    task.run();
+                }
+
+                Delivery next = this.deliveries.peek();
+                if(next == null) {
+                    this.selector.select();
+                } else {
+                    long timeout = TimeUnit.NANOSECONDS.toMillis(next.due - System.nanoTime());
+                    if(timeout > 0) {
+                        this.selector.select(timeout);
+                    } else {
+                        this.selector.selectNow();
+                    }
+                }
+
+                for(SelectionKey key : this.selector.selectedKeys()) {
+                    try {
+                        if(key.isValid()) {
+                            this.handle(key);
+                        }
+                    } catch(IOException e) {
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+                this.selector.selectedKeys().clear();
+
+                this.deliver();
+            }
+        } catch(IOException ignored) {
+        } finally {
+            for(SelectionKey key : this.selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch(IOException ignored) {}
+            }
+            try {
+                this.selector.close();
+            } catch(IOException ignored) {}
+        }
+    }
+
+    /**
+     * An output scheduled for a specific point in time
+     */
+    private static class Delivery implements Comparable<Delivery> {
+
+        final long due;
+
+        final Runnable output;
+
+        final long sequence;
+
+        Delivery(long due, long sequence, Runnable output) {
+            this.due = due;
+            this.output = output;
+            this.sequence = sequence;
+        }
+
+        public int compareTo(Delivery other) {
+            long difference = this.due - other.due;
+            if(difference == 0) {
+                difference = this.sequence - other.sequence;
+            }
+
+            return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.simulator;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.MetricsRecorder;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
+import com.github.koraktor.steamcondenser.servers.GoldSrcServer;
+import com.github.koraktor.steamcondenser.servers.MasterServer;
+import com.github.koraktor.steamcondenser.servers.SourceServer;
+import com.github.koraktor.steamcondenser.servers.SteamPlayer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class SimulatorTest {
+
+    private GameServerSimulator simulator;
+
+    @Before
+    public void setup() throws Exception {
+        this.simulator = new GameServerSimulator();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        Metrics.setRecorder(null);
+        this.simulator.close();
+    }
+
+    @Test
+    public void testSourceServer() throws Exception {
+        this.simulator.setCompression(true);
+        this.simulator.setPlayerCount(64);
+        this.simulator.setRconPassword("secret");
+        this.simulator.setRuleCount(500);
+        InetSocketAddress address = this.simulator.open(1).get(0);
+
+        SourceServer server = new SourceServer(address.getAddress(), address.getPort());
+        try {
+            assertEquals("Simulated server #1", server.getInfo().getServerName());
+            assertEquals(500, server.getRules().size());
+
+            Map<String, SteamPlayer> players = server.getPlayers("secret");
+            assertEquals(64, players.size());
+            assertTrue(players.get("Player 64").isExtended());
+
+            assertEquals("hello", server.rconExec("echo hello"));
+        } finally {
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testGoldSrcServer() throws Exception {
+        this.simulator.setGoldSrc(true);
+        this.simulator.setPlayerCount(64);
+        this.simulator.setRuleCount(200);
+        InetSocketAddress address = this.simulator.open(1).get(0);
+
+        GoldSrcServer server = new GoldSrcServer(address.getAddress(), address.getPort());
+        try {
+            assertEquals(64, server.getPlayers().size());
+            assertEquals(200, server.getRules().size());
+        } finally {
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testReordering() throws Exception {
+        this.simulator.setJitter(5);
+        this.simulator.setReordering(1);
+        this.simulator.setRuleCount(500);
+        List<InetSocketAddress> addresses = this.simulator.open(2);
+
+        for(InetSocketAddress address : addresses) {
+            SourceServer server = new SourceServer(address.getAddress(), address.getPort());
+            try {
+                assertEquals(500, server.getRules().size());
+            } finally {
+                server.disconnect();
+            }
+        }
+    }
+
+    @Test
+    public void testLoss() throws Exception {
+        this.simulator.setLoss(1);
+        InetSocketAddress address = this.simulator.open(1).get(0);
+
+        SourceServer server = new SourceServer(address.getAddress(), address.getPort());
+        server.setSocketTimeout(50);
+        try {
+            server.updateServerInfo();
+            fail("Expected a timeout.");
+        } catch(TimeoutException e) {
+            assertTrue(this.simulator.getDroppedPackets() > 0);
+        } finally {
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testQueryTimeout() throws Exception {
+        this.simulator.setLatency(400);
+        InetSocketAddress address = this.simulator.open(1).get(0);
+
+        SourceServer server = new SourceServer(address.getAddress(), address.getPort());
+        server.setSocketTimeout(1000);
+        server.setQueryTimeout(300);
+        long start = System.nanoTime();
+        try {
+            server.updateRules();
+            fail("Expected a timeout.");
+        } catch(TimeoutException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1000));
+        } finally {
+            server.disconnect();
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        MetricsRecorder recorder = mock(MetricsRecorder.class);
+        Metrics.setRecorder(recorder);
+
+        this.simulator.setCompression(true);
+        this.simulator.setRconPassword("secret");
+        this.simulator.setRuleCount(500);
+        InetSocketAddress address = this.simulator.open(1).get(0);
+
+        SourceServer server = new SourceServer(address.getAddress(), address.getPort());
+        try {
+            server.getRules();
+            server.rconAuth("secret");
+            server.rconExec("echo hello");
+        } finally {
+            server.disconnect();
+        }
+
+        verify(recorder).challengeRefreshed();
+        verify(recorder, atLeastOnce()).packetSent(eq(Protocol.SOURCE), anyInt());
+        verify(recorder, atLeastOnce()).splitPacketReceived(Protocol.SOURCE);
+        verify(recorder).packetDecompressed(anyInt(), anyInt(), anyLong());
+        verify(recorder).rconRoundTrip(eq(Protocol.RCON), anyLong(), eq(true));
+        verify(recorder, atLeastOnce()).packetReceived(eq(Protocol.RCON), anyInt());
+    }
+
+    @Test
+    public void testMasterServer() throws Exception {
+        List<InetSocketAddress> servers = new ArrayList<InetSocketAddress>();
+        for(int i = 0; i < 500; i ++) {
+            servers.add(new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, (byte) (i >> 8), (byte) i }), 27015 + i));
+        }
+
+        MasterServerSimulator master = new MasterServerSimulator(servers);
+        try {
+            InetSocketAddress address = master.getAddress();
+            MasterServer server = new MasterServer(address.getAddress(), address.getPort());
+
+            assertEquals(new HashSet<InetSocketAddress>(servers), server.getServers());
+            assertEquals(3, master.getReceivedPackets());
+        } finally {
+            master.close();
+        }
+    }
+
+}
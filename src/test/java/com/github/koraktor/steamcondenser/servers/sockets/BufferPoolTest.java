@@ -0,0 +1,103 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class BufferPoolTest {
+
+    private BufferPool pool;
+
+    @Before
+    public void setup() {
+        this.pool = new BufferPool(1);
+    }
+
+    @Test
+    public void testAcquire() {
+        ByteBuffer buffer = this.pool.acquire(1400);
+
+        assertTrue(buffer.isDirect());
+        assertEquals(0, buffer.position());
+        assertEquals(1400, buffer.limit());
+        assertEquals(2048, buffer.capacity());
+        assertEquals(ByteOrder.BIG_ENDIAN, buffer.order());
+        assertEquals(1, this.pool.getAllocations());
+    }
+
+    @Test
+    public void testReuse() {
+        ByteBuffer buffer = this.pool.acquire(1400);
+        buffer.order(ByteOrder.LITTLE_ENDIAN).putInt(1);
+        this.pool.release(buffer);
+
+        for(int i = 0; i < 100; i ++) {
+            ByteBuffer reused = this.pool.acquire(1500);
+            assertSame(buffer, reused);
+            assertEquals(0, reused.position());
+            assertEquals(1500, reused.limit());
+            assertEquals(ByteOrder.BIG_ENDIAN, reused.order());
+            this.pool.release(reused);
+        }
+
+        assertEquals(1, this.pool.getAllocations());
+        assertEquals(101, this.pool.getAcquisitions());
+        assertEquals(101, this.pool.getReleases());
+        assertEquals(1, this.pool.getIdleBuffers());
+    }
+
+    @Test
+    public void testSizeClasses() {
+        ByteBuffer small = this.pool.acquire(4);
+        ByteBuffer large = this.pool.acquire(4097);
+        ByteBuffer huge = this.pool.acquire(100000);
+
+        assertEquals(2048, small.capacity());
+        assertEquals(8192, large.capacity());
+        assertEquals(100000, huge.capacity());
+
+        this.pool.release(small);
+        this.pool.release(large);
+        this.pool.release(huge);
+
+        assertSame(large, this.pool.acquire(5000));
+        assertNotSame(huge, this.pool.acquire(100000));
+        assertEquals(4, this.pool.getAllocations());
+    }
+
+    @Test
+    public void testMaxIdleBuffers() {
+        ByteBuffer buffer1 = this.pool.acquire(1400);
+        ByteBuffer buffer2 = this.pool.acquire(1400);
+        this.pool.release(buffer1);
+        this.pool.release(buffer2);
+
+        assertEquals(1, this.pool.getIdleBuffers());
+    }
+
+    @Test
+    public void testIgnoreHeapBuffers() {
+        this.pool.release(ByteBuffer.allocate(2048));
+
+        assertEquals(0, this.pool.getIdleBuffers());
+        assertEquals(0, this.pool.getReleases());
+    }
+
+}
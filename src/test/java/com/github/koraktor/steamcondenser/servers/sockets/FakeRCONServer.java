@@ -0,0 +1,157 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal Source RCON server on the loopback interface answering like SrcDS
+ * <p>
+ * Commands are answered with <code>"output of " + command</code> in order of
+ * arrival. The command <code>"big"</code> is answered with several packets
+ * and <code>"quit"</code> closes the connection without an answer.
+ * Authentication can be delayed using {@link #authDelay}.
+ *
+ * @author Sebastian Staudt
+ */
+public class FakeRCONServer {
+
+    public final List<String> commands = new CopyOnWriteArrayList<String>();
+
+    public final AtomicInteger connections = new AtomicInteger();
+
+    public volatile long authDelay;
+
+    private final ServerSocketChannel channel;
+
+    private final String password;
+
+    private final Thread thread;
+
+    public FakeRCONServer(String password) throws IOException {
+        this.password = password;
+        this.channel = ServerSocketChannel.open();
+        this.channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        this.thread = new Thread() {
+            public void run() {
+                try {
+                    while(true) {
+                        final SocketChannel client = channel.accept();
+                        connections.incrementAndGet();
+                        new Thread() {
+                            public void run() {
+                                handle(client);
+                            }
+                        }.start();
+                    }
+                } catch(IOException ignored) {}
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    public InetAddress getAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.channel.getLocalAddress()).getPort();
+    }
+
+    private void handle(SocketChannel client) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while(true) {
+                header.clear();
+                while(header.hasRemaining()) {
+                    if(client.read(header) < 0) {
+                        return;
+                    }
+                }
+                header.flip();
+                ByteBuffer packet = ByteBuffer.allocate(header.getInt()).order(ByteOrder.LITTLE_ENDIAN);
+                while(packet.hasRemaining()) {
+                    if(client.read(packet) < 0) {
+                        return;
+                    }
+                }
+                packet.flip();
+
+                int requestId = packet.getInt();
+                int type = packet.getInt();
+                byte[] body = new byte[packet.remaining() - 2];
+                packet.get(body);
+                String data = new String(body, "UTF-8");
+
+                if(type == 3) {
+                    if(this.authDelay > 0) {
+                        Thread.sleep(this.authDelay);
+                    }
+                    this.send(client, requestId, 0, "");
+                    this.send(client, data.equals(this.password) ? requestId : -1, 2, "");
+                } else if(type == 2) {
+                    if(!data.isEmpty()) {
+                        this.commands.add(data);
+                    }
+                    if(data.equals("big")) {
+                        for(int i = 0; i < 3; i ++) {
+                            this.send(client, requestId, 0, "part" + i + " ");
+                        }
+                    } else if(data.equals("quit")) {
+                        client.close();
+                        return;
+                    } else {
+                        this.send(client, requestId, 0, "output of " + data);
+                    }
+                } else {
+                    this.send(client, requestId, 0, "");
+                    this.send(client, requestId, 0, "\0\1\0\0");
+                }
+            }
+        } catch(IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                client.close();
+            } catch(IOException ignored) {}
+        }
+    }
+
+    private void send(SocketChannel client, int requestId, int type, String data) throws IOException {
+        byte[] body = data.getBytes("UTF-8");
+        ByteBuffer packet = ByteBuffer.allocate(body.length + 14).order(ByteOrder.LITTLE_ENDIAN);
+        packet.putInt(body.length + 10);
+        packet.putInt(requestId);
+        packet.putInt(type);
+        packet.put(body);
+        packet.put((byte) 0);
+        packet.put((byte) 0);
+        packet.flip();
+
+        synchronized(client) {
+            while(packet.hasRemaining()) {
+                client.write(packet);
+            }
+        }
+    }
+
+}
@@ -10,7 +10,12 @@ package com.github.koraktor.steamcondenser.servers.sockets;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -25,6 +30,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONGoldSrcRequestPacket;
@@ -34,14 +40,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.refEq;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.doNothing;
-import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.spy;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
@@ -55,6 +64,8 @@ public class GoldSrcSocketTest {
     @Rule
     private ExpectedException exception = ExpectedException.none();
 
+    private List<String> sent = new ArrayList<String>();
+
     private GoldSrcSocket socket;
 
     @Before
@@ -127,11 +138,8 @@ public class GoldSrcSocketTest {
     @PrepareForTest(SteamPacketFactory.class)
     public void testSplitPacketReply() throws Exception {
         SteamPacket packet = mock(SteamPacket.class);
-        ArrayList<byte[]> packets = new ArrayList<byte[]>();
-        packets.add("test".getBytes());
-        packets.add("test".getBytes());
         mockStatic(SteamPacketFactory.class);
-        PowerMockito.when(SteamPacketFactory.reassemblePacket(refEq(packets))).thenReturn(packet);
+        PowerMockito.when(SteamPacketFactory.reassemblePacket(aryEq("testtest".getBytes()), eq(8), eq(false), eq(0), eq(0))).thenReturn(packet);
 
         doAnswer(new Answer<Integer>() {
             public Integer answer(InvocationOnMock invocationOnMock) throws Throwable {
@@ -153,52 +161,120 @@ public class GoldSrcSocketTest {
 
     @Test
     public void testRconGameServer() throws Exception {
+        this.socket.rconChallenge = 1234;
+        this.reply("test ", "test\n{0}\n");
+
+        assertEquals("test test\n", this.socket.rconExec("password", "command"));
+
+        verify(this.socket).rconSend(startsWith("rcon 1234 password command;echo sc-"));
+        verify(this.socket, never()).rconGetChallenge();
+    }
+
+    @Test
+    public void testRconBatch() throws Exception {
+        this.socket.rconChallenge = 1234;
+        this.reply("foo\n{0}\nbar", "\n{1}\n{2}\n");
+
+        assertEquals(Arrays.asList("foo\n", "bar\n", ""),
+            this.socket.rconExec("password", Arrays.asList("command1", "command2", "command3")));
+
+        verify(this.socket, times(1)).rconSend(anyString());
+        assertTrue(this.sent.get(0).matches("rcon 1234 password command1;echo sc-\\S+;command2;echo sc-\\S+;command3;echo sc-\\S+"));
+    }
+
+    @Test
+    public void testRconBatchLength() throws Exception {
+        this.socket.rconChallenge = 1234;
+        this.reply("{0}\n", "{0}\n");
+
+        char[] command = new char[490];
+        Arrays.fill(command, 'x');
+        List<String> commands = Arrays.asList(new String(command), new String(command));
+
+        assertEquals(Arrays.asList("", ""), this.socket.rconExec("password", commands));
+
+        verify(this.socket, times(2)).rconSend(anyString());
+        for(String request : this.sent) {
+            assertTrue(request.length() - "rcon 1234 password ".length() <= 1000);
+        }
+    }
+
+    @Test
+    public void testRconBadChallenge() throws Exception {
+        this.socket.rconChallenge = 1234;
         doAnswer(new Answer<Object>() {
             public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
-                ((GoldSrcSocket) invocationOnMock.getMock()).rconChallenge = 1234;
+                ((GoldSrcSocket) invocationOnMock.getMock()).rconChallenge = 5678;
                 return Void.TYPE;
             }
         }).when(this.socket).rconGetChallenge();
-        doNothing().when(this.socket).rconSend(anyString());
+        this.reply("Bad challenge.\n", "test\n{0}\n");
 
-        RCONGoldSrcResponsePacket packet1 = mock(RCONGoldSrcResponsePacket.class);
-        when(packet1.getResponse()).thenReturn("test ");
-        RCONGoldSrcResponsePacket packet2 = mock(RCONGoldSrcResponsePacket.class);
-        when(packet2.getResponse()).thenReturn("test");
-        RCONGoldSrcResponsePacket packet3 = mock(RCONGoldSrcResponsePacket.class);
-        when(packet3.getResponse()).thenReturn("");
-        doReturn(packet1).doReturn(packet2).doReturn(packet3).when(this.socket).getReply();
+        assertEquals("test\n", this.socket.rconExec("password", "command"));
 
-        assertEquals("test test", this.socket.rconExec("password", "command"));
+        verify(this.socket).rconGetChallenge();
+        verify(this.socket).rconSend(startsWith("rcon 1234 password command;"));
+        verify(this.socket).rconSend(startsWith("rcon 5678 password command;"));
+    }
 
-        verify(this.socket).rconSend("rcon 1234 password command");
-        verify(this.socket).rconSend("rcon 1234 password");
+    @Test
+    public void testRconBadPassword() throws Exception {
+        this.socket.rconChallenge = 1234;
+        this.reply("Bad rcon_password.\n");
+
+        this.exception.expect(RCONNoAuthException.class);
+
+        this.socket.rconExec("password", "command");
     }
 
     @Test
     public void testRconHLTVServer() throws Exception {
         this.socket.isHLTV = true;
-
         doAnswer(new Answer<Object>() {
             public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
                 ((GoldSrcSocket) invocationOnMock.getMock()).rconChallenge = 1234;
                 return Void.TYPE;
             }
         }).when(this.socket).rconGetChallenge();
-        doNothing().when(this.socket).rconSend(anyString());
-
-        RCONGoldSrcResponsePacket packet1 = mock(RCONGoldSrcResponsePacket.class);
-        when(packet1.getResponse()).thenReturn("test ");
-        RCONGoldSrcResponsePacket packet2 = mock(RCONGoldSrcResponsePacket.class);
-        when(packet2.getResponse()).thenReturn("test");
-        RCONGoldSrcResponsePacket packet3 = mock(RCONGoldSrcResponsePacket.class);
-        when(packet3.getResponse()).thenReturn("");
-        doThrow(new TimeoutException()).doReturn(packet1).doReturn(packet2).doReturn(packet3).when(this.socket).getReply();
+        this.reply("test ", "test");
 
         assertEquals("test test", this.socket.rconExec("password", "command"));
+        assertEquals("", this.socket.rconExec("password", "command"));
+
+        verify(this.socket, times(1)).rconGetChallenge();
+        verify(this.socket, times(2)).rconSend("rcon 1234 password command");
+    }
 
-        verify(this.socket).rconSend("rcon 1234 password command");
-        verify(this.socket).rconSend("rcon 1234 password");
+    /**
+     * Lets the socket receive the given replies after sending a RCON command
+     * <p>
+     * Placeholders like <code>{0}</code> are replaced by the markers echoed
+     * by the commands sent last. A timeout occurs after the last reply.
+     */
+    private void reply(String... replies) throws Exception {
+        doAnswer(new Answer<Object>() {
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                sent.add((String) invocationOnMock.getArguments()[0]);
+                return Void.TYPE;
+            }
+        }).when(this.socket).rconSend(anyString());
+
+        final Iterator<String> iterator = Arrays.asList(replies).iterator();
+        doAnswer(new Answer<SteamPacket>() {
+            public SteamPacket answer(InvocationOnMock invocationOnMock) throws Throwable {
+                if(!iterator.hasNext()) {
+                    throw new TimeoutException();
+                }
+
+                String reply = iterator.next();
+                Matcher matcher = Pattern.compile("echo (sc-[^;]+)").matcher(sent.get(sent.size() - 1));
+                for(int i = 0; matcher.find(); i ++) {
+                    reply = reply.replace("{" + i + "}", matcher.group(1));
+                }
+
+                return new RCONGoldSrcResponsePacket((reply + "\0").getBytes());
+            }
+        }).when(this.socket).getReply();
     }
 
 }
@@ -0,0 +1,132 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.number.OrderingComparison.greaterThan;
+import static org.hamcrest.number.OrderingComparison.greaterThanOrEqualTo;
+import static org.hamcrest.number.OrderingComparison.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class LatencyProbeTest {
+
+    private DatagramChannel echoServer;
+
+    private Thread echoThread;
+
+    private LatencyProbe probe;
+
+    private DatagramChannel silentServer;
+
+    @Before
+    public void setup() throws Exception {
+        this.probe = new LatencyProbe();
+        this.echoServer = this.openServer();
+        this.silentServer = this.openServer();
+
+        this.echoThread = new Thread() {
+            public void run() {
+                ByteBuffer buffer = ByteBuffer.allocate(1400);
+                try {
+                    while(true) {
+                        buffer.clear();
+                        SocketAddress client = echoServer.receive(buffer);
+                        Thread.sleep(10);
+                        echoServer.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x49 }), client);
+                    }
+                } catch(Exception ignored) {}
+            }
+        };
+        this.echoThread.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.probe.close();
+        this.echoServer.close();
+        this.silentServer.close();
+        this.echoThread.join();
+    }
+
+    @Test
+    public void testMeasure() throws Exception {
+        InetSocketAddress echoAddress = this.addressOf(this.echoServer);
+        InetSocketAddress silentAddress = this.addressOf(this.silentServer);
+
+        Map<InetSocketAddress, LatencyStatistics> result = this.probe.measure(Arrays.asList(echoAddress, silentAddress), 3, 0, 200);
+
+        LatencyStatistics echoStatistics = result.get(echoAddress);
+        assertEquals(3, echoStatistics.getSamples());
+        assertEquals(3, echoStatistics.getReplies());
+        assertEquals(0.0, echoStatistics.getLoss(), 0.0);
+        assertThat(echoStatistics.getMinimum(), is(greaterThan(0L)));
+        assertThat(echoStatistics.getMedian(), is(greaterThanOrEqualTo(echoStatistics.getMinimum())));
+        assertThat(echoStatistics.getPercentile95(), is(greaterThanOrEqualTo(echoStatistics.getMedian())));
+
+        LatencyStatistics silentStatistics = result.get(silentAddress);
+        assertEquals(3, silentStatistics.getSamples());
+        assertFalse(silentStatistics.isReachable());
+        assertEquals(1.0, silentStatistics.getLoss(), 0.0);
+
+        assertTrue(echoStatistics == this.probe.getStatistics(echoAddress));
+    }
+
+    @Test
+    public void testStopDoesNotWaitForMeasurement() throws Exception {
+        this.probe.start(Arrays.asList(this.addressOf(this.silentServer)), 10, 0, 1, TimeUnit.HOURS);
+        Thread.sleep(50);
+
+        long start = System.currentTimeMillis();
+        this.probe.stop();
+        this.probe.close();
+
+        assertThat(System.currentTimeMillis() - start, is(lessThan(500L)));
+    }
+
+    @Test
+    public void testStatistics() {
+        LatencyStatistics statistics = new LatencyStatistics(new long[] { 30, 10, 20, 60, 0 }, 4, 5);
+
+        assertEquals(10, statistics.getMinimum());
+        assertEquals(60, statistics.getMaximum());
+        assertEquals(25, statistics.getMedian());
+        assertEquals(60, statistics.getPercentile95());
+        assertEquals(23, statistics.getJitter());
+        assertEquals(0.2, statistics.getLoss(), 0.0001);
+    }
+
+    private InetSocketAddress addressOf(DatagramChannel channel) throws Exception {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), ((InetSocketAddress) channel.getLocalAddress()).getPort());
+    }
+
+    private DatagramChannel openServer() throws Exception {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return channel;
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.servers.packets.A2S_INFO_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.A2S_PLAYER_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.A2S_RULES_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.S2A_RULES_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.S2C_CHALLENGE_Packet;
+import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
+
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class QueryEngineTest {
+
+    private QueryEngine engine;
+
+    private DatagramChannel server1;
+
+    private DatagramChannel server2;
+
+    @Before
+    public void setup() throws Exception {
+        this.engine = new QueryEngine();
+        this.server1 = this.openServer();
+        this.server2 = this.openServer();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.engine.close();
+        this.server1.close();
+        this.server2.close();
+    }
+
+    @Test
+    public void testDemultiplexReplies() throws Exception {
+        CompletableFuture<SteamPacket> reply1 = this.engine.request(this.addressOf(this.server1), new A2S_PLAYER_Packet(), false);
+        CompletableFuture<SteamPacket> reply2 = this.engine.request(this.addressOf(this.server2), new A2S_PLAYER_Packet(), false);
+
+        SocketAddress client1 = this.receive(this.server1);
+        SocketAddress client2 = this.receive(this.server2);
+        this.server2.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 0x2, 0x0, 0x0, 0x0 }), client2);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 0x1, 0x0, 0x0, 0x0 }), client1);
+
+        assertEquals(1, ((S2C_CHALLENGE_Packet) reply1.get()).getChallengeNumber());
+        assertEquals(2, ((S2C_CHALLENGE_Packet) reply2.get()).getChallengeNumber());
+    }
+
+    @Test
+    public void testCompletionExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        QueryEngine engine = new QueryEngine(executor);
+        try {
+            CompletableFuture<String> thread = engine.request(this.addressOf(this.server1), new A2S_PLAYER_Packet(), false)
+                .thenApply(packet -> Thread.currentThread().getName());
+
+            SocketAddress client = this.receive(this.server1);
+            this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 0x1, 0x0, 0x0, 0x0 }), client);
+
+            assertNotEquals("steam-condenser-query-engine", thread.get());
+        } finally {
+            engine.close();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSplitReplyOutOfOrder() throws Exception {
+        CompletableFuture<SteamPacket> reply = this.engine.request(this.addressOf(this.server1), new A2S_RULES_Packet(3), false);
+
+        SocketAddress client = this.receive(this.server1);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x1, 0x0, 0x0, 0x0, 0x2, 0x1, (byte) 0xE0, 0x4, 'a', 0x0, 'b', 0x0 }), client);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x1, 0x0, 0x0, 0x0, 0x2, 0x0, (byte) 0xE0, 0x4, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x45, 0x1, 0x0 }), client);
+
+        SteamPacket packet = reply.get();
+        assertThat(packet, instanceOf(S2A_RULES_Packet.class));
+        assertEquals("b", ((S2A_RULES_Packet) packet).getRulesHash().get("a"));
+    }
+
+    @Test
+    public void testIgnoreUnexpectedReplies() throws Exception {
+        CompletableFuture<SteamPacket> reply = this.engine.request(this.addressOf(this.server1), new A2S_PLAYER_Packet(), false);
+
+        SocketAddress client = this.receive(this.server1);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x45, 0x1, 0x0, 'a', 0x0, 'b', 0x0 }), client);
+        this.server1.send(ByteBuffer.wrap(new byte[] { 0x1, 0x2, 0x3, 0x4, 0x5 }), client);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7A, 0x0 }), client);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 0x3, 0x0, 0x0, 0x0 }), client);
+
+        assertEquals(3, ((S2C_CHALLENGE_Packet) reply.get()).getChallengeNumber());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CompletableFuture<SteamPacket> reply = this.engine.request(this.addressOf(this.server1), new A2S_INFO_Packet(), false, 50);
+
+        try {
+            reply.get();
+            fail();
+        } catch(ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
+    }
+
+    @Test
+    public void testSharedSocket() throws Exception {
+        InetSocketAddress address = this.addressOf(this.server1);
+        SharedQuerySocket socket = new SharedQuerySocket(this.engine, address.getAddress(), address.getPort(), false);
+
+        socket.send(new A2S_PLAYER_Packet());
+        SocketAddress client = this.receive(this.server1);
+        this.server1.send(ByteBuffer.wrap(new byte[] { (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x41, 0x3, 0x0, 0x0, 0x0 }), client);
+
+        assertEquals(3, ((S2C_CHALLENGE_Packet) socket.getReply()).getChallengeNumber());
+    }
+
+    private InetSocketAddress addressOf(DatagramChannel channel) throws Exception {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), ((InetSocketAddress) channel.getLocalAddress()).getPort());
+    }
+
+    private DatagramChannel openServer() throws Exception {
+        DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        return channel;
+    }
+
+    private SocketAddress receive(DatagramChannel channel) throws Exception {
+        return channel.receive(ByteBuffer.allocate(1400));
+    }
+
+}
@@ -22,6 +22,7 @@ import org.hamcrest.Description;
 import org.hamcrest.Matcher;
 
 import com.github.koraktor.steamcondenser.exceptions.SteamCondenserException;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 
 import static org.junit.Assert.assertEquals;
@@ -111,6 +112,10 @@ public class QuerySocketTest {
             return null;
         }
 
+        protected Protocol getProtocol() {
+            return Protocol.SOURCE;
+        }
+
     }
 
 }
@@ -0,0 +1,171 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.number.OrderingComparison.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class RCONConnectionPoolTest {
+
+    private InetSocketAddress address;
+
+    private RCONConnectionPool pool;
+
+    private FakeRCONServer server;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = new FakeRCONServer("secret");
+        this.address = new InetSocketAddress(this.server.getAddress(), this.server.getPort());
+        this.pool = new RCONConnectionPool(2, 20, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.pool.close();
+        this.server.close();
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        assertEquals("output of status", this.pool.exec(this.address, "secret", "status", 1000));
+        assertEquals("output of users", this.pool.exec(this.address, "secret", "users", 1000));
+
+        assertEquals(1, this.server.connections.get());
+        assertEquals(1, this.pool.getConnections(this.address));
+    }
+
+    @Test
+    public void testMaxConnectionsPerHost() throws Exception {
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for(int i = 0; i < 50; i ++) {
+            futures.add(this.pool.execute(this.address, "secret", "command" + i));
+        }
+
+        for(int i = 0; i < 50; i ++) {
+            assertEquals("output of command" + i, futures.get(i).get());
+        }
+        assertThat(this.server.connections.get(), is(lessThanOrEqualTo(2)));
+        assertEquals(this.server.connections.get(), this.pool.getConnections(this.address));
+    }
+
+    @Test
+    public void testReauthenticateAfterReset() throws Exception {
+        RCONConnection connection = this.pool.getConnection(this.address, "secret");
+        connection.close();
+
+        assertEquals("output of status", this.pool.exec(this.address, "secret", "status", 1000));
+        assertNotSame(connection, this.pool.getConnection(this.address, "secret"));
+        assertEquals(2, this.server.connections.get());
+    }
+
+    @Test
+    public void testKeepAliveReplacesLostConnections() throws Exception {
+        RCONConnection connection = this.pool.getConnection(this.address, "secret");
+        connection.close();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while((this.server.connections.get() < 2 || this.pool.getConnections(this.address) < 1) &&
+              System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(2, this.server.connections.get());
+        assertEquals(1, this.pool.getConnections(this.address));
+
+        RCONConnection replacement = this.pool.getConnection(this.address, "secret");
+        Thread.sleep(100);
+        assertTrue(replacement.isOpen());
+        assertTrue(replacement.isAuthenticated());
+    }
+
+    @Test
+    public void testEvictWhileConnecting() throws Exception {
+        this.server.authDelay = 200;
+        CompletableFuture<String> future = this.pool.execute(this.address, "secret", "status");
+        Thread.sleep(50);
+        this.pool.evict(this.address);
+
+        try {
+            future.get();
+            fail();
+        } catch(ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+            assertEquals(0, this.pool.getConnections(this.address));
+            assertTrue(this.server.commands.isEmpty());
+        }
+    }
+
+    @Test
+    public void testSentCommandIsNotRepeated() throws Exception {
+        try {
+            this.pool.exec(this.address, "secret", "quit", 1000);
+            fail();
+        } catch(ConnectionResetException e) {
+            assertEquals(1, Collections.frequency(this.server.commands, "quit"));
+            assertEquals(0, this.pool.getConnections(this.address));
+        }
+    }
+
+    @Test
+    public void testClosedPool() throws Exception {
+        this.pool.close();
+
+        try {
+            this.pool.execute(this.address, "secret", "status").get();
+            fail();
+        } catch(ExecutionException e) {
+            assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+        }
+    }
+
+    @Test
+    public void testNullPassword() throws Exception {
+        try {
+            this.pool.exec(this.address, null, "status", 1000);
+            fail();
+        } catch(RCONNoAuthException e) {
+            assertEquals("output of status", this.pool.exec(this.address, "secret", "status", 1000));
+        }
+    }
+
+    @Test
+    public void testWrongPassword() throws Exception {
+        try {
+            this.pool.exec(this.address, "wrong", "status", 1000);
+            fail();
+        } catch(RCONNoAuthException e) {
+            assertEquals(0, this.pool.getConnections(this.address));
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
+import com.github.koraktor.steamcondenser.exceptions.RCONNoAuthException;
+
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class RCONConnectionTest {
+
+    private RCONConnection connection;
+
+    private FakeRCONServer server;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = new FakeRCONServer("secret");
+        this.connection = new RCONConnection(this.server.getAddress(), this.server.getPort());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        this.connection.close();
+        this.server.close();
+    }
+
+    @Test
+    public void testAuthenticate() throws Exception {
+        assertFalse(this.connection.authenticate("wrong"));
+        assertFalse(this.connection.isAuthenticated());
+        assertTrue(this.connection.authenticate("secret"));
+        assertTrue(this.connection.isAuthenticated());
+    }
+
+    @Test
+    public void testAuthenticateAfterTimeout() throws Exception {
+        this.server.authDelay = 300;
+        RCONConnection connection = new RCONConnection(this.server.getAddress(), this.server.getPort(), 100);
+
+        try {
+            connection.authenticate("secret");
+            fail();
+        } catch(TimeoutException e) {
+            this.server.authDelay = 0;
+            Thread.sleep(300);
+            assertTrue(connection.authenticate("secret"));
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testExecuteNotAuthenticated() throws Exception {
+        try {
+            this.connection.execute("status").get();
+            fail();
+        } catch(ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RCONNoAuthException.class));
+        }
+    }
+
+    @Test
+    public void testPipelinedCommands() throws Exception {
+        this.connection.authenticate("secret");
+
+        List<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for(int i = 0; i < 20; i ++) {
+            futures.add(this.connection.execute("command" + i));
+        }
+        CompletableFuture<String> big = this.connection.execute("big");
+
+        for(int i = 0; i < 20; i ++) {
+            assertEquals("output of command" + i, futures.get(i).get());
+        }
+        assertEquals("part0 part1 part2", big.get());
+        assertEquals(0, this.connection.getPendingCommands());
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        this.connection.authenticate("secret");
+        this.connection.setDeadline(System.nanoTime() - 1);
+
+        long start = System.nanoTime();
+        try {
+            this.connection.exec("status", 1000);
+            fail("Expected a timeout.");
+        } catch(TimeoutException e) {
+            assertTrue(System.nanoTime() - start < 500000000L);
+        }
+    }
+
+    @Test
+    public void testSocketTimeout() throws Exception {
+        assertEquals(SteamSocket.timeout, this.connection.getSocketTimeout());
+
+        RCONConnection connection = new RCONConnection(this.server.getAddress(), this.server.getPort(), 250);
+        try {
+            assertEquals(250, connection.getSocketTimeout());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void testConnectionClosed() throws Exception {
+        this.connection.authenticate("secret");
+
+        try {
+            this.connection.exec("quit", 1000);
+            fail();
+        } catch(ConnectionResetException e) {
+            assertFalse(this.connection.isAuthenticated());
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecResponsePacket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class RCONPacketReaderTest {
+
+    private Queue<byte[]> chunks;
+
+    private RCONPacketReader reader;
+
+    @Before
+    public void setup() {
+        this.chunks = new ArrayDeque<byte[]>();
+        this.reader = new RCONPacketReader() {
+            protected int read(ByteBuffer buffer) throws TimeoutException {
+                byte[] chunk = RCONPacketReaderTest.this.chunks.poll();
+                if(chunk == null) {
+                    return -1;
+                }
+                if(chunk.length == 0) {
+                    throw new TimeoutException();
+                }
+
+                buffer.put(chunk);
+                return chunk.length;
+            }
+        };
+    }
+
+    @Test
+    public void testTimeoutWithinPacket() throws Exception {
+        byte[] first = new RCONExecResponsePacket(1, "first output").getBytes();
+        byte[] second = new RCONExecResponsePacket(2, "second output").getBytes();
+
+        this.chunks.add(Arrays.copyOfRange(first, 0, 10));
+        this.chunks.add(new byte[0]);
+        this.chunks.add(Arrays.copyOfRange(first, 10, first.length));
+        this.chunks.add(second);
+
+        try {
+            this.reader.readPacket();
+            fail("Expected a timeout.");
+        } catch(TimeoutException e) {}
+
+        RCONExecResponsePacket packet = (RCONExecResponsePacket) this.reader.readPacket();
+        assertEquals(1, packet.getRequestId());
+        assertEquals("first output", packet.getResponse());
+
+        packet = (RCONExecResponsePacket) this.reader.readPacket();
+        assertEquals(2, packet.getRequestId());
+        assertEquals("second output", packet.getResponse());
+
+        assertNull(this.reader.readPacket());
+    }
+
+}
@@ -9,7 +9,9 @@ package com.github.koraktor.steamcondenser.servers.sockets;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -19,32 +21,30 @@ import org.junit.runner.RunWith;
 
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
-import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import com.github.koraktor.steamcondenser.exceptions.ConnectionResetException;
-import com.github.koraktor.steamcondenser.exceptions.RCONBanException;
+import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONExecResponsePacket;
 import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacket;
-import com.github.koraktor.steamcondenser.servers.packets.rcon.RCONPacketFactory;
 
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
-import static org.powermock.api.mockito.PowerMockito.mockStatic;
-import static org.powermock.api.mockito.PowerMockito.when;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 /**
  * @author Sebastian Staudt
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest(RCONPacketFactory.class)
 public class RCONSocketTest {
 
     @Rule
@@ -66,39 +66,57 @@ public class RCONSocketTest {
 
     @Test
     public void testReceiveReply() throws Exception {
-        RCONPacket packet = mock(RCONPacket.class);
-        mockStatic(RCONPacketFactory.class);
-        when(RCONPacketFactory.getPacketFromData("test test".getBytes())).thenReturn(packet);
-
+        final ByteBuffer data = this.frames(1234, "test test", 1234, "");
         doAnswer(new Answer<Integer>() {
             public Integer answer(InvocationOnMock invocationOnMock) throws Throwable {
-                RCONSocket socket = (RCONSocket) invocationOnMock.getMock();
-                socket.buffer = ByteBuffer.wrap(new byte[]{ (byte) 0x9, 0x0, 0x0, 0x0 });
-                return 4;
+                ByteBuffer buffer = (ByteBuffer) invocationOnMock.getArguments()[0];
+                int length = Math.min(5, data.remaining());
+                for(int i = 0; i < length; i ++) {
+                    buffer.put(data.get());
+                }
+                return length;
             }
-        }).when(this.socket).receivePacket(4);
+        }).when(this.socket).receive(any(ByteBuffer.class));
+
+        RCONPacket packet = this.socket.getReply();
+        assertThat(packet, is(instanceOf(RCONExecResponsePacket.class)));
+        assertEquals(1234, packet.getRequestId());
+        assertEquals("test test", ((RCONExecResponsePacket) packet).getResponse());
+
+        packet = this.socket.getReply();
+        assertEquals("", ((RCONExecResponsePacket) packet).getResponse());
+    }
+
+    @Test
+    public void testReadResponse() throws Exception {
+        final ByteBuffer data = this.frames(1234, "foo", 1234, "b\u00e4r", 1234, "");
         doAnswer(new Answer<Integer>() {
             public Integer answer(InvocationOnMock invocationOnMock) throws Throwable {
-                RCONSocket socket = (RCONSocket) invocationOnMock.getMock();
-                socket.buffer = ByteBuffer.wrap("test".getBytes());
-                return 4;
+                ByteBuffer buffer = (ByteBuffer) invocationOnMock.getArguments()[0];
+                int length = data.remaining();
+                buffer.put(data);
+                return length;
             }
-        }).when(this.socket).receivePacket(9);
-        doAnswer(new Answer<Integer>() {
-            public Integer answer(InvocationOnMock invocationOnMock) throws Throwable {
-                RCONSocket socket = (RCONSocket) invocationOnMock.getMock();
-                socket.buffer = ByteBuffer.wrap(" test".getBytes());
-                return 5;
+        }).when(this.socket).receive(any(ByteBuffer.class));
+
+        final StringBuilder output = new StringBuilder();
+        Consumer<CharSequence> consumer = new Consumer<CharSequence>() {
+            public void accept(CharSequence chars) {
+                output.append(chars).append('|');
             }
-        }).when(this.socket).receivePacket(5);
+        };
 
-        assertEquals(packet, this.socket.getReply());
+        assertEquals(3, this.socket.readResponse(consumer));
+        assertEquals(4, this.socket.readResponse(consumer));
+        assertEquals(0, this.socket.readResponse(consumer));
+        assertEquals("foo|b\u00e4r|", output.toString());
+        verify(this.socket, times(1)).receive(any(ByteBuffer.class));
     }
 
     @Test
     public void testConnectionDropped() throws Exception {
         this.socket.channel = SocketChannel.open();
-        doReturn(0).when(this.socket).receivePacket(4);
+        doReturn(-1).when(this.socket).receive(any(ByteBuffer.class));
 
         assertThat(this.socket.getReply(), is(nullValue()));
     }
@@ -106,9 +124,25 @@ public class RCONSocketTest {
     @Test
     public void testConnectionReset() throws Exception {
         this.socket.channel = SocketChannel.open();
-        doThrow(new ConnectionResetException()).when(this.socket).receivePacket(4);
+        doThrow(new ConnectionResetException()).when(this.socket).receive(any(ByteBuffer.class));
 
         assertThat(this.socket.getReply(), is(nullValue()));
     }
 
+    private ByteBuffer frames(Object... packets) throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        for(int i = 0; i < packets.length; i += 2) {
+            byte[] body = ((String) packets[i + 1]).getBytes("UTF-8");
+            buffer.putInt(body.length + 10);
+            buffer.putInt((Integer) packets[i]);
+            buffer.putInt(RCONPacket.SERVERDATA_RESPONSE_VALUE);
+            buffer.put(body);
+            buffer.put((byte) 0);
+            buffer.put((byte) 0);
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
 }
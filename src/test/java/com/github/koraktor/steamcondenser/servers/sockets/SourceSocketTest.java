@@ -9,7 +9,6 @@ package com.github.koraktor.steamcondenser.servers.sockets;
 
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -24,8 +23,8 @@ import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacketFactory;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Matchers.refEq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
@@ -68,10 +67,7 @@ public class SourceSocketTest {
 
     @Test
     public void testSplitPacketReply() throws Exception {
-        ArrayList<byte[]> packets = new ArrayList<byte[]>();
-        packets.add("test".getBytes());
-        packets.add("test".getBytes());
-        when(SteamPacketFactory.reassemblePacket(refEq(packets))).thenReturn(this.packet);
+        when(SteamPacketFactory.reassemblePacket(aryEq("testtest".getBytes()), eq(8), eq(false), eq(0), eq(0))).thenReturn(this.packet);
 
         doAnswer(new Answer<Integer>() {
             public Integer answer(InvocationOnMock invocationOnMock) throws Throwable {
@@ -93,10 +89,7 @@ public class SourceSocketTest {
 
     @Test
     public void testCompressedReply() throws Exception {
-        ArrayList<byte[]> packets = new ArrayList<byte[]>();
-        packets.add("test".getBytes());
-        packets.add("test".getBytes());
-        when(SteamPacketFactory.reassemblePacket(refEq(packets), eq(true), eq(8), eq(1337))).thenReturn(this.packet);
+        when(SteamPacketFactory.reassemblePacket(aryEq("testtest".getBytes()), eq(8), eq(true), eq(8), eq(1337))).thenReturn(this.packet);
 
         doAnswer(new Answer<Integer>() {
             public Integer answer(InvocationOnMock invocationOnMock) throws Throwable {
@@ -0,0 +1,82 @@
+/**
+ * This code is free software; you can redistribute it and/or modify it under
+ * the terms of the new BSD License.
+ *
+ * Copyright (c) 2015, Sebastian Staudt
+ */
+
+package com.github.koraktor.steamcondenser.servers.sockets;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.koraktor.steamcondenser.exceptions.PacketFormatException;
+import com.github.koraktor.steamcondenser.servers.packets.S2A_RULES_Packet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Sebastian Staudt
+ */
+public class SplitPacketTableTest {
+
+    private SplitPacketTable table;
+
+    @Before
+    public void setup() {
+        this.table = new SplitPacketTable();
+    }
+
+    @Test
+    public void testSourceOutOfOrderAndDuplicates() throws Exception {
+        assertNull(this.table.addSourcePacket(this.sourcePacket(1, 4, 3, new byte[] { 0x0 })));
+        assertNull(this.table.addSourcePacket(this.sourcePacket(1, 4, 1, new byte[] { 0x45, 0x1, 0x0, 'a' })));
+        assertNull(this.table.addSourcePacket(this.sourcePacket(1, 4, 1, new byte[] { 0x45, 0x1, 0x0, 'a' })));
+        assertNull(this.table.addSourcePacket(this.sourcePacket(1, 4, 2, new byte[] { 0x0, 'b', 'c', 'c' })));
+
+        S2A_RULES_Packet packet = (S2A_RULES_Packet) this.table.addSourcePacket(this.sourcePacket(1, 4, 0, new byte[] { -1, -1, -1, -1 }));
+
+        assertEquals("bcc", packet.getRulesHash().get("a"));
+        assertTrue(this.table.isEmpty());
+    }
+
+    @Test
+    public void testSourceInterleavedRequests() throws Exception {
+        assertNull(this.table.addSourcePacket(this.sourcePacket(1, 2, 0, new byte[] { -1, -1, -1, -1, 0x45, 0x1, 0x0, 'a', 0x0 })));
+        assertNull(this.table.addSourcePacket(this.sourcePacket(2, 2, 1, new byte[] { 'd', 0x0 })));
+
+        S2A_RULES_Packet packet = (S2A_RULES_Packet) this.table.addSourcePacket(this.sourcePacket(1, 2, 1, new byte[] { 'b', 0x0 }));
+
+        assertEquals("b", packet.getRulesHash().get("a"));
+        assertTrue(!this.table.isEmpty());
+    }
+
+    @Test
+    public void testGoldSrcLittleEndianBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 0x5, 0x0, 0x0, 0x0, 0x12, 'b', 0x0 }).order(ByteOrder.LITTLE_ENDIAN);
+        assertNull(this.table.addGoldSrcPacket(buffer));
+
+        buffer = ByteBuffer.wrap(new byte[] { 0x5, 0x0, 0x0, 0x0, 0x02, -1, -1, -1, -1, 0x45, 0x1, 0x0, 'a', 0x0 }).order(ByteOrder.LITTLE_ENDIAN);
+        S2A_RULES_Packet packet = (S2A_RULES_Packet) this.table.addGoldSrcPacket(buffer);
+
+        assertEquals("b", packet.getRulesHash().get("a"));
+    }
+
+    @Test(expected = PacketFormatException.class)
+    public void testInvalidPacketNumber() throws Exception {
+        this.table.addSourcePacket(this.sourcePacket(1, 2, 2, new byte[] { 'a' }));
+    }
+
+    private ByteBuffer sourcePacket(int requestId, int packetCount, int packetNumber, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(requestId).put((byte) packetCount).put((byte) packetNumber).putShort((short) 1248).put(data);
+        buffer.flip();
+        return buffer.order(ByteOrder.BIG_ENDIAN);
+    }
+
+}
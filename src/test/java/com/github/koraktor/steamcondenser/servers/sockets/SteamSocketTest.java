@@ -13,8 +13,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -26,14 +29,23 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.github.koraktor.steamcondenser.metrics.Metrics;
+import com.github.koraktor.steamcondenser.metrics.MetricsRecorder;
+import com.github.koraktor.steamcondenser.metrics.Protocol;
 import com.github.koraktor.steamcondenser.servers.packets.SteamPacket;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
 /**
  * @author Sebastian Staudt
@@ -57,6 +69,11 @@ public class SteamSocketTest {
         this.socket.channel = this.channel;
     }
 
+    @After
+    public void teardown() {
+        Metrics.setRecorder(null);
+    }
+
     @Test
     public void testClose() throws IOException {
         when(this.channel.isOpen()).thenReturn(true);
@@ -70,6 +87,7 @@ public class SteamSocketTest {
     public void testReceiveIntoNewBuffer() throws Exception {
         Selector selector = mock(Selector.class);
         when(selector.select(SteamSocket.timeout)).thenReturn(1);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
         mockStatic(Selector.class);
         when(Selector.open()).thenReturn(selector);
         when(this.channel.register(selector, SelectionKey.OP_READ)).thenReturn(null);
@@ -85,15 +103,17 @@ public class SteamSocketTest {
         assertEquals(4, this.socket.receivePacket(4));
 
         ByteBuffer buffer = this.socket.buffer;
-        assertEquals(0, buffer.position());
-        assertEquals(4, buffer.capacity());
-        assertEquals("test", new String(buffer.array()));
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        assertEquals(4, buffer.limit());
+        assertEquals("test", new String(data));
     }
 
     @Test
     public void testReceiveIntoExistingBuffer() throws Exception {
         Selector selector = mock(Selector.class);
         when(selector.select(SteamSocket.timeout)).thenReturn(1);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
         mockStatic(Selector.class);
         when(Selector.open()).thenReturn(selector);
         when(this.channel.register(selector, SelectionKey.OP_READ)).thenReturn(null);
@@ -111,9 +131,67 @@ public class SteamSocketTest {
         assertEquals(4, this.socket.receivePacket(4));
 
         ByteBuffer buffer = this.socket.buffer;
-        assertEquals(0, buffer.position());
-        assertEquals(4, buffer.capacity());
-        assertEquals("test", new String(buffer.array()));
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        assertEquals(4, buffer.limit());
+        assertEquals("test", new String(data));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        MetricsRecorder recorder = mock(MetricsRecorder.class);
+        Metrics.setRecorder(recorder);
+
+        Selector selector = mock(Selector.class);
+        when(selector.select(SteamSocket.timeout)).thenReturn(1, 0);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
+        mockStatic(Selector.class);
+        when(Selector.open()).thenReturn(selector);
+        when(this.channel.read(any(ByteBuffer.class))).thenReturn(4);
+
+        this.socket.receivePacket(4);
+        try {
+            this.socket.receivePacket(4);
+        } catch(TimeoutException ignored) {}
+
+        verify(recorder).packetReceived(Protocol.SOURCE, 4);
+        verify(recorder).requestTimedOut(Protocol.SOURCE);
+    }
+
+    @Test
+    public void testReuseSelector() throws Exception {
+        Selector selector = mock(Selector.class);
+        when(selector.select(SteamSocket.timeout)).thenReturn(1);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
+        mockStatic(Selector.class);
+        when(Selector.open()).thenReturn(selector);
+        when(this.channel.read(any(ByteBuffer.class))).thenReturn(4);
+
+        this.socket.receivePacket(4);
+        this.socket.receivePacket(4);
+        this.socket.close();
+
+        verifyStatic(times(1));
+        Selector.open();
+        verify(this.channel, times(1)).register(selector, SelectionKey.OP_READ);
+        verify(selector).close();
+    }
+
+    @Test
+    public void testSocketTimeout() throws Exception {
+        this.exception.expect(TimeoutException.class);
+
+        Selector selector = mock(Selector.class);
+        when(selector.select(SteamSocket.timeout)).thenReturn(1);
+        when(selector.select(50)).thenReturn(0);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
+        mockStatic(Selector.class);
+        when(Selector.open()).thenReturn(selector);
+
+        this.socket.setSocketTimeout(50);
+
+        assertEquals(50, this.socket.getSocketTimeout());
+        this.socket.receivePacket(4);
     }
 
     @Test
@@ -129,6 +207,7 @@ public class SteamSocketTest {
 
         Selector selector = mock(Selector.class);
         when(selector.select(SteamSocket.timeout)).thenReturn(0);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
         mockStatic(Selector.class);
         when(Selector.open()).thenReturn(selector);
         when(this.channel.register(selector, SelectionKey.OP_READ)).thenReturn(null);
@@ -136,6 +215,58 @@ public class SteamSocketTest {
         this.socket.receivePacket(4);
     }
 
+    @Test
+    public void testDeadline() throws Exception {
+        Selector selector = mock(Selector.class);
+        when(selector.selectNow()).thenReturn(0);
+        when(selector.selectedKeys()).thenReturn(new HashSet<SelectionKey>());
+        mockStatic(Selector.class);
+        when(Selector.open()).thenReturn(selector);
+        when(this.channel.register(selector, SelectionKey.OP_READ)).thenReturn(null);
+
+        this.socket.setDeadline(System.nanoTime() - 1);
+
+        try {
+            this.socket.receivePacket(4);
+            fail("Expected a timeout.");
+        } catch(TimeoutException e) {
+            verify(selector).selectNow();
+            verify(selector, never()).select(anyLong());
+        }
+    }
+
+    @Test
+    public void testEarliestDeadline() {
+        assertEquals(0, SteamSocket.getEarliestDeadline(0, 0));
+        assertEquals(5, SteamSocket.getEarliestDeadline(0, 5));
+        assertEquals(5, SteamSocket.getEarliestDeadline(5, 0));
+        assertEquals(5, SteamSocket.getEarliestDeadline(5, 10));
+        assertEquals(5, SteamSocket.getEarliestDeadline(10, 5));
+    }
+
+    @Test
+    public void testRemainingTimeout() {
+        this.socket.setSocketTimeout(500);
+
+        assertEquals(500, this.socket.getRemainingTimeout());
+
+        this.socket.setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100));
+        long timeout = this.socket.getRemainingTimeout();
+
+        assertTrue(timeout > 0 && timeout <= 100);
+
+        this.socket.setDeadline(0);
+        this.socket.setSocketTimeout(50);
+        this.socket.startReply();
+        timeout = this.socket.getRemainingTimeout();
+
+        assertTrue(timeout > 0 && timeout <= 50);
+
+        this.socket.finishReply();
+
+        assertEquals(50, this.socket.getRemainingTimeout());
+    }
+
     class GenericSteamSocket extends SteamSocket {
 
         public GenericSteamSocket() throws UnknownHostException {
@@ -146,6 +277,10 @@ public class SteamSocketTest {
             return null;
         }
 
+        protected Protocol getProtocol() {
+            return Protocol.SOURCE;
+        }
+
     }
 
 }